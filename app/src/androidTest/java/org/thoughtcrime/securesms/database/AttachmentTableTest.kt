@@ -238,6 +238,35 @@ class AttachmentTableTest {
     assertArrayEquals(digest, newDigest)
   }
 
+  @Test
+  fun finalizeAttachmentAfterDownload_leaveNoFilesBehindForBadMac() {
+    val plaintext = Util.getSecretBytes(256 * 1024)
+    val key = Util.getSecretBytes(64)
+    val iv = Util.getSecretBytes(16)
+
+    val paddedPlaintext = PaddingInputStream(plaintext.inputStream(), plaintext.size.toLong()).readFully()
+    val ciphertext = encryptPrePaddedBytes(paddedPlaintext, key, iv)
+    val digest = getDigest(ciphertext)
+
+    // Tamper with the MAC, so verification only fails once the stream has been read to the end
+    ciphertext[ciphertext.size - 1] = (ciphertext[ciphertext.size - 1].toInt() xor 0x01).toByte()
+
+    val cipherFile = getTempFile()
+    cipherFile.writeBytes(ciphertext)
+
+    val mmsId = -1L
+    val attachmentId = SignalDatabase.attachments.insertAttachmentsForMessage(mmsId, listOf(createAttachmentPointer(key, digest, plaintext.size)), emptyList()).values.first()
+
+    val partsDirectory = InstrumentationRegistry.getInstrumentation().targetContext.getDir("parts", Context.MODE_PRIVATE)
+    val filesBefore = partsDirectory.list()!!.toSet()
+
+    val cipherInputStream = AttachmentCipherInputStream.createForAttachmentSinglePass(cipherFile, plaintext.size.toLong(), key, digest)
+    val result = runCatching { SignalDatabase.attachments.finalizeAttachmentAfterDownload(mmsId, attachmentId, cipherInputStream, iv) }
+
+    assertThat(result.isFailure).isEqualTo(true)
+    assertThat(partsDirectory.list()!!.toSet()).isEqualTo(filesBefore)
+  }
+
   @Test
   fun resetArchiveTransferStateByDigest_singleMatch() {
     // Given an attachment with some digest
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.model.LogEntry
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.nanoseconds
+
+/**
+ * Times [LogDatabase.LogTable.trimToSize] on a log table that's at its full size, the way it's called by the logger after every batch of writes.
+ */
+@Ignore("Only prints timings, and filling the log table takes a while. Run manually when changing how logs are trimmed.")
+@RunWith(AndroidJUnit4::class)
+class LogTablePerformanceTests {
+
+  companion object {
+    private val TAG = Log.tag(LogTablePerformanceTests::class.java)
+
+    private const val BATCH_SIZE = 500
+    private const val ROUNDS = 50
+  }
+
+  private lateinit var logs: LogDatabase.LogTable
+
+  @Before
+  fun setUp() {
+    logs = LogDatabase.getInstance(AppDependencies.application).logs
+    logs.clearAll()
+  }
+
+  @After
+  fun tearDown() {
+    logs.clearAll()
+  }
+
+  @Test
+  fun trimAtFullSize() {
+    val now = System.currentTimeMillis()
+    val body = "[LogTablePerformanceTests] " + "x".repeat(200)
+
+    // Fill past the limit, with a few keep-longer logs mixed in
+    var inserted = 0L
+    while (inserted < LogDatabase.LogTable.MAX_FILE_SIZE * 5 / 4) {
+      logs.insert(batch(now, body), now)
+      inserted += BATCH_SIZE * body.length
+    }
+
+    val firstTrim = time { logs.trimToSize() }
+
+    var withDeletes = Duration.ZERO
+    var withoutDeletes = Duration.ZERO
+    repeat(ROUNDS) {
+      logs.insert(batch(now, body), now)
+      withDeletes += time { logs.trimToSize() }
+      withoutDeletes += time { logs.trimToSize() }
+    }
+
+    Log.i(TAG, "First trim at ${inserted / 1024} KiB: $firstTrim")
+    Log.i(TAG, "Average trim after a batch of $BATCH_SIZE logs: ${withDeletes / ROUNDS}")
+    Log.i(TAG, "Average trim with nothing to delete: ${withoutDeletes / ROUNDS}")
+  }
+
+  private fun batch(now: Long, body: String): List<LogEntry> {
+    return (0 until BATCH_SIZE).map { LogEntry(createdAt = now, keepLonger = it % 50 == 0, body = body) }
+  }
+
+  private fun time(block: () -> Unit): Duration {
+    val start = System.nanoTime()
+    block()
+    return (System.nanoTime() - start).nanoseconds
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.storage
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import okio.ByteString.Companion.toByteString
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.Base64
+import org.signal.core.util.SqlUtil
+import org.signal.core.util.readToList
+import org.signal.core.util.update
+import org.signal.libsignal.zkgroup.groups.GroupMasterKey
+import org.signal.storageservice.protos.groups.local.DecryptedGroup
+import org.thoughtcrime.securesms.database.DistributionListTables
+import org.thoughtcrime.securesms.database.GroupTable
+import org.thoughtcrime.securesms.database.RecipientTable
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.database.ThreadTable
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.groups.GroupId
+import org.thoughtcrime.securesms.keyvalue.SignalStore
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import org.whispersystems.signalservice.api.push.ServiceId.PNI
+import org.whispersystems.signalservice.api.storage.SignalContactRecord
+import org.whispersystems.signalservice.api.storage.SignalGroupV2Record
+import org.whispersystems.signalservice.api.storage.StorageId
+import org.whispersystems.signalservice.internal.storage.protos.ContactRecord
+import org.whispersystems.signalservice.internal.storage.protos.GroupV2Record
+import java.nio.ByteBuffer
+import java.util.UUID
+import kotlin.random.Random
+
+/**
+ * Runs the contact and GV2 record processors with and without bulk matching over randomised local and remote records, and checks both
+ * modes leave the database in the same state.
+ *
+ * Local and remote contacts share identifiers and usernames, so the runs go through merges, username conflicts and storageId-keyed updates.
+ */
+@RunWith(AndroidJUnit4::class)
+class StorageRecordProcessorBulkMatchingTest {
+
+  @Before
+  fun setup() {
+    SignalStore.account.setE164(E164_SELF)
+    SignalStore.account.setAci(ACI_SELF)
+    SignalStore.account.setPni(PNI_SELF)
+  }
+
+  @Test
+  fun contactRecords_bulkMatchingLeavesSameRowsAsOneAtATime() {
+    repeat(20) { seed ->
+      val scenario = ContactScenario(Random(seed))
+
+      val oneAtATime = scenario.run(bulkMatching = false)
+      val bulk = scenario.run(bulkMatching = true)
+
+      assertThat(bulk, "seed $seed").isEqualTo(oneAtATime)
+    }
+  }
+
+  @Test
+  fun groupV2Records_bulkMatchingLeavesSameRowsAsOneAtATime() {
+    repeat(10) { seed ->
+      val scenario = GroupV2Scenario(Random(seed))
+
+      val oneAtATime = scenario.run(bulkMatching = false)
+      val bulk = scenario.run(bulkMatching = true)
+
+      assertThat(bulk, "seed $seed").isEqualTo(oneAtATime)
+    }
+  }
+
+  private class ContactScenario(random: Random) {
+    private val acis = List(30) { ACI.from(UUID(0, it + 1L)) }
+    private val pnis = List(30) { PNI.from(UUID(1, it + 1L)) }
+    private val e164s = List(30) { "+1555000%04d".format(it) }
+    private val usernames = List(15) { "user.%02d".format(it) }
+    private val names = listOf("", "Alice", "Bob")
+
+    private val localRows: List<LocalContact> = buildList {
+      val aciPool = acis.shuffled(random).toMutableList()
+      val pniPool = pnis.shuffled(random).toMutableList()
+      val e164Pool = e164s.shuffled(random).toMutableList()
+      val usernamePool = usernames.shuffled(random).toMutableList()
+
+      repeat(20) {
+        val row = LocalContact(
+          aci = aciPool.takeIf { random.nextInt(3) > 0 }?.removeLast(),
+          e164 = e164Pool.takeIf { random.nextBoolean() }?.removeLast(),
+          pni = pniPool.takeIf { random.nextBoolean() }?.removeLast(),
+          username = usernamePool.takeIf { random.nextBoolean() }?.removeLast(),
+          storageId = if (random.nextInt(4) > 0) random.nextBytes(16) else null,
+          givenName = names.random(random),
+          blocked = random.nextBoolean()
+        )
+
+        if (row.aci != null || row.e164 != null || row.pni != null) {
+          add(row)
+        }
+      }
+    }
+
+    private val remoteRecords: List<SignalContactRecord> = List(40) {
+      val proto = ContactRecord(
+        aci = acis.takeIf { random.nextInt(4) > 0 }?.random(random)?.toString() ?: "",
+        e164 = e164s.takeIf { random.nextBoolean() }?.random(random) ?: "",
+        pni = pnis.takeIf { random.nextBoolean() }?.random(random)?.toStringWithoutPrefix() ?: "",
+        username = usernames.takeIf { random.nextBoolean() }?.random(random) ?: "",
+        givenName = names.random(random),
+        blocked = random.nextBoolean(),
+        archived = random.nextBoolean(),
+        unregisteredAtTimestamp = if (random.nextInt(8) == 0) 100 else 0
+      )
+
+      SignalContactRecord(StorageId.forContact(random.nextBytes(16)), proto)
+    }
+
+    fun run(bulkMatching: Boolean): List<String> {
+      clearDatabase()
+
+      for (row in localRows) {
+        val id = SignalDatabase.recipients.getAndPossiblyMerge(row.aci, row.pni, row.e164)
+
+        SignalDatabase.rawDatabase
+          .update(RecipientTable.TABLE_NAME)
+          .values(
+            RecipientTable.USERNAME to row.username,
+            RecipientTable.STORAGE_SERVICE_ID to row.storageId?.let { Base64.encodeWithPadding(it) },
+            RecipientTable.PROFILE_GIVEN_NAME to row.givenName,
+            RecipientTable.BLOCKED to if (row.blocked) 1 else 0
+          )
+          .where("${RecipientTable.ID} = ?", id)
+          .run()
+      }
+
+      ContactRecordProcessor(ACI_SELF, PNI_SELF, E164_SELF, SignalDatabase.recipients, bulkMatching).process(remoteRecords, CountingKeyGenerator())
+
+      return snapshot()
+    }
+  }
+
+  private class GroupV2Scenario(random: Random) {
+    private val masterKeys = List(20) { GroupMasterKey(random.nextBytes(GroupMasterKey.SIZE)) }
+
+    private val localGroups: List<LocalGroup> = masterKeys.shuffled(random).take(12).map {
+      LocalGroup(
+        masterKey = it,
+        hasGroupRow = random.nextInt(3) > 0,
+        storageId = if (random.nextInt(4) > 0) random.nextBytes(16) else null,
+        blocked = random.nextBoolean()
+      )
+    }
+
+    private val remoteRecords: List<SignalGroupV2Record> = List(25) {
+      val proto = GroupV2Record(
+        masterKey = masterKeys.random(random).serialize().toByteString(),
+        blocked = random.nextBoolean(),
+        whitelisted = random.nextBoolean(),
+        archived = random.nextBoolean(),
+        markedUnread = random.nextBoolean(),
+        mutedUntilTimestamp = if (random.nextBoolean()) 0 else 1000,
+        hideStory = random.nextBoolean(),
+        storySendMode = GroupV2Record.StorySendMode.entries.random(random)
+      )
+
+      SignalGroupV2Record(StorageId.forGroupV2(random.nextBytes(16)), proto)
+    }
+
+    fun run(bulkMatching: Boolean): List<String> {
+      clearDatabase()
+
+      for (group in localGroups) {
+        val groupId = GroupId.v2(group.masterKey)
+
+        if (group.hasGroupRow) {
+          SignalDatabase.groups.create(group.masterKey, DecryptedGroup(revision = 1, title = groupId.toString()), null)
+        }
+
+        val id = SignalDatabase.recipients.getOrInsertFromGroupId(groupId)
+
+        SignalDatabase.rawDatabase
+          .update(RecipientTable.TABLE_NAME)
+          .values(
+            RecipientTable.STORAGE_SERVICE_ID to group.storageId?.let { Base64.encodeWithPadding(it) },
+            RecipientTable.BLOCKED to if (group.blocked) 1 else 0
+          )
+          .where("${RecipientTable.ID} = ?", id)
+          .run()
+      }
+
+      GroupV2RecordProcessor(SignalDatabase.recipients, SignalDatabase.groups, bulkMatching).process(remoteRecords, CountingKeyGenerator())
+
+      return snapshot()
+    }
+  }
+
+  private class LocalContact(
+    val aci: ACI?,
+    val e164: String?,
+    val pni: PNI?,
+    val username: String?,
+    val storageId: ByteArray?,
+    val givenName: String,
+    val blocked: Boolean
+  )
+
+  private class LocalGroup(
+    val masterKey: GroupMasterKey,
+    val hasGroupRow: Boolean,
+    val storageId: ByteArray?,
+    val blocked: Boolean
+  )
+
+  /**
+   * Both runs have to hand out the same keys in the same order for merged records to end up with the same storageIds.
+   */
+  private class CountingKeyGenerator : StorageKeyGenerator {
+    private var next = 0L
+
+    override fun generate(): ByteArray {
+      return ByteBuffer.allocate(16).putLong(8, next++).array()
+    }
+  }
+
+  companion object {
+    val ACI_SELF = ACI.from(UUID.fromString("77770000-b477-4f35-a824-d92987a63641"))
+    val PNI_SELF = PNI.from(UUID.fromString("77771111-b014-41fb-bf73-05cb2ec52910"))
+    const val E164_SELF = "+10000000000"
+
+    private fun clearDatabase() {
+      // Need to delete these first to prevent foreign key crash
+      SignalDatabase.rawDatabase.execSQL("DELETE FROM ${DistributionListTables.ListTable.TABLE_NAME}")
+      SignalDatabase.rawDatabase.execSQL("DELETE FROM ${DistributionListTables.MembershipTable.TABLE_NAME}")
+
+      SqlUtil.getAllTables(SignalDatabase.rawDatabase)
+        .filterNot { it.contains("sqlite") || it.contains("fts") || it.startsWith("emoji_search_") } // If we delete these we'll corrupt the DB
+        .sorted()
+        .forEach { table ->
+          SignalDatabase.rawDatabase.execSQL("DELETE FROM $table")
+        }
+
+      AppDependencies.recipientCache.clear()
+      AppDependencies.recipientCache.clearSelf()
+      RecipientId.clearCache()
+    }
+
+    /**
+     * Everything the processors write, leaving out row ids, which don't line up between runs.
+     */
+    private fun snapshot(): List<String> {
+      val query = """
+        SELECT
+          r.${RecipientTable.ACI_COLUMN},
+          r.${RecipientTable.PNI_COLUMN},
+          r.${RecipientTable.E164},
+          r.${RecipientTable.USERNAME},
+          r.${RecipientTable.GROUP_ID},
+          r.${RecipientTable.STORAGE_SERVICE_ID},
+          r.${RecipientTable.BLOCKED},
+          r.${RecipientTable.PROFILE_GIVEN_NAME},
+          r.${RecipientTable.PROFILE_SHARING},
+          r.${RecipientTable.MUTE_UNTIL},
+          r.${RecipientTable.HIDDEN},
+          r.${RecipientTable.UNREGISTERED_TIMESTAMP},
+          t.${ThreadTable.ARCHIVED},
+          t.${ThreadTable.READ},
+          hex(g.${GroupTable.V2_MASTER_KEY}),
+          g.${GroupTable.SHOW_AS_STORY_STATE}
+        FROM ${RecipientTable.TABLE_NAME} AS r
+        LEFT JOIN ${ThreadTable.TABLE_NAME} AS t ON t.${ThreadTable.RECIPIENT_ID} = r.${RecipientTable.ID}
+        LEFT JOIN ${GroupTable.TABLE_NAME} AS g ON g.${GroupTable.RECIPIENT_ID} = r.${RecipientTable.ID}
+      """
+
+      return SignalDatabase.rawDatabase.rawQuery(query, null).use { cursor ->
+        cursor.readToList { row ->
+          (0 until row.columnCount).joinToString { "${row.getColumnName(it)}=${row.getString(it)}" }
+        }
+      }.sorted()
+    }
+  }
+}
@@ -12,6 +12,8 @@ import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.Rect;
 
+import androidx.annotation.Nullable;
+
 import org.signal.core.util.logging.Log;
 import org.signal.glide.apng.io.APNGReader;
 import org.signal.glide.apng.io.APNGWriter;
@@ -22,6 +24,8 @@ import org.signal.glide.common.loader.Loader;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -37,6 +41,8 @@ public class APNGDecoder extends FrameSeqDecoder<APNGReader, APNGWriter> {
     private APNGWriter apngWriter;
     private int mLoopCount;
     private final Paint paint = new Paint();
+    private final APNGFrameCache frameCache;
+    private byte[] imageKey;
 
 
     private class SnapShot {
@@ -52,7 +58,15 @@ public class APNGDecoder extends FrameSeqDecoder<APNGReader, APNGWriter> {
      * @param renderListener 渲染的回调
      */
     public APNGDecoder(Loader loader, FrameSeqDecoder.RenderListener renderListener) {
+        this(loader, renderListener, APNGFrameCache.getInstance());
+    }
+
+    /**
+     * @param frameCache Where decoded frames are shared with other decoders, or null to decode every frame each time it's shown.
+     */
+    public APNGDecoder(Loader loader, FrameSeqDecoder.RenderListener renderListener, @Nullable APNGFrameCache frameCache) {
         super(loader, renderListener);
+        this.frameCache = frameCache;
         paint.setAntiAlias(true);
     }
 
@@ -126,11 +140,62 @@ public class APNGDecoder extends FrameSeqDecoder<APNGReader, APNGWriter> {
                 otherChunks.add(chunk);
             }
         }
+        shareFrames(reader);
         frameBuffer = ByteBuffer.allocate((canvasWidth * canvasHeight / (sampleSize * sampleSize) + 1) * 4);
         snapShot.byteBuffer = ByteBuffer.allocate((canvasWidth * canvasHeight / (sampleSize * sampleSize) + 1) * 4);
         return new Rect(0, 0, canvasWidth, canvasHeight);
     }
 
+    /**
+     * Points the frames at the {@link APNGFrameCache}, if this image's frames fit in it. Images are identified by a digest of their
+     * contents, so the same sticker loaded from different places still shares frames.
+     */
+    private void shareFrames(APNGReader reader) throws IOException {
+        if (frameCache == null) {
+            return;
+        }
+
+        long totalFrameBytes = 0;
+        for (Frame frame : frames) {
+            totalFrameBytes += 4L * (frame.frameWidth / sampleSize) * (frame.frameHeight / sampleSize);
+        }
+
+        if (!frameCache.admits(totalFrameBytes)) {
+            return;
+        }
+
+        if (imageKey == null) {
+            imageKey = digest(reader);
+        }
+
+        for (int i = 0; i < frames.size(); i++) {
+            if (frames.get(i) instanceof APNGFrame) {
+                APNGFrame frame = (APNGFrame) frames.get(i);
+                frame.index = i;
+                frame.imageKey = imageKey;
+                frame.frameCache = frameCache;
+            }
+        }
+    }
+
+    private static byte[] digest(APNGReader reader) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+
+            // available() is only an estimate for streams, so read until the end instead
+            reader.reset();
+            while ((read = reader.read(buffer, 0, buffer.length)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     @Override
     protected void renderFrame(Frame frame) {
         if (frame == null || fullRect == null) {
@@ -30,6 +30,10 @@ public class APNGFrame extends Frame<APNGReader, APNGWriter> {
     byte[] ihdrData;
     List<Chunk> imageChunks = new ArrayList<>();
     List<Chunk> prefixChunks = new ArrayList<>();
+    int index;
+    /** When set, decoded frames are shared through this cache under {@link #imageKey}. */
+    APNGFrameCache frameCache;
+    byte[] imageKey;
     private static final byte[] sPNGSignatures = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
     private static final byte[] sPNGEndChunk = {0, 0, 0, 0, 0x49, 0x45, 0x4E, 0x44, (byte) 0xAE, 0x42, 0x60, (byte) 0x82};
 
@@ -93,7 +97,7 @@ public class APNGFrame extends Frame<APNGReader, APNGWriter> {
             }
             reader.reset();
             reader.skip(chunk.offset);
-            reader.read(apngWriter.toByteArray(), apngWriter.position(), chunk.length + 12);
+            reader.readFully(apngWriter.toByteArray(), apngWriter.position(), chunk.length + 12);
             apngWriter.skip(chunk.length + 12);
         }
         //imageChunks
@@ -101,7 +105,7 @@ public class APNGFrame extends Frame<APNGReader, APNGWriter> {
             if (chunk instanceof IDATChunk) {
                 reader.reset();
                 reader.skip(chunk.offset);
-                reader.read(apngWriter.toByteArray(), apngWriter.position(), chunk.length + 12);
+                reader.readFully(apngWriter.toByteArray(), apngWriter.position(), chunk.length + 12);
                 apngWriter.skip(chunk.length + 12);
             } else if (chunk instanceof FDATChunk) {
                 apngWriter.writeInt(chunk.length - 4);
@@ -111,7 +115,7 @@ public class APNGFrame extends Frame<APNGReader, APNGWriter> {
                 reader.reset();
                 // skip to fdat data position
                 reader.skip(chunk.offset + 4 + 4 + 4);
-                reader.read(apngWriter.toByteArray(), apngWriter.position(), chunk.length - 4);
+                reader.readFully(apngWriter.toByteArray(), apngWriter.position(), chunk.length - 4);
 
                 apngWriter.skip(chunk.length - 4);
                 crc32.reset();
@@ -128,14 +132,19 @@ public class APNGFrame extends Frame<APNGReader, APNGWriter> {
     @Override
     public Bitmap draw(Canvas canvas, Paint paint, int sampleSize, Bitmap reusedBitmap, APNGWriter writer) {
         try {
-            int length = encode(writer);
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = false;
-            options.inSampleSize = sampleSize;
-            options.inMutable = true;
-            options.inBitmap = reusedBitmap;
-            byte[] bytes = writer.toByteArray();
-            Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, length, options);
+            if (frameCache != null) {
+                Bitmap bitmap = frameCache.get(imageKey, index, sampleSize);
+                if (bitmap == null) {
+                    // Shared bitmaps can't come from, or go back to, a decoder's own pool
+                    bitmap = decode(sampleSize, null, writer);
+                    assert bitmap != null;
+                    frameCache.put(imageKey, index, sampleSize, bitmap);
+                }
+                canvas.drawBitmap(bitmap, (float) frameX / sampleSize, (float) frameY / sampleSize, paint);
+                return reusedBitmap;
+            }
+
+            Bitmap bitmap = decode(sampleSize, reusedBitmap, writer);
             assert bitmap != null;
             canvas.drawBitmap(bitmap, (float) frameX / sampleSize, (float) frameY / sampleSize, paint);
             return bitmap;
@@ -144,4 +153,15 @@ public class APNGFrame extends Frame<APNGReader, APNGWriter> {
         }
         return null;
     }
+
+    private Bitmap decode(int sampleSize, Bitmap reusedBitmap, APNGWriter writer) throws IOException {
+        int length = encode(writer);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inBitmap = reusedBitmap;
+        byte[] bytes = writer.toByteArray();
+        return BitmapFactory.decodeByteArray(bytes, 0, length, options);
+    }
 }
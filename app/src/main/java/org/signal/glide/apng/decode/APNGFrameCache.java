@@ -0,0 +1,123 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.glide.apng.decode;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decoded APNG frames, shared between every {@link APNGDecoder} showing the same image at the same sample size. A sticker that's on screen
+ * several times, or that loops, then only has each of its frames decoded once, rather than once per view per loop.
+ *
+ * The cache is bounded by the byte size of the bitmaps it holds. An image whose frames wouldn't comfortably fit is not cached at all, as it
+ * would only push everything else out and then miss on every frame anyway.
+ *
+ * Cached bitmaps are only ever drawn from. They're never drawn into or recycled, so it's safe for an entry to be evicted while another
+ * decoder is still drawing it.
+ */
+public final class APNGFrameCache {
+
+  private static final long MAX_BUDGET_BYTES = 32 * 1024 * 1024;
+
+  private static volatile APNGFrameCache instance;
+
+  private final LruCache<Key, Bitmap> cache;
+  private final AtomicInteger         hits   = new AtomicInteger();
+  private final AtomicInteger         misses = new AtomicInteger();
+
+  public static @NonNull APNGFrameCache getInstance() {
+    if (instance == null) {
+      synchronized (APNGFrameCache.class) {
+        if (instance == null) {
+          instance = new APNGFrameCache((int) Math.min(Runtime.getRuntime().maxMemory() / 16, MAX_BUDGET_BYTES));
+        }
+      }
+    }
+    return instance;
+  }
+
+  public APNGFrameCache(int budgetBytes) {
+    this.cache = new LruCache<Key, Bitmap>(Math.max(budgetBytes, 1)) {
+      @Override
+      protected int sizeOf(Key key, Bitmap value) {
+        return value.getAllocationByteCount();
+      }
+    };
+  }
+
+  /**
+   * @return True if an image whose decoded frames add up to this many bytes should be cached.
+   */
+  boolean admits(long totalFrameBytes) {
+    return totalFrameBytes <= cache.maxSize() / 2;
+  }
+
+  @Nullable Bitmap get(@NonNull byte[] imageKey, int frameIndex, int sampleSize) {
+    Bitmap bitmap = cache.get(new Key(imageKey, frameIndex, sampleSize));
+    if (bitmap != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return bitmap;
+  }
+
+  void put(@NonNull byte[] imageKey, int frameIndex, int sampleSize, @NonNull Bitmap bitmap) {
+    cache.put(new Key(imageKey, frameIndex, sampleSize), bitmap);
+  }
+
+  public int getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Every miss results in a decode.
+   */
+  public int getMissCount() {
+    return misses.get();
+  }
+
+  public int getSizeBytes() {
+    return cache.size();
+  }
+
+  public void clear() {
+    cache.evictAll();
+  }
+
+  private static final class Key {
+    private final byte[] imageKey;
+    private final int    frameIndex;
+    private final int    sampleSize;
+    private final int    hashCode;
+
+    private Key(byte[] imageKey, int frameIndex, int sampleSize) {
+      this.imageKey   = imageKey;
+      this.frameIndex = frameIndex;
+      this.sampleSize = sampleSize;
+      this.hashCode   = 31 * (31 * Arrays.hashCode(imageKey) + frameIndex) + sampleSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return frameIndex == other.frameIndex && sampleSize == other.sampleSize && Arrays.equals(imageKey, other.imageKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
@@ -40,6 +40,6 @@ class IHDRChunk extends Chunk {
     void innerParse(APNGReader reader) throws IOException {
         width = reader.readInt();
         height = reader.readInt();
-        reader.read(data, 0, data.length);
+        reader.readFully(data, 0, data.length);
     }
 }
@@ -10,6 +10,7 @@ import android.text.TextUtils;
 import org.signal.glide.common.io.FilterReader;
 import org.signal.glide.common.io.Reader;
 
+import java.io.EOFException;
 import java.io.IOException;
 
 /**
@@ -34,9 +35,25 @@ public class APNGReader extends FilterReader {
         super(in);
     }
 
+    /**
+     * Reads exactly byteCount bytes, unlike {@link #read}, which may stop short.
+     *
+     * @throws EOFException if the data ends first
+     */
+    public void readFully(byte[] buffer, int start, int byteCount) throws IOException {
+        int total = 0;
+        while (total < byteCount) {
+            int read = read(buffer, start + total, byteCount - total);
+            if (read < 0) {
+                throw new EOFException("Expected " + byteCount + " bytes, but only " + total + " were left");
+            }
+            total += read;
+        }
+    }
+
     public int readInt() throws IOException {
         byte[] buf = ensureBytes();
-        read(buf, 0, 4);
+        readFully(buf, 0, 4);
         return buf[3] & 0xFF |
                 (buf[2] & 0xFF) << 8 |
                 (buf[1] & 0xFF) << 16 |
@@ -45,7 +62,7 @@ public class APNGReader extends FilterReader {
 
     public short readShort() throws IOException {
         byte[] buf = ensureBytes();
-        read(buf, 0, 2);
+        readFully(buf, 0, 2);
         return (short) (buf[1] & 0xFF |
                 (buf[0] & 0xFF) << 8);
     }
@@ -68,7 +85,7 @@ public class APNGReader extends FilterReader {
 
     public int readFourCC() throws IOException {
         byte[] buf = ensureBytes();
-        read(buf, 0, 4);
+        readFully(buf, 0, 4);
         return buf[0] & 0xff | (buf[1] & 0xff) << 8 | (buf[2] & 0xff) << 16 | (buf[3] & 0xff) << 24;
     }
 }
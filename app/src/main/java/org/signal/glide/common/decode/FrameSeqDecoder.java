@@ -16,6 +16,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import org.signal.core.util.logging.Log;
+import org.signal.glide.common.executor.FrameDecodeBudget;
 import org.signal.glide.common.executor.FrameDecoderExecutor;
 import org.signal.glide.common.io.Reader;
 import org.signal.glide.common.io.Writer;
@@ -30,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.LockSupport;
 
@@ -49,6 +51,7 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
     private int playCount;
     private Integer loopLimit = null;
     private Set<RenderListener> renderListeners = new HashSet<>();
+    private Set<RenderListener> hiddenRenderListeners = new HashSet<>();
     private AtomicBoolean paused = new AtomicBoolean(true);
     private static final Rect RECT_EMPTY = new Rect();
     private Runnable renderTask = new Runnable() {
@@ -58,10 +61,16 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
                 return;
             }
             if (canStep()) {
-                long start = System.currentTimeMillis();
+                // The first frame is always shown, so there's never a blank space where the animation should be
+                if (frameIndex >= 0 && !FrameDecodeBudget.getInstance().tryAcquire(isVisible())) {
+                    workerHandler.postDelayed(this, FrameDecodeBudget.RETRY_DELAY_MS);
+                    return;
+                }
+                long start = System.nanoTime();
                 long delay = step();
-                long cost = System.currentTimeMillis() - start;
-                workerHandler.postDelayed(this, Math.max(0, delay - cost));
+                long cost = System.nanoTime() - start;
+                FrameDecodeBudget.getInstance().spend(cost);
+                workerHandler.postDelayed(this, Math.max(0, delay - TimeUnit.NANOSECONDS.toMillis(cost)));
                 for (RenderListener renderListener : renderListeners) {
                     renderListener.onRender(frameBuffer);
                 }
@@ -192,10 +201,32 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
             @Override
             public void run() {
                 renderListeners.remove(renderListener);
+                hiddenRenderListeners.remove(renderListener);
             }
         });
     }
 
+    /**
+     * Tells us whether a listener is currently on screen. Animations that nobody can see get a smaller share of the
+     * {@link FrameDecodeBudget}.
+     */
+    public void setRenderListenerVisible(final RenderListener renderListener, final boolean visible) {
+        this.workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (visible) {
+                    hiddenRenderListeners.remove(renderListener);
+                } else {
+                    hiddenRenderListeners.add(renderListener);
+                }
+            }
+        });
+    }
+
+    private boolean isVisible() {
+        return renderListeners.isEmpty() || !hiddenRenderListeners.containsAll(renderListeners);
+    }
+
     public void stopIfNeeded() {
         this.workerHandler.post(new Runnable() {
             @Override
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.glide.common.executor;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed amount of frame rendering time per window, shared by every animation.
+ *
+ * Visible animations may render until the budget is used up. Hidden ones may only render while less than half of it has been used, so a
+ * screen full of off-screen stickers can never take time away from the ones that are actually being looked at. Animations that are turned
+ * away hold their current frame and try again shortly, so no frames are skipped, they're just shown late.
+ */
+public final class FrameDecodeBudget {
+
+  private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(400);
+
+  /** How long an animation that was turned away should wait before asking again. */
+  public static final long RETRY_DELAY_MS = 50;
+
+  private static final FrameDecodeBudget INSTANCE = new FrameDecodeBudget(WINDOW_NANOS, BUDGET_NANOS, System::nanoTime);
+
+  private final long  windowNanos;
+  private final long  budgetNanos;
+  private final Clock clock;
+
+  private long windowStart;
+  private long spent;
+
+  public static FrameDecodeBudget getInstance() {
+    return INSTANCE;
+  }
+
+  @VisibleForTesting
+  FrameDecodeBudget(long windowNanos, long budgetNanos, Clock clock) {
+    this.windowNanos = windowNanos;
+    this.budgetNanos = budgetNanos;
+    this.clock       = clock;
+    this.windowStart = clock.nanoTime();
+  }
+
+  /**
+   * @return True if an animation may render its next frame now.
+   */
+  public synchronized boolean tryAcquire(boolean visible) {
+    rollWindow();
+    return spent < (visible ? budgetNanos : budgetNanos / 2);
+  }
+
+  /**
+   * Records the time a frame took to render.
+   */
+  public synchronized void spend(long nanos) {
+    rollWindow();
+    spent += nanos;
+  }
+
+  private void rollWindow() {
+    long now = clock.nanoTime();
+    if (now - windowStart >= windowNanos) {
+      windowStart = now;
+      spent       = 0;
+    }
+  }
+
+  @VisibleForTesting
+  interface Clock {
+    long nanoTime();
+  }
+}
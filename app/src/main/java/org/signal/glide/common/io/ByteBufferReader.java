@@ -47,8 +47,13 @@ public class ByteBufferReader implements Reader {
 
     @Override
     public int read(byte[] buffer, int start, int byteCount) throws IOException {
-        byteBuffer.get(buffer, start, byteCount);
-        return byteCount;
+        if (byteCount > 0 && !byteBuffer.hasRemaining()) {
+            return -1;
+        }
+
+        int count = Math.min(byteCount, byteBuffer.remaining());
+        byteBuffer.get(buffer, start, count);
+        return count;
     }
 
     @Override
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
+import org.signal.core.util.throttleLatest
+import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.keyvalue.SignalStore
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.max
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+
+/**
+ * Tracks the progress of restoring media from your archive, along with how quickly it's going, and provides an observable stream of results.
+ */
+object ArchiveRestoreProgress {
+
+  private val _progress: MutableSharedFlow<Unit> = MutableSharedFlow(replay = 1)
+
+  private val partialMediaProgress: MutableMap<AttachmentId, Long> = ConcurrentHashMap()
+
+  private val rate = RateEstimator()
+
+  /**
+   * Observe this to get updates on the current restore progress.
+   */
+  val progress: Flow<State> = _progress
+    .throttleLatest(500.milliseconds)
+    .map {
+      val totalBytes = SignalStore.backup.totalRestorableAttachmentSize
+      val remainingBytes = max(0, SignalDatabase.attachments.getRemainingRestorableAttachmentSize() - partialMediaProgress.values.sum())
+
+      State(
+        restoredBytes = max(0, totalBytes - remainingBytes),
+        totalBytes = totalBytes,
+        bytesPerSecond = rate.bytesPerSecond,
+        remaining = rate.timeToTransfer(remainingBytes)
+      )
+    }
+    .flowOn(Dispatchers.IO)
+
+  fun onAttachmentProgress(attachmentId: AttachmentId, bytesDownloaded: Long) {
+    val previous = partialMediaProgress.put(attachmentId, bytesDownloaded) ?: 0
+    rate.onBytesTransferred(max(0, bytesDownloaded - previous))
+    _progress.tryEmit(Unit)
+  }
+
+  fun onAttachmentFinished(attachmentId: AttachmentId) {
+    partialMediaProgress.remove(attachmentId)
+    _progress.tryEmit(Unit)
+  }
+
+  data class State(
+    val restoredBytes: Long,
+    val totalBytes: Long,
+    val bytesPerSecond: Long,
+    /** Estimated time until the restore is done, or null if there isn't enough to go on yet. */
+    val remaining: Duration?
+  )
+}
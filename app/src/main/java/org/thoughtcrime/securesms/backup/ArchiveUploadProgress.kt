@@ -19,11 +19,17 @@ import org.thoughtcrime.securesms.database.SignalDatabase
 import org.thoughtcrime.securesms.keyvalue.SignalStore
 import org.thoughtcrime.securesms.keyvalue.protos.ArchiveUploadProgressState
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 import kotlin.math.max
+import kotlin.time.Duration
 import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.seconds
 
 /**
  * Tracks the progress of uploading your message archive and provides an observable stream of results.
+ *
+ * For media, it also keeps track of how quickly attachments are being uploaded, how many bytes have been uploaded but not yet copied to the
+ * archive, and how long it takes each attachment to go from its first uploaded byte to being copied. See [mediaStats].
  */
 object ArchiveUploadProgress {
 
@@ -39,6 +45,14 @@ object ArchiveUploadProgress {
 
   private val partialMediaProgress: MutableMap<AttachmentId, Long> = ConcurrentHashMap()
 
+  private val STATS_LOG_INTERVAL = 30.seconds
+
+  private val mediaStartTimes: MutableMap<AttachmentId, Long> = ConcurrentHashMap()
+  private val mediaUploadRate = RateEstimator()
+  private val finishedMediaCount = AtomicLong()
+  private val finishedMediaLatency = AtomicLong()
+  private val lastStatsLogTime = AtomicLong()
+
   /**
    * Observe this to get updates on the current upload progress.
    */
@@ -84,6 +98,21 @@ object ArchiveUploadProgress {
   val inProgress
     get() = uploadProgress.state != ArchiveUploadProgressState.State.None
 
+  /**
+   * A snapshot of how the media upload is going, since the app started.
+   */
+  val mediaStats: MediaStats
+    get() {
+      val finished = finishedMediaCount.get()
+      return MediaStats(
+        bytesPerSecond = mediaUploadRate.bytesPerSecond,
+        attachmentsInFlight = partialMediaProgress.size,
+        bytesInFlight = partialMediaProgress.values.sum(),
+        attachmentsFinished = finished,
+        averageLatency = if (finished > 0) (finishedMediaLatency.get() / finished).milliseconds else null
+      )
+    }
+
   fun begin() {
     updateState {
       ArchiveUploadProgressState(
@@ -123,12 +152,27 @@ object ArchiveUploadProgress {
   }
 
   fun onAttachmentProgress(attachmentId: AttachmentId, bytesUploaded: Long) {
-    partialMediaProgress[attachmentId] = bytesUploaded
+    val previous = partialMediaProgress.put(attachmentId, bytesUploaded) ?: 0
+    mediaStartTimes.putIfAbsent(attachmentId, System.currentTimeMillis())
+    mediaUploadRate.onBytesTransferred(max(0, bytesUploaded - previous))
     _progress.tryEmit(Unit)
   }
 
   fun onAttachmentFinished(attachmentId: AttachmentId) {
     partialMediaProgress.remove(attachmentId)
+
+    val now = System.currentTimeMillis()
+    val startTime = mediaStartTimes.remove(attachmentId)
+    if (startTime != null) {
+      finishedMediaCount.incrementAndGet()
+      finishedMediaLatency.addAndGet(now - startTime)
+    }
+
+    val lastLog = lastStatsLogTime.get()
+    if (now - lastLog >= STATS_LOG_INTERVAL.inWholeMilliseconds && lastStatsLogTime.compareAndSet(lastLog, now)) {
+      Log.i(TAG, "Media upload stats: $mediaStats")
+    }
+
     _progress.tryEmit(Unit)
   }
 
@@ -158,6 +202,16 @@ object ArchiveUploadProgress {
     }
   }
 
+  data class MediaStats(
+    val bytesPerSecond: Long,
+    val attachmentsInFlight: Int,
+    /** Bytes of attachments that have started uploading but haven't been copied to the archive yet. */
+    val bytesInFlight: Long,
+    val attachmentsFinished: Long,
+    /** Average time from an attachment's first uploaded byte to it being copied to the archive, or null if none have finished yet. */
+    val averageLatency: Duration?
+  )
+
   object ArchiveBackupProgressListener : BackupRepository.ExportProgressListener {
     override fun onAccount() {
       updatePhase(ArchiveUploadProgressState.BackupPhase.Account)
@@ -23,6 +23,7 @@ import org.thoughtcrime.securesms.backup.proto.SqlStatement;
 import org.thoughtcrime.securesms.backup.proto.Sticker;
 import org.thoughtcrime.securesms.util.Util;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -35,6 +36,7 @@ import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -42,14 +44,27 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
 
   private static final String TAG = Log.tag(BackupFrameOutputStream.class);
 
-  private final OutputStream outputStream;
-  private final Cipher       cipher;
-  private final Mac          mac;
+  private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+  private static final int STREAM_BUFFER_SIZE = 8192;
+  private static final int MAC_LENGTH         = 10;
+
+  private final OutputStream  outputStream;
+  private final Cipher        cipher;
+  private final Mac           mac;
+  private final SecretKeySpec cipherKey;
 
-  private final byte[] cipherKey;
   private final byte[] iv;
   private       int    counter;
 
+  /**
+   * Scratch space reused across frames: {@link #record} holds the length, ciphertext and MAC for a whole frame so that it goes out
+   * in a single write, and the stream buffers do the same for attachment data.
+   */
+  private final byte[] macBuffer          = new byte[32];
+  private final byte[] streamBuffer       = new byte[STREAM_BUFFER_SIZE];
+  private final byte[] streamCipherBuffer = new byte[STREAM_BUFFER_SIZE + 16];
+  private       byte[] record             = new byte[1024];
+
   private int frames;
 
   BackupFrameOutputStream(@NonNull OutputStream output, @NonNull String passphrase) throws IOException {
@@ -59,12 +74,13 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
       byte[]   derived = HKDF.deriveSecrets(key, "Backup Export".getBytes(), 64);
       byte[][] split   = ByteUtil.split(derived, 32, 32);
 
-      this.cipherKey = split[0];
+      this.cipherKey = new SecretKeySpec(split[0], "AES");
       byte[] macKey = split[1];
 
       this.cipher       = Cipher.getInstance("AES/CTR/NoPadding");
       this.mac          = Mac.getInstance("HmacSHA256");
-      this.outputStream = output;
+      // Frames are mostly small, so batch them up rather than writing each one through to the file
+      this.outputStream = new BufferedOutputStream(output, OUTPUT_BUFFER_SIZE);
       this.iv           = Util.getSecretBytes(16);
       this.counter      = Conversions.byteArrayToInt(iv);
 
@@ -157,8 +173,13 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
         .build());
   }
 
+  /**
+   * Writes the end frame and flushes everything buffered so far, as the underlying stream isn't always closed afterwards (e.g. for device
+   * transfer).
+   */
   void writeEnd() throws IOException {
     write(outputStream, new BackupFrame.Builder().end(true).build());
+    outputStream.flush();
   }
 
   /**
@@ -167,34 +188,31 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
   private long writeStream(@NonNull InputStream inputStream) throws IOException {
     try {
       Conversions.intToByteArray(iv, 0, counter++);
-      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+      cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(iv));
       mac.update(iv);
 
-      byte[] buffer = new byte[8192];
-      long   total  = 0;
+      long total = 0;
 
       int read;
 
-      while ((read = inputStream.read(buffer)) != -1) {
-        byte[] ciphertext = cipher.update(buffer, 0, read);
+      while ((read = inputStream.read(streamBuffer)) != -1) {
+        int written = cipher.update(streamBuffer, 0, read, streamCipherBuffer, 0);
 
-        if (ciphertext != null) {
-          outputStream.write(ciphertext);
-          mac.update(ciphertext);
-        }
+        outputStream.write(streamCipherBuffer, 0, written);
+        mac.update(streamCipherBuffer, 0, written);
 
         total += read;
       }
 
-      byte[] remainder = cipher.doFinal();
-      outputStream.write(remainder);
-      mac.update(remainder);
+      int remainder = cipher.doFinal(streamCipherBuffer, 0);
+      outputStream.write(streamCipherBuffer, 0, remainder);
+      mac.update(streamCipherBuffer, 0, remainder);
 
-      byte[] attachmentDigest = mac.doFinal();
-      outputStream.write(attachmentDigest, 0, 10);
+      mac.doFinal(macBuffer, 0);
+      outputStream.write(macBuffer, 0, MAC_LENGTH);
 
       return total;
-    } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
       throw new AssertionError(e);
     }
   }
@@ -202,33 +220,35 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
   private void write(@NonNull OutputStream out, @NonNull BackupFrame frame) throws IOException {
     try {
       Conversions.intToByteArray(iv, 0, counter++);
-      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+      cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(iv));
 
       byte[] encodedFrame = frame.encode();
+      int    recordLength = 4 + encodedFrame.length + MAC_LENGTH;
+
+      if (record.length < recordLength) {
+        record = new byte[Math.max(recordLength, record.length * 2)];
+      }
 
       // this assumes a stream cipher
-      byte[] length = Conversions.intToByteArray(encodedFrame.length + 10);
+      Conversions.intToByteArray(record, 0, encodedFrame.length + MAC_LENGTH);
       if (BackupVersions.isFrameLengthEncrypted(BackupVersions.CURRENT_VERSION)) {
-        byte[] encryptedLength = cipher.update(length);
-        if (encryptedLength.length != length.length) {
+        if (cipher.update(record, 0, 4, record, 0) != 4) {
           throw new IOException("Stream cipher assumption has been violated!");
         }
-        mac.update(encryptedLength);
-        length = encryptedLength;
+        mac.update(record, 0, 4);
       }
 
-      byte[] frameCiphertext = cipher.doFinal(frame.encode());
-      if (frameCiphertext.length != encodedFrame.length) {
+      if (cipher.doFinal(encodedFrame, 0, encodedFrame.length, record, 4) != encodedFrame.length) {
         throw new IOException("Stream cipher assumption has been violated!");
       }
 
-      byte[] frameMac = mac.doFinal(frameCiphertext);
+      mac.update(record, 4, encodedFrame.length);
+      mac.doFinal(macBuffer, 0);
+      System.arraycopy(macBuffer, 0, record, 4 + encodedFrame.length, MAC_LENGTH);
 
-      out.write(length);
-      out.write(frameCiphertext);
-      out.write(frameMac, 0, 10);
+      out.write(record, 0, recordLength);
       frames++;
-    } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
       throw new AssertionError(e);
     }
   }
@@ -7,6 +7,9 @@ import org.thoughtcrime.securesms.backup.proto.Attachment
 import org.thoughtcrime.securesms.backup.proto.Avatar
 import org.thoughtcrime.securesms.backup.proto.BackupFrame
 import org.thoughtcrime.securesms.backup.proto.Sticker
+import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupReader
+import org.whispersystems.signalservice.api.backup.MessageBackupKey
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
 import java.io.IOException
 import java.io.InputStream
 
@@ -59,6 +62,34 @@ object BackupVerifier {
     return true
   }
 
+  /**
+   * Given one of the encrypted streams making up a local archive, verify that it decrypts and decodes all the way through, and, if
+   * [expectedFrameCount] is provided, that it contains that many frames.
+   */
+  @JvmStatic
+  fun verifyArchiveStream(key: MessageBackupKey, aci: ACI, length: Long, expectedFrameCount: Long?, dataStream: () -> InputStream): Boolean {
+    try {
+      val count = EncryptedBackupReader(key, aci, length, dataStream).use { reader ->
+        var count = 0L
+        while (reader.hasNext()) {
+          reader.next()
+          count++
+        }
+        count
+      }
+
+      if (expectedFrameCount != null && count != expectedFrameCount) {
+        Log.e(TAG, "Incorrect number of archive frames expected $expectedFrameCount but only $count")
+        return false
+      }
+    } catch (e: IOException) {
+      Log.w(TAG, "Bad archive stream len: $length", e)
+      return false
+    }
+
+    return true
+  }
+
   private fun verifyAttachment(attachment: Attachment, inputStream: BackupRecordInputStream): Boolean {
     try {
       inputStream.readAttachmentTo(NullOutputStream, attachment.length ?: 0)
@@ -12,6 +12,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
+import net.zetetic.database.sqlcipher.SQLiteStatement;
 
 import org.greenrobot.eventbus.EventBus;
 import org.signal.core.util.SqlUtil;
@@ -58,6 +59,7 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
@@ -104,6 +106,9 @@ public class FullBackupImporter extends FullBackupBase {
 
     SQLiteDatabase keyValueDatabase = KeyValueDatabase.getInstance(AppDependencies.getApplication()).getSqlCipherDatabase();
 
+    StatementCache statementCache = new StatementCache(db);
+    SchemaDeferrals schemaDeferrals = new SchemaDeferrals();
+
     db.setForeignKeyConstraintsEnabled(false);
     db.beginTransaction();
     keyValueDatabase.beginTransaction();
@@ -119,7 +124,7 @@ public class FullBackupImporter extends FullBackupBase {
         count++;
 
         if      (frame.version != null)    processVersion(db, frame.version);
-        else if (frame.statement != null)  processStatement(db, frame.statement);
+        else if (frame.statement != null)  processStatement(db, statementCache, schemaDeferrals, frame.statement);
         else if (frame.preference != null) processPreference(context, frame.preference);
         else if (frame.attachment != null) processAttachment(context, attachmentSecret, db, frame.attachment, inputStream);
         else if (frame.sticker != null)    processSticker(context, attachmentSecret, db, frame.sticker, inputStream);
@@ -128,9 +133,14 @@ public class FullBackupImporter extends FullBackupBase {
         else                            count--;
       }
 
+      statementCache.clear();
+      schemaDeferrals.apply(db);
+
       db.setTransactionSuccessful();
       keyValueDatabase.setTransactionSuccessful();
     } finally {
+      statementCache.clear();
+
       List<SqlUtil.ForeignKeyViolation> violations = SqlUtil.getForeignKeyViolations(db)
           .stream()
           .filter(it -> !it.getTable().startsWith("msl_"))
@@ -166,7 +176,7 @@ public class FullBackupImporter extends FullBackupBase {
     db.setVersion(version.version);
   }
 
-  private static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement) {
+  private static void processStatement(@NonNull SQLiteDatabase db, @NonNull StatementCache statementCache, @NonNull SchemaDeferrals schemaDeferrals, SqlStatement statement) {
     if (statement.statement == null) {
       Log.w(TAG, "Null statement!");
       return;
@@ -181,18 +191,30 @@ public class FullBackupImporter extends FullBackupBase {
       return;
     }
 
-    List<Object> parameters = new LinkedList<>();
+    if (statement.parameters.isEmpty()) {
+      if (schemaDeferrals.defer(statement.statement)) {
+        return;
+      }
 
+      // Anything without parameters is schema rather than content, and compiled statements shouldn't outlive a schema change
+      statementCache.clear();
+      db.execSQL(statement.statement);
+      return;
+    }
+
+    SQLiteStatement compiled = statementCache.get(statement.statement);
+    compiled.clearBindings();
+
+    int index = 1;
     for (SqlStatement.SqlParameter parameter : statement.parameters) {
-      if      (parameter.stringParamter != null)   parameters.add(parameter.stringParamter);
-      else if (parameter.doubleParameter != null)  parameters.add(parameter.doubleParameter);
-      else if (parameter.integerParameter != null) parameters.add(parameter.integerParameter);
-      else if (parameter.blobParameter != null)    parameters.add(parameter.blobParameter.toByteArray());
-      else if (parameter.nullparameter != null)    parameters.add(null);
+      if      (parameter.stringParamter != null)   compiled.bindString(index++, parameter.stringParamter);
+      else if (parameter.doubleParameter != null)  compiled.bindDouble(index++, parameter.doubleParameter);
+      else if (parameter.integerParameter != null) compiled.bindLong(index++, parameter.integerParameter);
+      else if (parameter.blobParameter != null)    compiled.bindBlob(index++, parameter.blobParameter.toByteArray());
+      else if (parameter.nullparameter != null)    compiled.bindNull(index++);
     }
 
-    if (parameters.size() > 0) db.execSQL(statement.statement, parameters.toArray());
-    else                       db.execSQL(statement.statement);
+    compiled.execute();
   }
 
   private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream)
@@ -371,6 +393,97 @@ public class FullBackupImporter extends FullBackupBase {
     return computeTableDropOrder(dependsOn);
   }
 
+  /**
+   * Compiled statements for the content being imported, keyed by their SQL. Restoring a table is the same insert over and over, so
+   * compiling it once rather than once per row saves SQLite from parsing and planning it millions of times.
+   */
+  private static class StatementCache {
+
+    private static final int MAX_SIZE = 32;
+
+    private final SQLiteDatabase                       db;
+    private final LinkedHashMap<String, SQLiteStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(@NonNull SQLiteDatabase db) {
+      this.db = db;
+    }
+
+    @NonNull SQLiteStatement get(@NonNull String sql) {
+      SQLiteStatement statement = statements.get(sql);
+
+      if (statement == null) {
+        if (statements.size() >= MAX_SIZE) {
+          Map.Entry<String, SQLiteStatement> eldest = statements.entrySet().iterator().next();
+          eldest.getValue().close();
+          statements.remove(eldest.getKey());
+        }
+
+        statement = db.compileStatement(sql);
+        statements.put(sql, statement);
+      }
+
+      return statement;
+    }
+
+    void clear() {
+      for (SQLiteStatement statement : statements.values()) {
+        statement.close();
+      }
+      statements.clear();
+    }
+  }
+
+  /**
+   * Secondary indexes and the full text search triggers are much cheaper to build once over all of the data than to keep up to date
+   * row by row while it's being inserted, so their creation is held back until the content has been restored. Unique indexes and any
+   * other triggers are left alone, since they affect what gets inserted.
+   */
+  @VisibleForTesting
+  static class SchemaDeferrals {
+
+    private final List<String> indexes     = new ArrayList<>();
+    private final List<String> ftsTriggers = new ArrayList<>();
+
+    /**
+     * @return True if the statement will be run later by {@link #apply(SQLiteDatabase)} instead of now.
+     */
+    boolean defer(@NonNull String sql) {
+      String normalized = sql.trim().toUpperCase(Locale.US);
+
+      if (normalized.startsWith("CREATE INDEX")) {
+        indexes.add(sql);
+        return true;
+      } else if (normalized.startsWith("CREATE TRIGGER") && normalized.contains(SearchTable.FTS_TABLE_NAME.toUpperCase(Locale.US))) {
+        ftsTriggers.add(sql);
+        return true;
+      } else {
+        return false;
+      }
+    }
+
+    @NonNull List<String> getDeferred() {
+      List<String> deferred = new ArrayList<>(indexes);
+      deferred.addAll(ftsTriggers);
+      return deferred;
+    }
+
+    void apply(@NonNull SQLiteDatabase db) {
+      Log.i(TAG, "Creating " + indexes.size() + " deferred indexes");
+      for (String index : indexes) {
+        db.execSQL(index);
+      }
+
+      if (!ftsTriggers.isEmpty()) {
+        Log.i(TAG, "Rebuilding search index and creating " + ftsTriggers.size() + " deferred triggers");
+        db.execSQL("INSERT INTO " + SearchTable.FTS_TABLE_NAME + "(" + SearchTable.FTS_TABLE_NAME + ") VALUES('rebuild')");
+
+        for (String trigger : ftsTriggers) {
+          db.execSQL(trigger);
+        }
+      }
+    }
+  }
+
   @VisibleForTesting
   static List<String> computeTableDropOrder(@NonNull Map<String, Set<String>> dependsOn) {
     List<String> rootNodes = dependsOn.keySet()
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup
+
+import kotlin.math.pow
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Keeps an exponentially weighted average of the transfer rate, sampled over windows of at least [window], where samples older than
+ * [halfLife] count for half as much as the latest one.
+ */
+class RateEstimator(
+  private val window: Duration = 1.seconds,
+  private val halfLife: Duration = 10.seconds,
+  private val clock: () -> Long = System::currentTimeMillis
+) {
+
+  private var windowStart = -1L
+  private var windowBytes = 0L
+  private var bytesPerMillisecond = -1.0
+
+  val bytesPerSecond: Long
+    @Synchronized get() = if (bytesPerMillisecond < 0) 0 else (bytesPerMillisecond * 1000).toLong()
+
+  @Synchronized
+  fun onBytesTransferred(bytes: Long) {
+    val now = clock()
+    if (windowStart < 0) {
+      windowStart = now
+    }
+
+    windowBytes += bytes
+
+    val elapsed = now - windowStart
+    if (elapsed < window.inWholeMilliseconds) {
+      return
+    }
+
+    val sample = windowBytes.toDouble() / elapsed
+    bytesPerMillisecond = if (bytesPerMillisecond < 0) {
+      sample
+    } else {
+      val weight = 1 - 0.5.pow(elapsed.toDouble() / halfLife.inWholeMilliseconds)
+      bytesPerMillisecond + weight * (sample - bytesPerMillisecond)
+    }
+
+    windowStart = now
+    windowBytes = 0
+  }
+
+  @Synchronized
+  fun timeToTransfer(bytes: Long): Duration? {
+    if (bytesPerMillisecond <= 0) {
+      return null
+    }
+
+    return (bytes / bytesPerMillisecond).toLong().milliseconds
+  }
+}
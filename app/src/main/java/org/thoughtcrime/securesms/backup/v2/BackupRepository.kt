@@ -29,7 +29,7 @@ import org.signal.core.util.getForeignKeyViolations
 import org.signal.core.util.logging.Log
 import org.signal.core.util.requireInt
 import org.signal.core.util.requireNonNullBlob
-import org.signal.core.util.stream.NonClosingOutputStream
+import org.signal.core.util.roundedString
 import org.signal.core.util.urlEncode
 import org.signal.core.util.withinTransaction
 import org.signal.libsignal.zkgroup.backups.BackupLevel
@@ -48,8 +48,11 @@ import org.thoughtcrime.securesms.backup.v2.processor.NotificationProfileProcess
 import org.thoughtcrime.securesms.backup.v2.processor.RecipientArchiveProcessor
 import org.thoughtcrime.securesms.backup.v2.processor.StickerArchiveProcessor
 import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.stream.AsyncBackupExportWriter
+import org.thoughtcrime.securesms.backup.v2.stream.AsyncBackupImportReader
 import org.thoughtcrime.securesms.backup.v2.stream.BackupExportWriter
 import org.thoughtcrime.securesms.backup.v2.stream.BackupImportReader
+import org.thoughtcrime.securesms.backup.v2.stream.ChainedBackupImportReader
 import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupReader
 import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupWriter
 import org.thoughtcrime.securesms.backup.v2.stream.PlainTextBackupReader
@@ -115,6 +118,8 @@ import java.util.concurrent.atomic.AtomicLong
 import kotlin.time.Duration.Companion.days
 import kotlin.time.Duration.Companion.hours
 import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.nanoseconds
+import kotlin.time.DurationUnit
 
 object BackupRepository {
 
@@ -211,8 +216,8 @@ object BackupRepository {
   fun skipMediaRestore() {
     SignalStore.backup.userManuallySkippedMediaRestore = true
 
-    AppDependencies.jobManager.cancelAllInQueue(RestoreAttachmentJob.constructQueueString(RestoreAttachmentJob.RestoreOperation.RESTORE_OFFLOADED))
-    AppDependencies.jobManager.cancelAllInQueue(RestoreAttachmentJob.constructQueueString(RestoreAttachmentJob.RestoreOperation.INITIAL_RESTORE))
+    RestoreAttachmentJob.constructQueueStrings(RestoreAttachmentJob.RestoreOperation.RESTORE_OFFLOADED).forEach { AppDependencies.jobManager.cancelAllInQueue(it) }
+    RestoreAttachmentJob.constructQueueStrings(RestoreAttachmentJob.RestoreOperation.INITIAL_RESTORE).forEach { AppDependencies.jobManager.cancelAllInQueue(it) }
     AppDependencies.jobManager.cancelAllInQueue(RestoreAttachmentJob.constructQueueString(RestoreAttachmentJob.RestoreOperation.MANUAL))
 
     AppDependencies.jobManager.add(CheckRestoreMediaLeftJob(RestoreAttachmentJob.constructQueueString(RestoreAttachmentJob.RestoreOperation.RESTORE_OFFLOADED)))
@@ -452,18 +457,11 @@ object BackupRepository {
   }
 
   fun localExport(
-    main: OutputStream,
+    writer: BackupExportWriter,
     localBackupProgressEmitter: ExportProgressListener,
     cancellationSignal: () -> Boolean = { false },
     archiveAttachment: (AttachmentTable.LocalArchivableAttachment, () -> InputStream?) -> Unit
   ) {
-    val writer = EncryptedBackupWriter(
-      key = SignalStore.backup.messageBackupKey,
-      aci = SignalStore.account.aci!!,
-      outputStream = NonClosingOutputStream(main),
-      append = { main.write(it) }
-    )
-
     export(currentTime = System.currentTimeMillis(), isLocal = true, writer = writer, progressEmitter = localBackupProgressEmitter, cancellationSignal = cancellationSignal) { dbSnapshot ->
       val localArchivableAttachments = dbSnapshot
         .attachmentTable
@@ -543,6 +541,7 @@ object BackupRepository {
     exportExtras: ((SignalDatabase) -> Unit)? = null
   ) {
     val eventTimer = EventTimer()
+    val exportStartTime = System.nanoTime()
     val mainDbName = if (isLocal) LOCAL_MAIN_DB_SNAPSHOT_NAME else REMOTE_MAIN_DB_SNAPSHOT_NAME
     val keyValueDbName = if (isLocal) LOCAL_KEYVALUE_DB_SNAPSHOT_NAME else REMOTE_KEYVALUE_DB_SNAPSHOT_NAME
 
@@ -559,8 +558,9 @@ object BackupRepository {
 
       var frameCount = 0L
 
-      writer.use {
-        writer.write(
+      // Compression and encryption happen on the writer's own thread, while we keep reading and converting
+      AsyncBackupExportWriter(writer).use { frameWriter ->
+        frameWriter.write(
           BackupInfo(
             version = VERSION,
             backupTimeMs = exportState.backupTime,
@@ -574,7 +574,7 @@ object BackupRepository {
         dbSnapshot.rawWritableDatabase.withinTransaction {
           progressEmitter?.onAccount()
           AccountDataArchiveProcessor.export(dbSnapshot, signalStoreSnapshot) {
-            writer.write(it)
+            frameWriter.write(it)
             eventTimer.emit("account")
             frameCount++
           }
@@ -585,7 +585,7 @@ object BackupRepository {
 
           progressEmitter?.onRecipient()
           RecipientArchiveProcessor.export(dbSnapshot, signalStoreSnapshot, exportState, selfRecipientId, selfAci) {
-            writer.write(it)
+            frameWriter.write(it)
             eventTimer.emit("recipient")
             frameCount++
           }
@@ -596,7 +596,7 @@ object BackupRepository {
 
           progressEmitter?.onThread()
           ChatArchiveProcessor.export(dbSnapshot, exportState) { frame ->
-            writer.write(frame)
+            frameWriter.write(frame)
             eventTimer.emit("thread")
             frameCount++
           }
@@ -606,7 +606,7 @@ object BackupRepository {
 
           progressEmitter?.onCall()
           AdHocCallArchiveProcessor.export(dbSnapshot, exportState) { frame ->
-            writer.write(frame)
+            frameWriter.write(frame)
             eventTimer.emit("call")
             frameCount++
           }
@@ -617,7 +617,7 @@ object BackupRepository {
 
           progressEmitter?.onSticker()
           StickerArchiveProcessor.export(dbSnapshot) { frame ->
-            writer.write(frame)
+            frameWriter.write(frame)
             eventTimer.emit("sticker-pack")
             frameCount++
           }
@@ -628,7 +628,7 @@ object BackupRepository {
 
           progressEmitter?.onNotificationProfile()
           NotificationProfileProcessor.export(dbSnapshot, exportState) { frame ->
-            writer.write(frame)
+            frameWriter.write(frame)
             eventTimer.emit("notification-profile")
             frameCount++
           }
@@ -639,7 +639,7 @@ object BackupRepository {
 
           progressEmitter?.onChatFolder()
           ChatFolderProcessor.export(dbSnapshot, exportState) { frame ->
-            writer.write(frame)
+            frameWriter.write(frame)
             eventTimer.emit("chat-folder")
             frameCount++
           }
@@ -652,7 +652,7 @@ object BackupRepository {
           val frameCountStart = frameCount
           progressEmitter?.onMessage(0, approximateMessageCount)
           ChatItemArchiveProcessor.export(dbSnapshot, exportState, selfRecipientId, cancellationSignal) { frame ->
-            writer.write(frame)
+            frameWriter.write(frame)
             eventTimer.emit("message")
             frameCount++
 
@@ -670,14 +670,18 @@ object BackupRepository {
 
       exportExtras?.invoke(dbSnapshot)
 
-      Log.d(TAG, "[export] totalFrames: $frameCount | ${eventTimer.stop().summary}")
+      val elapsedSeconds = (System.nanoTime() - exportStartTime).nanoseconds.toDouble(DurationUnit.SECONDS)
+      Log.d(TAG, "[export] totalFrames: $frameCount | framesPerSecond: ${(frameCount / elapsedSeconds).roundedString(1)} | ${eventTimer.stop().summary}")
     } finally {
       deleteDatabaseSnapshot(mainDbName)
       deleteDatabaseSnapshot(keyValueDbName)
     }
   }
 
-  fun localImport(mainStreamFactory: () -> InputStream, mainStreamLength: Long, selfData: SelfData): ImportResult {
+  /**
+   * @param segments Further streams of frames that follow the main stream, as written for an incremental local archive.
+   */
+  fun localImport(mainStreamFactory: () -> InputStream, mainStreamLength: Long, selfData: SelfData, segments: List<ChainedBackupImportReader.Part> = emptyList()): ImportResult {
     val backupKey = SignalStore.backup.messageBackupKey
 
     val frameReader = try {
@@ -690,9 +694,11 @@ object BackupRepository {
     } catch (e: IOException) {
       Log.w(TAG, "Unable to import local archive", e)
       return ImportResult.Failure
+    }.let { mainReader ->
+      if (segments.isEmpty()) mainReader else ChainedBackupImportReader(mainReader, segments)
     }
 
-    return frameReader.use { reader ->
+    return AsyncBackupImportReader(frameReader).use { reader ->
       import(reader, selfData, cancellationSignal = { false })
     }
   }
@@ -718,7 +724,7 @@ object BackupRepository {
       )
     }
 
-    return frameReader.use { reader ->
+    return AsyncBackupImportReader(frameReader).use { reader ->
       import(reader, selfData, cancellationSignal)
     }
   }
@@ -815,6 +821,7 @@ object BackupRepository {
       Log.d(TAG, "[import] Beginning to read frames.")
       val totalLength = frameReader.getStreamLength()
       var frameCount = 0
+      var lastBytesRead = -1L
       for (frame in frameReader) {
         when {
           frame.account != null -> {
@@ -875,7 +882,13 @@ object BackupRepository {
 
           else -> Log.w(TAG, "Unrecognized frame")
         }
-        EventBus.getDefault().post(RestoreV2Event(RestoreV2Event.Type.PROGRESS_RESTORE, frameReader.getBytesRead().bytes, totalLength.bytes))
+
+        // Bytes are read in chunks that span many frames, so only post when there's actually progress to report
+        val bytesRead = frameReader.getBytesRead()
+        if (bytesRead != lastBytesRead) {
+          lastBytesRead = bytesRead
+          EventBus.getDefault().post(RestoreV2Event(RestoreV2Event.Type.PROGRESS_RESTORE, bytesRead.bytes, totalLength.bytes))
+        }
       }
 
       if (chatItemInserter.flush()) {
@@ -20,20 +20,34 @@ import org.thoughtcrime.securesms.jobs.RestoreAttachmentThumbnailJob
 object BackupRestoreManager {
 
   private val reprioritizedAttachments: HashSet<AttachmentId> = HashSet()
+  private val reprioritizedFullAttachments: HashSet<AttachmentId> = HashSet()
 
   /**
    * Raise priority of all attachments for the included message records.
    *
-   * This is so we can make certain attachments get downloaded more quickly
+   * This is so we can make certain attachments get downloaded more quickly. Thumbnails get their own high priority jobs, while full size
+   * restores that are already queued by [MediaRestoreScheduler] are moved to the front of their queues.
    */
   fun prioritizeAttachmentsIfNeeded(messageRecords: List<MessageRecord>) {
     SignalExecutors.BOUNDED.execute {
       synchronized(this) {
-        val restoringAttachments = messageRecords
+        val attachments = messageRecords
           .asSequence()
           .mapNotNull { (it as? MmsMessageRecord?)?.slideDeck?.slides }
           .flatten()
           .mapNotNull { it.asAttachment() as? DatabaseAttachment }
+          .toList()
+
+        val restoringFullAttachments = attachments
+          .filter { it.transferState == AttachmentTable.TRANSFER_RESTORE_IN_PROGRESS && !reprioritizedFullAttachments.contains(it.attachmentId) }
+          .map { it.attachmentId }
+          .toSet()
+
+        reprioritizedFullAttachments += restoringFullAttachments
+        MediaRestoreScheduler.prioritize(restoringFullAttachments)
+
+        val restoringAttachments = attachments
+          .asSequence()
           .filter {
             val needThumbnail = it.thumbnailRestoreState == AttachmentTable.ThumbnailRestoreState.NEEDS_RESTORE && it.transferState == AttachmentTable.TRANSFER_RESTORE_IN_PROGRESS
             (needThumbnail || it.thumbnailRestoreState == AttachmentTable.ThumbnailRestoreState.IN_PROGRESS) && !reprioritizedAttachments.contains(it.attachmentId)
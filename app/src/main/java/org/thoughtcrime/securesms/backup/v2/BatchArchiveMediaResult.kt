@@ -29,6 +29,14 @@ data class BatchArchiveMediaResult(
       .asSequence()
       .filter { it.status == 410 }
 
+  /**
+   * The status of the copy for each attachment the server responded about.
+   */
+  val statusByAttachmentId: Map<AttachmentId, Int?>
+    get() = response
+      .responses
+      .associate { mediaIdToAttachmentId(it.mediaId) to it.status }
+
   fun mediaIdToAttachmentId(mediaId: String): AttachmentId {
     return mediaIdToAttachmentId[mediaId]!!
   }
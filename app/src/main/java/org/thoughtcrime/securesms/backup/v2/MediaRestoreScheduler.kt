@@ -0,0 +1,148 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2
+
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.jobmanager.Job
+import org.thoughtcrime.securesms.jobs.RestoreAttachmentJob
+import org.thoughtcrime.securesms.jobs.RestoreAttachmentJob.RestoreOperation
+import org.thoughtcrime.securesms.jobs.protos.RestoreAttachmentJobData
+import kotlin.time.Duration.Companion.days
+
+/**
+ * Decides the order and queue for each full size attachment in a bulk media restore.
+ *
+ * Every CDN gets a fixed number of lanes, each of which is a job queue, so that's how many downloads run against it at once. Each attachment
+ * goes to whichever lane of its CDN has the fewest bytes assigned so far. That keeps the lanes draining at about the same rate, rather than one
+ * of them being left with all of the large videos at the end while the others sit idle.
+ *
+ * Newer messages are restored first. Among messages from the same day, smaller attachments go first so that more of them show up sooner.
+ * Thumbnails have their own jobs, which run ahead of these since full size restores are low priority. [prioritize] moves specific
+ * attachments, such as those in the conversation the user is looking at, to the front of their lanes.
+ *
+ * One instance is meant to be used for all of the batches in a single restore, so that lanes stay balanced across batches.
+ */
+class MediaRestoreScheduler(private val operation: RestoreOperation) {
+
+  companion object {
+    private val TAG = Log.tag(MediaRestoreScheduler::class)
+
+    /** Number of concurrent downloads for each CDN. */
+    private val LANES_PER_CDN: Map<Int, Int> = mapOf(
+      0 to 2,
+      2 to 3,
+      3 to 4
+    )
+
+    /** Where attachments from a CDN we don't have a budget for are queued. */
+    private const val DEFAULT_CDN = 0
+
+    private val RECENCY_BUCKET = 1.days.inWholeMilliseconds
+
+    /**
+     * All of the lane queues for [operation], whether or not anything is in them.
+     */
+    fun laneQueues(operation: RestoreOperation): List<String> {
+      return LANES_PER_CDN.flatMap { (cdn, lanes) ->
+        (0 until lanes).map { lane -> RestoreAttachmentJob.constructQueueString(operation, cdn, lane) }
+      }
+    }
+
+    /**
+     * Raises the priority of the pending restores for [attachmentIds], so they run next in their lanes. Restores that have already started
+     * are unaffected.
+     */
+    fun prioritize(attachmentIds: Collection<AttachmentId>) {
+      if (attachmentIds.isEmpty()) {
+        return
+      }
+
+      val ids: Set<Long> = attachmentIds.map { it.id }.toSet()
+
+      AppDependencies.jobManager.update { jobSpec ->
+        val serializedData = jobSpec.serializedData
+        if (jobSpec.factoryKey != RestoreAttachmentJob.KEY || jobSpec.globalPriority == Job.Parameters.PRIORITY_HIGH || serializedData == null) {
+          return@update jobSpec
+        }
+
+        if (RestoreAttachmentJobData.ADAPTER.decode(serializedData).attachmentId in ids) {
+          jobSpec.copy(globalPriority = Job.Parameters.PRIORITY_HIGH)
+        } else {
+          jobSpec
+        }
+      }
+    }
+  }
+
+  private val laneBytes: MutableMap<Int, LongArray> = mutableMapOf()
+  private val usedQueues: MutableSet<String> = linkedSetOf()
+
+  /**
+   * The lane queues that have had something scheduled in them so far.
+   */
+  val queues: Set<String>
+    get() = usedQueues
+
+  /**
+   * Creates the restore jobs for [requests], in the order they should be enqueued.
+   */
+  fun schedule(requests: List<Request>): List<RestoreAttachmentJob> {
+    return plan(requests).map { assignment ->
+      val request = assignment.request
+      when (operation) {
+        RestoreOperation.RESTORE_OFFLOADED -> RestoreAttachmentJob.forOffloadedRestore(request.attachmentId, request.messageId, assignment.queue)
+        else -> RestoreAttachmentJob.forInitialRestore(request.attachmentId, request.messageId, assignment.queue)
+      }
+    }
+  }
+
+  /**
+   * Orders [requests] and assigns each of them a lane.
+   */
+  fun plan(requests: List<Request>): List<Assignment> {
+    val ordered = requests.sortedWith(
+      compareByDescending<Request> { it.dateReceived / RECENCY_BUCKET }
+        .thenBy { it.size }
+        .thenByDescending { it.dateReceived }
+    )
+
+    val assignments = ordered.map { request ->
+      val cdn = if (request.cdn in LANES_PER_CDN) request.cdn else DEFAULT_CDN
+      val bytes = laneBytes.getOrPut(cdn) { LongArray(LANES_PER_CDN.getValue(cdn)) }
+
+      var lane = 0
+      for (i in 1 until bytes.size) {
+        if (bytes[i] < bytes[lane]) {
+          lane = i
+        }
+      }
+      bytes[lane] += request.size
+
+      val queue = RestoreAttachmentJob.constructQueueString(operation, cdn, lane)
+      usedQueues += queue
+
+      Assignment(request, queue)
+    }
+
+    Log.d(TAG, "Planned ${assignments.size} restores. Bytes per lane: ${laneBytes.entries.joinToString { (cdn, bytes) -> "cdn$cdn=${bytes.contentToString()}" }}")
+    return assignments
+  }
+
+  class Request(
+    val attachmentId: AttachmentId,
+    val messageId: Long,
+    val cdn: Int,
+    val size: Long,
+    val dateReceived: Long
+  )
+
+  class Assignment(
+    val request: Request,
+    val queue: String
+  )
+}
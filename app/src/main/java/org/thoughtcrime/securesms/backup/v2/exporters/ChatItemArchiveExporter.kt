@@ -13,7 +13,9 @@ import org.signal.core.util.Base64
 import org.signal.core.util.EventTimer
 import org.signal.core.util.Hex
 import org.signal.core.util.ParallelEventTimer
+import org.signal.core.util.ThreadUtil
 import org.signal.core.util.concurrent.SignalExecutors
+import org.signal.core.util.concurrent.SignalExecutors.NumberedThreadFactory
 import org.signal.core.util.isNotNullOrBlank
 import org.signal.core.util.logging.Log
 import org.signal.core.util.nullIfBlank
@@ -93,6 +95,7 @@ import java.util.LinkedList
 import java.util.Queue
 import java.util.concurrent.Callable
 import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 import java.util.concurrent.Future
 import kotlin.math.max
 import kotlin.time.Duration.Companion.days
@@ -101,11 +104,17 @@ import org.thoughtcrime.securesms.backup.v2.proto.GiftBadge as BackupGiftBadge
 
 private val TAG = Log.tag(ChatItemArchiveExporter::class.java)
 
+private val TRANSFORM_THREADS = (Runtime.getRuntime().availableProcessors() - 1).coerceIn(1, 4)
+private const val TRANSFORM_CHUNK_SIZE = 250
+
 /**
  * An iterator for chat items with a clever performance twist: rather than do the extra queries one at a time (for reactions,
  * attachments, etc), this will populate items in batches, doing bulk lookups to improve throughput. We keep these in a buffer
  * and only do more queries when the buffer is empty.
  *
+ * Work on a batch is also spread out: the next batch is read on a background thread while the current one is converted, and the
+ * conversion itself is split across several threads. Items still come out in the same order they would if done one at a time.
+ *
  * All of this complexity is hidden from the user -- they just get a normal iterator interface.
  */
 class ChatItemArchiveExporter(
@@ -123,11 +132,14 @@ class ChatItemArchiveExporter(
   private val eventTimer = EventTimer()
 
   /** Timer for just the transformation process, to see what types of transformations are taking more time.  */
-  private val transformTimer = EventTimer()
+  private val transformTimer = ParallelEventTimer()
 
-  /** Timer for fetching extra data. */
+  /** Timer for reading messages and fetching extra data. */
   private val extraDataTimer = ParallelEventTimer()
 
+  private val readExecutor: ExecutorService = SignalExecutors.newCachedSingleThreadExecutor("backup-export-read", ThreadUtil.PRIORITY_BACKGROUND_THREAD)
+  private val transformExecutor: ExecutorService = Executors.newFixedThreadPool(TRANSFORM_THREADS, NumberedThreadFactory("backup-export-transform", ThreadUtil.PRIORITY_BACKGROUND_THREAD))
+
   /**
    * A queue of already-parsed ChatItems. Processing in batches means that we read ahead in the cursor and put
    * the pending items here.
@@ -138,10 +150,11 @@ class ChatItemArchiveExporter(
 
   private var lastSeenReceivedTime = 0L
 
-  private var records: LinkedHashMap<Long, BackupMessageRecord> = readNextMessageRecordBatch(emptySet())
+  /** The batch after the one currently in [buffer]. Only ever one batch ahead. */
+  private var nextBatch: Future<MessageBatch> = readExecutor.submitTyped { readBatch(emptySet()) }
 
   override fun hasNext(): Boolean {
-    return buffer.isNotEmpty() || records.isNotEmpty()
+    return buffer.isNotEmpty() || nextBatch.get().records.isNotEmpty()
   }
 
   override fun next(): ChatItem? {
@@ -149,268 +162,312 @@ class ChatItemArchiveExporter(
       return buffer.remove()
     }
 
-    val extraData = fetchExtraMessageData(db, records.keys)
-    eventTimer.emit("extra-data")
-    transformTimer.emit("ignore")
+    val batch = nextBatch.get()
+    eventTimer.emit("read-wait")
 
-    for ((id, record) in records) {
-      val builder = record.toBasicChatItemBuilder(selfRecipientId, extraData.groupReceiptsById[id], exportState, backupStartTime)
-      transformTimer.emit("basic")
+    if (batch.records.isEmpty()) {
+      return null
+    }
 
-      if (builder == null) {
-        continue
-      }
+    // Read the next batch while we work on this one
+    nextBatch = readExecutor.submitTyped { readBatch(batch.records.keys) }
 
-      when {
-        record.remoteDeleted -> {
-          builder.remoteDeletedMessage = RemoteDeletedMessage()
-          transformTimer.emit("remote-delete")
-        }
+    val records: List<BackupMessageRecord> = batch.records.values.toList()
+    val builders: List<ChatItem.Builder?> = records
+      .chunked(TRANSFORM_CHUNK_SIZE)
+      .map { chunk -> transformExecutor.submitTyped { chunk.map { record -> record.toChatItemBuilder(batch.extraData) } } }
+      .flatMap { it.get() }
+    eventTimer.emit("transform")
 
-        MessageTypes.isJoinedType(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.JOINED_SIGNAL)
-          transformTimer.emit("simple-update")
-        }
+    for (i in records.indices) {
+      val record = records[i]
+      val builder = builders[i] ?: continue
 
-        MessageTypes.isIdentityUpdate(record.type) -> {
-          if (record.fromRecipientId == selfRecipientId.toLong()) {
-            Log.w(TAG, ExportSkips.identityUpdateForSelf(record.dateSent))
-            continue
-          }
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_UPDATE)
-          transformTimer.emit("simple-update")
+      if (record.latestRevisionId == null) {
+        builder.revisions = revisionMap.remove(record.id)?.repairRevisions(builder) ?: emptyList()
+        val chatItem = builder.build().validateChatItem() ?: continue
+        buffer += chatItem
+      } else {
+        var previousEdits = revisionMap[record.latestRevisionId]
+        if (previousEdits == null) {
+          previousEdits = ArrayList()
+          revisionMap[record.latestRevisionId] = previousEdits
         }
+        previousEdits += builder.build()
+      }
+    }
+    eventTimer.emit("revisions")
 
-        MessageTypes.isIdentityVerified(record.type) -> {
-          if (record.toRecipientId == selfRecipientId.toLong()) {
-            Log.w(TAG, ExportSkips.identityVerifiedForSelf(record.dateSent))
-            continue
-          }
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_VERIFIED)
-          transformTimer.emit("simple-update")
-        }
+    return if (buffer.isNotEmpty()) {
+      buffer.remove()
+    } else {
+      null
+    }
+  }
 
-        MessageTypes.isIdentityDefault(record.type) -> {
-          if (record.toRecipientId == selfRecipientId.toLong()) {
-            Log.w(TAG, ExportSkips.identityDefaultForSelf(record.dateSent))
-            continue
-          }
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_DEFAULT)
-          transformTimer.emit("simple-update")
-        }
+  override fun close() {
+    // Make sure nothing is still reading from the database before we hand it back
+    try {
+      nextBatch.get()
+    } catch (e: Exception) {
+      Log.w(TAG, "Read-ahead failed while closing.", e)
+    }
+    readExecutor.shutdown()
+    transformExecutor.shutdown()
 
-        MessageTypes.isChangeNumber(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.CHANGE_NUMBER)
-          transformTimer.emit("simple-update")
-        }
+    Log.d(TAG, "[ChatItemArchiveExporter][batchSize = $batchSize] ${eventTimer.stop().summary}")
+    Log.d(TAG, "[ChatItemArchiveExporterTransform][batchSize = $batchSize] ${transformTimer.stop().summary}")
+    Log.d(TAG, "[ChatItemArchiveExporterExtraData][batchSize = $batchSize] ${extraDataTimer.stop().summary}")
+  }
 
-        MessageTypes.isReleaseChannelDonationRequest(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.RELEASE_CHANNEL_DONATION_REQUEST)
-          transformTimer.emit("simple-update")
-        }
+  private fun readBatch(pastIds: Set<Long>): MessageBatch {
+    val records = extraDataTimer.timeEvent("messages") {
+      readNextMessageRecordBatch(pastIds)
+    }
 
-        MessageTypes.isEndSessionType(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.END_SESSION)
-          transformTimer.emit("simple-update")
-        }
+    val extraData = if (records.isNotEmpty()) {
+      fetchExtraMessageData(db, records.keys)
+    } else {
+      ExtraMessageData(emptyMap(), emptyMap(), emptyMap(), emptyMap())
+    }
 
-        MessageTypes.isChatSessionRefresh(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.CHAT_SESSION_REFRESH)
-          transformTimer.emit("simple-update")
-        }
+    return MessageBatch(records, extraData)
+  }
 
-        MessageTypes.isBadDecryptType(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.BAD_DECRYPT)
-          transformTimer.emit("simple-update")
-        }
+  /**
+   * Converts a single record into a [ChatItem.Builder], or returns null if it shouldn't be exported. Revisions are attached later, in order, so this
+   * is safe to call for many records at once.
+   */
+  private fun BackupMessageRecord.toChatItemBuilder(extraData: ExtraMessageData): ChatItem.Builder? {
+    val record = this
+    val id = record.id
+    val transformTimer = this@ChatItemArchiveExporter.transformTimer.beginSeries()
 
-        MessageTypes.isPaymentsActivated(record.type) -> {
-          continue
-        }
+    val builder = record.toBasicChatItemBuilder(selfRecipientId, extraData.groupReceiptsById[id], exportState, backupStartTime)
+    transformTimer.emit("basic")
 
-        MessageTypes.isPaymentsRequestToActivate(record.type) -> {
-          continue
-        }
+    if (builder == null) {
+      return null
+    }
 
-        MessageTypes.isUnsupportedMessageType(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.UNSUPPORTED_PROTOCOL_MESSAGE)
-          transformTimer.emit("simple-update")
-        }
+    when {
+      record.remoteDeleted -> {
+        builder.remoteDeletedMessage = RemoteDeletedMessage()
+        transformTimer.emit("remote-delete")
+      }
 
-        MessageTypes.isReportedSpam(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.REPORTED_SPAM)
-          transformTimer.emit("simple-update")
-        }
+      MessageTypes.isJoinedType(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.JOINED_SIGNAL)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isMessageRequestAccepted(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.MESSAGE_REQUEST_ACCEPTED)
-          transformTimer.emit("simple-update")
+      MessageTypes.isIdentityUpdate(record.type) -> {
+        if (record.fromRecipientId == selfRecipientId.toLong()) {
+          Log.w(TAG, ExportSkips.identityUpdateForSelf(record.dateSent))
+          return null
         }
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_UPDATE)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isBlocked(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.BLOCKED)
-          transformTimer.emit("simple-update")
+      MessageTypes.isIdentityVerified(record.type) -> {
+        if (record.toRecipientId == selfRecipientId.toLong()) {
+          Log.w(TAG, ExportSkips.identityVerifiedForSelf(record.dateSent))
+          return null
         }
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_VERIFIED)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isUnblocked(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.UNBLOCKED)
-          transformTimer.emit("simple-update")
+      MessageTypes.isIdentityDefault(record.type) -> {
+        if (record.toRecipientId == selfRecipientId.toLong()) {
+          Log.w(TAG, ExportSkips.identityDefaultForSelf(record.dateSent))
+          return null
         }
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_DEFAULT)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isExpirationTimerUpdate(record.type) -> {
-          if (exportState.threadIdToRecipientId[record.threadId] in exportState.groupRecipientIds) {
-            builder.updateMessage = record.toRemoteGroupExpireTimerUpdateFromGv1(exportState) ?: continue
-          } else {
-            builder.updateMessage = ChatUpdateMessage(expirationTimerChange = ExpirationTimerChatUpdate(record.expiresIn))
-          }
+      MessageTypes.isChangeNumber(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.CHANGE_NUMBER)
+        transformTimer.emit("simple-update")
+      }
 
-          builder.expireStartDate = null
-          builder.expiresInMs = null
-          transformTimer.emit("expire-update")
-        }
+      MessageTypes.isReleaseChannelDonationRequest(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.RELEASE_CHANNEL_DONATION_REQUEST)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isProfileChange(record.type) -> {
-          if (record.threadId == noteToSelfThreadId) {
-            Log.w(TAG, ExportSkips.profileChangeInNoteToSelf(record.dateSent))
-            continue
-          }
+      MessageTypes.isEndSessionType(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.END_SESSION)
+        transformTimer.emit("simple-update")
+      }
 
-          builder.updateMessage = record.toRemoteProfileChangeUpdate() ?: continue
-          transformTimer.emit("profile-change")
-        }
+      MessageTypes.isChatSessionRefresh(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.CHAT_SESSION_REFRESH)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isSessionSwitchoverType(record.type) -> {
-          builder.updateMessage = record.toRemoteSessionSwitchoverUpdate()
-          transformTimer.emit("sse")
-        }
+      MessageTypes.isBadDecryptType(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.BAD_DECRYPT)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isThreadMergeType(record.type) -> {
-          builder.updateMessage = record.toRemoteThreadMergeUpdate()?.takeIf { exportState.recipientIdToAci.contains(builder.authorId) } ?: continue
-          transformTimer.emit("thread-merge")
-        }
+      MessageTypes.isPaymentsActivated(record.type) -> {
+        return null
+      }
 
-        MessageTypes.isGroupV2(record.type) && MessageTypes.isGroupUpdate(record.type) -> {
-          val update = record.toRemoteGroupUpdate() ?: continue
-          if (update.groupChange!!.updates.isEmpty()) {
-            Log.w(TAG, ExportSkips.groupUpdateHasNoUpdates(record.dateSent))
-            continue
-          }
-          builder.updateMessage = update
-          transformTimer.emit("group-update-v2")
-        }
+      MessageTypes.isPaymentsRequestToActivate(record.type) -> {
+        return null
+      }
 
-        MessageTypes.isGroupUpdate(record.type) || MessageTypes.isGroupQuit(record.type) -> {
-          builder.updateMessage = record.toRemoteGroupUpdateFromGv1(exportState) ?: continue
-          transformTimer.emit("group-update-v1")
-        }
+      MessageTypes.isUnsupportedMessageType(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.UNSUPPORTED_PROTOCOL_MESSAGE)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isGroupV1MigrationEvent(record.type) -> {
-          builder.updateMessage = ChatUpdateMessage(
-            groupChange = GroupChangeChatUpdate(
-              updates = listOf(GroupChangeChatUpdate.Update(groupV2MigrationUpdate = GroupV2MigrationUpdate()))
-            )
-          )
-          transformTimer.emit("gv1-migration")
-        }
+      MessageTypes.isReportedSpam(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.REPORTED_SPAM)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isCallLog(record.type) -> {
-          val call = db.callTable.getCallByMessageId(record.id)
-          builder.updateMessage = call?.toRemoteCallUpdate(exportState, record) ?: continue
-          transformTimer.emit("call-log")
-        }
+      MessageTypes.isMessageRequestAccepted(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.MESSAGE_REQUEST_ACCEPTED)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isPaymentsNotification(record.type) -> {
-          continue
-        }
+      MessageTypes.isBlocked(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.BLOCKED)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isGiftBadge(record.type) -> {
-          builder.giftBadge = record.toRemoteGiftBadgeUpdate() ?: continue
-          transformTimer.emit("gift-badge")
-        }
+      MessageTypes.isUnblocked(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.UNBLOCKED)
+        transformTimer.emit("simple-update")
+      }
 
-        !record.sharedContacts.isNullOrEmpty() -> {
-          builder.contactMessage = record.toRemoteContactMessage(mediaArchiveEnabled = mediaArchiveEnabled, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[id]) ?: continue
-          transformTimer.emit("contact")
+      MessageTypes.isExpirationTimerUpdate(record.type) -> {
+        if (exportState.threadIdToRecipientId[record.threadId] in exportState.groupRecipientIds) {
+          builder.updateMessage = record.toRemoteGroupExpireTimerUpdateFromGv1(exportState) ?: return null
+        } else {
+          builder.updateMessage = ChatUpdateMessage(expirationTimerChange = ExpirationTimerChatUpdate(record.expiresIn))
         }
 
-        record.viewOnce -> {
-          builder.viewOnceMessage = record.toRemoteViewOnceMessage(mediaArchiveEnabled = mediaArchiveEnabled, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[id])
-          transformTimer.emit("voice")
-        }
+        builder.expireStartDate = null
+        builder.expiresInMs = null
+        transformTimer.emit("expire-update")
+      }
 
-        record.parentStoryId != 0L -> {
-          if (record.threadId == noteToSelfThreadId) {
-            Log.w(TAG, ExportSkips.directStoryReplyInNoteToSelf(record.dateSent))
-            continue
-          }
-          builder.directStoryReplyMessage = record.toRemoteDirectStoryReplyMessage(mediaArchiveEnabled = mediaArchiveEnabled, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[record.id]) ?: continue
-          transformTimer.emit("story")
+      MessageTypes.isProfileChange(record.type) -> {
+        if (record.threadId == noteToSelfThreadId) {
+          Log.w(TAG, ExportSkips.profileChangeInNoteToSelf(record.dateSent))
+          return null
         }
 
-        else -> {
-          val attachments = extraData.attachmentsById[record.id]
-          if (attachments?.isNotEmpty() == true && attachments.any { it.contentType == MediaUtil.LONG_TEXT } && record.body.isNullOrBlank()) {
-            Log.w(TAG, ExportSkips.invalidLongTextChatItem(record.dateSent))
-            continue
-          }
+        builder.updateMessage = record.toRemoteProfileChangeUpdate() ?: return null
+        transformTimer.emit("profile-change")
+      }
 
-          val sticker = attachments?.firstOrNull { dbAttachment -> dbAttachment.isSticker }
-
-          if (sticker?.stickerLocator != null) {
-            builder.stickerMessage = sticker.toRemoteStickerMessage(sentTimestamp = record.dateSent, mediaArchiveEnabled = mediaArchiveEnabled, reactions = extraData.reactionsById[id])
-          } else {
-            val standardMessage = record.toRemoteStandardMessage(
-              exportState = exportState,
-              mediaArchiveEnabled = mediaArchiveEnabled,
-              reactionRecords = extraData.reactionsById[id],
-              mentions = extraData.mentionsById[id],
-              attachments = extraData.attachmentsById[record.id]
-            )
-
-            if (standardMessage.text.isNullOrBlank() && standardMessage.attachments.isEmpty()) {
-              Log.w(TAG, ExportSkips.emptyStandardMessage(record.dateSent))
-              continue
-            }
+      MessageTypes.isSessionSwitchoverType(record.type) -> {
+        builder.updateMessage = record.toRemoteSessionSwitchoverUpdate()
+        transformTimer.emit("sse")
+      }
 
-            builder.standardMessage = standardMessage
-            transformTimer.emit("standard")
-          }
+      MessageTypes.isThreadMergeType(record.type) -> {
+        builder.updateMessage = record.toRemoteThreadMergeUpdate()?.takeIf { exportState.recipientIdToAci.contains(builder.authorId) } ?: return null
+        transformTimer.emit("thread-merge")
+      }
+
+      MessageTypes.isGroupV2(record.type) && MessageTypes.isGroupUpdate(record.type) -> {
+        val update = record.toRemoteGroupUpdate() ?: return null
+        if (update.groupChange!!.updates.isEmpty()) {
+          Log.w(TAG, ExportSkips.groupUpdateHasNoUpdates(record.dateSent))
+          return null
         }
+        builder.updateMessage = update
+        transformTimer.emit("group-update-v2")
       }
 
-      if (record.latestRevisionId == null) {
-        builder.revisions = revisionMap.remove(record.id)?.repairRevisions(builder) ?: emptyList()
-        val chatItem = builder.build().validateChatItem() ?: continue
-        buffer += chatItem
-      } else {
-        var previousEdits = revisionMap[record.latestRevisionId]
-        if (previousEdits == null) {
-          previousEdits = ArrayList()
-          revisionMap[record.latestRevisionId] = previousEdits
+      MessageTypes.isGroupUpdate(record.type) || MessageTypes.isGroupQuit(record.type) -> {
+        builder.updateMessage = record.toRemoteGroupUpdateFromGv1(exportState) ?: return null
+        transformTimer.emit("group-update-v1")
+      }
+
+      MessageTypes.isGroupV1MigrationEvent(record.type) -> {
+        builder.updateMessage = ChatUpdateMessage(
+          groupChange = GroupChangeChatUpdate(
+            updates = listOf(GroupChangeChatUpdate.Update(groupV2MigrationUpdate = GroupV2MigrationUpdate()))
+          )
+        )
+        transformTimer.emit("gv1-migration")
+      }
+
+      MessageTypes.isCallLog(record.type) -> {
+        val call = db.callTable.getCallByMessageId(record.id)
+        builder.updateMessage = call?.toRemoteCallUpdate(exportState, record) ?: return null
+        transformTimer.emit("call-log")
+      }
+
+      MessageTypes.isPaymentsNotification(record.type) -> {
+        return null
+      }
+
+      MessageTypes.isGiftBadge(record.type) -> {
+        builder.giftBadge = record.toRemoteGiftBadgeUpdate() ?: return null
+        transformTimer.emit("gift-badge")
+      }
+
+      !record.sharedContacts.isNullOrEmpty() -> {
+        builder.contactMessage = record.toRemoteContactMessage(mediaArchiveEnabled = mediaArchiveEnabled, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[id]) ?: return null
+        transformTimer.emit("contact")
+      }
+
+      record.viewOnce -> {
+        builder.viewOnceMessage = record.toRemoteViewOnceMessage(mediaArchiveEnabled = mediaArchiveEnabled, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[id])
+        transformTimer.emit("voice")
+      }
+
+      record.parentStoryId != 0L -> {
+        if (record.threadId == noteToSelfThreadId) {
+          Log.w(TAG, ExportSkips.directStoryReplyInNoteToSelf(record.dateSent))
+          return null
         }
-        previousEdits += builder.build()
+        builder.directStoryReplyMessage = record.toRemoteDirectStoryReplyMessage(mediaArchiveEnabled = mediaArchiveEnabled, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[record.id]) ?: return null
+        transformTimer.emit("story")
       }
-      transformTimer.emit("revisions")
-    }
-    eventTimer.emit("transform")
 
-    val recordIds = HashSet(records.keys)
-    records.clear()
+      else -> {
+        val attachments = extraData.attachmentsById[record.id]
+        if (attachments?.isNotEmpty() == true && attachments.any { it.contentType == MediaUtil.LONG_TEXT } && record.body.isNullOrBlank()) {
+          Log.w(TAG, ExportSkips.invalidLongTextChatItem(record.dateSent))
+          return null
+        }
+
+        val sticker = attachments?.firstOrNull { dbAttachment -> dbAttachment.isSticker }
 
-    records = readNextMessageRecordBatch(recordIds)
-    eventTimer.emit("messages")
+        if (sticker?.stickerLocator != null) {
+          builder.stickerMessage = sticker.toRemoteStickerMessage(sentTimestamp = record.dateSent, mediaArchiveEnabled = mediaArchiveEnabled, reactions = extraData.reactionsById[id])
+        } else {
+          val standardMessage = record.toRemoteStandardMessage(
+            exportState = exportState,
+            mediaArchiveEnabled = mediaArchiveEnabled,
+            reactionRecords = extraData.reactionsById[id],
+            mentions = extraData.mentionsById[id],
+            attachments = extraData.attachmentsById[record.id]
+          )
 
-    return if (buffer.isNotEmpty()) {
-      buffer.remove()
-    } else {
-      null
+          if (standardMessage.text.isNullOrBlank() && standardMessage.attachments.isEmpty()) {
+            Log.w(TAG, ExportSkips.emptyStandardMessage(record.dateSent))
+            return null
+          }
+
+          builder.standardMessage = standardMessage
+          transformTimer.emit("standard")
+        }
+      }
     }
-  }
 
-  override fun close() {
-    Log.d(TAG, "[ChatItemArchiveExporter][batchSize = $batchSize] ${eventTimer.stop().summary}")
-    Log.d(TAG, "[ChatItemArchiveExporterTransform][batchSize = $batchSize] ${transformTimer.stop().summary}")
-    Log.d(TAG, "[ChatItemArchiveExporterExtraData][batchSize = $batchSize] ${extraDataTimer.stop().summary}")
+    return builder
   }
 
   private fun readNextMessageRecordBatch(pastIds: Set<Long>): LinkedHashMap<Long, BackupMessageRecord> {
@@ -1547,6 +1604,11 @@ private class BackupMessageRecord(
   val viewOnce: Boolean
 )
 
+private class MessageBatch(
+  val records: LinkedHashMap<Long, BackupMessageRecord>,
+  val extraData: ExtraMessageData
+)
+
 private data class ExtraMessageData(
   val mentionsById: Map<Long, List<Mention>>,
   val reactionsById: Map<Long, List<ReactionRecord>>,
@@ -74,10 +74,15 @@ class ArchiveFileSystem private constructor(private val context: Context, root:
   /** File access to shared super-set of archive related files (e.g., media + attachments) */
   val filesFileSystem: FilesFileSystem
 
+  /** File access to message frame segments shared across snapshots */
+  val segmentsFileSystem: SegmentsFileSystem
+
   init {
     signalBackups = root.mkdirp("SignalBackups") ?: throw IOException("Unable to create main backups directory")
     val filesDirectory = signalBackups.mkdirp("files") ?: throw IOException("Unable to create files directory")
     filesFileSystem = FilesFileSystem(context, filesDirectory)
+    val segmentsDirectory = signalBackups.mkdirp("segments") ?: throw IOException("Unable to create segments directory")
+    segmentsFileSystem = SegmentsFileSystem(context, segmentsDirectory)
   }
 
   /**
@@ -186,6 +191,53 @@ class ArchiveFileSystem private constructor(private val context: Context, root:
     Log.d(TAG, "Cleanup removed $deleted/${allFiles.size} files")
   }
 
+  /**
+   * Clean up segments in the shared segments directory that are not referenced by any current snapshot, including
+   * any left partially written by an interrupted backup.
+   */
+  fun deleteUnusedSegments() {
+    Log.i(TAG, "Deleting unused segments")
+
+    val allSegments: MutableMap<String, DocumentFileInfo> = segmentsFileSystem.allSegments().toMutableMap()
+
+    listSnapshots()
+      .mapNotNull { SnapshotFileSystem.segmentsInputStream(context, it.file) }
+      .forEach { input ->
+        ArchivedSegmentsReader(input).use { reader ->
+          reader.forEach { segment -> allSegments.remove(segment.name) }
+        }
+      }
+
+    var deleted = 0
+    allSegments
+      .values
+      .forEach {
+        if (it.documentFile.delete()) {
+          deleted++
+        }
+      }
+
+    Log.d(TAG, "Cleanup removed $deleted/${allSegments.size} segments")
+  }
+
+  /**
+   * Names of the segments referenced by finalized snapshots, i.e. those that were verified when they were written.
+   */
+  fun finalizedSegmentNames(): Set<String> {
+    val names = HashSet<String>()
+
+    listSnapshots()
+      .filterNot { it.name.endsWith(TEMP_BACKUP_DIRECTORY_SUFFIX) }
+      .mapNotNull { SnapshotFileSystem.segmentsInputStream(context, it.file) }
+      .forEach { input ->
+        ArchivedSegmentsReader(input).use { reader ->
+          reader.forEach { segment -> names += segment.name }
+        }
+      }
+
+    return names
+  }
+
   /** Useful metadata for a given archive snapshot */
   data class SnapshotInfo(val timestamp: Long, val name: String, val file: DocumentFile)
 }
@@ -198,6 +250,7 @@ class SnapshotFileSystem(private val context: Context, private val snapshotDirec
     const val MAIN_NAME = "main"
     const val METADATA_NAME = "metadata"
     const val FILES_NAME = "files"
+    const val SEGMENTS_NAME = "segments"
 
     /**
      * Get the files metadata file directly for a snapshot.
@@ -205,6 +258,13 @@ class SnapshotFileSystem(private val context: Context, private val snapshotDirec
     fun filesInputStream(context: Context, snapshotDirectory: DocumentFile): InputStream? {
       return snapshotDirectory.findFile(FILES_NAME)?.inputStream(context)
     }
+
+    /**
+     * Get the segments metadata file directly for a snapshot.
+     */
+    fun segmentsInputStream(context: Context, snapshotDirectory: DocumentFile): InputStream? {
+      return snapshotDirectory.findFile(SEGMENTS_NAME)?.inputStream(context)
+    }
   }
 
   /**
@@ -236,6 +296,14 @@ class SnapshotFileSystem(private val context: Context, private val snapshotDirec
     return root.newFile(FILES_NAME)?.outputStream(context)
   }
 
+  fun segmentsOutputStream(): OutputStream? {
+    return root.newFile(SEGMENTS_NAME)?.outputStream(context)
+  }
+
+  fun segmentsInputStream(): InputStream? {
+    return root.findFile(SEGMENTS_NAME)?.inputStream(context)
+  }
+
   /**
    * Rename the snapshot from the working temporary name to final name.
    */
@@ -307,6 +375,49 @@ class FilesFileSystem(private val context: Context, private val root: DocumentFi
   }
 }
 
+/**
+ * Domain specific file system access for message frame segments. Segments are named by their content, so a segment
+ * that already exists never needs to be written again.
+ */
+class SegmentsFileSystem(private val context: Context, private val root: DocumentFile) {
+
+  companion object {
+    private const val TEMP_SUFFIX = ".tmp"
+  }
+
+  /**
+   * Enumerate all complete segments in the directory, along with any partially written ones.
+   */
+  fun allSegments(): Map<String, DocumentFileInfo> {
+    return root.listFiles(context).associateBy { it.name }
+  }
+
+  /**
+   * Write a new segment with the given [name]. It's written under a temporary name first and only renamed once
+   * [write] completes, so that a segment can't be mistaken for a complete one if the backup is interrupted.
+   *
+   * @return true if the segment was written
+   */
+  fun writeSegment(name: String, write: (OutputStream) -> Unit): Boolean {
+    val file = root.createFile("application/octet-stream", "$name$TEMP_SUFFIX") ?: return false
+    val output = file.outputStream(context) ?: return false
+
+    try {
+      output.use { write(it) }
+    } catch (e: IOException) {
+      Log.w(ArchiveFileSystem.TAG, "Unable to write segment", e)
+      file.delete()
+      return false
+    }
+
+    return file.renameTo(context, name)
+  }
+
+  fun inputStream(segment: DocumentFileInfo): InputStream? {
+    return segment.documentFile.inputStream(context)
+  }
+}
+
 private fun String.toMilliseconds(): Long {
   val parts: List<String> = split("-").dropLastWhile { it.isEmpty() }
 
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.local
+
+import org.signal.core.util.writeVarInt32
+import org.thoughtcrime.securesms.backup.v2.local.proto.SegmentFrame
+import java.io.IOException
+import java.io.OutputStream
+
+/**
+ * Write [SegmentFrame] protos encoded with their length.
+ */
+class ArchivedSegmentsWriter(private val output: OutputStream) : AutoCloseable {
+
+  @Throws(IOException::class)
+  fun write(frame: SegmentFrame) {
+    val bytes = frame.encode()
+    output.writeVarInt32(bytes.size)
+    output.write(bytes)
+  }
+
+  override fun close() {
+    output.close()
+  }
+}
@@ -9,12 +9,20 @@ import org.greenrobot.eventbus.EventBus
 import org.signal.core.util.Base64
 import org.signal.core.util.Stopwatch
 import org.signal.core.util.StreamUtil
+import org.signal.core.util.androidx.DocumentFileInfo
 import org.signal.core.util.logging.Log
+import org.signal.core.util.stream.NonClosingOutputStream
+import org.thoughtcrime.securesms.backup.BackupVerifier
 import org.thoughtcrime.securesms.backup.v2.BackupRepository
 import org.thoughtcrime.securesms.backup.v2.LocalBackupV2Event
 import org.thoughtcrime.securesms.backup.v2.local.proto.FilesFrame
 import org.thoughtcrime.securesms.backup.v2.local.proto.Metadata
+import org.thoughtcrime.securesms.backup.v2.local.proto.SegmentFrame
+import org.thoughtcrime.securesms.backup.v2.stream.ChainedBackupImportReader
+import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupReader
+import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupWriter
 import org.thoughtcrime.securesms.database.AttachmentTable
+import org.thoughtcrime.securesms.keyvalue.SignalStore
 import org.whispersystems.signalservice.api.backup.MediaName
 import org.whispersystems.signalservice.api.crypto.AttachmentCipherOutputStream
 import org.whispersystems.signalservice.api.crypto.AttachmentCipherStreamUtil
@@ -32,17 +40,19 @@ typealias ArchiveResult = org.signal.core.util.Result<Unit, LocalArchiver.Failur
 object LocalArchiver {
 
   private val TAG = Log.tag(LocalArchiver::class)
-  private const val VERSION = 1
+  private const val VERSION = 2
 
   /**
-   * Export archive to the provided [snapshotFileSystem] and store new files in [filesFileSystem].
+   * Export archive to the provided [snapshotFileSystem] and store new files in [filesFileSystem]. Messages are stored in segments in
+   * [segmentsFileSystem], and only segments that don't already exist there are written.
    */
-  fun export(snapshotFileSystem: SnapshotFileSystem, filesFileSystem: FilesFileSystem, stopwatch: Stopwatch, cancellationSignal: () -> Boolean = { false }): ArchiveResult {
+  fun export(snapshotFileSystem: SnapshotFileSystem, filesFileSystem: FilesFileSystem, segmentsFileSystem: SegmentsFileSystem, stopwatch: Stopwatch, cancellationSignal: () -> Boolean = { false }): ArchiveResult {
     Log.i(TAG, "Starting export")
 
     var metadataStream: OutputStream? = null
     var mainStream: OutputStream? = null
     var filesStream: OutputStream? = null
+    var segmentsStream: OutputStream? = null
 
     try {
       metadataStream = snapshotFileSystem.metadataOutputStream() ?: return ArchiveResult.failure(FailureCause.METADATA_STREAM)
@@ -55,10 +65,25 @@ object LocalArchiver {
       val allFiles = filesFileSystem.allFiles()
       stopwatch.split("files-list")
 
+      Log.i(TAG, "Listing all current segments")
+      val existingSegments: Map<String, Long> = segmentsFileSystem.allSegments().mapValues { it.value.size }
+      stopwatch.split("segments-list")
+
       val mediaNames: MutableSet<MediaName> = Collections.synchronizedSet(HashSet())
 
+      val key = SignalStore.backup.messageBackupKey
+      val aci = SignalStore.account.aci!!
+      val main: OutputStream = mainStream
+      val writer = SegmentedSnapshotWriter(
+        key = key,
+        aci = aci,
+        main = EncryptedBackupWriter(key, aci, NonClosingOutputStream(main), append = { main.write(it) }),
+        existingSegments = existingSegments,
+        writeSegment = segmentsFileSystem::writeSegment
+      )
+
       Log.i(TAG, "Starting frame export")
-      BackupRepository.localExport(mainStream, LocalExportProgressListener(), cancellationSignal) { attachment, source ->
+      BackupRepository.localExport(writer, LocalExportProgressListener(), cancellationSignal) { attachment, source ->
         if (cancellationSignal()) {
           return@localExport
         }
@@ -98,6 +123,12 @@ object LocalArchiver {
       }
       stopwatch.split("frames-and-files")
 
+      segmentsStream = snapshotFileSystem.segmentsOutputStream() ?: return ArchiveResult.failure(FailureCause.SEGMENTS_STREAM)
+      ArchivedSegmentsWriter(segmentsStream).use { segmentsWriter ->
+        writer.segments.forEach { segmentsWriter.write(it) }
+      }
+      stopwatch.split("segments-metadata")
+
       filesStream = snapshotFileSystem.filesOutputStream() ?: return ArchiveResult.failure(FailureCause.FILES_STREAM)
       ArchivedFilesWriter(filesStream).use { writer ->
         mediaNames.forEach { name -> writer.write(FilesFrame(mediaName = name.name)) }
@@ -107,6 +138,7 @@ object LocalArchiver {
       metadataStream?.close()
       mainStream?.close()
       filesStream?.close()
+      segmentsStream?.close()
     }
 
     if (cancellationSignal()) {
@@ -119,7 +151,7 @@ object LocalArchiver {
   /**
    * Import archive data from a folder on the system. Does not restore attachments.
    */
-  fun import(snapshotFileSystem: SnapshotFileSystem, selfData: BackupRepository.SelfData): ArchiveResult {
+  fun import(snapshotFileSystem: SnapshotFileSystem, segmentsFileSystem: SegmentsFileSystem, selfData: BackupRepository.SelfData): ArchiveResult {
     var metadataStream: InputStream? = null
 
     try {
@@ -127,10 +159,27 @@ object LocalArchiver {
 
       val mainStreamLength = snapshotFileSystem.mainLength() ?: return ArchiveResult.failure(FailureCause.MAIN_STREAM)
 
+      val segments: List<SegmentFrame> = readSegments(snapshotFileSystem)
+      val allSegments: Map<String, DocumentFileInfo> = if (segments.isNotEmpty()) segmentsFileSystem.allSegments() else emptyMap()
+
+      val segmentParts = segments.map { segment ->
+        val file = allSegments[segment.name] ?: return ArchiveResult.failure(FailureCause.SEGMENTS_STREAM)
+
+        ChainedBackupImportReader.Part(segment.length) {
+          EncryptedBackupReader(
+            key = SignalStore.backup.messageBackupKey,
+            aci = selfData.aci,
+            length = segment.length,
+            dataStream = { segmentsFileSystem.inputStream(file)!! }
+          )
+        }
+      }
+
       BackupRepository.localImport(
         mainStreamFactory = { snapshotFileSystem.mainInputStream()!! },
         mainStreamLength = mainStreamLength,
-        selfData = selfData
+        selfData = selfData,
+        segments = segmentParts
       )
     } finally {
       metadataStream?.close()
@@ -139,11 +188,61 @@ object LocalArchiver {
     return ArchiveResult.success(Unit)
   }
 
+  /**
+   * Verify a newly exported snapshot before it's finalized. The main stream and any segments written for this snapshot are decrypted and
+   * read all the way through. Segments that finalized snapshots already reference were verified when they were written, so for those only
+   * their presence and length are checked, which keeps verification proportional to what changed.
+   */
+  fun verify(archiveFileSystem: ArchiveFileSystem, snapshotFileSystem: SnapshotFileSystem, cancellationSignal: () -> Boolean = { false }): Boolean {
+    val key = SignalStore.backup.messageBackupKey
+    val aci = SignalStore.account.aci!!
+
+    val mainStreamLength = snapshotFileSystem.mainLength() ?: return false
+    if (!BackupVerifier.verifyArchiveStream(key, aci, mainStreamLength, null) { snapshotFileSystem.mainInputStream()!! }) {
+      Log.w(TAG, "Main stream failed verification")
+      return false
+    }
+
+    val segmentsFileSystem = archiveFileSystem.segmentsFileSystem
+    val allSegments: Map<String, DocumentFileInfo> = segmentsFileSystem.allSegments()
+    val verifiedSegments: Set<String> = archiveFileSystem.finalizedSegmentNames()
+
+    var fullyVerified = 0
+    for (segment in readSegments(snapshotFileSystem)) {
+      if (cancellationSignal()) {
+        return false
+      }
+
+      val file = allSegments[segment.name]
+      if (file == null || file.size != segment.length) {
+        Log.w(TAG, "Segment missing or wrong length")
+        return false
+      }
+
+      if (segment.name !in verifiedSegments) {
+        if (!BackupVerifier.verifyArchiveStream(key, aci, segment.length, segment.frameCount) { segmentsFileSystem.inputStream(file)!! }) {
+          Log.w(TAG, "Segment failed verification")
+          return false
+        }
+        fullyVerified++
+      }
+    }
+
+    Log.d(TAG, "Verified snapshot, $fullyVerified new segments read in full")
+    return true
+  }
+
+  private fun readSegments(snapshotFileSystem: SnapshotFileSystem): List<SegmentFrame> {
+    return snapshotFileSystem.segmentsInputStream()?.let { input ->
+      ArchivedSegmentsReader(input).use { reader -> reader.asSequence().toList() }
+    } ?: emptyList()
+  }
+
   private val AttachmentTable.LocalArchivableAttachment.cipherLength: Long
     get() = AttachmentCipherStreamUtil.getCiphertextLength(PaddingInputStream.getPaddedSize(size))
 
   enum class FailureCause {
-    METADATA_STREAM, MAIN_STREAM, FILES_STREAM, CANCELLED
+    METADATA_STREAM, MAIN_STREAM, FILES_STREAM, SEGMENTS_STREAM, CANCELLED
   }
 
   private class LocalExportProgressListener : BackupRepository.ExportProgressListener {
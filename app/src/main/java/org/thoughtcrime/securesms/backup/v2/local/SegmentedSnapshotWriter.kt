@@ -0,0 +1,167 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.local
+
+import com.google.common.io.CountingOutputStream
+import org.signal.core.util.Hex
+import org.signal.core.util.logging.Log
+import org.signal.core.util.stream.NonClosingOutputStream
+import org.thoughtcrime.securesms.backup.v2.local.proto.SegmentFrame
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import org.thoughtcrime.securesms.backup.v2.stream.BackupExportWriter
+import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupWriter
+import org.whispersystems.signalservice.api.backup.MessageBackupKey
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.io.IOException
+import java.io.OutputStream
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * Writes a local archive snapshot incrementally. Everything up to the first chat item goes to [main] as usual, while chat items (and anything
+ * after them) are split into segments that are shared between snapshots.
+ *
+ * Segment boundaries are chosen by the content of the frames rather than by position, so a new or changed message only changes the segment it
+ * lands in and every other segment comes out exactly as it did last time. Segments are named by a keyed hash of their frames, which means one
+ * that's already in [existingSegments] can be referenced without being compressed, encrypted or written again. Each segment is a complete
+ * encrypted backup stream of its own, with the same header as [main].
+ *
+ * Once closed, [segments] lists the segments that make up this snapshot, in order.
+ */
+class SegmentedSnapshotWriter(
+  private val key: MessageBackupKey,
+  private val aci: ACI,
+  private val main: BackupExportWriter,
+  existingSegments: Map<String, Long>,
+  private val writeSegment: (name: String, write: (OutputStream) -> Unit) -> Boolean
+) : BackupExportWriter {
+
+  companion object {
+    private val TAG = Log.tag(SegmentedSnapshotWriter::class)
+
+    private val NAME_DOMAIN = "LocalArchiveSegment".toByteArray()
+
+    private const val MIN_SEGMENT_FRAMES = 256
+    private const val MAX_SEGMENT_FRAMES = 16 * 1024
+    private const val MAX_SEGMENT_BYTES = 8L * 1024 * 1024
+
+    /** Gives an average of roughly 2k frames per segment past the minimum. */
+    private const val BOUNDARY_MASK = 0x7FF
+  }
+
+  private val mac: Mac = Mac.getInstance("HmacSHA256").apply {
+    init(SecretKeySpec(key.deriveBackupSecrets(aci).macKey, "HmacSHA256"))
+    update(NAME_DOMAIN)
+  }
+
+  private val knownSegments: MutableMap<String, Long> = existingSegments.toMutableMap()
+  private val pending: MutableList<Frame> = mutableListOf()
+  private var pendingBytes: Long = 0
+  private var header: BackupInfo? = null
+  private var segmenting = false
+
+  private val _segments: MutableList<SegmentFrame> = mutableListOf()
+  val segments: List<SegmentFrame>
+    get() = _segments
+
+  var segmentsWritten: Int = 0
+    private set
+
+  var segmentsReused: Int = 0
+    private set
+
+  override fun write(header: BackupInfo) {
+    this.header = header
+    main.write(header)
+  }
+
+  @Throws(IOException::class)
+  override fun write(frame: Frame) {
+    segmenting = segmenting || frame.chatItem != null
+
+    if (!segmenting) {
+      main.write(frame)
+      return
+    }
+
+    val frameBytes = frame.encode()
+    mac.update(frameBytes.size.toBigEndianBytes())
+    mac.update(frameBytes)
+
+    pending += frame
+    pendingBytes += frameBytes.size
+
+    if (isBoundary(frameBytes)) {
+      flushSegment()
+    }
+  }
+
+  @Throws(IOException::class)
+  override fun close() {
+    if (pending.isNotEmpty()) {
+      flushSegment()
+    }
+
+    Log.d(TAG, "Segments: ${_segments.size} total, $segmentsWritten written, $segmentsReused reused")
+    main.close()
+  }
+
+  private fun isBoundary(frameBytes: ByteArray): Boolean {
+    if (pending.size < MIN_SEGMENT_FRAMES) {
+      return false
+    }
+
+    if (pending.size >= MAX_SEGMENT_FRAMES || pendingBytes >= MAX_SEGMENT_BYTES) {
+      return true
+    }
+
+    var hash = frameBytes.contentHashCode()
+    hash = hash xor (hash ushr 16)
+    hash *= 0x45D9F3B
+    hash = hash xor (hash ushr 16)
+
+    return (hash and BOUNDARY_MASK) == 0
+  }
+
+  private fun flushSegment() {
+    val name = Hex.toStringCondensed(mac.doFinal())
+    mac.update(NAME_DOMAIN)
+
+    val existingLength = knownSegments[name]
+    val length: Long = if (existingLength != null) {
+      segmentsReused++
+      existingLength
+    } else {
+      var written = 0L
+      val success = writeSegment(name) { output ->
+        val counting = CountingOutputStream(output)
+        EncryptedBackupWriter(key, aci, NonClosingOutputStream(counting), append = { counting.write(it) }).use { writer ->
+          header?.let { writer.write(it) }
+          pending.forEach { writer.write(it) }
+        }
+        written = counting.count
+      }
+
+      if (!success) {
+        throw IOException("Unable to write segment!")
+      }
+
+      segmentsWritten++
+      knownSegments[name] = written
+      written
+    }
+
+    _segments += SegmentFrame(name = name, length = length, frameCount = pending.size.toLong())
+
+    pending.clear()
+    pendingBytes = 0
+  }
+
+  private fun Int.toBigEndianBytes(): ByteArray {
+    return byteArrayOf((this ushr 24).toByte(), (this ushr 16).toByte(), (this ushr 8).toByte(), this.toByte())
+  }
+}
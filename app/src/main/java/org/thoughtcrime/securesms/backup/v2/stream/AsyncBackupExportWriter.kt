@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import java.io.IOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Hands writes off to [delegate] on a dedicated thread, so that encoding, compression and encryption happen alongside whatever is producing
+ * the frames. Writes happen in the order they're made, so the output is the same as writing to [delegate] directly.
+ *
+ * At most [capacity] writes can be waiting at once, after which callers block. A failure on the writer thread is rethrown from the next
+ * call to [write] or [close].
+ */
+class AsyncBackupExportWriter @JvmOverloads constructor(
+  private val delegate: BackupExportWriter,
+  capacity: Int = DEFAULT_CAPACITY
+) : BackupExportWriter {
+
+  companion object {
+    private const val DEFAULT_CAPACITY = 1000
+    private const val ERROR_CHECK_INTERVAL_MILLIS = 100L
+
+    private val END = Any()
+  }
+
+  private val queue: BlockingQueue<Any> = ArrayBlockingQueue(capacity)
+
+  @Volatile
+  private var error: Throwable? = null
+
+  private val thread = Thread(::drain, "backup-export-writer").apply {
+    isDaemon = true
+    start()
+  }
+
+  @Throws(IOException::class)
+  override fun write(header: BackupInfo) {
+    enqueue(header)
+  }
+
+  @Throws(IOException::class)
+  override fun write(frame: Frame) {
+    enqueue(frame)
+  }
+
+  @Throws(IOException::class)
+  override fun close() {
+    var failure: Throwable? = null
+
+    try {
+      enqueue(END)
+    } catch (e: IOException) {
+      failure = e
+    }
+
+    thread.join()
+
+    if (failure == null) {
+      failure = error?.let { IOException("Failed to write backup!", it) }
+    }
+
+    try {
+      delegate.close()
+    } catch (e: Exception) {
+      if (failure == null) failure = e else failure.addSuppressed(e)
+    }
+
+    failure?.let { throw it }
+  }
+
+  private fun enqueue(item: Any) {
+    while (true) {
+      error?.let { throw IOException("Failed to write backup!", it) }
+
+      if (queue.offer(item, ERROR_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+        return
+      }
+    }
+  }
+
+  private fun drain() {
+    try {
+      while (true) {
+        val item = queue.take()
+
+        when {
+          item === END -> return
+          item is Frame -> delegate.write(item)
+          item is BackupInfo -> delegate.write(item)
+        }
+      }
+    } catch (e: Throwable) {
+      error = e
+    }
+  }
+}
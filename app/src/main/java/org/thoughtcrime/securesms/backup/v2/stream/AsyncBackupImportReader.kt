@@ -0,0 +1,123 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import java.io.IOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Reads frames from [delegate] on a dedicated thread, so that reading, decryption, decompression and decoding happen alongside whatever is
+ * consuming the frames. Frames are handed out in the order they were read.
+ *
+ * At most [capacity] frames are read ahead. [getBytesRead] reports how far into the stream [delegate] was when the most recently returned
+ * frame was read, rather than how far the read-ahead has gotten, so that progress matches what has actually been consumed. A failure on the
+ * reading thread is rethrown from the next call to [hasNext] or [next].
+ *
+ * Closing this will also close [delegate].
+ */
+class AsyncBackupImportReader @JvmOverloads constructor(
+  private val delegate: BackupImportReader,
+  capacity: Int = DEFAULT_CAPACITY
+) : BackupImportReader {
+
+  companion object {
+    private const val DEFAULT_CAPACITY = 1000
+    private const val CLOSE_CHECK_INTERVAL_MILLIS = 100L
+  }
+
+  private val queue: BlockingQueue<Item> = ArrayBlockingQueue(capacity)
+
+  @Volatile
+  private var closed = false
+
+  private var current: Item? = null
+  private var bytesRead: Long = 0
+
+  private val thread = Thread(::fill, "backup-import-reader").apply {
+    isDaemon = true
+    start()
+  }
+
+  override fun getHeader(): BackupInfo? {
+    return delegate.getHeader()
+  }
+
+  override fun getBytesRead(): Long {
+    return bytesRead
+  }
+
+  override fun getStreamLength(): Long {
+    return delegate.getStreamLength()
+  }
+
+  override fun hasNext(): Boolean {
+    return peek() is Item.Next
+  }
+
+  override fun next(): Frame {
+    val item = peek() as? Item.Next ?: throw NoSuchElementException()
+
+    current = null
+    bytesRead = item.bytesRead
+
+    return item.frame
+  }
+
+  override fun close() {
+    closed = true
+    queue.clear()
+    thread.join()
+    delegate.close()
+  }
+
+  private fun peek(): Item {
+    val item = current ?: queue.take().also { current = it }
+
+    if (item is Item.Failed) {
+      throw IOException("Failed to read backup!", item.error)
+    }
+
+    return item
+  }
+
+  private fun fill() {
+    try {
+      while (delegate.hasNext()) {
+        val frame = delegate.next()
+        if (!enqueue(Item.Next(frame, delegate.getBytesRead()))) {
+          return
+        }
+      }
+
+      enqueue(Item.End)
+    } catch (e: Throwable) {
+      enqueue(Item.Failed(e))
+    }
+  }
+
+  /**
+   * @return False if the reader was closed before the item could be queued, in which case reading should stop.
+   */
+  private fun enqueue(item: Item): Boolean {
+    while (!closed) {
+      if (queue.offer(item, CLOSE_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+        return true
+      }
+    }
+
+    return false
+  }
+
+  private sealed interface Item {
+    class Next(val frame: Frame, val bytesRead: Long) : Item
+    object End : Item
+    class Failed(val error: Throwable) : Item
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+
+/**
+ * Reads the frames of [first] followed by the frames of each of [rest], in order, as if they were a single stream. The header is always the one
+ * from [first]. Each of [rest] is only opened once the one before it has been read to the end.
+ */
+class ChainedBackupImportReader(
+  first: BackupImportReader,
+  private val rest: List<Part>
+) : BackupImportReader {
+
+  private val header: BackupInfo? = first.getHeader()
+  private val streamLength: Long = first.getStreamLength() + rest.sumOf { it.length }
+
+  private var current: BackupImportReader = first
+  private var currentIndex = -1
+  private var completedBytes: Long = 0
+
+  override fun getHeader(): BackupInfo? {
+    return header
+  }
+
+  override fun getBytesRead(): Long {
+    return completedBytes + current.getBytesRead()
+  }
+
+  override fun getStreamLength(): Long {
+    return streamLength
+  }
+
+  override fun hasNext(): Boolean {
+    while (!current.hasNext()) {
+      if (currentIndex + 1 >= rest.size) {
+        return false
+      }
+
+      completedBytes += current.getStreamLength()
+      current.close()
+
+      currentIndex++
+      current = rest[currentIndex].open()
+    }
+
+    return true
+  }
+
+  override fun next(): Frame {
+    if (!hasNext()) {
+      throw NoSuchElementException()
+    }
+
+    return current.next()
+  }
+
+  override fun close() {
+    current.close()
+  }
+
+  /**
+   * A stream of frames to read after the first, along with its length, so that the total is known up front.
+   */
+  class Part(val length: Long, val open: () -> BackupImportReader)
+}
@@ -33,6 +33,7 @@ import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.graphics.StrokeCap
 import androidx.compose.ui.res.painterResource
+import androidx.compose.ui.res.pluralStringResource
 import androidx.compose.ui.res.stringResource
 import androidx.compose.ui.unit.dp
 import org.signal.core.ui.compose.Buttons
@@ -46,6 +47,9 @@ import org.thoughtcrime.securesms.R
 import org.thoughtcrime.securesms.backup.v2.ui.BackupsIconColors
 import kotlin.math.max
 import kotlin.math.min
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.hours
+import kotlin.time.Duration.Companion.minutes
 
 private const val NONE = -1
 
@@ -168,6 +172,16 @@ fun BackupStatusBannerPreview() {
 
       HorizontalDivider()
 
+      BackupStatusBanner(
+        data = BackupStatusData.RestoringMedia(
+          bytesDownloaded = 55000.bytes,
+          bytesTotal = 1253.mebiBytes,
+          remaining = 42.minutes
+        )
+      )
+
+      HorizontalDivider()
+
       BackupStatusBanner(
         data = BackupStatusData.RestoringMedia(
           bytesDownloaded = 55000.bytes,
@@ -275,12 +289,13 @@ sealed interface BackupStatusData {
   }
 
   /**
-   * Restoring media, finished, and paused states.
+   * Restoring media, finished, and paused states. [remaining] is the estimated time left, if enough of the restore has been seen to guess.
    */
   data class RestoringMedia(
     val bytesDownloaded: ByteSize = 0.bytes,
     val bytesTotal: ByteSize = 0.bytes,
-    val restoreStatus: RestoreStatus = RestoreStatus.NORMAL
+    val restoreStatus: RestoreStatus = RestoreStatus.NORMAL,
+    val remaining: Duration? = null
   ) : BackupStatusData {
     override val iconRes: Int = if (restoreStatus == RestoreStatus.FINISHED) R.drawable.symbol_check_circle_24 else R.drawable.symbol_backup_light
     override val iconColors: BackupsIconColors = when (restoreStatus) {
@@ -309,11 +324,35 @@ sealed interface BackupStatusData {
 
     override val status: String
       @Composable get() = when (restoreStatus) {
-        RestoreStatus.NORMAL -> stringResource(
-          R.string.BackupStatus__status_size_of_size,
-          bytesDownloaded.toUnitString(),
-          bytesTotal.toUnitString()
-        )
+        RestoreStatus.NORMAL -> when {
+          remaining == null -> stringResource(
+            R.string.BackupStatus__status_size_of_size,
+            bytesDownloaded.toUnitString(),
+            bytesTotal.toUnitString()
+          )
+
+          remaining < 1.hours -> {
+            val minutes = max(1, remaining.inWholeMinutes.toInt())
+            pluralStringResource(
+              R.plurals.BackupStatus__status_size_of_size_d_minutes_left,
+              minutes,
+              bytesDownloaded.toUnitString(),
+              bytesTotal.toUnitString(),
+              minutes
+            )
+          }
+
+          else -> {
+            val hours = remaining.inWholeHours.toInt()
+            pluralStringResource(
+              R.plurals.BackupStatus__status_size_of_size_d_hours_left,
+              hours,
+              bytesDownloaded.toUnitString(),
+              bytesTotal.toUnitString(),
+              hours
+            )
+          }
+        }
 
         RestoreStatus.LOW_BATTERY -> stringResource(R.string.BackupStatus__status_device_has_low_battery)
         RestoreStatus.WAITING_FOR_INTERNET -> stringResource(R.string.BackupStatus__status_no_internet)
@@ -17,12 +17,15 @@ import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.flatMapLatest
 import kotlinx.coroutines.flow.flowOf
 import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.onStart
 import org.signal.core.util.bytes
 import org.signal.core.util.throttleLatest
+import org.thoughtcrime.securesms.backup.ArchiveRestoreProgress
 import org.thoughtcrime.securesms.backup.v2.ui.status.BackupStatusBanner
 import org.thoughtcrime.securesms.backup.v2.ui.status.BackupStatusData
 import org.thoughtcrime.securesms.banner.Banner
@@ -34,6 +37,7 @@ import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint
 import org.thoughtcrime.securesms.jobmanager.impl.WifiConstraint
 import org.thoughtcrime.securesms.keyvalue.SignalStore
 import org.thoughtcrime.securesms.util.safeUnregisterReceiver
+import kotlin.math.max
 import kotlin.time.Duration.Companion.seconds
 
 @OptIn(ExperimentalCoroutinesApi::class)
@@ -108,7 +112,7 @@ class MediaRestoreProgressBanner(private val listener: RestoreProgressBannerList
       }
     }
 
-    return flow
+    val statusFlow: Flow<BackupStatusData> = flow
       .throttleLatest(1.seconds)
       .map {
         val totalRestoreSize = SignalStore.backup.totalRestorableAttachmentSize
@@ -131,6 +135,19 @@ class MediaRestoreProgressBanner(private val listener: RestoreProgressBannerList
         }
       }
       .flowOn(Dispatchers.IO)
+
+    val progressFlow: Flow<ArchiveRestoreProgress.State?> = ArchiveRestoreProgress.progress.onStart { emit(null) }
+
+    return combine(statusFlow, progressFlow) { status, progress ->
+      if (progress != null && status is BackupStatusData.RestoringMedia && status.restoreStatus == BackupStatusData.RestoreStatus.NORMAL) {
+        status.copy(
+          bytesDownloaded = max(status.bytesDownloaded.bytes, progress.restoredBytes).bytes,
+          remaining = progress.remaining
+        )
+      } else {
+        status
+      }
+    }
   }
 
   interface RestoreProgressBannerListener {
@@ -21,11 +21,12 @@
 package org.thoughtcrime.securesms.blurhash;
 
 import android.graphics.Bitmap;
-import android.graphics.Color;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
-import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.linearTosRGB;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.cosines;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.linearTosRGBApprox;
 import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.sRGBToLinear;
 import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.signPow;
 
@@ -36,7 +37,18 @@ class BlurHashDecoder {
   }
 
   static @Nullable Bitmap decode(@Nullable String blurHash, int width, int height, double punch) {
+    int[] pixels = decodePixels(blurHash, width, height, punch);
+    if (pixels == null) {
+      return null;
+    }
 
+    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+    return bitmap;
+  }
+
+  @VisibleForTesting
+  static @Nullable int[] decodePixels(@Nullable String blurHash, int width, int height, double punch) {
     if (blurHash == null || blurHash.length() < 6) {
       return null;
     }
@@ -63,7 +75,7 @@ class BlurHashDecoder {
       }
     }
 
-    return composeBitmap(width, height, numCompX, numCompY, colors);
+    return composePixels(width, height, numCompX, numCompY, colors);
   }
 
   private static double[] decodeDc(int colorEnc) {
@@ -86,28 +98,52 @@ class BlurHashDecoder {
     };
   }
 
-  private static Bitmap composeBitmap(int width, int height, int numCompX, int numCompY, double[][] colors) {
-    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
+  /**
+   * The basis functions are separable, so each row is first reduced to one color per horizontal component, and each pixel then only sums
+   * over those, with every cosine coming from a table.
+   */
+  private static int[] composePixels(int width, int height, int numCompX, int numCompY, double[][] colors) {
+    double[] cosX   = cosines(width, numCompX);
+    double[] cosY   = cosines(height, numCompY);
+    double[] row    = new double[numCompX * 3];
+    int[]    pixels = new int[width * height];
 
-        double r = 0f;
-        double g = 0f;
-        double b = 0f;
+    for (int y = 0; y < height; y++) {
+      for (int i = 0; i < numCompX; i++) {
+        double r = 0;
+        double g = 0;
+        double b = 0;
 
         for (int j = 0; j < numCompY; j++) {
-          for (int i = 0; i < numCompX; i++) {
-            double basis = (Math.cos(Math.PI * x * i / width) * Math.cos(Math.PI * y * j / height));
-            double[] color = colors[j * numCompX + i];
-            r += color[0] * basis;
-            g += color[1] * basis;
-            b += color[2] * basis;
-          }
+          double   basis = cosY[j * height + y];
+          double[] color = colors[j * numCompX + i];
+          r += color[0] * basis;
+          g += color[1] * basis;
+          b += color[2] * basis;
+        }
+
+        row[i * 3]     = r;
+        row[i * 3 + 1] = g;
+        row[i * 3 + 2] = b;
+      }
+
+      int offset = y * width;
+      for (int x = 0; x < width; x++) {
+        double r = 0;
+        double g = 0;
+        double b = 0;
+
+        for (int i = 0; i < numCompX; i++) {
+          double basis = cosX[i * width + x];
+          r += row[i * 3] * basis;
+          g += row[i * 3 + 1] * basis;
+          b += row[i * 3 + 2] * basis;
         }
-        bitmap.setPixel(x, y, Color.rgb((int) linearTosRGB(r), (int) linearTosRGB(g), (int) linearTosRGB(b)));
+
+        pixels[offset + x] = 0xff000000 | (linearTosRGBApprox(r) << 16) | (linearTosRGBApprox(g) << 8) | linearTosRGBApprox(b);
       }
     }
 
-    return bitmap;
+    return pixels;
   }
 }
@@ -26,9 +26,12 @@ import android.graphics.BitmapFactory;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import java.io.InputStream;
+import java.util.Arrays;
 
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.cosines;
 import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.linearTosRGB;
 import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.max;
 import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.sRGBToLinear;
@@ -65,7 +68,8 @@ public final class BlurHashEncoder {
     return encode(pixels, width, height, componentX, componentY);
   }
 
-  private static String encode(int[] pixels, int width, int height, int componentX, int componentY) {
+  @VisibleForTesting
+  static String encode(int[] pixels, int width, int height, int componentX, int componentY) {
 
     if (componentX < 1 || componentX > 9 || componentY < 1 || componentY > 9) {
       throw new IllegalArgumentException("Blur hash must have between 1 and 9 components");
@@ -74,15 +78,7 @@ public final class BlurHashEncoder {
       throw new IllegalArgumentException("Width and height must match the pixels array");
     }
 
-    double[][] factors = new double[componentX * componentY][3];
-    for (int j = 0; j < componentY; j++) {
-      for (int i = 0; i < componentX; i++) {
-        double normalisation = i == 0 && j == 0 ? 1 : 2;
-        applyBasisFunction(pixels, width, height,
-            normalisation, i, j,
-            factors, j * componentX + i);
-      }
-    }
+    double[][] factors = computeFactors(pixels, width, height, componentX, componentY);
 
     char[] hash = new char[1 + 1 + 4 + 2 * (factors.length - 1)]; // size flag + max AC + DC + 2 * AC components
 
@@ -109,26 +105,57 @@ public final class BlurHashEncoder {
     return new String(hash);
   }
 
-  private static void applyBasisFunction(int[] pixels, int width, int height,
-                                         double normalisation, int i, int j,
-                                         double[][] factors, int index)
-  {
-    double r = 0, g = 0, b = 0;
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        double basis = normalisation
-                     * Math.cos((Math.PI * i * x) / width)
-                     * Math.cos((Math.PI * j * y) / height);
-        int pixel = pixels[y * width + x];
-        r += basis * sRGBToLinear((pixel >> 16) & 0xff);
-        g += basis * sRGBToLinear((pixel >> 8)  & 0xff);
-        b += basis * sRGBToLinear( pixel        & 0xff);
+  /**
+   * The basis functions are separable, so each row is first reduced to one sum per horizontal component, and those are then weighted by the
+   * vertical components. Every pixel is converted to linear once, and every cosine comes from a table.
+   */
+  private static double[][] computeFactors(int[] pixels, int width, int height, int componentX, int componentY) {
+    double[]   cosX    = cosines(width, componentX);
+    double[]   cosY    = cosines(height, componentY);
+    double[]   row     = new double[componentX * 3];
+    double[][] factors = new double[componentX * componentY][3];
+
+    for (int y = 0; y < height; y++) {
+      Arrays.fill(row, 0);
+
+      int offset = y * width;
+      for (int x = 0; x < width; x++) {
+        int    pixel = pixels[offset + x];
+        double r     = sRGBToLinear((pixel >> 16) & 0xff);
+        double g     = sRGBToLinear((pixel >> 8)  & 0xff);
+        double b     = sRGBToLinear( pixel        & 0xff);
+
+        for (int i = 0; i < componentX; i++) {
+          double basis = cosX[i * width + x];
+          row[i * 3]     += basis * r;
+          row[i * 3 + 1] += basis * g;
+          row[i * 3 + 2] += basis * b;
+        }
+      }
+
+      for (int j = 0; j < componentY; j++) {
+        double basis = cosY[j * height + y];
+        for (int i = 0; i < componentX; i++) {
+          double[] factor = factors[j * componentX + i];
+          factor[0] += basis * row[i * 3];
+          factor[1] += basis * row[i * 3 + 1];
+          factor[2] += basis * row[i * 3 + 2];
+        }
       }
     }
+
     double scale = 1.0 / (width * height);
-    factors[index][0] = r * scale;
-    factors[index][1] = g * scale;
-    factors[index][2] = b * scale;
+    for (int j = 0; j < componentY; j++) {
+      for (int i = 0; i < componentX; i++) {
+        double   normalisation = i == 0 && j == 0 ? 1 : 2;
+        double[] factor        = factors[j * componentX + i];
+        factor[0] *= normalisation * scale;
+        factor[1] *= normalisation * scale;
+        factor[2] *= normalisation * scale;
+      }
+    }
+
+    return factors;
   }
 
   private static long encodeDC(double[] value) {
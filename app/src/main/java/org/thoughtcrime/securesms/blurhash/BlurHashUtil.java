@@ -22,7 +22,35 @@ package org.thoughtcrime.securesms.blurhash;
 
 final class BlurHashUtil {
 
-  static double sRGBToLinear(long value) {
+  private static final double[] SRGB_TO_LINEAR = new double[256];
+
+  /**
+   * Fine enough that a lookup is never more than one step of 8-bit sRGB away from {@link #linearTosRGB(double)}.
+   */
+  private static final int    LINEAR_TO_SRGB_STEPS = 1 << 14;
+  private static final byte[] LINEAR_TO_SRGB       = new byte[LINEAR_TO_SRGB_STEPS + 1];
+
+  static {
+    for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+      SRGB_TO_LINEAR[i] = computeSRGBToLinear(i);
+    }
+
+    for (int i = 0; i < LINEAR_TO_SRGB.length; i++) {
+      LINEAR_TO_SRGB[i] = (byte) linearTosRGB(i / (double) LINEAR_TO_SRGB_STEPS);
+    }
+  }
+
+  /**
+   * A DC component encodes its red channel above 8 bits, so values outside the table are computed directly.
+   */
+  static double sRGBToLinear(int value) {
+    if (value >= 0 && value < SRGB_TO_LINEAR.length) {
+      return SRGB_TO_LINEAR[value];
+    }
+    return computeSRGBToLinear(value);
+  }
+
+  private static double computeSRGBToLinear(int value) {
     double v = value / 255.0;
     if (v <= 0.04045) {
       return v / 12.92;
@@ -40,6 +68,27 @@ final class BlurHashUtil {
     }
   }
 
+  /**
+   * Same as {@link #linearTosRGB(double)} to within one, for use per pixel.
+   */
+  static int linearTosRGBApprox(double value) {
+    double v = Math.max(0, Math.min(1, value));
+    return LINEAR_TO_SRGB[(int) (v * LINEAR_TO_SRGB_STEPS + 0.5)] & 0xff;
+  }
+
+  /**
+   * @return cos(pi * position * component / length) for every component and position, indexed by component * length + position.
+   */
+  static double[] cosines(int length, int components) {
+    double[] cosines = new double[length * components];
+    for (int component = 0; component < components; component++) {
+      for (int position = 0; position < length; position++) {
+        cosines[component * length + position] = Math.cos(Math.PI * position * component / length);
+      }
+    }
+    return cosines;
+  }
+
   static double signPow(double val, double exp) {
     return Math.copySign(Math.pow(Math.abs(val), exp), val);
   }
@@ -20,13 +20,21 @@
 
 package org.thoughtcrime.securesms.components.emoji.parsing;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Based in part on code from emoji-java
+ *
+ * Emoji are added to a mutable tree keyed by code point. The first lookup compiles it into an immutable {@link Automaton} of sorted
+ * transition arrays, which is what every lookup then walks. Adding another emoji throws the compiled copy away.
  */
 public class EmojiTree {
 
@@ -34,18 +42,24 @@ public class EmojiTree {
 
   private static final char TERMINATOR = '\ufe0f';
 
-  public void add(String emojiEncoding, EmojiDrawInfo emoji) {
+  private volatile Automaton automaton;
+
+  public synchronized void add(String emojiEncoding, EmojiDrawInfo emoji) {
     EmojiTreeNode tree = root;
 
-    for (char c: emojiEncoding.toCharArray()) {
-      if (!tree.hasChild(c)) {
-        tree.addChild(c);
+    for (int i = 0; i < emojiEncoding.length(); ) {
+      int codePoint = Character.codePointAt(emojiEncoding, i);
+
+      if (!tree.hasChild(codePoint)) {
+        tree.addChild(codePoint);
       }
 
-      tree = tree.getChild(c);
+      tree = tree.getChild(codePoint);
+      i   += Character.charCount(codePoint);
     }
 
     tree.setEmoji(emoji);
+    automaton = null;
   }
 
   public Matches isEmoji(CharSequence sequence, int startPosition, int endPosition) {
@@ -53,21 +67,18 @@ public class EmojiTree {
       return Matches.POSSIBLY;
     }
 
-    EmojiTreeNode tree = root;
-
-    for (int i=startPosition; i<endPosition; i++) {
-      char character = sequence.charAt(i);
-
-      if (!tree.hasChild(character)) {
-        return Matches.IMPOSSIBLE;
-      }
+    Automaton automaton = getAutomaton();
+    int       state     = automaton.walk(sequence, startPosition, endPosition);
 
-      tree = tree.getChild(character);
+    if (state == Automaton.NONE) {
+      return Matches.IMPOSSIBLE;
+    } else if (state == Automaton.PARTIAL) {
+      return Matches.POSSIBLY;
     }
 
-    if (tree.isEndOfEmoji()) {
+    if (automaton.emoji[state] != null) {
       return Matches.EXACTLY;
-    } else if (sequence.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR) && tree.getChild(TERMINATOR).isEndOfEmoji()) {
+    } else if (sequence.charAt(endPosition-1) != TERMINATOR && automaton.terminatedEmoji[state] != null) {
       return Matches.EXACTLY;
     } else {
       return Matches.POSSIBLY;
@@ -75,27 +86,188 @@ public class EmojiTree {
   }
 
   public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
-    EmojiTreeNode tree = root;
+    Automaton automaton = getAutomaton();
+    int       state     = automaton.walk(unicode, startPosition, endPostiion);
+
+    if (state < 0) {
+      return null;
+    }
+
+    if      (automaton.emoji[state] != null)                    return automaton.emoji[state];
+    else if (unicode.charAt(endPostiion-1) != TERMINATOR)       return automaton.terminatedEmoji[state];
+    else    return null;
+  }
 
-    for (int i=startPosition; i<endPostiion; i++) {
-      char character = unicode.charAt(i);
+  /**
+   * Finds the longest emoji starting at startPosition, in one pass over the text. An emoji missing its trailing {@code U+FE0F} counts
+   * as a match, as it does for {@link #isEmoji(CharSequence, int, int)}.
+   *
+   * @return The end of the emoji, or -1 if none starts here.
+   */
+  public int getEmojiEndPos(@NonNull CharSequence text, int startPosition) {
+    Automaton automaton = getAutomaton();
+    int       state     = Automaton.ROOT;
+    int       best      = -1;
+
+    for (int i = startPosition; i < text.length(); ) {
+      int codePoint = Character.codePointAt(text, i);
+
+      state = automaton.next(state, codePoint);
+      if (state == Automaton.NONE) {
+        break;
+      }
+
+      i += Character.charCount(codePoint);
 
-      if (!tree.hasChild(character)) {
-        return null;
+      if (automaton.emoji[state] != null || (codePoint != TERMINATOR && automaton.terminatedEmoji[state] != null)) {
+        best = i;
       }
+    }
 
-      tree = tree.getChild(character);
+    return best;
+  }
+
+  private @NonNull Automaton getAutomaton() {
+    Automaton compiled = automaton;
+
+    if (compiled == null) {
+      synchronized (this) {
+        compiled = automaton;
+        if (compiled == null) {
+          compiled  = new Automaton(root);
+          automaton = compiled;
+        }
+      }
     }
 
-    if      (tree.getEmoji() != null)                                                  return tree.getEmoji();
-    else if (unicode.charAt(endPostiion-1) != TERMINATOR && tree.hasChild(TERMINATOR)) return tree.getChild(TERMINATOR).getEmoji();
-    else    return null;
+    return compiled;
   }
 
+  /**
+   * The tree laid out breadth first in flat arrays. The transitions out of a state are
+   * {@code codePoints[firstTransition[state]]} up to {@code codePoints[firstTransition[state + 1]]}, sorted so they can be binary searched.
+   */
+  private static final class Automaton {
+
+    static final int ROOT    = 0;
+    static final int NONE    = -1;
+    /** Walked text ended in the middle of a surrogate pair that starts at least one transition. */
+    static final int PARTIAL = -2;
+
+    /** Transitions out of the root for ASCII, which is most of what gets scanned, without a search. */
+    private final int[]           asciiFromRoot = new int[128];
+    private final int[]           firstTransition;
+    private final int[]           codePoints;
+    private final int[]           targets;
+    private final EmojiDrawInfo[] emoji;
+    /** The emoji for each state followed by {@link #TERMINATOR}, if there is one. */
+    private final EmojiDrawInfo[] terminatedEmoji;
+
+    Automaton(@NonNull EmojiTreeNode root) {
+      List<EmojiTreeNode>         states          = new ArrayList<>();
+      ArrayDeque<EmojiTreeNode>   queue           = new ArrayDeque<>();
+      Map<EmojiTreeNode, Integer> ids             = new HashMap<>();
+      int                         transitionCount = 0;
+
+      queue.add(root);
+      ids.put(root, ROOT);
+
+      while (!queue.isEmpty()) {
+        EmojiTreeNode node = queue.remove();
+        states.add(node);
+        transitionCount += node.children.size();
+
+        for (int codePoint : node.sortedCodePoints()) {
+          EmojiTreeNode child = node.getChild(codePoint);
+          ids.put(child, ids.size());
+          queue.add(child);
+        }
+      }
+
+      firstTransition = new int[states.size() + 1];
+      codePoints      = new int[transitionCount];
+      targets         = new int[transitionCount];
+      emoji           = new EmojiDrawInfo[states.size()];
+      terminatedEmoji = new EmojiDrawInfo[states.size()];
+
+      int transition = 0;
+      for (int state = 0; state < states.size(); state++) {
+        EmojiTreeNode node = states.get(state);
+
+        firstTransition[state] = transition;
+        emoji[state]           = node.getEmoji();
+
+        EmojiTreeNode terminated = node.getChild(TERMINATOR);
+        terminatedEmoji[state] = terminated != null ? terminated.getEmoji() : null;
+
+        for (int codePoint : node.sortedCodePoints()) {
+          codePoints[transition] = codePoint;
+          targets[transition]    = ids.get(node.getChild(codePoint));
+          transition++;
+        }
+      }
+      firstTransition[states.size()] = transition;
+
+      for (int c = 0; c < asciiFromRoot.length; c++) {
+        asciiFromRoot[c] = search(ROOT, c);
+      }
+    }
+
+    int next(int state, int codePoint) {
+      if (state == ROOT && codePoint < asciiFromRoot.length) {
+        return asciiFromRoot[codePoint];
+      }
+      return search(state, codePoint);
+    }
+
+    private int search(int state, int codePoint) {
+      int index = Arrays.binarySearch(codePoints, firstTransition[state], firstTransition[state + 1], codePoint);
+      return index >= 0 ? targets[index] : NONE;
+    }
+
+    /**
+     * @return The state reached by walking the text between the positions, {@link #NONE} if it isn't the start of any emoji, or
+     *         {@link #PARTIAL} if it only is when the surrogate pair it ends in is completed.
+     */
+    int walk(@NonNull CharSequence text, int startPosition, int endPosition) {
+      int state = ROOT;
+
+      for (int i = startPosition; i < endPosition; ) {
+        char c = text.charAt(i);
+
+        if (Character.isHighSurrogate(c) && i + 1 == endPosition) {
+          return startsTransition(state, c) ? PARTIAL : NONE;
+        }
+
+        int codePoint = Character.codePointAt(text, i);
+
+        state = next(state, codePoint);
+        if (state == NONE) {
+          return NONE;
+        }
+
+        i += Character.charCount(codePoint);
+      }
+
+      return state;
+    }
+
+    private boolean startsTransition(int state, char highSurrogate) {
+      int first = Character.toCodePoint(highSurrogate, Character.MIN_LOW_SURROGATE);
+      int index = Arrays.binarySearch(codePoints, firstTransition[state], firstTransition[state + 1], first);
+
+      if (index >= 0) {
+        return true;
+      }
+
+      int insertion = -index - 1;
+      return insertion < firstTransition[state + 1] && Character.highSurrogate(codePoints[insertion]) == highSurrogate;
+    }
+  }
 
   private static class EmojiTreeNode {
 
-    private Map<Character, EmojiTreeNode> children = new HashMap<>();
+    private final Map<Integer, EmojiTreeNode> children = new HashMap<>();
     private EmojiDrawInfo emoji;
 
     public void setEmoji(EmojiDrawInfo emoji) {
@@ -106,20 +278,28 @@ public class EmojiTree {
       return emoji;
     }
 
-    boolean hasChild(char child) {
+    boolean hasChild(int child) {
       return children.containsKey(child);
     }
 
-    void addChild(char child) {
+    void addChild(int child) {
       children.put(child, new EmojiTreeNode());
     }
 
-    EmojiTreeNode getChild(char child) {
+    EmojiTreeNode getChild(int child) {
       return children.get(child);
     }
 
-    boolean isEndOfEmoji() {
-      return emoji != null;
+    int[] sortedCodePoints() {
+      int[] codePoints = new int[children.size()];
+      int   i          = 0;
+
+      for (int codePoint : children.keySet()) {
+        codePoints[i++] = codePoint;
+      }
+
+      Arrays.sort(codePoints);
+      return codePoints;
     }
   }
 
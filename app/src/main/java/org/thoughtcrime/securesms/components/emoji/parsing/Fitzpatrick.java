@@ -53,6 +53,16 @@ public enum Fitzpatrick {
     return null;
   }
 
+  /**
+   * Same as checking {@link #fitzpatrickFromUnicode(CharSequence, int)} for null, without allocating, and with no need for a bounds check.
+   */
+  public static boolean isFitzpatrick(CharSequence unicode, int index) {
+    return index + 1 < unicode.length() &&
+           unicode.charAt(index) == '\uD83C' &&
+           unicode.charAt(index + 1) >= '\uDFFB' &&
+           unicode.charAt(index + 1) <= '\uDFFF';
+  }
+
   public static Fitzpatrick fitzpatrickFromType(String type) {
     try {
       return Fitzpatrick.valueOf(type.toUpperCase());
@@ -205,7 +205,7 @@ class InternalBackupPlaygroundViewModel : ViewModel() {
       val snapshotInfo = archiveFileSystem.listSnapshots().firstOrNull() ?: return@fromCallable ArchiveResult.failure(FailureCause.MAIN_STREAM)
       val snapshotFileSystem = SnapshotFileSystem(AppDependencies.application, snapshotInfo.file)
 
-      LocalArchiver.import(snapshotFileSystem, selfData)
+      LocalArchiver.import(snapshotFileSystem, archiveFileSystem.segmentsFileSystem, selfData)
 
       val mediaNameToFileInfo = archiveFileSystem.filesFileSystem.allFiles()
       RestoreLocalAttachmentJob.enqueueRestoreLocalAttachmentsJobs(mediaNameToFileInfo)
@@ -221,6 +221,7 @@ class InternalBackupPlaygroundViewModel : ViewModel() {
     AppDependencies.jobManager.cancelAllInQueue(BackfillDigestJob.QUEUE)
     AppDependencies.jobManager.cancelAllInQueue("ArchiveAttachmentJobs_0")
     AppDependencies.jobManager.cancelAllInQueue("ArchiveAttachmentJobs_1")
+    AppDependencies.jobManager.cancelAllInQueue(CopyAttachmentToArchiveJob.QUEUE)
     AppDependencies.jobManager.cancelAllInQueue("ArchiveThumbnailUploadJob")
     AppDependencies.jobManager.cancelAllInQueue("BackupRestoreJob")
     AppDependencies.jobManager.cancelAllInQueue("__LOCAL_BACKUP__")
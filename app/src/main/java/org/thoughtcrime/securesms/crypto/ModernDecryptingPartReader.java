@@ -0,0 +1,205 @@
+package org.thoughtcrime.securesms.crypto;
+
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.signal.core.util.Conversions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Random-access counterpart to {@link ModernDecryptingPartInputStream}.
+ * <p>
+ * Opening a {@link ModernDecryptingPartInputStream} at an offset re-opens the file, re-derives the key and skips to the position, which is far too much
+ * work to do for every one of the thousands of small reads issued by the media framework. This keeps the file and the derived key open instead, computes
+ * the CTR counter for any position directly, and serves reads from a small cache of decrypted chunks.
+ * <p>
+ * Not thread safe.
+ */
+public final class ModernDecryptingPartReader implements Closeable {
+
+  private static final int BLOCK_SIZE  = 16;
+  private static final int CHUNK_SIZE  = 8 * 1024;
+  private static final int CHUNK_COUNT = 8;
+
+  private final FileInputStream inputStream;
+  private final FileChannel     channel;
+  private final long            headerLength;
+  private final long            plaintextLength;
+  private final SecretKeySpec   key;
+  private final Cipher          cipher;
+  private final byte[]          iv;
+  private final ByteBuffer      ciphertextBuffer;
+  private final Chunk[]         chunks;
+
+  private long useCounter;
+
+  public static ModernDecryptingPartReader createFor(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull File file)
+      throws IOException
+  {
+    return new ModernDecryptingPartReader(attachmentSecret, random, file);
+  }
+
+  /**
+   * For files that have the random part of the key stored inline, in front of the ciphertext.
+   */
+  public static ModernDecryptingPartReader createFor(@NonNull AttachmentSecret attachmentSecret, @NonNull File file)
+      throws IOException
+  {
+    return new ModernDecryptingPartReader(attachmentSecret, null, file);
+  }
+
+  private ModernDecryptingPartReader(@NonNull AttachmentSecret attachmentSecret, @Nullable byte[] random, @NonNull File file) throws IOException {
+    this.inputStream = new FileInputStream(file);
+    this.channel     = inputStream.getChannel();
+
+    try {
+      if (random == null) {
+        random = new byte[32];
+        readFully(ByteBuffer.wrap(random), 0);
+
+        this.headerLength = random.length;
+      } else {
+        this.headerLength = 0;
+      }
+
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+      this.key              = new SecretKeySpec(mac.doFinal(random), "AES");
+      this.cipher           = Cipher.getInstance("AES/CTR/NoPadding");
+      this.iv               = new byte[BLOCK_SIZE];
+      this.plaintextLength  = channel.size() - headerLength;
+      this.ciphertextBuffer = ByteBuffer.allocate(CHUNK_SIZE);
+      this.chunks           = new Chunk[CHUNK_COUNT];
+    } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException e) {
+      inputStream.close();
+      throw new AssertionError(e);
+    } catch (IOException e) {
+      inputStream.close();
+      throw e;
+    }
+
+    for (int i = 0; i < chunks.length; i++) {
+      chunks[i] = new Chunk();
+    }
+  }
+
+  /**
+   * Reads up to length bytes of plaintext starting at position.
+   *
+   * @return The number of bytes read, which is only less than length at the end of the file, or -1 if position is at or past the end.
+   */
+  public int read(long position, @NonNull byte[] buffer, int offset, int length) throws IOException {
+    if (position >= plaintextLength) {
+      return -1;
+    }
+
+    int totalRead = 0;
+
+    while (totalRead < length && position < plaintextLength) {
+      long  chunkIndex  = position / CHUNK_SIZE;
+      Chunk chunk       = getChunk(chunkIndex);
+      int   chunkOffset = (int) (position - chunkIndex * CHUNK_SIZE);
+      int   copyLength  = Math.min(length - totalRead, chunk.length - chunkOffset);
+
+      System.arraycopy(chunk.data, chunkOffset, buffer, offset + totalRead, copyLength);
+
+      totalRead += copyLength;
+      position  += copyLength;
+    }
+
+    return totalRead;
+  }
+
+  public long getPlaintextLength() {
+    return plaintextLength;
+  }
+
+  @Override
+  public void close() throws IOException {
+    inputStream.close();
+  }
+
+  private @NonNull Chunk getChunk(long chunkIndex) throws IOException {
+    Chunk leastRecentlyUsed = chunks[0];
+
+    for (Chunk chunk : chunks) {
+      if (chunk.index == chunkIndex) {
+        chunk.lastUsed = ++useCounter;
+        return chunk;
+      }
+
+      if (chunk.lastUsed < leastRecentlyUsed.lastUsed) {
+        leastRecentlyUsed = chunk;
+      }
+    }
+
+    decryptChunk(leastRecentlyUsed, chunkIndex);
+    leastRecentlyUsed.lastUsed = ++useCounter;
+
+    return leastRecentlyUsed;
+  }
+
+  private void decryptChunk(@NonNull Chunk chunk, long chunkIndex) throws IOException {
+    long start  = chunkIndex * CHUNK_SIZE;
+    int  length = (int) Math.min(CHUNK_SIZE, plaintextLength - start);
+
+    chunk.index = -1;
+
+    ciphertextBuffer.clear();
+    ciphertextBuffer.limit(length);
+    readFully(ciphertextBuffer, headerLength + start);
+
+    // The file is encrypted as one CTR stream starting from a zero IV, so the counter for any block is just its index.
+    Conversions.longToByteArray(iv, BLOCK_SIZE - 8, start / BLOCK_SIZE);
+
+    try {
+      cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+      cipher.doFinal(ciphertextBuffer.array(), 0, length, chunk.data, 0);
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException | ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
+      throw new AssertionError(e);
+    }
+
+    chunk.index  = chunkIndex;
+    chunk.length = length;
+  }
+
+  private void readFully(@NonNull ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+
+      if (read == -1) {
+        throw new IOException(ModernDecryptingPartInputStream.PREMATURE_END_ERROR_MESSAGE);
+      }
+
+      position += read;
+    }
+  }
+
+  private static final class Chunk {
+    private final byte[] data = new byte[CHUNK_SIZE];
+
+    private long index = -1;
+    private int  length;
+    private long lastUsed;
+  }
+}
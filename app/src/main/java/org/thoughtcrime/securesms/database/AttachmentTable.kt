@@ -510,7 +510,7 @@ class AttachmentTable(
 
   fun getRestorableAttachments(batchSize: Int): List<RestorableAttachment> {
     return readableDatabase
-      .select(ID, MESSAGE_ID, DATA_SIZE, REMOTE_DIGEST, REMOTE_KEY)
+      .select(ID, MESSAGE_ID, DATA_SIZE, REMOTE_DIGEST, REMOTE_KEY, CDN_NUMBER, ARCHIVE_CDN)
       .from(TABLE_NAME)
       .where("$TRANSFER_STATE = ?", TRANSFER_NEEDS_RESTORE)
       .limit(batchSize)
@@ -522,14 +522,16 @@ class AttachmentTable(
           mmsId = it.requireLong(MESSAGE_ID),
           size = it.requireLong(DATA_SIZE),
           remoteDigest = it.requireBlob(REMOTE_DIGEST),
-          remoteKey = it.requireBlob(REMOTE_KEY)
+          remoteKey = it.requireBlob(REMOTE_KEY),
+          cdn = it.requireInt(CDN_NUMBER),
+          archiveCdn = it.requireInt(ARCHIVE_CDN)
         )
       }
   }
 
   fun getRestorableOptimizedAttachments(): List<RestorableAttachment> {
     return readableDatabase
-      .select(ID, MESSAGE_ID, DATA_SIZE, REMOTE_DIGEST, REMOTE_KEY)
+      .select(ID, MESSAGE_ID, DATA_SIZE, REMOTE_DIGEST, REMOTE_KEY, CDN_NUMBER, ARCHIVE_CDN)
       .from(TABLE_NAME)
       .where("$TRANSFER_STATE = ?", TRANSFER_RESTORE_OFFLOADED)
       .orderBy("$ID DESC")
@@ -540,7 +542,9 @@ class AttachmentTable(
           mmsId = it.requireLong(MESSAGE_ID),
           size = it.requireLong(DATA_SIZE),
           remoteDigest = it.requireBlob(REMOTE_DIGEST),
-          remoteKey = it.requireBlob(REMOTE_KEY)
+          remoteKey = it.requireBlob(REMOTE_KEY),
+          cdn = it.requireInt(CDN_NUMBER),
+          archiveCdn = it.requireInt(ARCHIVE_CDN)
         )
       }
   }
@@ -576,6 +580,26 @@ class AttachmentTable(
       .readToList { AttachmentId(it.requireLong(ID)) }
   }
 
+  /**
+   * Finds up to [limit] attachments that are waiting to be copied to the archive cdn, one per data file, so that they can be copied in a single batch.
+   */
+  fun getAttachmentsPendingArchiveCopy(limit: Int): List<AttachmentId> {
+    return readableDatabase
+      .rawQuery(
+        """
+          SELECT MIN($ID) AS $ID
+          FROM $TABLE_NAME
+          WHERE 
+            $ARCHIVE_TRANSFER_STATE = ${ArchiveTransferState.COPY_PENDING.value} AND 
+            $DATA_FILE NOT NULL AND 
+            $REMOTE_LOCATION NOT NULL
+          GROUP BY $DATA_FILE
+          LIMIT $limit
+        """.trimIndent()
+      )
+      .readToList { AttachmentId(it.requireLong(ID)) }
+  }
+
   /**
    * At archive creation time, we need to ensure that all relevant attachments have populated (key, iv, digest) tuples.
    * This does that.
@@ -1154,13 +1178,28 @@ class AttachmentTable(
 
     val existingPlaceholder: DatabaseAttachment = getAttachment(attachmentId) ?: throw MmsException("No attachment found for id: $attachmentId")
 
-    val fileWriteResult: DataFileWriteResult = writeToDataFile(newDataFile(context), inputStream, TransformProperties.empty(), closeInputStream = false)
-    val transferFile: File? = getTransferFile(databaseHelper.signalReadableDatabase, attachmentId)
+    // The input may only be verified once it has been read to the end (see AttachmentCipherInputStream.createForAttachmentSinglePass).
+    // writeToDataFile deletes its temp file if the input fails partway through, and we delete the data file if anything fails before we've
+    // drained the padding, so no unverified plaintext is left around.
+    val dataFile: File = newDataFile(context)
+    val fileWriteResult: DataFileWriteResult
+    val paddingAllZeroes: Boolean
+
+    try {
+      fileWriteResult = writeToDataFile(dataFile, inputStream, TransformProperties.empty(), closeInputStream = false)
 
-    val paddingAllZeroes = inputStream.use { limitStream ->
-      limitStream.leftoverStream().allMatch { it == 0x00.toByte() }
+      paddingAllZeroes = inputStream.use { limitStream ->
+        limitStream.leftoverStream().allMatch { it == 0x00.toByte() }
+      }
+    } catch (e: Exception) {
+      if (dataFile.exists() && !dataFile.delete()) {
+        Log.w(TAG, "[finalizeAttachmentAfterDownload] Failed to delete staged data file for $attachmentId")
+      }
+      throw e
     }
 
+    val transferFile: File? = getTransferFile(databaseHelper.signalReadableDatabase, attachmentId)
+
     // Existing digest may be null for non-user attachments, like things pulled from S3
     val digest = if (existingPlaceholder.remoteDigest != null && paddingAllZeroes) {
       Log.d(TAG, "[finalizeAttachmentAfterDownload] $attachmentId has all-zero padding. Digest is good.")
@@ -2167,10 +2206,11 @@ class AttachmentTable(
    */
   @Throws(MmsException::class, IllegalStateException::class)
   private fun writeToDataFile(destination: File, inputStream: InputStream, transformProperties: TransformProperties, closeInputStream: Boolean = true): DataFileWriteResult {
+    // Sometimes the destination is a file that's already in use, sometimes it's not.
+    // To avoid writing to a file while it's in-use, we write to a temp file and then rename it to the destination file at the end.
+    val tempFile = newDataFile(context)
+
     return try {
-      // Sometimes the destination is a file that's already in use, sometimes it's not.
-      // To avoid writing to a file while it's in-use, we write to a temp file and then rename it to the destination file at the end.
-      val tempFile = newDataFile(context)
       val messageDigest = MessageDigest.getInstance("SHA-256")
       val digestInputStream = DigestInputStream(inputStream, messageDigest)
 
@@ -2178,12 +2218,11 @@ class AttachmentTable(
       val random = encryptingStreamData.first
       val encryptingOutputStream = encryptingStreamData.second
 
-      val length = digestInputStream.copyTo(encryptingOutputStream, closeInputStream)
+      val length = encryptingOutputStream.use { digestInputStream.copyTo(it, closeInputStream) }
       val hash = Base64.encodeWithPadding(digestInputStream.messageDigest.digest())
 
       if (!tempFile.renameTo(destination)) {
         Log.w(TAG, "[writeToDataFile] Couldn't rename ${tempFile.path} to ${destination.path}")
-        tempFile.delete()
         throw IllegalStateException("Couldn't rename ${tempFile.path} to ${destination.path}")
       }
 
@@ -2198,6 +2237,11 @@ class AttachmentTable(
       throw MmsException(e)
     } catch (e: NoSuchAlgorithmException) {
       throw MmsException(e)
+    } finally {
+      // Only still here if we failed before the rename, which includes the input failing verification partway through.
+      if (tempFile.exists() && !tempFile.delete()) {
+        Log.w(TAG, "[writeToDataFile] Failed to delete ${tempFile.path}")
+      }
     }
   }
 
@@ -2885,7 +2929,9 @@ class AttachmentTable(
     val mmsId: Long,
     val size: Long,
     val remoteDigest: ByteArray?,
-    val remoteKey: ByteArray?
+    val remoteKey: ByteArray?,
+    val cdn: Int,
+    val archiveCdn: Int
   ) {
     override fun equals(other: Any?): Boolean {
       return this === other || attachmentId == (other as? RestorableAttachment)?.attachmentId
@@ -11,12 +11,15 @@ import org.signal.core.util.Stopwatch
 import org.signal.core.util.delete
 import org.signal.core.util.deleteAll
 import org.signal.core.util.exists
+import org.signal.core.util.forEach
 import org.signal.core.util.getTableRowCount
 import org.signal.core.util.insertInto
 import org.signal.core.util.logging.Log
 import org.signal.core.util.mebiBytes
 import org.signal.core.util.readToList
 import org.signal.core.util.readToSingleInt
+import org.signal.core.util.readToSingleLongOrNull
+import org.signal.core.util.requireBoolean
 import org.signal.core.util.requireLong
 import org.signal.core.util.requireNonNullString
 import org.signal.core.util.select
@@ -57,7 +60,7 @@ class LogDatabase private constructor(
   companion object {
     private val TAG = Log.tag(LogDatabase::class.java)
 
-    private const val DATABASE_VERSION = 4
+    private const val DATABASE_VERSION = 5
     private const val DATABASE_NAME = "signal-logs.db"
 
     @SuppressLint("StaticFieldLeak") // We hold an Application context, not a view context
@@ -91,10 +94,13 @@ class LogDatabase private constructor(
     Log.i(TAG, "onCreate()")
 
     db.execSQL(LogTable.CREATE_TABLE)
+    db.execSQL(LogTable.CREATE_SIZE_TABLE)
     db.execSQL(CrashTable.CREATE_TABLE)
     db.execSQL(AnrTable.CREATE_TABLE)
 
     LogTable.CREATE_INDEXES.forEach { db.execSQL(it) }
+    LogTable.CREATE_TRIGGERS.forEach { db.execSQL(it) }
+    db.execSQL(LogTable.INSERT_SIZE_ROWS)
     CrashTable.CREATE_INDEXES.forEach { db.execSQL(it) }
   }
 
@@ -117,6 +123,25 @@ class LogDatabase private constructor(
     if (oldVersion < 4) {
       db.execSQL("CREATE TABLE anr (_id INTEGER PRIMARY KEY, created_at INTEGER NOT NULL, thread_dump TEXT NOT NULL)")
     }
+
+    if (oldVersion < 5) {
+      db.execSQL("ALTER TABLE log ADD COLUMN size_offset INTEGER DEFAULT 0")
+      db.execSQL(
+        """
+        UPDATE log 
+        SET size_offset = running.size_offset 
+        FROM (SELECT _id, SUM(size) OVER (PARTITION BY keep_longer ORDER BY _id) AS size_offset FROM log) AS running 
+        WHERE log._id = running._id
+        """
+      )
+      db.execSQL("CREATE INDEX log_keep_longer_size_offset_index ON log (keep_longer, size_offset)")
+
+      db.execSQL("CREATE TABLE log_size (keep_longer INTEGER PRIMARY KEY, total_size INTEGER NOT NULL DEFAULT 0, written_size INTEGER NOT NULL DEFAULT 0)")
+      db.execSQL("INSERT INTO log_size (keep_longer, total_size, written_size) VALUES (0, 0, 0), (1, 0, 0)")
+      db.execSQL("UPDATE log_size SET total_size = (SELECT IFNULL(SUM(size), 0) FROM log WHERE log.keep_longer = log_size.keep_longer)")
+      db.execSQL("UPDATE log_size SET written_size = (SELECT IFNULL(MAX(size_offset), 0) FROM log WHERE log.keep_longer = log_size.keep_longer)")
+      db.execSQL("CREATE TRIGGER log_size_delete AFTER DELETE ON log BEGIN UPDATE log_size SET total_size = total_size - OLD.size WHERE keep_longer = OLD.keep_longer; END")
+    }
   }
 
   override fun onOpen(db: SQLiteDatabase) {
@@ -136,19 +161,47 @@ class LogDatabase private constructor(
       const val BODY = "body"
       const val SIZE = "size"
 
+      /** The total size of all of the logs of the same retention class inserted up to and including this one. Only ever increases. */
+      const val SIZE_OFFSET = "size_offset"
+
       const val CREATE_TABLE = """
         CREATE TABLE $TABLE_NAME (
           $ID INTEGER PRIMARY KEY,
           $CREATED_AT INTEGER, 
           $KEEP_LONGER INTEGER DEFAULT 0,
           $BODY TEXT,
-          $SIZE INTEGER
+          $SIZE INTEGER,
+          $SIZE_OFFSET INTEGER DEFAULT 0
         )
       """
 
+      /**
+       * One row per retention class, keyed by [KEEP_LONGER]. [SIZE_TOTAL] is the size of the logs currently in the table, kept up to date by
+       * [insert] and a delete trigger. [SIZE_WRITTEN] is the size of every log ever inserted, and is what [SIZE_OFFSET] counts up to.
+       */
+      const val SIZE_TABLE_NAME = "log_size"
+      const val SIZE_TOTAL = "total_size"
+      const val SIZE_WRITTEN = "written_size"
+
+      const val CREATE_SIZE_TABLE = """
+        CREATE TABLE $SIZE_TABLE_NAME (
+          $KEEP_LONGER INTEGER PRIMARY KEY,
+          $SIZE_TOTAL INTEGER NOT NULL DEFAULT 0,
+          $SIZE_WRITTEN INTEGER NOT NULL DEFAULT 0
+        )
+      """
+
+      /** Seeds [SIZE_TABLE_NAME] with an empty row for each retention class. */
+      const val INSERT_SIZE_ROWS = "INSERT INTO $SIZE_TABLE_NAME ($KEEP_LONGER, $SIZE_TOTAL, $SIZE_WRITTEN) VALUES (0, 0, 0), (1, 0, 0)"
+
       val CREATE_INDEXES = arrayOf(
         "CREATE INDEX keep_longer_index ON $TABLE_NAME ($KEEP_LONGER)",
-        "CREATE INDEX log_created_at_keep_longer_index ON $TABLE_NAME ($CREATED_AT, $KEEP_LONGER)"
+        "CREATE INDEX log_created_at_keep_longer_index ON $TABLE_NAME ($CREATED_AT, $KEEP_LONGER)",
+        "CREATE INDEX log_keep_longer_size_offset_index ON $TABLE_NAME ($KEEP_LONGER, $SIZE_OFFSET)"
+      )
+
+      val CREATE_TRIGGERS = arrayOf(
+        "CREATE TRIGGER log_size_delete AFTER DELETE ON $TABLE_NAME BEGIN UPDATE $SIZE_TABLE_NAME SET $SIZE_TOTAL = $SIZE_TOTAL - OLD.$SIZE WHERE $KEEP_LONGER = OLD.$KEEP_LONGER; END"
       )
 
       val MAX_FILE_SIZE = 20L.mebiBytes.inWholeBytes
@@ -161,17 +214,34 @@ class LogDatabase private constructor(
 
     fun insert(logs: List<LogEntry>, currentTime: Long) {
       writableDatabase.withinTransaction { db ->
+        val sizes = getSizes(db)
+        var normalWritten = sizes.normalWritten
+        var keepLongerWritten = sizes.keepLongerWritten
+
         logs.forEach { log ->
+          val size = log.body.length
+          val sizeOffset = if (log.keepLonger) {
+            keepLongerWritten += size
+            keepLongerWritten
+          } else {
+            normalWritten += size
+            normalWritten
+          }
+
           db.insertInto(TABLE_NAME)
             .values(
               CREATED_AT to log.createdAt,
               KEEP_LONGER to if (log.keepLonger) 1 else 0,
               BODY to log.body,
-              SIZE to log.body.length
+              SIZE to size,
+              SIZE_OFFSET to sizeOffset
             )
             .run()
         }
 
+        addWrittenSize(db, keepLonger = false, size = normalWritten - sizes.normalWritten)
+        addWrittenSize(db, keepLonger = true, size = keepLongerWritten - sizes.keepLongerWritten)
+
         db.delete(TABLE_NAME)
           .where("($CREATED_AT < ? AND $KEEP_LONGER = 0) OR ($CREATED_AT < ? AND $KEEP_LONGER = 1)", currentTime - DEFAULT_LIFESPAN, currentTime - LONGER_LIFESPAN)
           .run()
@@ -197,56 +267,61 @@ class LogDatabase private constructor(
         .readToList { it.requireNonNullString(BODY) }
     }
 
-    fun trimToSize() {
-      val currentTime = System.currentTimeMillis()
+    /**
+     * Deletes the oldest logs until everything fits in [maxSize]. Logs marked [KEEP_LONGER] are only deleted if they alone don't fit.
+     *
+     * The size of each retention class is tracked as logs are inserted and deleted, so this never has to add up the sizes of the logs in the table.
+     * Trimming is a single lookup on [SIZE_OFFSET] to find the oldest log to keep, and then a delete of everything before it.
+     */
+    @JvmOverloads
+    fun trimToSize(maxSize: Long = MAX_FILE_SIZE) {
       val stopwatch = Stopwatch("trim")
 
-      val sizeOfSpecialLogs: Long = getSize("$KEEP_LONGER = ?", arrayOf("1"))
-      val remainingSize = MAX_FILE_SIZE - sizeOfSpecialLogs
+      val sizes = getSizes(readableDatabase)
+      val plan = TrimPlan.create(sizes, maxSize)
 
-      stopwatch.split("keepers-size")
+      stopwatch.split("sizes")
 
-      if (remainingSize <= 0) {
-        if (abs(remainingSize) > MAX_FILE_SIZE / 2) {
+      when (plan) {
+        is TrimPlan.None -> Unit
+        is TrimPlan.DeleteOldestHalf -> {
           // Not only are KEEP_LONGER logs putting us over the storage limit, it's doing it by a lot! Delete half.
           val logCount = readableDatabase.getTableRowCount(TABLE_NAME)
           writableDatabase.execSQL("DELETE FROM $TABLE_NAME WHERE $ID < (SELECT MAX($ID) FROM (SELECT $ID FROM $TABLE_NAME LIMIT ${logCount / 2}))")
-        } else {
+        }
+        is TrimPlan.DeleteAllNormal -> {
           writableDatabase
             .delete(TABLE_NAME)
             .where("$KEEP_LONGER = 0")
+            .run()
         }
-        return
-      }
-
-      val sizeDiffThreshold = MAX_FILE_SIZE * 0.01
-
-      var lhs: Long = currentTime - DEFAULT_LIFESPAN
-      var rhs: Long = currentTime
-      var mid: Long = 0
-      var sizeOfChunk: Long
+        is TrimPlan.DeleteNormalUpTo -> {
+          // SIZE_OFFSET only increases with ID, so the first row in index order is the oldest log to keep, and SQLite can stop there.
+          val oldestKept: Long? = readableDatabase
+            .select(ID)
+            .from(TABLE_NAME)
+            .where("$KEEP_LONGER = 0 AND $SIZE_OFFSET > ?", plan.sizeOffset)
+            .orderBy("$SIZE_OFFSET ASC")
+            .limit(1)
+            .run()
+            .readToSingleLongOrNull()
 
-      while (lhs < rhs - 2) {
-        mid = (lhs + rhs) / 2
-        sizeOfChunk = getSize("$CREATED_AT > ? AND $CREATED_AT < ? AND $KEEP_LONGER = ?", SqlUtil.buildArgs(mid, currentTime, 0))
+          stopwatch.split("find-oldest")
 
-        if (sizeOfChunk > remainingSize) {
-          lhs = mid
-        } else if (sizeOfChunk < remainingSize) {
-          if (remainingSize - sizeOfChunk < sizeDiffThreshold) {
-            break
+          if (oldestKept != null) {
+            writableDatabase
+              .delete(TABLE_NAME)
+              .where("$ID < ? AND $KEEP_LONGER = 0", oldestKept)
+              .run()
           } else {
-            rhs = mid
+            writableDatabase
+              .delete(TABLE_NAME)
+              .where("$KEEP_LONGER = 0")
+              .run()
           }
-        } else {
-          break
         }
       }
 
-      stopwatch.split("binary-search")
-
-      writableDatabase.delete(TABLE_NAME, "$CREATED_AT < ? AND $KEEP_LONGER = ?", SqlUtil.buildArgs(mid, 0))
-
       stopwatch.split("delete")
       stopwatch.stop(TAG)
     }
@@ -272,14 +347,35 @@ class LogDatabase private constructor(
       writableDatabase.execSQL("VACUUM")
     }
 
-    private fun getSize(query: String?, args: Array<String>?): Long {
-      readableDatabase.query(TABLE_NAME, arrayOf("SUM($SIZE)"), query, args, null, null, null).use { cursor ->
-        return if (cursor.moveToFirst()) {
-          cursor.getLong(0)
-        } else {
-          0
+    private fun getSizes(db: SQLiteDatabase): Sizes {
+      var sizes = Sizes(normalTotal = 0, normalWritten = 0, keepLongerTotal = 0, keepLongerWritten = 0)
+
+      db.select(KEEP_LONGER, SIZE_TOTAL, SIZE_WRITTEN)
+        .from(SIZE_TABLE_NAME)
+        .run()
+        .forEach { cursor ->
+          val total = cursor.requireLong(SIZE_TOTAL)
+          val written = cursor.requireLong(SIZE_WRITTEN)
+
+          sizes = if (cursor.requireBoolean(KEEP_LONGER)) {
+            sizes.copy(keepLongerTotal = total, keepLongerWritten = written)
+          } else {
+            sizes.copy(normalTotal = total, normalWritten = written)
+          }
         }
+
+      return sizes
+    }
+
+    private fun addWrittenSize(db: SQLiteDatabase, keepLonger: Boolean, size: Long) {
+      if (size == 0L) {
+        return
       }
+
+      db.execSQL(
+        "UPDATE $SIZE_TABLE_NAME SET $SIZE_TOTAL = $SIZE_TOTAL + ?, $SIZE_WRITTEN = $SIZE_WRITTEN + ? WHERE $KEEP_LONGER = ?",
+        SqlUtil.buildArgs(size, size, if (keepLonger) 1 else 0)
+      )
     }
 
     private fun Cursor.toReader(): CursorReader {
@@ -288,6 +384,43 @@ class LogDatabase private constructor(
 
     interface Reader : Iterator<String>, Closeable
 
+    data class Sizes(
+      val normalTotal: Long,
+      val normalWritten: Long,
+      val keepLongerTotal: Long,
+      val keepLongerWritten: Long
+    )
+
+    /**
+     * What [trimToSize] needs to delete, given the current [Sizes].
+     */
+    sealed interface TrimPlan {
+      /** Everything fits. */
+      data object None : TrimPlan
+
+      /** [KEEP_LONGER] logs alone are well over the limit, so delete the oldest half of all logs. */
+      data object DeleteOldestHalf : TrimPlan
+
+      /** [KEEP_LONGER] logs fill the limit, so none of the others can stay. */
+      data object DeleteAllNormal : TrimPlan
+
+      /** Delete the normal logs with a [SIZE_OFFSET] of at most [sizeOffset], which leaves the newest ones that fit. */
+      data class DeleteNormalUpTo(val sizeOffset: Long) : TrimPlan
+
+      companion object {
+        fun create(sizes: Sizes, maxSize: Long): TrimPlan {
+          val remainingSize = maxSize - sizes.keepLongerTotal
+
+          return when {
+            remainingSize <= 0 && abs(remainingSize) > maxSize / 2 -> DeleteOldestHalf
+            remainingSize <= 0 -> DeleteAllNormal
+            sizes.normalTotal <= remainingSize -> None
+            else -> DeleteNormalUpTo(sizes.normalWritten - remainingSize)
+          }
+        }
+      }
+    }
+
     class CursorReader(private val cursor: Cursor) : Reader {
       override fun hasNext(): Boolean {
         return !cursor.isLast && cursor.count > 0
@@ -448,6 +448,34 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     return getByColumn(USERNAME, username)
   }
 
+  /**
+   * Bulk version of [getByAci]. ACIs without a recipient are left out of the result.
+   */
+  fun getAllByAci(acis: Collection<ACI>): Map<ACI, RecipientId> {
+    return getAllByColumn(ACI_COLUMN, acis) { it.toString() }
+  }
+
+  /**
+   * Bulk version of [getByE164]. E164s without a recipient are left out of the result.
+   */
+  fun getAllByE164(e164s: Collection<String>): Map<String, RecipientId> {
+    return getAllByColumn(E164, e164s) { it }
+  }
+
+  /**
+   * Bulk version of [getByPni]. PNIs without a recipient are left out of the result.
+   */
+  fun getAllByPni(pnis: Collection<PNI>): Map<PNI, RecipientId> {
+    return getAllByColumn(PNI_COLUMN, pnis) { it.toString() }
+  }
+
+  /**
+   * Bulk version of [getByGroupId]. Groups without a recipient are left out of the result.
+   */
+  fun getAllByGroupId(groupIds: Collection<GroupId>): Map<GroupId, RecipientId> {
+    return getAllByColumn(GROUP_ID, groupIds) { it.toString() }
+  }
+
   fun getByCallLinkRoomId(callLinkRoomId: CallLinkRoomId): Optional<RecipientId> {
     return getByColumn(CALL_LINK_ROOM_ID, callLinkRoomId.serialize())
   }
@@ -773,6 +801,21 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     return findRemappedIdRecord(id) ?: throw MissingRecipientException(id)
   }
 
+  /**
+   * Bulk version of [getRecordForSync]. Ids that don't exist are left out of the result.
+   */
+  fun getRecordsForSync(ids: Collection<RecipientId>): Map<RecipientId, RecipientRecord> {
+    val out: MutableMap<RecipientId, RecipientRecord> = HashMap(ids.size)
+
+    for (query in SqlUtil.buildCollectionQuery("$TABLE_NAME.$ID", ids.map { it.serialize() })) {
+      for (record in getRecordForSync(query.where, query.whereArgs)) {
+        out[record.id] = record
+      }
+    }
+
+    return out
+  }
+
   fun getRecordForSync(id: RecipientId): RecipientRecord? {
     val query = "$TABLE_NAME.$ID = ?"
     val args = arrayOf(id.serialize())
@@ -3922,6 +3965,21 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     }
   }
 
+  private fun <K> getAllByColumn(column: String, keys: Collection<K>, toValue: (K) -> String): Map<K, RecipientId> {
+    val keysByValue: Map<String, K> = keys.associateBy(toValue)
+    val out: MutableMap<K, RecipientId> = HashMap(keys.size)
+
+    for (query in SqlUtil.buildCollectionQuery(column, keysByValue.keys)) {
+      readableDatabase.query(TABLE_NAME, arrayOf(ID, column), query.where, query.whereArgs, null, null, null).use { cursor ->
+        while (cursor.moveToNext()) {
+          out[keysByValue.getValue(cursor.requireNonNullString(column))] = RecipientId.from(cursor.requireLong(ID))
+        }
+      }
+    }
+
+    return out
+  }
+
   private fun getOrInsertByColumn(column: String, value: String, contentValues: ContentValues = contentValuesOf(column to value)): GetOrInsertResult {
     if (TextUtils.isEmpty(value)) {
       throw AssertionError("$column cannot be empty.")
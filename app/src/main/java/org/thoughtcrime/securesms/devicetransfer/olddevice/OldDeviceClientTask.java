@@ -28,6 +28,7 @@ final class OldDeviceClientTask implements ClientTask {
   private static final String TAG = Log.tag(OldDeviceClientTask.class);
 
   private static final long PROGRESS_UPDATE_THROTTLE = 250;
+  private static final int  MAX_STREAMS              = 4;
 
   private long lastProgressUpdate = 0;
 
@@ -55,6 +56,11 @@ final class OldDeviceClientTask implements ClientTask {
     Log.i(TAG, "Sending took: " + (end - start));
   }
 
+  @Override
+  public int getStreamCount() {
+    return Math.min(MAX_STREAMS, Runtime.getRuntime().availableProcessors());
+  }
+
   @Subscribe(threadMode = ThreadMode.POSTING)
   public void onEvent(BackupEvent event) {
     if (event.getType() == BackupEvent.Type.PROGRESS) {
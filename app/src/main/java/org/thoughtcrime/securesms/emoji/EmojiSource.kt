@@ -73,9 +73,10 @@ class EmojiSource(
         }
       }
 
-    obsolete.forEach {
-      tree.add(it.obsolete, tree.getEmoji(it.replaceWith, 0, it.replaceWith.length))
-    }
+    // Look every replacement up before adding any, as each add throws away the tree's compiled lookup
+    obsolete
+      .map { it.obsolete to tree.getEmoji(it.replaceWith, 0, it.replaceWith.length) }
+      .forEach { (obsolete, drawInfo) -> tree.add(obsolete, drawInfo) }
 
     tree
   }
@@ -294,6 +294,7 @@ class AttachmentDownloadJob private constructor(
           pointer,
           attachmentFile,
           maxReceiveSize,
+          true,
           progressListener
         )
 
@@ -8,6 +8,7 @@ package org.thoughtcrime.securesms.jobs
 import org.signal.core.util.logging.Log
 import org.signal.core.util.withinTransaction
 import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.thoughtcrime.securesms.backup.v2.MediaRestoreScheduler
 import org.thoughtcrime.securesms.database.AttachmentTable
 import org.thoughtcrime.securesms.database.SignalDatabase
 import org.thoughtcrime.securesms.database.model.MmsMessageRecord
@@ -53,10 +54,12 @@ class BackupRestoreMediaJob private constructor(parameters: Parameters) : BaseJo
     val jobManager = AppDependencies.jobManager
     val batchSize = 500
     val restoreTime = System.currentTimeMillis()
+    val scheduler = MediaRestoreScheduler(RestoreAttachmentJob.RestoreOperation.INITIAL_RESTORE)
+    val useArchiveCdn = SignalStore.backup.backsUpMedia
 
     do {
       val restoreThumbnailJobs: MutableList<RestoreAttachmentThumbnailJob> = mutableListOf()
-      val restoreFullAttachmentJobs: MutableList<RestoreAttachmentJob> = mutableListOf()
+      val restoreFullAttachmentRequests: MutableList<MediaRestoreScheduler.Request> = mutableListOf()
 
       val restoreThumbnailOnlyAttachmentsIds: MutableList<AttachmentId> = mutableListOf()
       val notRestorable: MutableList<AttachmentId> = mutableListOf()
@@ -82,9 +85,12 @@ class BackupRestoreMediaJob private constructor(parameters: Parameters) : BaseJo
         )
 
         if (isWallpaper || shouldRestoreFullSize(message!!, restoreTime, SignalStore.backup.optimizeStorage)) {
-          restoreFullAttachmentJobs += RestoreAttachmentJob.forInitialRestore(
+          restoreFullAttachmentRequests += MediaRestoreScheduler.Request(
+            attachmentId = attachment.attachmentId,
             messageId = attachment.mmsId,
-            attachmentId = attachment.attachmentId
+            cdn = if (useArchiveCdn) attachment.archiveCdn else attachment.cdn,
+            size = attachment.size,
+            dateReceived = message?.dateReceived ?: restoreTime
           )
         } else {
           restoreThumbnailOnlyAttachmentsIds += attachment.attachmentId
@@ -102,12 +108,14 @@ class BackupRestoreMediaJob private constructor(parameters: Parameters) : BaseJo
 
       // Intentionally enqueues one at a time for safer attachment transfer state management
       restoreThumbnailJobs.forEach { jobManager.add(it) }
-      restoreFullAttachmentJobs.forEach { jobManager.add(it) }
-    } while (restoreThumbnailJobs.isNotEmpty() || restoreFullAttachmentJobs.isNotEmpty() || notRestorable.isNotEmpty())
+      scheduler.schedule(restoreFullAttachmentRequests).forEach { jobManager.add(it) }
+    } while (restoreThumbnailJobs.isNotEmpty() || restoreFullAttachmentRequests.isNotEmpty() || notRestorable.isNotEmpty())
 
     SignalStore.backup.totalRestorableAttachmentSize = SignalDatabase.attachments.getRemainingRestorableAttachmentSize()
 
-    jobManager.add(CheckRestoreMediaLeftJob(RestoreAttachmentJob.constructQueueString(RestoreAttachmentJob.RestoreOperation.INITIAL_RESTORE)))
+    // The last lane to finish is the one that will find nothing left
+    val checkQueues = scheduler.queues.ifEmpty { setOf(RestoreAttachmentJob.constructQueueString(RestoreAttachmentJob.RestoreOperation.INITIAL_RESTORE)) }
+    checkQueues.forEach { jobManager.add(CheckRestoreMediaLeftJob(it)) }
   }
 
   private fun shouldRestoreFullSize(message: MmsMessageRecord, restoreTime: Long, optimizeStorage: Boolean): Boolean {
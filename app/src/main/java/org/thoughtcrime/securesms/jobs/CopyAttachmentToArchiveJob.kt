@@ -6,6 +6,7 @@ import org.thoughtcrime.securesms.attachments.Cdn
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment
 import org.thoughtcrime.securesms.backup.ArchiveUploadProgress
 import org.thoughtcrime.securesms.backup.v2.BackupRepository
+import org.thoughtcrime.securesms.backup.v2.getMediaName
 import org.thoughtcrime.securesms.database.AttachmentTable
 import org.thoughtcrime.securesms.database.SignalDatabase
 import org.thoughtcrime.securesms.dependencies.AppDependencies
@@ -23,8 +24,9 @@ import java.util.concurrent.TimeUnit
  * Copies and re-encrypts attachments from the attachment cdn to the archive cdn.
  * If it's discovered that the attachment no longer exists on the attachment cdn, this job will schedule a re-upload via [UploadAttachmentToArchiveJob].
  *
- * This job runs at high priority within its queue, which it shares with [UploadAttachmentToArchiveJob]. Therefore, copies are given priority over new uploads,
- * which allows the two-part archive upload process to finish quickly.
+ * Copies run in their own queue rather than sharing one with [UploadAttachmentToArchiveJob], so the server can be re-encrypting attachments that have
+ * finished uploading while the next ones are still being uploaded. Each run copies up to [MAX_BATCH_SIZE] pending attachments in a single request,
+ * so the jobs for the rest of that batch are left with nothing to do by the time they run.
  */
 class CopyAttachmentToArchiveJob private constructor(private val attachmentId: AttachmentId, parameters: Parameters) : Job(parameters) {
 
@@ -35,6 +37,11 @@ class CopyAttachmentToArchiveJob private constructor(private val attachmentId: A
 
     /** CDNs that we can copy data from */
     val ALLOWED_SOURCE_CDNS = setOf(Cdn.CDN_2, Cdn.CDN_3)
+
+    /** The most attachments to copy in a single request. */
+    private const val MAX_BATCH_SIZE = 100
+
+    const val QUEUE = "CopyAttachmentToArchiveJobs"
   }
 
   constructor(attachmentId: AttachmentId) : this(
@@ -43,8 +50,7 @@ class CopyAttachmentToArchiveJob private constructor(private val attachmentId: A
       .addConstraint(NetworkConstraint.KEY)
       .setLifespan(TimeUnit.DAYS.toMillis(1))
       .setMaxAttempts(Parameters.UNLIMITED)
-      .setQueue(UploadAttachmentToArchiveJob.buildQueueKey())
-      .setQueuePriority(Parameters.PRIORITY_HIGH)
+      .setQueue(QUEUE)
       .build()
   )
 
@@ -92,59 +98,118 @@ class CopyAttachmentToArchiveJob private constructor(private val attachmentId: A
       return Result.success()
     }
 
-    val result = when (val archiveResult = BackupRepository.copyAttachmentToArchive(attachment)) {
-      is NetworkResult.Success -> {
-        Log.i(TAG, "[$attachmentId] Successfully copied the archive tier.")
-        Result.success()
-      }
+    val batch: List<DatabaseAttachment> = listOf(attachment) + getOtherPendingCopies(attachment)
+    if (batch.size > 1) {
+      Log.i(TAG, "[$attachmentId] Copying along with ${batch.size - 1} other pending attachments.")
+    }
 
-      is NetworkResult.NetworkError -> {
-        Log.w(TAG, "[$attachmentId] Encountered a retryable network error.", archiveResult.exception)
-        Result.retry(defaultBackoff())
-      }
+    val result = when (val archiveResult = BackupRepository.copyAttachmentToArchive(batch)) {
+      is NetworkResult.Success -> {
+        val statuses = archiveResult.result.statusByAttachmentId
+        batch.drop(1).forEach { onOtherCopyResult(it, statuses[it.attachmentId]) }
 
-      is NetworkResult.StatusCodeError -> {
-        when (archiveResult.code) {
-          403 -> {
-            // TODO [backup] What is the best way to handle this UX-wise?
-            Log.w(TAG, "[$attachmentId] Insufficient permissions to upload. Is the user no longer on media tier?")
+        when (val status = statuses[attachmentId]) {
+          200 -> {
+            Log.i(TAG, "[$attachmentId] Successfully copied the archive tier.")
             Result.success()
           }
-          410 -> {
-            Log.w(TAG, "[$attachmentId] The attachment no longer exists on the transit tier. Scheduling a re-upload.")
-            SignalDatabase.attachments.setArchiveTransferState(attachmentId, AttachmentTable.ArchiveTransferState.NONE)
-            AppDependencies.jobManager.add(UploadAttachmentToArchiveJob(attachmentId))
-            Result.success()
-          }
-          413 -> {
-            // TODO [backup] What is the best way to handle this UX-wise?
-            Log.w(TAG, "[$attachmentId] Insufficient storage space! Can't upload!")
-            Result.success()
-          }
-          else -> {
-            Log.w(TAG, "[$attachmentId] Got back a non-2xx status code: ${archiveResult.code}. Retrying.")
+          null -> {
+            Log.w(TAG, "[$attachmentId] Missing from the batch response. Retrying.")
             Result.retry(defaultBackoff())
           }
+          else -> resultForStatusCode(status)
         }
       }
 
+      is NetworkResult.NetworkError -> {
+        Log.w(TAG, "[$attachmentId] Encountered a retryable network error.", archiveResult.exception)
+        Result.retry(defaultBackoff())
+      }
+
+      is NetworkResult.StatusCodeError -> resultForStatusCode(archiveResult.code)
+
       is NetworkResult.ApplicationError -> {
         Log.w(TAG, "[$attachmentId] Encountered a fatal error when trying to upload!")
         Result.fatalFailure(RuntimeException(archiveResult.throwable))
       }
     }
 
-    if (result.isSuccess) {
-      Log.d(TAG, "[$attachmentId] Updating archive transfer state to ${AttachmentTable.ArchiveTransferState.FINISHED}")
-      SignalDatabase.attachments.setArchiveTransferState(attachmentId, AttachmentTable.ArchiveTransferState.FINISHED)
+    if (result.isSuccess && SignalDatabase.attachments.getArchiveTransferState(attachmentId) != AttachmentTable.ArchiveTransferState.NONE) {
+      onCopied(attachment)
+    }
 
-      ArchiveThumbnailUploadJob.enqueueIfNecessary(attachmentId)
-      SignalStore.backup.usedBackupMediaSpace += AttachmentCipherStreamUtil.getCiphertextLength(PaddingInputStream.getPaddedSize(attachment.size))
+    return result
+  }
 
-      ArchiveUploadProgress.onAttachmentFinished(attachmentId)
+  private fun resultForStatusCode(code: Int): Result {
+    return when (code) {
+      403 -> {
+        // TODO [backup] What is the best way to handle this UX-wise?
+        Log.w(TAG, "[$attachmentId] Insufficient permissions to upload. Is the user no longer on media tier?")
+        Result.success()
+      }
+      410 -> {
+        Log.w(TAG, "[$attachmentId] The attachment no longer exists on the transit tier. Scheduling a re-upload.")
+        SignalDatabase.attachments.setArchiveTransferState(attachmentId, AttachmentTable.ArchiveTransferState.NONE)
+        AppDependencies.jobManager.add(UploadAttachmentToArchiveJob(attachmentId))
+        Result.success()
+      }
+      413 -> {
+        // TODO [backup] What is the best way to handle this UX-wise?
+        Log.w(TAG, "[$attachmentId] Insufficient storage space! Can't upload!")
+        Result.success()
+      }
+      else -> {
+        Log.w(TAG, "[$attachmentId] Got back a non-2xx status code: $code. Retrying.")
+        Result.retry(defaultBackoff())
+      }
     }
+  }
 
-    return result
+  /**
+   * Other attachments that are waiting to be copied and can go in the same request as [attachment]. Only one attachment is included for any given
+   * media name, since the server identifies each item in the batch by its media id.
+   */
+  private fun getOtherPendingCopies(attachment: DatabaseAttachment): List<DatabaseAttachment> {
+    val mediaNames = mutableSetOf(attachment.getMediaName())
+
+    return SignalDatabase.attachments.getAttachmentsPendingArchiveCopy(MAX_BATCH_SIZE)
+      .asSequence()
+      .filter { it != attachmentId }
+      .mapNotNull { SignalDatabase.attachments.getAttachment(it) }
+      .filter { it.archiveTransferState == AttachmentTable.ArchiveTransferState.COPY_PENDING && it.remoteLocation != null && it.cdn in ALLOWED_SOURCE_CDNS }
+      .filter { it.getMediaName()?.let { mediaName -> mediaNames.add(mediaName) } == true }
+      .take(MAX_BATCH_SIZE - 1)
+      .toList()
+  }
+
+  /**
+   * Handles the result for an attachment that was copied as part of this job's batch. Anything other than a success or a missing source is left
+   * pending for that attachment's own job to deal with.
+   */
+  private fun onOtherCopyResult(other: DatabaseAttachment, status: Int?) {
+    when (status) {
+      200 -> {
+        Log.i(TAG, "[${other.attachmentId}] Successfully copied the archive tier as part of $attachmentId's batch.")
+        onCopied(other)
+      }
+      410 -> {
+        Log.w(TAG, "[${other.attachmentId}] The attachment no longer exists on the transit tier. Scheduling a re-upload.")
+        SignalDatabase.attachments.setArchiveTransferState(other.attachmentId, AttachmentTable.ArchiveTransferState.NONE)
+        AppDependencies.jobManager.add(UploadAttachmentToArchiveJob(other.attachmentId))
+      }
+      else -> Log.w(TAG, "[${other.attachmentId}] Not copied as part of $attachmentId's batch (status: $status). Leaving it for its own job.")
+    }
+  }
+
+  private fun onCopied(attachment: DatabaseAttachment) {
+    Log.d(TAG, "[${attachment.attachmentId}] Updating archive transfer state to ${AttachmentTable.ArchiveTransferState.FINISHED}")
+    SignalDatabase.attachments.setArchiveTransferState(attachment.attachmentId, AttachmentTable.ArchiveTransferState.FINISHED)
+
+    ArchiveThumbnailUploadJob.enqueueIfNecessary(attachment.attachmentId)
+    SignalStore.backup.usedBackupMediaSpace += AttachmentCipherStreamUtil.getCiphertextLength(PaddingInputStream.getPaddedSize(attachment.size))
+
+    ArchiveUploadProgress.onAttachmentFinished(attachment.attachmentId)
   }
 
   override fun onFailure() {
@@ -96,7 +96,7 @@ class LocalArchiveJob internal constructor(parameters: Parameters) : Job(paramet
 
       try {
         try {
-          val result = LocalArchiver.export(snapshotFileSystem, archiveFileSystem.filesFileSystem, stopwatch, cancellationSignal = { isCanceled })
+          val result = LocalArchiver.export(snapshotFileSystem, archiveFileSystem.filesFileSystem, archiveFileSystem.segmentsFileSystem, stopwatch, cancellationSignal = { isCanceled })
           Log.i(TAG, "Archive finished with result: $result")
           if (result !is org.signal.core.util.Result.Success) {
             return Result.failure()
@@ -108,9 +108,8 @@ class LocalArchiveJob internal constructor(parameters: Parameters) : Job(paramet
 
         stopwatch.split("archive-create")
 
-        // todo [local-backup] verify local backup
         EventBus.getDefault().post(LocalBackupV2Event(LocalBackupV2Event.Type.PROGRESS_VERIFYING))
-        val valid = true
+        val valid = LocalArchiver.verify(archiveFileSystem, snapshotFileSystem, cancellationSignal = { isCanceled })
 
         stopwatch.split("archive-verify")
 
@@ -147,6 +146,9 @@ class LocalArchiveJob internal constructor(parameters: Parameters) : Job(paramet
       archiveFileSystem.deleteUnusedFiles()
       stopwatch.split("delete-unused")
 
+      archiveFileSystem.deleteUnusedSegments()
+      stopwatch.split("delete-unused-segments")
+
       stopwatch.stop(TAG)
     } finally {
       notification?.close()
@@ -47,7 +47,7 @@ class OptimizeMediaJob private constructor(parameters: Parameters) : Job(paramet
     }
 
     Log.i(TAG, "Canceling any previous restore optimized media jobs and cleanup progress")
-    AppDependencies.jobManager.cancelAllInQueue(RestoreAttachmentJob.constructQueueString(RestoreAttachmentJob.RestoreOperation.RESTORE_OFFLOADED))
+    RestoreAttachmentJob.constructQueueStrings(RestoreAttachmentJob.RestoreOperation.RESTORE_OFFLOADED).forEach { AppDependencies.jobManager.cancelAllInQueue(it) }
     AppDependencies.jobManager.add(CheckRestoreMediaLeftJob(RestoreAttachmentJob.constructQueueString(RestoreAttachmentJob.RestoreOperation.RESTORE_OFFLOADED)))
 
     Log.i(TAG, "Optimizing media in the db")
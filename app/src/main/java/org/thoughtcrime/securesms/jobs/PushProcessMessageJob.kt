@@ -9,6 +9,7 @@ import org.thoughtcrime.securesms.groups.GroupChangeBusyException
 import org.thoughtcrime.securesms.jobmanager.Job
 import org.thoughtcrime.securesms.jobmanager.impl.ChangeNumberConstraint
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint
+import org.thoughtcrime.securesms.messages.DeliveryReceiptAggregator
 import org.thoughtcrime.securesms.messages.MessageContentProcessor
 import org.thoughtcrime.securesms.messages.MessageDecryptor
 import org.thoughtcrime.securesms.messages.SignalServiceProtoUtil.groupId
@@ -59,6 +60,7 @@ class PushProcessMessageJob private constructor(
   public override fun onRun() {
     val processor = MessageContentProcessor.create(context)
     processor.process(envelope, content, metadata, serverDeliveredTimestamp)
+    DeliveryReceiptAggregator.instance.flush()
   }
 
   public override fun onShouldRetry(e: Exception): Boolean {
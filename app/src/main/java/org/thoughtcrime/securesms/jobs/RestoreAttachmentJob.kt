@@ -18,7 +18,9 @@ import org.thoughtcrime.securesms.R
 import org.thoughtcrime.securesms.attachments.AttachmentId
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment
 import org.thoughtcrime.securesms.attachments.InvalidAttachmentException
+import org.thoughtcrime.securesms.backup.ArchiveRestoreProgress
 import org.thoughtcrime.securesms.backup.v2.BackupRepository
+import org.thoughtcrime.securesms.backup.v2.MediaRestoreScheduler
 import org.thoughtcrime.securesms.backup.v2.createArchiveAttachmentPointer
 import org.thoughtcrime.securesms.backup.v2.requireMediaName
 import org.thoughtcrime.securesms.database.AttachmentTable
@@ -65,12 +67,12 @@ class RestoreAttachmentJob private constructor(
     /**
      * Create a restore job for the initial large batch of media on a fresh restore
      */
-    fun forInitialRestore(attachmentId: AttachmentId, messageId: Long): RestoreAttachmentJob {
+    fun forInitialRestore(attachmentId: AttachmentId, messageId: Long, queue: String = constructQueueString(RestoreOperation.INITIAL_RESTORE)): RestoreAttachmentJob {
       return RestoreAttachmentJob(
         attachmentId = attachmentId,
         messageId = messageId,
         manual = false,
-        queue = constructQueueString(RestoreOperation.INITIAL_RESTORE)
+        queue = queue
       )
     }
 
@@ -79,12 +81,12 @@ class RestoreAttachmentJob private constructor(
      *
      * See [RestoreOptimizedMediaJob].
      */
-    fun forOffloadedRestore(attachmentId: AttachmentId, messageId: Long): RestoreAttachmentJob {
+    fun forOffloadedRestore(attachmentId: AttachmentId, messageId: Long, queue: String = constructQueueString(RestoreOperation.RESTORE_OFFLOADED)): RestoreAttachmentJob {
       return RestoreAttachmentJob(
         attachmentId = attachmentId,
         messageId = messageId,
         manual = false,
-        queue = constructQueueString(RestoreOperation.RESTORE_OFFLOADED)
+        queue = queue
       )
     }
 
@@ -113,6 +115,22 @@ class RestoreAttachmentJob private constructor(
     fun constructQueueString(restoreOperation: RestoreOperation): String {
       return "RestoreAttachmentJob::${restoreOperation.name}"
     }
+
+    /**
+     * Bulk restores are spread over several queues per CDN by [MediaRestoreScheduler], see [constructQueueStrings].
+     */
+    @JvmStatic
+    fun constructQueueString(restoreOperation: RestoreOperation, cdn: Int, lane: Int): String {
+      return "RestoreAttachmentJob::${restoreOperation.name}::$cdn::$lane"
+    }
+
+    /**
+     * Every queue that restores for the operation may be in, for canceling them all.
+     */
+    @JvmStatic
+    fun constructQueueStrings(restoreOperation: RestoreOperation): List<String> {
+      return listOf(constructQueueString(restoreOperation)) + MediaRestoreScheduler.laneQueues(restoreOperation)
+    }
   }
 
   private constructor(messageId: Long, attachmentId: AttachmentId, manual: Boolean, queue: String) : this(
@@ -124,6 +142,8 @@ class RestoreAttachmentJob private constructor(
         } else {
           addConstraint(RestoreAttachmentConstraint.KEY)
           addConstraint(BatteryNotLowConstraint.KEY)
+          // Let thumbnails and everything else go first, MediaRestoreScheduler raises this for what the user is looking at
+          setGlobalPriority(Parameters.PRIORITY_LOW)
         }
       }
       .setLifespan(TimeUnit.DAYS.toMillis(30))
@@ -232,6 +252,7 @@ class RestoreAttachmentJob private constructor(
       val progressListener = object : SignalServiceAttachment.ProgressListener {
         override fun onAttachmentProgress(total: Long, progress: Long) {
           EventBus.getDefault().postSticky(PartProgressEvent(attachment, PartProgressEvent.Type.NETWORK, total, progress))
+          ArchiveRestoreProgress.onAttachmentProgress(attachmentId, progress)
         }
 
         override fun shouldCancel(): Boolean {
@@ -252,6 +273,7 @@ class RestoreAttachmentJob private constructor(
             attachmentFile,
             maxReceiveSize,
             false,
+            true,
             progressListener
           )
       } else {
@@ -260,6 +282,7 @@ class RestoreAttachmentJob private constructor(
             pointer,
             attachmentFile,
             maxReceiveSize,
+            true,
             progressListener
           )
       }
@@ -309,6 +332,8 @@ class RestoreAttachmentJob private constructor(
       } else {
         markFailed(attachmentId)
       }
+    } finally {
+      ArchiveRestoreProgress.onAttachmentFinished(attachmentId)
     }
   }
 
@@ -139,6 +139,7 @@ class RestoreAttachmentThumbnailJob private constructor(
         thumbnailFile,
         maxThumbnailSize,
         true,
+        false,
         progressListener
       )
 
@@ -6,6 +6,7 @@
 package org.thoughtcrime.securesms.jobs
 
 import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.backup.v2.MediaRestoreScheduler
 import org.thoughtcrime.securesms.database.SignalDatabase
 import org.thoughtcrime.securesms.dependencies.AppDependencies
 import org.thoughtcrime.securesms.jobmanager.Job
@@ -60,21 +61,32 @@ class RestoreOptimizedMediaJob private constructor(parameters: Parameters) : Job
     }
 
     val jobManager = AppDependencies.jobManager
+    val scheduler = MediaRestoreScheduler(RestoreAttachmentJob.RestoreOperation.RESTORE_OFFLOADED)
 
     restorableAttachments
-      .forEach {
-        val job = RestoreAttachmentJob.forOffloadedRestore(
-          messageId = it.mmsId,
-          attachmentId = it.attachmentId
-        )
+      .chunked(500)
+      .forEach { batch ->
+        val dates: Map<Long, Long> = SignalDatabase.messages.getMessages(batch.map { it.mmsId }.toSet()).use { reader ->
+          reader.associate { it.id to it.dateReceived }
+        }
+
+        val requests = batch.map {
+          MediaRestoreScheduler.Request(
+            attachmentId = it.attachmentId,
+            messageId = it.mmsId,
+            cdn = it.archiveCdn,
+            size = it.size,
+            dateReceived = dates[it.mmsId] ?: 0
+          )
+        }
 
         // Intentionally enqueues one at a time for safer attachment transfer state management
-        jobManager.add(job)
+        scheduler.schedule(requests).forEach { jobManager.add(it) }
       }
 
     SignalStore.backup.totalRestorableAttachmentSize = SignalDatabase.attachments.getRemainingRestorableAttachmentSize()
 
-    AppDependencies.jobManager.add(CheckRestoreMediaLeftJob(RestoreAttachmentJob.constructQueueString(RestoreAttachmentJob.RestoreOperation.RESTORE_OFFLOADED)))
+    scheduler.queues.forEach { AppDependencies.jobManager.add(CheckRestoreMediaLeftJob(it)) }
 
     return Result.success()
   }
@@ -18,6 +18,7 @@ import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.recipients.RecipientUtil;
 import org.thoughtcrime.securesms.transport.UndeliverableMessageException;
+import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.signalservice.api.SignalServiceMessageSender;
 import org.whispersystems.signalservice.api.crypto.ContentHint;
 import org.whispersystems.signalservice.api.crypto.UntrustedIdentityException;
@@ -28,28 +29,42 @@ import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException
 import org.whispersystems.signalservice.api.push.exceptions.ServerRejectedException;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 public class SendDeliveryReceiptJob extends BaseJob {
 
   public static final String KEY = "SendDeliveryReceiptJob";
 
-  private static final String KEY_RECIPIENT              = "recipient";
-  private static final String KEY_MESSAGE_SENT_TIMESTAMP = "message_id";
-  private static final String KEY_TIMESTAMP              = "timestamp";
-  private static final String KEY_MESSAGE_ID             = "message_db_id";
+  public static final int MAX_TIMESTAMPS = SendReadReceiptJob.MAX_TIMESTAMPS;
 
-  private static final String TAG = Log.tag(SendReadReceiptJob.class);
+  private static final String KEY_RECIPIENT               = "recipient";
+  private static final String KEY_MESSAGE_SENT_TIMESTAMP  = "message_id";
+  private static final String KEY_MESSAGE_SENT_TIMESTAMPS = "message_ids";
+  private static final String KEY_TIMESTAMP               = "timestamp";
+  private static final String KEY_MESSAGE_ID              = "message_db_id";
+  private static final String KEY_MESSAGE_IDS             = "message_db_ids";
 
-  private final RecipientId recipientId;
-  private final long        messageSentTimestamp;
-  private final long        timestamp;
+  private static final String TAG = Log.tag(SendDeliveryReceiptJob.class);
 
-  @Nullable
-  private final MessageId messageId;
+  private final RecipientId     recipientId;
+  private final List<Long>      messageSentTimestamps;
+  private final List<MessageId> messageIds;
+  private final long            timestamp;
 
   public SendDeliveryReceiptJob(@NonNull RecipientId recipientId, long messageSentTimestamp, @NonNull MessageId messageId) {
+    this(recipientId, Collections.singletonList(messageSentTimestamp), Collections.singletonList(messageId));
+  }
+
+  /**
+   * A single receipt covering several messages from the same sender. Usually built by {@link org.thoughtcrime.securesms.messages.DeliveryReceiptAggregator}.
+   */
+  public SendDeliveryReceiptJob(@NonNull RecipientId recipientId, @NonNull List<Long> messageSentTimestamps, @NonNull List<MessageId> messageIds) {
     this(new Job.Parameters.Builder()
                            .addConstraint(NetworkConstraint.KEY)
                            .setLifespan(TimeUnit.DAYS.toMillis(1))
@@ -57,36 +72,39 @@ public class SendDeliveryReceiptJob extends BaseJob {
                            .setQueue(recipientId.toQueueKey())
                            .build(),
          recipientId,
-         messageSentTimestamp,
-         messageId,
+         SendReadReceiptJob.ensureSize(messageSentTimestamps, MAX_TIMESTAMPS),
+         SendReadReceiptJob.ensureSize(messageIds, MAX_TIMESTAMPS),
          System.currentTimeMillis());
   }
 
   private SendDeliveryReceiptJob(@NonNull Job.Parameters parameters,
                                  @NonNull RecipientId recipientId,
-                                 long messageSentTimestamp,
-                                 @Nullable MessageId messageId,
+                                 @NonNull List<Long> messageSentTimestamps,
+                                 @NonNull List<MessageId> messageIds,
                                  long timestamp)
   {
     super(parameters);
 
-    this.recipientId          = recipientId;
-    this.messageSentTimestamp = messageSentTimestamp;
-    this.messageId            = messageId;
-    this.timestamp            = timestamp;
+    this.recipientId           = recipientId;
+    this.messageSentTimestamps = messageSentTimestamps;
+    this.messageIds            = messageIds;
+    this.timestamp             = timestamp;
   }
 
   @Override
   public @Nullable byte[] serialize() {
-    JsonJobData.Builder builder = new JsonJobData.Builder().putString(KEY_RECIPIENT, recipientId.serialize())
-                                                           .putLong(KEY_MESSAGE_SENT_TIMESTAMP, messageSentTimestamp)
-                                                           .putLong(KEY_TIMESTAMP, timestamp);
-
-    if (messageId != null) {
-      builder.putString(KEY_MESSAGE_ID, messageId.serialize());
+    long[] sentTimestamps = new long[messageSentTimestamps.size()];
+    for (int i = 0; i < sentTimestamps.length; i++) {
+      sentTimestamps[i] = messageSentTimestamps.get(i);
     }
 
-    return builder.serialize();
+    List<String> serializedMessageIds = messageIds.stream().map(MessageId::serialize).collect(Collectors.toList());
+
+    return new JsonJobData.Builder().putString(KEY_RECIPIENT, recipientId.serialize())
+                                    .putLongArray(KEY_MESSAGE_SENT_TIMESTAMPS, sentTimestamps)
+                                    .putStringListAsArray(KEY_MESSAGE_IDS, serializedMessageIds)
+                                    .putLong(KEY_TIMESTAMP, timestamp)
+                                    .serialize();
   }
 
   @Override
@@ -120,7 +138,7 @@ public class SendDeliveryReceiptJob extends BaseJob {
 
     SignalServiceAddress        remoteAddress  = RecipientUtil.toSignalServiceAddress(context, recipient);
     SignalServiceReceiptMessage receiptMessage = new SignalServiceReceiptMessage(SignalServiceReceiptMessage.Type.DELIVERY,
-                                                                                 Collections.singletonList(messageSentTimestamp),
+                                                                                 messageSentTimestamps,
                                                                                  timestamp);
 
     SendMessageResult result = messageSender.sendReceipt(remoteAddress,
@@ -128,22 +146,30 @@ public class SendDeliveryReceiptJob extends BaseJob {
                                                          receiptMessage,
                                                          recipient.getNeedsPniSignature());
 
-    if (messageId != null) {
-      SignalDatabase.messageLog().insertIfPossible(recipientId, timestamp, result, ContentHint.IMPLICIT, messageId, false);
+    if (Util.hasItems(messageIds)) {
+      SignalDatabase.messageLog().insertIfPossible(recipientId, timestamp, result, ContentHint.IMPLICIT, messageIds, false);
     }
   }
 
+  /**
+   * Any group we share with the recipient can vouch for us, so the first thread with a token will do.
+   */
   private @Nullable GroupSendFullToken getGroupSendFullToken() {
-    if (messageId == null) {
-      return null;
-    }
+    Set<Long> threadIds = new HashSet<>();
 
-    long threadId = SignalDatabase.messages().getThreadIdForMessage(messageId.getId());
-    if (threadId == -1) {
-      return null;
+    for (MessageId messageId : messageIds) {
+      long threadId = SignalDatabase.messages().getThreadIdForMessage(messageId.getId());
+      if (threadId == -1 || !threadIds.add(threadId)) {
+        continue;
+      }
+
+      GroupSendFullToken token = SignalDatabase.groups().getGroupSendFullToken(threadId, recipientId);
+      if (token != null) {
+        return token;
+      }
     }
 
-    return SignalDatabase.groups().getGroupSendFullToken(threadId, recipientId);
+    return null;
   }
 
   @Override
@@ -161,18 +187,28 @@ public class SendDeliveryReceiptJob extends BaseJob {
   public static final class Factory implements Job.Factory<SendDeliveryReceiptJob> {
     @Override
     public @NonNull SendDeliveryReceiptJob create(@NonNull Parameters parameters, @Nullable byte[] serializedData) {
-      JsonJobData data = JsonJobData.deserialize(serializedData);
-
-      MessageId messageId = null;
+      JsonJobData     data           = JsonJobData.deserialize(serializedData);
+      List<Long>      sentTimestamps = new ArrayList<>();
+      List<MessageId> messageIds     = new ArrayList<>();
+
+      if (data.hasLongArray(KEY_MESSAGE_SENT_TIMESTAMPS)) {
+        for (long sentTimestamp : data.getLongArray(KEY_MESSAGE_SENT_TIMESTAMPS)) {
+          sentTimestamps.add(sentTimestamp);
+        }
+      } else {
+        sentTimestamps.add(data.getLong(KEY_MESSAGE_SENT_TIMESTAMP));
+      }
 
-      if (data.hasString(KEY_MESSAGE_ID)) {
-        messageId = MessageId.deserialize(data.getString(KEY_MESSAGE_ID));
+      if (data.hasStringArray(KEY_MESSAGE_IDS)) {
+        messageIds.addAll(data.getStringArrayAsList(KEY_MESSAGE_IDS).stream().map(MessageId::deserialize).collect(Collectors.toList()));
+      } else if (data.hasString(KEY_MESSAGE_ID)) {
+        messageIds.add(MessageId.deserialize(data.getString(KEY_MESSAGE_ID)));
       }
 
       return new SendDeliveryReceiptJob(parameters,
                                         RecipientId.from(data.getString(KEY_RECIPIENT)),
-                                        data.getLong(KEY_MESSAGE_SENT_TIMESTAMP),
-                                        messageId,
+                                        sentTimestamps,
+                                        messageIds,
                                         data.getLong(KEY_TIMESTAMP));
     }
   }
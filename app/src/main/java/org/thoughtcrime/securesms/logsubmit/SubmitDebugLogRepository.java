@@ -8,6 +8,7 @@ import android.os.ParcelFileDescriptor;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import com.annimon.stream.Stream;
@@ -15,6 +16,8 @@ import com.annimon.stream.Stream;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.signal.core.util.StreamUtil;
+import org.signal.core.util.ThreadUtil;
+import org.signal.core.util.concurrent.SettableFuture;
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.signal.core.util.logging.Scrubber;
@@ -28,16 +31,23 @@ import org.thoughtcrime.securesms.service.KeyCachingService;
 import org.thoughtcrime.securesms.util.RemoteConfig;
 import org.signal.core.util.Stopwatch;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
@@ -57,9 +67,13 @@ import okio.Source;
 /**
  * Handles retrieving, scrubbing, and uploading of all debug logs.
  *
+ * The log is never held in memory as a whole. Prefix sections are scrubbed a chunk at a time, and lines are read from {@link LogDatabase} (where they
+ * were already scrubbed when written), and both are streamed through gzip to a file, which is then uploaded. The file is needed because the upload is
+ * a form POST that has to know its length up front.
+ *
  * Adding a new log section:
  * - Create a new {@link LogSection}.
- * - Add it to {@link #SECTIONS}. The order of the list is the order the sections are displayed.
+ * - Add it to {@link #buildSections()}. The order of the list is the order the sections are displayed.
  */
 public class SubmitDebugLogRepository {
 
@@ -69,46 +83,74 @@ public class SubmitDebugLogRepository {
   private static final int    MIN_DECORATIONS  = 5;
   private static final int    SECTION_SPACING  = 3;
   private static final String API_ENDPOINT     = "https://debuglogs.org";
+  private static final int    BUFFER_SIZE      = 64 * 1024;
+
+  /** Sections are scrubbed in chunks of about this many characters, split on line breaks. */
+  private static final int CHUNK_SIZE = 32 * 1024;
+
+  /** How many chunks can be scrubbing or waiting to be written at once. Bounds how much of the prefix is in memory. */
+  private static final int MAX_CHUNKS_IN_FLIGHT = 16;
+
+  private static final List<LogLine> SECTION_SPACER = Collections.nCopies(SECTION_SPACING, SimpleLogLine.EMPTY);
+
+  /**
+   * Only ever runs scrubbing tasks, which never wait on anything themselves, so blocking on their results can't tie up a pool that other work
+   * (including whatever is assembling the log) needs.
+   */
+  private static final ExecutorService SCRUB_EXECUTOR = SignalExecutors.newCachedBoundedExecutor("signal-log-scrub", ThreadUtil.PRIORITY_BACKGROUND_THREAD, 1, Math.max(1, Runtime.getRuntime().availableProcessors()), 15);
 
   /** Ordered list of log sections. */
-  private static final List<LogSection> SECTIONS = new ArrayList<LogSection>() {{
-    add(new LogSectionSystemInfo());
-    add(new LogSectionJobs());
-    add(new LogSectionConstraints());
-    add(new LogSectionCapabilities());
-    add(new LogSectionMemory());
-    add(new LogSectionLocalMetrics());
-    add(new LogSectionRemoteConfig());
-    add(new LogSectionPin());
-    if (Build.VERSION.SDK_INT >= 28) {
-      add(new LogSectionPower());
-    }
-    add(new LogSectionNotifications());
-    add(new LogSectionNotificationProfiles());
-    add(new LogSectionExoPlayerPool());
-    add(new LogSectionKeyPreferences());
-    add(new LogSectionStories());
-    add(new LogSectionRemoteBackups());
-    add(new LogSectionPermissions());
-    add(new LogSectionThreads());
-    add(new LogSectionThreadDump());
-    add(new LogSectionCurrentThreadDump());
-    if (RemoteConfig.internalUser()) {
-      add(new LogSectionSenderKey());
-    }
-    add(new LogSectionDatabaseSchema());
-    add(new LogSectionRemappedRecords());
-    add(new LogSectionLogcat());
-    add(new LogSectionLoggerHeader());
-    // MOLLY: Review default implementation of isInitialized() for new sections
-  }};
+  private static @NonNull List<LogSection> buildSections() {
+    return new ArrayList<LogSection>() {{
+      add(new LogSectionSystemInfo());
+      add(new LogSectionJobs());
+      add(new LogSectionConstraints());
+      add(new LogSectionCapabilities());
+      add(new LogSectionMemory());
+      add(new LogSectionLocalMetrics());
+      add(new LogSectionRemoteConfig());
+      add(new LogSectionPin());
+      if (Build.VERSION.SDK_INT >= 28) {
+        add(new LogSectionPower());
+      }
+      add(new LogSectionNotifications());
+      add(new LogSectionNotificationProfiles());
+      add(new LogSectionExoPlayerPool());
+      add(new LogSectionKeyPreferences());
+      add(new LogSectionStories());
+      add(new LogSectionRemoteBackups());
+      add(new LogSectionPermissions());
+      add(new LogSectionThreads());
+      add(new LogSectionThreadDump());
+      add(new LogSectionCurrentThreadDump());
+      if (RemoteConfig.internalUser()) {
+        add(new LogSectionSenderKey());
+      }
+      add(new LogSectionDatabaseSchema());
+      add(new LogSectionRemappedRecords());
+      add(new LogSectionLogcat());
+      add(new LogSectionLoggerHeader());
+      // MOLLY: Review default implementation of isInitialized() for new sections
+    }};
+  }
 
-  private final Application     context;
-  private final ExecutorService executor;
+  private final Application            context;
+  private final ExecutorService        executor;
+  private final List<LogSection>       sections;
+  private final String                 apiEndpoint;
+  private final Supplier<OkHttpClient> clientFactory;
 
   public SubmitDebugLogRepository() {
-    this.context  = AppDependencies.getApplication();
-    this.executor = SignalExecutors.SERIAL;
+    this(AppDependencies.getApplication(), buildSections(), API_ENDPOINT, SubmitDebugLogRepository::createClient);
+  }
+
+  @VisibleForTesting
+  SubmitDebugLogRepository(@NonNull Application context, @NonNull List<LogSection> sections, @NonNull String apiEndpoint, @NonNull Supplier<OkHttpClient> clientFactory) {
+    this.context       = context;
+    this.executor      = SignalExecutors.SERIAL;
+    this.sections      = sections;
+    this.apiEndpoint   = apiEndpoint;
+    this.clientFactory = clientFactory;
   }
 
   public void getPrefixLogLines(@NonNull Callback<List<LogLine>> callback) {
@@ -119,7 +161,7 @@ public class SubmitDebugLogRepository {
     SignalExecutors.UNBOUNDED.execute(() -> {
       Log.blockUntilAllWritesFinished();
       LogDatabase.getInstance(context).logs().trimToSize();
-      callback.onResult(submitLogInternal(System.currentTimeMillis(), getPrefixLogLinesInternal(), Tracer.getInstance().serialize()));
+      callback.onResult(submitLogInternal(System.currentTimeMillis(), this::writePrefix, Tracer.getInstance().serialize()));
     });
   }
 
@@ -131,22 +173,19 @@ public class SubmitDebugLogRepository {
    *                  new ones could pop up.
    */
   public void submitLogWithPrefixLines(long untilTime, @NonNull List<LogLine> prefixLines, @Nullable byte[] trace, Callback<Optional<String>> callback) {
-    SignalExecutors.UNBOUNDED.execute(() -> callback.onResult(submitLogInternal(untilTime, prefixLines, trace)));
+    SignalExecutors.UNBOUNDED.execute(() -> callback.onResult(submitLogInternal(untilTime, (writer, traceUrl) -> writeLines(writer, prefixLines, traceUrl), trace)));
   }
 
   public void writeLogToDisk(@NonNull Uri uri, long untilTime, Callback<Boolean> callback) {
     SignalExecutors.UNBOUNDED.execute(() -> {
       try (ZipOutputStream outputStream = new ZipOutputStream(context.getContentResolver().openOutputStream(uri))) {
-        StringBuilder prefixLines = linesToStringBuilder(getPrefixLogLinesInternal(), null);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), BUFFER_SIZE);
 
         outputStream.putNextEntry(new ZipEntry("log.txt"));
-        outputStream.write(prefixLines.toString().getBytes(StandardCharsets.UTF_8));
+        writePrefix(writer, null);
 
-        try (LogDatabase.LogTable.Reader reader = LogDatabase.getInstance(context).logs().getAllBeforeTime(untilTime)) {
-          while (reader.hasNext()) {
-            outputStream.write(reader.next().getBytes());
-            outputStream.write("\n".getBytes());
-          }
+        try {
+          writeLogBody(writer, untilTime);
         } catch (IllegalStateException e) {
           if (!KeyCachingService.isLocked()) {
             Log.e(TAG, "Failed to read row!", e);
@@ -155,6 +194,7 @@ public class SubmitDebugLogRepository {
           }
         }
 
+        writer.flush();
         outputStream.closeEntry();
 
         outputStream.putNextEntry(new ZipEntry("signal.trace"));
@@ -169,7 +209,7 @@ public class SubmitDebugLogRepository {
   }
 
   @WorkerThread
-  private @NonNull Optional<String> submitLogInternal(long untilTime, @NonNull List<LogLine> prefixLines, @Nullable byte[] trace) {
+  private @NonNull Optional<String> submitLogInternal(long untilTime, @NonNull PrefixWriter prefixWriter, @Nullable byte[] trace) {
     String traceUrl = null;
     if (trace != null && trace.length > 0) {
       try {
@@ -180,8 +220,6 @@ public class SubmitDebugLogRepository {
       }
     }
 
-    StringBuilder prefixStringBuilder = linesToStringBuilder(prefixLines, traceUrl);
-
     try {
       Stopwatch stopwatch = new Stopwatch("log-upload");
 
@@ -191,19 +229,22 @@ public class SubmitDebugLogRepository {
                                                       .withMimeType("application/gzip")
                                                       .createForSingleSessionOnDiskAsync(context);
 
-      OutputStream gzipOutput = new GZIPOutputStream(new ParcelFileDescriptor.AutoCloseOutputStream(fds[1]));
+      Writer gzipOutput = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new ParcelFileDescriptor.AutoCloseOutputStream(fds[1]), BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE);
 
-      gzipOutput.write(prefixStringBuilder.toString().getBytes());
+      try {
+        prefixWriter.write(gzipOutput, traceUrl);
+      } catch (IOException e) {
+        StreamUtil.close(gzipOutput);
+        throw e;
+      }
 
       stopwatch.split("front-matter");
 
-      try (LogDatabase.LogTable.Reader reader = LogDatabase.getInstance(context).logs().getAllBeforeTime(untilTime)) {
-        while (reader.hasNext()) {
-          gzipOutput.write(reader.next().getBytes());
-          gzipOutput.write("\n".getBytes());
-        }
+      try {
+        writeLogBody(gzipOutput, untilTime);
       } catch (IllegalStateException e) {
         Log.e(TAG, "Failed to read row!", e);
+        StreamUtil.close(gzipOutput);
         return Optional.empty();
       }
 
@@ -241,16 +282,34 @@ public class SubmitDebugLogRepository {
     }
   }
 
+  /**
+   * Writes every log line from {@link LogDatabase} created before {@code untilTime}, one row at a time.
+   */
   @WorkerThread
-  private @NonNull String uploadContent(@NonNull String contentType, @NonNull RequestBody requestBody) throws IOException {
-    OkHttpClient client = new OkHttpClient.Builder()
-                                          .socketFactory(Networking.getSocketFactory())
-                                          .proxySelector(Networking.getProxySelectorForSocks())
-                                          .dns(Networking.getDns())
-                                          .addInterceptor(new StandardUserAgentInterceptor())
-                                          .build();
-
-    try (Response response = client.newCall(new Request.Builder().url(API_ENDPOINT).get().build()).execute()) {
+  private void writeLogBody(@NonNull Writer writer, long untilTime) throws IOException {
+    try (LogDatabase.LogTable.Reader reader = LogDatabase.getInstance(context).logs().getAllBeforeTime(untilTime)) {
+      while (reader.hasNext()) {
+        writer.write(reader.next());
+        writer.write('\n');
+      }
+    }
+  }
+
+  private static @NonNull OkHttpClient createClient() {
+    return new OkHttpClient.Builder()
+                           .socketFactory(Networking.getSocketFactory())
+                           .proxySelector(Networking.getProxySelectorForSocks())
+                           .dns(Networking.getDns())
+                           .addInterceptor(new StandardUserAgentInterceptor())
+                           .build();
+  }
+
+  @VisibleForTesting
+  @WorkerThread
+  @NonNull String uploadContent(@NonNull String contentType, @NonNull RequestBody requestBody) throws IOException {
+    OkHttpClient client = clientFactory.get();
+
+    try (Response response = client.newCall(new Request.Builder().url(apiEndpoint).get().build()).execute()) {
       ResponseBody body = response.body();
 
       if (!response.isSuccessful() || body == null) {
@@ -279,7 +338,7 @@ public class SubmitDebugLogRepository {
         }
       }
 
-      return API_ENDPOINT + "/" + item;
+      return apiEndpoint + "/" + item;
     } catch (JSONException e) {
       Log.w(TAG, "Error during upload.", e);
       throw new IOException(e);
@@ -288,58 +347,100 @@ public class SubmitDebugLogRepository {
 
   @WorkerThread
   private @NonNull List<LogLine> getPrefixLogLinesInternal() {
-    long startTime = System.currentTimeMillis();
+    List<LogLine> lines = new ArrayList<>();
+
+    try {
+      forEachPrefixLine(line -> lines.add(new CompleteLogLine(lines.size(), line)));
+    } catch (IOException e) {
+      Log.w(TAG, "Stopped reading log sections after " + lines.size() + " lines.", e);
+    }
+
+    return lines;
+  }
+
+  /**
+   * Writes the prefix sections straight to {@code writer} as they're scrubbed, without collecting them first.
+   */
+  @VisibleForTesting
+  @WorkerThread
+  void writePrefix(@NonNull Writer writer, @Nullable String traceUrl) throws IOException {
+    forEachPrefixLine(line -> writeLine(writer, line, traceUrl));
+  }
 
-    int maxTitleLength = Stream.of(SECTIONS).reduce(0, (max, section) -> Math.max(max, section.getTitle().length()));
+  /**
+   * Hands every line of every section to {@code consumer}, in order.
+   *
+   * Each section's content is read on the calling thread, since sections may not be safe to read from elsewhere. It's then cut into chunks on line
+   * breaks that are scrubbed and split in parallel on {@link #SCRUB_EXECUTOR}, while the next chunks and sections are read. Only
+   * {@link #MAX_CHUNKS_IN_FLIGHT} chunks are outstanding at a time; once there are more, the oldest is waited on and passed along before another is
+   * started. A section that fails to read or scrub is logged and replaced with a note, and the rest of the log carries on.
+   *
+   * @throws InterruptedIOException If interrupted while waiting on a chunk. The thread's interrupt flag is left set.
+   */
+  @WorkerThread
+  private void forEachPrefixLine(@NonNull LineConsumer consumer) throws IOException {
+    long startTime = System.currentTimeMillis();
 
-    List<LogLine> allLines = new ArrayList<>();
+    int                       maxTitleLength = Stream.of(sections).reduce(0, (max, section) -> Math.max(max, section.getTitle().length()));
+    ArrayDeque<PendingChunk>  pending        = new ArrayDeque<>();
 
-    for (LogSection section : SECTIONS) {
-      List<LogLine> lines = getLinesForSection(context, section, maxTitleLength);
+    try {
+      for (int s = 0; s < sections.size(); s++) {
+        LogSection section = sections.get(s);
 
-      if (SECTIONS.indexOf(section) != SECTIONS.size() - 1) {
-        for (int i = 0; i < SECTION_SPACING; i++) {
-          lines.add(SimpleLogLine.EMPTY);
+        if (s != 0) {
+          pending.add(new PendingChunk(section, new SettableFuture<>(SECTION_SPACER)));
         }
-      }
 
-      allLines.addAll(lines);
-    }
+        Iterator<Future<List<LogLine>>> chunks = getChunksForSection(context, section, maxTitleLength);
+        while (chunks.hasNext()) {
+          pending.add(new PendingChunk(section, chunks.next()));
 
-    List<LogLine> withIds = new ArrayList<>(allLines.size());
+          while (pending.size() > MAX_CHUNKS_IN_FLIGHT) {
+            pending.remove().consume(consumer);
+          }
+        }
+      }
 
-    for (int i = 0; i < allLines.size(); i++) {
-      withIds.add(new CompleteLogLine(i, allLines.get(i)));
+      while (!pending.isEmpty()) {
+        pending.remove().consume(consumer);
+      }
+    } finally {
+      for (PendingChunk chunk : pending) {
+        chunk.lines.cancel(true);
+      }
     }
 
     Log.d(TAG, "Total time: " + (System.currentTimeMillis() - startTime) + " ms");
-
-    return withIds;
   }
 
+  /**
+   * Gets the content for a section on the calling thread. Each chunk of it only starts scrubbing when the returned iterator reaches it, and the title
+   * is the first chunk.
+   */
   @WorkerThread
-  private static @NonNull List<LogLine> getLinesForSection(@NonNull Context context, @NonNull LogSection section, int maxTitleLength) {
+  private static @NonNull Iterator<Future<List<LogLine>>> getChunksForSection(@NonNull Context context, @NonNull LogSection section, int maxTitleLength) {
     long startTime = System.currentTimeMillis();
 
-    List<LogLine> out = new ArrayList<>();
-    out.add(new SimpleLogLine(formatTitle(section.getTitle(), maxTitleLength), LogLine.Style.NONE, LogLine.Placeholder.NONE));
+    LogLine title = new SimpleLogLine(formatTitle(section.getTitle(), maxTitleLength), LogLine.Style.NONE, LogLine.Placeholder.NONE);
 
     if (!section.isInitialized()) {
-      out.add(new SimpleLogLine("<not available>", LogLine.Style.INFO, LogLine.Placeholder.NONE));
-    } else if (section.hasContent()) {
-      CharSequence content = Scrubber.scrub(section.getContent(context));
-
-      List<LogLine> lines = Stream.of(Pattern.compile("\\n").split(content))
-                                  .map(s -> new SimpleLogLine(s, LogStyleParser.parseStyle(s), LogStyleParser.parsePlaceholderType(s)))
-                                  .map(line -> (LogLine) line)
-                                  .toList();
+      return Collections.<Future<List<LogLine>>>singletonList(new SettableFuture<>(Arrays.asList(title, new SimpleLogLine("<not available>", LogLine.Style.INFO, LogLine.Placeholder.NONE)))).iterator();
+    } else if (!section.hasContent()) {
+      return Collections.<Future<List<LogLine>>>singletonList(new SettableFuture<>(Collections.singletonList(title))).iterator();
+    }
 
-      out.addAll(lines);
+    CharSequence rawContent;
+    try {
+      rawContent = section.getContent(context);
+    } catch (RuntimeException e) {
+      Log.w(TAG, "[" + section.getTitle() + "] Failed to read section.", e);
+      return Collections.<Future<List<LogLine>>>singletonList(new SettableFuture<>(Arrays.asList(title, new SimpleLogLine("<failed to read section>", LogLine.Style.ERROR, LogLine.Placeholder.NONE)))).iterator();
     }
 
     Log.d(TAG, "[" + section.getTitle() + "] Took " + (System.currentTimeMillis() - startTime) + " ms");
 
-    return out;
+    return new ChunkIterator(title, rawContent);
   }
 
   private static @NonNull String formatTitle(@NonNull String title, int maxTitleLength) {
@@ -362,23 +463,120 @@ public class SubmitDebugLogRepository {
     return out.toString();
   }
 
-  private static @NonNull StringBuilder linesToStringBuilder(@NonNull List<LogLine> lines, @Nullable String traceUrl) {
-    StringBuilder stringBuilder = new StringBuilder();
+  private static void writeLines(@NonNull Writer writer, @NonNull List<LogLine> lines, @Nullable String traceUrl) throws IOException {
     for (LogLine line : lines) {
-      switch (line.getPlaceholderType()) {
-        case NONE:
-          stringBuilder.append(line.getText()).append('\n');
-          break;
-        case TRACE:
-          stringBuilder.append(traceUrl).append('\n');
-          break;
-      }
+      writeLine(writer, line, traceUrl);
     }
+  }
 
-    return stringBuilder;
+  private static void writeLine(@NonNull Writer writer, @NonNull LogLine line, @Nullable String traceUrl) throws IOException {
+    switch (line.getPlaceholderType()) {
+      case NONE:
+        writer.append(line.getText()).append('\n');
+        break;
+      case TRACE:
+        writer.append(traceUrl).append('\n');
+        break;
+    }
   }
 
   public interface Callback<E> {
     void onResult(E result);
   }
+
+  private interface PrefixWriter {
+    void write(@NonNull Writer writer, @Nullable String traceUrl) throws IOException;
+  }
+
+  private interface LineConsumer {
+    void accept(@NonNull LogLine line) throws IOException;
+  }
+
+  /**
+   * Cuts a section's content into chunks of about {@link #CHUNK_SIZE} on line breaks, and starts scrubbing each one as it's reached. Every pattern the
+   * scrubber uses stops at whitespace, so nothing it would match can span two chunks.
+   */
+  private static final class ChunkIterator implements Iterator<Future<List<LogLine>>> {
+    private static final Pattern NEWLINE = Pattern.compile("\\n");
+
+    private final LogLine      title;
+    private final CharSequence content;
+    private final int          end;
+
+    private boolean titleReturned;
+    private int     start;
+
+    private ChunkIterator(@NonNull LogLine title, @NonNull CharSequence content) {
+      int end = content.length();
+
+      // Trailing line breaks are dropped, to match splitting the whole section at once
+      while (end > 0 && content.charAt(end - 1) == '\n') {
+        end--;
+      }
+
+      this.title   = title;
+      this.content = content;
+      this.end     = end;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !titleReturned || start <= end;
+    }
+
+    @Override
+    public @NonNull Future<List<LogLine>> next() {
+      if (!titleReturned) {
+        titleReturned = true;
+        return new SettableFuture<>(Collections.singletonList(title));
+      }
+
+      int chunkEnd = end;
+      for (int i = start + CHUNK_SIZE; i < end; i++) {
+        if (content.charAt(i) == '\n') {
+          chunkEnd = i;
+          break;
+        }
+      }
+
+      CharSequence rawChunk = content.subSequence(start, chunkEnd);
+      start = chunkEnd + 1;
+
+      return SCRUB_EXECUTOR.submit(() -> {
+        CharSequence scrubbed = Scrubber.scrub(rawChunk);
+
+        return Stream.of(NEWLINE.split(scrubbed, -1))
+                     .map(s -> (LogLine) new SimpleLogLine(s, LogStyleParser.parseStyle(s), LogStyleParser.parsePlaceholderType(s)))
+                     .toList();
+      });
+    }
+  }
+
+  private static final class PendingChunk {
+    private final LogSection            section;
+    private final Future<List<LogLine>> lines;
+
+    private PendingChunk(@NonNull LogSection section, @NonNull Future<List<LogLine>> lines) {
+      this.section = section;
+      this.lines   = lines;
+    }
+
+    private void consume(@NonNull LineConsumer consumer) throws IOException {
+      List<LogLine> result;
+
+      try {
+        result = lines.get();
+      } catch (ExecutionException e) {
+        Log.w(TAG, "[" + section.getTitle() + "] Failed to scrub part of the section.", e.getCause());
+        result = Collections.singletonList(new SimpleLogLine("<failed to scrub part of this section>", LogLine.Style.ERROR, LogLine.Placeholder.NONE));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting on [" + section.getTitle() + "]");
+      }
+
+      for (LogLine line : result) {
+        consumer.accept(line);
+      }
+    }
+  }
 }
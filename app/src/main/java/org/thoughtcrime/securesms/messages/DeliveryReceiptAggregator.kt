@@ -0,0 +1,147 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.messages
+
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.model.MessageId
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.jobs.SendDeliveryReceiptJob
+import org.thoughtcrime.securesms.recipients.RecipientId
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Collects the delivery receipts we owe each sender while envelopes are being processed, so that a backlog of messages from the same person
+ * turns into a handful of multi-timestamp receipts instead of one job and one send per message.
+ *
+ * A sender's receipts are sent once [maxBatchSize] have built up, once nothing new has arrived from them for [idleDelay], or once the oldest has
+ * been waiting for [maxDelay], whichever comes first. Call [flush] to send everything right away.
+ *
+ * Receipts only live in memory until they're handed to the job manager, so anything that marks the messages as handled (acking the envelopes,
+ * finishing a job that processed them) must [flush] first. Otherwise a process death could lose receipts for messages the server won't resend.
+ */
+class DeliveryReceiptAggregator(
+  private val idleDelay: Duration = 250.milliseconds,
+  private val maxDelay: Duration = 5.seconds,
+  private val maxBatchSize: Int = SendDeliveryReceiptJob.MAX_TIMESTAMPS,
+  private val clock: () -> Long = System::currentTimeMillis,
+  private val schedule: (delay: Duration, task: Runnable) -> Unit,
+  private val sink: (List<Batch>) -> Unit
+) {
+
+  companion object {
+    private val TAG = Log.tag(DeliveryReceiptAggregator::class.java)
+
+    private val scheduler: ScheduledExecutorService by lazy {
+      Executors.newSingleThreadScheduledExecutor { Thread(it, "signal-delivery-receipts") }
+    }
+
+    @JvmStatic
+    val instance: DeliveryReceiptAggregator by lazy {
+      DeliveryReceiptAggregator(
+        schedule = { delay, task -> scheduler.schedule(task, delay.inWholeMilliseconds, TimeUnit.MILLISECONDS) },
+        sink = { batches ->
+          AppDependencies.jobManager.addAll(batches.map { SendDeliveryReceiptJob(it.recipientId, it.messageSentTimestamps, it.messageIds) })
+        }
+      )
+    }
+  }
+
+  private val pending: MutableMap<RecipientId, PendingReceipts> = LinkedHashMap()
+  private var checkScheduled = false
+
+  /**
+   * Queues a delivery receipt for the message [messageId], sent by [recipientId] at [messageSentTimestamp].
+   */
+  fun add(recipientId: RecipientId, messageSentTimestamp: Long, messageId: MessageId) {
+    val now = clock()
+    var full: Batch? = null
+
+    synchronized(this) {
+      val receipts = pending.getOrPut(recipientId) { PendingReceipts(firstAddedAt = now) }
+      receipts.messageSentTimestamps += messageSentTimestamp
+      receipts.messageIds += messageId
+      receipts.lastAddedAt = now
+
+      if (receipts.messageIds.size >= maxBatchSize) {
+        pending.remove(recipientId)
+        full = receipts.toBatch(recipientId)
+      } else if (!checkScheduled) {
+        checkScheduled = true
+        schedule(idleDelay, ::onCheck)
+      }
+    }
+
+    full?.let { sink(listOf(it)) }
+  }
+
+  /**
+   * Sends every receipt we're holding on to, regardless of how long it's been waiting.
+   */
+  fun flush() {
+    val batches = synchronized(this) {
+      val batches = pending.map { (recipientId, receipts) -> receipts.toBatch(recipientId) }
+      pending.clear()
+      batches
+    }
+
+    if (batches.isNotEmpty()) {
+      Log.d(TAG, "Flushing receipts for ${batches.size} sender(s).")
+      sink(batches)
+    }
+  }
+
+  private fun onCheck() {
+    val now = clock()
+    val due = mutableListOf<Batch>()
+
+    synchronized(this) {
+      checkScheduled = false
+
+      val iterator = pending.iterator()
+      var nextCheck: Long = Long.MAX_VALUE
+
+      while (iterator.hasNext()) {
+        val (recipientId, receipts) = iterator.next()
+        val sendAt = minOf(receipts.lastAddedAt + idleDelay.inWholeMilliseconds, receipts.firstAddedAt + maxDelay.inWholeMilliseconds)
+
+        if (sendAt <= now) {
+          iterator.remove()
+          due += receipts.toBatch(recipientId)
+        } else {
+          nextCheck = minOf(nextCheck, sendAt)
+        }
+      }
+
+      if (pending.isNotEmpty()) {
+        checkScheduled = true
+        schedule((nextCheck - now).milliseconds, ::onCheck)
+      }
+    }
+
+    if (due.isNotEmpty()) {
+      sink(due)
+    }
+  }
+
+  class Batch(
+    val recipientId: RecipientId,
+    val messageSentTimestamps: List<Long>,
+    val messageIds: List<MessageId>
+  )
+
+  private class PendingReceipts(val firstAddedAt: Long) {
+    val messageSentTimestamps: MutableList<Long> = mutableListOf()
+    val messageIds: MutableList<MessageId> = mutableListOf()
+    var lastAddedAt: Long = firstAddedAt
+
+    fun toBatch(recipientId: RecipientId): Batch = Batch(recipientId, messageSentTimestamps, messageIds)
+  }
+}
@@ -25,6 +25,7 @@ import org.thoughtcrime.securesms.keyvalue.SignalStore
 import org.thoughtcrime.securesms.keyvalue.isDecisionPending
 import org.thoughtcrime.securesms.messages.MessageDecryptor.FollowUpOperation
 import org.thoughtcrime.securesms.messages.protocol.BufferedProtocolStore
+import org.thoughtcrime.securesms.net.Networking
 import org.thoughtcrime.securesms.notifications.NotificationChannels
 import org.thoughtcrime.securesms.recipients.RecipientId
 import org.thoughtcrime.securesms.service.SafeForegroundService
@@ -33,6 +34,7 @@ import org.thoughtcrime.securesms.util.AppForegroundObserver
 import org.thoughtcrime.securesms.util.RemoteConfig
 import org.thoughtcrime.securesms.util.SignalLocalMetrics
 import org.thoughtcrime.securesms.util.asChain
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
 import org.whispersystems.signalservice.api.push.ServiceId
 import org.whispersystems.signalservice.api.util.SleepTimer
 import org.whispersystems.signalservice.api.util.UptimeSleepTimer
@@ -90,6 +92,7 @@ class IncomingMessageObserver(
     context = context,
     onNetworkLost = { isNetworkUnavailable ->
       AppDependencies.libsignalNetwork.onNetworkChange()
+      Networking.onNetworkChange()
       if (isNetworkUnavailable()) {
         Log.w(TAG, "Lost network connection. Resetting the drained state.")
         decryptionDrained = false
@@ -391,24 +394,31 @@ class IncomingMessageObserver(
                   val bufferedStore = BufferedProtocolStore.create()
 
                   val startTime = System.currentTimeMillis()
+                  val processed = mutableListOf<EnvelopeResponse>()
                   GroupsV2ProcessingLock.acquireGroupProcessingLock().use {
                     ReentrantSessionLock.INSTANCE.acquire().use {
-                      batch.forEach { response ->
-                        Log.d(TAG, "Beginning database transaction...")
-                        val followUpOperations = SignalDatabase.runInTransaction { db ->
-                          val followUps: List<FollowUpOperation>? = processEnvelope(bufferedStore, response.envelope, response.serverDeliveredTimestamp)
-                          bufferedStore.flushToDisk()
-                          followUps
+                      try {
+                        batch.forEach { response ->
+                          Log.d(TAG, "Beginning database transaction...")
+                          val followUpOperations = SignalDatabase.runInTransaction { db ->
+                            val followUps: List<FollowUpOperation>? = processEnvelope(bufferedStore, response.envelope, response.serverDeliveredTimestamp)
+                            bufferedStore.flushToDisk()
+                            followUps
+                          }
+                          Log.d(TAG, "Ended database transaction.")
+
+                          if (followUpOperations != null) {
+                            Log.d(TAG, "Running ${followUpOperations.size} follow-up operations...")
+                            val jobs = followUpOperations.mapNotNull { it.run() }
+                            AppDependencies.jobManager.addAllChains(jobs)
+                          }
+
+                          processed += response
                         }
-                        Log.d(TAG, "Ended database transaction.")
-
-                        if (followUpOperations != null) {
-                          Log.d(TAG, "Running ${followUpOperations.size} follow-up operations...")
-                          val jobs = followUpOperations.mapNotNull { it.run() }
-                          AppDependencies.jobManager.addAllChains(jobs)
-                        }
-
-                        authWebSocket.sendAck(response)
+                      } finally {
+                        // Delivery receipts are only held in memory, so hand them to the job manager before the server forgets the envelopes
+                        DeliveryReceiptAggregator.instance.flush()
+                        processed.forEach { authWebSocket.sendAck(it) }
                       }
                     }
                   }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.net
+
+import org.signal.core.util.logging.Log
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Decides when a websocket needs a keep alive, and when one has gone unanswered for long enough that the socket should be considered dead.
+ *
+ * Anything we receive proves the socket is alive, so keep alives are only sent once nothing has arrived for [interval]. The interval starts at
+ * [initialInterval] and is learned from how long the socket survives being idle: after [SUCCESSES_BEFORE_GROWING] keep alives in a row come back
+ * after a full idle interval, it grows by [step], up to [maxInterval]. When one sent after a full idle interval is missed, we take that as the path
+ * (usually a NAT) dropping idle connections sooner than that, so the interval shrinks by [step], down to [minInterval], and doesn't grow past
+ * that point again until [onNetworkChanged], since a different network will have a different path.
+ *
+ * However the interval has been learned, a keep alive that goes unanswered for [timeout] always results in [onMissedKeepAlive].
+ *
+ * Timers are driven by [schedule], and every method is safe to call from any thread.
+ */
+internal class AdaptiveKeepAlive(
+  private val initialInterval: Duration,
+  private val minInterval: Duration,
+  private val maxInterval: Duration,
+  private val step: Duration = 5.seconds,
+  private val timeout: Duration,
+  private val clock: () -> Long,
+  private val schedule: (delay: Duration, task: Runnable) -> Unit,
+  private val sendKeepAlive: () -> Unit,
+  private val onMissedKeepAlive: () -> Unit
+) {
+
+  companion object {
+    private val TAG = Log.tag(AdaptiveKeepAlive::class)
+
+    private const val SUCCESSES_BEFORE_GROWING = 3
+  }
+
+  init {
+    require(minInterval <= initialInterval && initialInterval <= maxInterval)
+  }
+
+  /** How long the socket has to be quiet before we send a keep alive. */
+  var interval: Duration = initialInterval
+    @Synchronized get
+    private set
+
+  private var ceiling: Duration = maxInterval
+  private var idleSuccesses = 0
+
+  private var running = false
+  private var generation = 0
+
+  private var lastReceived = 0L
+  private var keepAliveSentAt: Long? = null
+  private var idleBeforeKeepAlive: Duration = Duration.ZERO
+
+  @Synchronized
+  fun start() {
+    if (running) {
+      return
+    }
+
+    running = true
+    generation++
+    lastReceived = clock()
+    keepAliveSentAt = null
+    scheduleNext()
+  }
+
+  /**
+   * Call when the device moves to a different network. What was learned about the old one doesn't apply, so start over from [initialInterval].
+   */
+  @Synchronized
+  fun onNetworkChanged() {
+    interval = initialInterval
+    ceiling = maxInterval
+    idleSuccesses = 0
+  }
+
+  @Synchronized
+  fun stop() {
+    running = false
+    generation++
+    keepAliveSentAt = null
+  }
+
+  /**
+   * Call whenever anything arrives on the socket, keep alive responses included.
+   */
+  @Synchronized
+  fun onReceived() {
+    lastReceived = clock()
+
+    if (keepAliveSentAt != null) {
+      keepAliveSentAt = null
+
+      if (idleBeforeKeepAlive >= interval) {
+        idleSuccesses++
+        if (idleSuccesses >= SUCCESSES_BEFORE_GROWING && interval < ceiling) {
+          interval = minOf(interval + step, ceiling)
+          idleSuccesses = 0
+          Log.d(TAG, "Socket has survived being idle, keep alive interval is now $interval")
+        }
+      }
+    }
+  }
+
+  private fun onTimer(expectedGeneration: Int) {
+    var missed = false
+    var send = false
+
+    synchronized(this) {
+      if (!running || generation != expectedGeneration) {
+        return
+      }
+
+      val now = clock()
+      val sentAt = keepAliveSentAt
+
+      if (sentAt != null && now >= sentAt + timeout.inWholeMilliseconds) {
+        Log.w(TAG, "Missed keep alive after being idle for $idleBeforeKeepAlive, last received: $lastReceived needed by: ${sentAt + timeout.inWholeMilliseconds}")
+        missed = true
+        keepAliveSentAt = null
+        lastReceived = now
+
+        idleSuccesses = 0
+        if (idleBeforeKeepAlive >= interval) {
+          interval = maxOf(interval - step, minInterval)
+          ceiling = interval
+        }
+      } else if (sentAt == null && now >= lastReceived + interval.inWholeMilliseconds) {
+        send = true
+        keepAliveSentAt = now
+        idleBeforeKeepAlive = (now - lastReceived).milliseconds
+      }
+
+      scheduleNext()
+    }
+
+    if (missed) {
+      onMissedKeepAlive()
+    } else if (send) {
+      sendKeepAlive()
+    }
+  }
+
+  private fun scheduleNext() {
+    val now = clock()
+    val next = keepAliveSentAt?.let { it + timeout.inWholeMilliseconds } ?: (lastReceived + interval.inWholeMilliseconds)
+    val expectedGeneration = generation
+
+    schedule((next - now).coerceAtLeast(0).milliseconds) { onTimer(expectedGeneration) }
+  }
+}
@@ -65,8 +65,18 @@ object Networking {
       systemDefault.connectFailed(uri, sa, ioe)
   }
 
+  private val dnsProxyAware = DnsProxyAware()
+
+  @JvmStatic
+  val dns: Dns = dnsProxyAware
+
+  /**
+   * Drops cached DNS answers, which may not be valid on the new network.
+   */
   @JvmStatic
-  val dns: Dns = DnsProxyAware()
+  fun onNetworkChange() {
+    dnsProxyAware.clearCache()
+  }
 
   private fun ensureNetworkEnabled() {
     if (!isEnabled) throw IOException("Network is disabled")
@@ -80,8 +90,13 @@ object Networking {
     private val cloudflare: Dns = DohClient("https://1.1.1.1/dns-query", socketFactory, proxySelectorForSocks)
     private val quad9: Dns = DohClient("https://9.9.9.9/dns-query", socketFactory, proxySelectorForSocks)
 
-    private val systemDnsResolver: Dns = SequentialDns(Dns.SYSTEM, cloudflare, quad9)
-    private val dohDnsResolver: Dns = SequentialDns(cloudflare, quad9)
+    private val systemDnsResolver = RacingDns(Dns.SYSTEM, cloudflare, quad9)
+    private val dohDnsResolver = RacingDns(cloudflare, quad9)
+
+    fun clearCache() {
+      systemDnsResolver.clearCache()
+      dohDnsResolver.clearCache()
+    }
 
     override fun lookup(hostname: String): List<InetAddress> {
       ensureNetworkEnabled()
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.net
+
+import okhttp3.Dns
+import org.signal.core.util.concurrent.SignalExecutors
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.push.SignalServiceNetworkAccess
+import org.thoughtcrime.securesms.util.Environment
+import org.thoughtcrime.securesms.util.NetworkUtil
+import java.io.InterruptedIOException
+import java.net.InetAddress
+import java.net.UnknownHostException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.minutes
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Races an ordered list of [Dns] against each other, and uses whichever gives a usable answer first.
+ *
+ * The first resolver is started right away, and each of the rest is started after [staggerDelay] if nothing has answered by then, or as soon as
+ * the ones before it have failed. That way a slow or blocked resolver early in the list only delays a lookup by [staggerDelay], rather than by
+ * however long it takes to time out, while the preferred resolver still gets a head start.
+ *
+ * Answers are cached per hostname for [ttl], and failures for [negativeTtl]. [Dns] doesn't give us record TTLs, so these are fixed. Call
+ * [clearCache] when the network changes, since the answers may not be right for the new one.
+ */
+class RacingDns @JvmOverloads constructor(
+  private val resolvers: List<Dns>,
+  private val staggerDelay: Duration = 300.milliseconds,
+  private val ttl: Duration = 1.minutes,
+  private val negativeTtl: Duration = 10.seconds,
+  private val executor: Executor = SignalExecutors.UNBOUNDED,
+  private val isServiceHost: (String) -> Boolean = { SignalServiceNetworkAccess.HOSTNAMES.contains(it) },
+  private val clock: () -> Long = System::currentTimeMillis
+) : Dns {
+
+  companion object {
+    private val TAG = Log.tag(RacingDns::class.java)
+  }
+
+  constructor(vararg resolvers: Dns) : this(resolvers.toList())
+
+  private val cache: MutableMap<String, CacheEntry> = ConcurrentHashMap()
+
+  @Throws(UnknownHostException::class, InterruptedIOException::class)
+  override fun lookup(hostname: String): List<InetAddress> {
+    val cached = cache[hostname]
+    if (cached != null && cached.expiresAt > clock()) {
+      return cached.addresses ?: throw UnknownHostException(hostname)
+    }
+
+    val addresses = race(hostname)
+    if (addresses != null) {
+      cache[hostname] = CacheEntry(addresses, clock() + ttl.inWholeMilliseconds)
+      return addresses
+    }
+
+    cache[hostname] = CacheEntry(null, clock() + negativeTtl.inWholeMilliseconds)
+    Log.w(TAG, "Failed to resolve using any DNS. Network Type: ${networkTypeDescriptor()}")
+    throw UnknownHostException(hostname)
+  }
+
+  /**
+   * Forgets every cached answer, such as when the network changes.
+   */
+  fun clearCache() {
+    cache.clear()
+  }
+
+  private fun race(hostname: String): List<InetAddress>? {
+    val results = LinkedBlockingQueue<Result>()
+    var started = 0
+    var finished = 0
+
+    fun startNext() {
+      val dns = resolvers[started++]
+      executor.execute { results.put(Result(resolve(dns, hostname))) }
+    }
+
+    if (resolvers.isEmpty()) {
+      return null
+    }
+
+    startNext()
+
+    while (finished < resolvers.size) {
+      val result: Result? = try {
+        if (started < resolvers.size) {
+          results.poll(staggerDelay.inWholeMilliseconds, TimeUnit.MILLISECONDS)
+        } else {
+          results.take()
+        }
+      } catch (e: InterruptedException) {
+        Thread.currentThread().interrupt()
+        throw InterruptedIOException("Interrupted while resolving $hostname").apply { initCause(e) }
+      }
+
+      if (result == null) {
+        Log.d(TAG, "No answer for $hostname after $staggerDelay. Starting ${resolvers[started].javaClass.simpleName} too.")
+        startNext()
+        continue
+      }
+
+      finished++
+
+      if (result.addresses != null) {
+        return result.addresses
+      }
+
+      if (started < resolvers.size && started == finished) {
+        startNext()
+      }
+    }
+
+    return null
+  }
+
+  private fun resolve(dns: Dns, hostname: String): List<InetAddress>? {
+    val addresses: MutableList<InetAddress> = try {
+      dns.lookup(hostname).toMutableList()
+    } catch (e: Exception) {
+      Log.w(TAG, "Failed to resolve $hostname using ${dns.javaClass.simpleName}.", e)
+      return null
+    }
+
+    // MOLLY: Filter out invalid addresses for Signal service hosts, except in the Dev environment
+    if (isServiceHost(hostname) && !Environment.IS_DEV) {
+      if (addresses.removeAll { it.isAnyLocalAddress }) {
+        Log.w(TAG, "Ignore invalid address 0.0.0.0 while resolving hostname $hostname")
+      }
+      if (addresses.removeAll { it.isLoopbackAddress }) {
+        Log.w(TAG, "Ignore loopback address while resolving hostname $hostname")
+      }
+    }
+
+    return if (addresses.isNotEmpty()) {
+      addresses
+    } else {
+      Log.w(TAG, "Didn't find any addresses for $hostname using ${dns.javaClass.simpleName}.")
+      null
+    }
+  }
+
+  private fun networkTypeDescriptor(): String {
+    return if (AppDependencies.isInitialized) NetworkUtil.getNetworkTypeDescriptor(AppDependencies.application) else "unknown"
+  }
+
+  private class Result(val addresses: List<InetAddress>?)
+
+  private class CacheEntry(val addresses: List<InetAddress>?, val expiresAt: Long)
+}
@@ -5,6 +5,7 @@
 
 package org.thoughtcrime.securesms.net
 
+import android.net.Network
 import io.reactivex.rxjava3.kotlin.subscribeBy
 import io.reactivex.rxjava3.schedulers.Schedulers
 import kotlinx.coroutines.CoroutineScope
@@ -12,21 +13,23 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import org.signal.core.util.concurrent.SignalExecutors
 import org.signal.core.util.logging.Log
 import org.thoughtcrime.securesms.dependencies.AppDependencies
 import org.thoughtcrime.securesms.keyvalue.SignalStore
-import org.thoughtcrime.securesms.net.SignalWebSocketHealthMonitor.Companion.KEEP_ALIVE_SEND_CADENCE
-import org.thoughtcrime.securesms.net.SignalWebSocketHealthMonitor.Companion.KEEP_ALIVE_TIMEOUT
+import org.thoughtcrime.securesms.util.ServiceUtil
 import org.thoughtcrime.securesms.util.TextSecurePreferences
 import org.whispersystems.signalservice.api.util.SleepTimer
+import org.whispersystems.signalservice.api.util.UptimeSleepTimer
 import org.whispersystems.signalservice.api.websocket.HealthMonitor
 import org.whispersystems.signalservice.api.websocket.SignalWebSocket
 import org.whispersystems.signalservice.api.websocket.WebSocketConnectionState
 import org.whispersystems.signalservice.internal.websocket.OkHttpWebSocketConnection
 import java.util.concurrent.Executor
 import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
 import kotlin.time.Duration
-import kotlin.time.Duration.Companion.milliseconds
 import kotlin.time.Duration.Companion.seconds
 
 class SignalWebSocketHealthMonitor(
@@ -37,24 +40,47 @@ class SignalWebSocketHealthMonitor(
     private val TAG = Log.tag(SignalWebSocketHealthMonitor::class)
 
     /**
-     * This is the amount of time in between sent keep alives. Must be greater than [KEEP_ALIVE_TIMEOUT]
+     * This is how long the socket has to be quiet before we send a keep alive, until [AdaptiveKeepAlive] has learned better.
      */
     private val KEEP_ALIVE_SEND_CADENCE: Duration = OkHttpWebSocketConnection.KEEPALIVE_FREQUENCY_SECONDS.seconds
 
+    /**
+     * The bounds the keep alive interval is learned within. The upper one has to stay under the read timeout of the socket itself.
+     */
+    private val MIN_KEEP_ALIVE_SEND_CADENCE: Duration = 20.seconds
+    private val MAX_KEEP_ALIVE_SEND_CADENCE: Duration = OkHttpWebSocketConnection.KEEPALIVE_MAX_FREQUENCY_SECONDS.seconds
+
     /**
      * This is the amount of time we will wait for a response to the keep alive before we consider the websockets dead.
-     * It is required that this value be less than [KEEP_ALIVE_SEND_CADENCE]
      */
     private val KEEP_ALIVE_TIMEOUT: Duration = 20.seconds
+
+    /**
+     * Shared by every monitor, for keep alives that don't need to wake the device up.
+     */
+    private val KEEP_ALIVE_SCHEDULER: ScheduledExecutorService by lazy {
+      Executors.newSingleThreadScheduledExecutor { Thread(it, "signal-websocket-keepalive") }
+    }
   }
 
   private val executor: Executor = Executors.newSingleThreadExecutor()
 
   private var webSocket: SignalWebSocket? = null
 
-  private var keepAliveSender: KeepAliveSender? = null
+  private val keepAlive = AdaptiveKeepAlive(
+    initialInterval = KEEP_ALIVE_SEND_CADENCE,
+    minInterval = MIN_KEEP_ALIVE_SEND_CADENCE,
+    maxInterval = MAX_KEEP_ALIVE_SEND_CADENCE,
+    timeout = KEEP_ALIVE_TIMEOUT,
+    clock = System::currentTimeMillis,
+    schedule = this::schedule,
+    sendKeepAlive = this::sendKeepAlive,
+    onMissedKeepAlive = { executor.execute { webSocket?.forceNewWebSocket() } }
+  )
+
+  private var keepAliveRunning = false
   private var needsKeepAlive = false
-  private var lastKeepAliveReceived: Duration = 0.seconds
+  private var keepAliveNetwork: Network? = null
 
   private val scope = CoroutineScope(Dispatchers.IO)
   private var connectingTimeoutJob: Job? = null
@@ -96,6 +122,13 @@ class SignalWebSocketHealthMonitor(
             TextSecurePreferences.setUnauthorizedReceived(AppDependencies.application, false)
           }
           failedInConnecting = false
+
+          val network = ServiceUtil.getConnectivityManager(AppDependencies.application).activeNetwork
+          if (network != keepAliveNetwork) {
+            Log.d(TAG, "${webSocket?.connectionName} Connected on a different network, relearning the keep alive interval")
+            keepAliveNetwork = network
+            keepAlive.onNetworkChanged()
+          }
         }
         WebSocketConnectionState.AUTHENTICATION_FAILED -> {
           if (webSocket is SignalWebSocket.AuthenticatedWebSocket) {
@@ -125,10 +158,11 @@ class SignalWebSocketHealthMonitor(
   }
 
   override fun onKeepAliveResponse(sentTimestamp: Long, isIdentifiedWebSocket: Boolean) {
-    val keepAliveTime = System.currentTimeMillis().milliseconds
-    executor.execute {
-      lastKeepAliveReceived = keepAliveTime
-    }
+    keepAlive.onReceived()
+  }
+
+  override fun onMessageReceived(isIdentifiedWebSocket: Boolean) {
+    keepAlive.onReceived()
   }
 
   override fun onMessageError(status: Int, isIdentifiedWebSocket: Boolean) {
@@ -149,11 +183,12 @@ class SignalWebSocketHealthMonitor(
   }
 
   private fun updateKeepAliveSenderStatus() {
-    if (keepAliveSender == null && sendKeepAlives()) {
-      keepAliveSender = KeepAliveSender().also { it.start() }
-    } else if (keepAliveSender != null && !sendKeepAlives()) {
-      keepAliveSender?.shutdown()
-      keepAliveSender = null
+    if (!keepAliveRunning && sendKeepAlives()) {
+      keepAliveRunning = true
+      keepAlive.start()
+    } else if (keepAliveRunning && !sendKeepAlives()) {
+      keepAliveRunning = false
+      keepAlive.stop()
     }
   }
 
@@ -161,61 +196,34 @@ class SignalWebSocketHealthMonitor(
     return needsKeepAlive && webSocket?.shouldSendKeepAlives() == true
   }
 
-  /**
-   * Sends periodic heartbeats/keep-alives over the WebSocket to prevent connection timeouts. If
-   * the WebSocket fails to get a return heartbeat after [KEEP_ALIVE_TIMEOUT] seconds, it is forced to be recreated.
-   */
-  private inner class KeepAliveSender : Thread() {
-
-    @Volatile
-    private var shouldKeepRunning = true
-
-    override fun run() {
-      Log.d(TAG, "[KeepAliveSender($id)] started")
-      lastKeepAliveReceived = System.currentTimeMillis().milliseconds
-
-      var keepAliveSendTime = System.currentTimeMillis().milliseconds
-      while (shouldKeepRunning && sendKeepAlives()) {
+  private fun sendKeepAlive() {
+    executor.execute {
+      if (sendKeepAlives()) {
         try {
-          val nextKeepAliveSendTime: Duration = keepAliveSendTime + KEEP_ALIVE_SEND_CADENCE
-          sleepUntil(nextKeepAliveSendTime)
-
-          if (shouldKeepRunning && sendKeepAlives()) {
-            keepAliveSendTime = System.currentTimeMillis().milliseconds
-            webSocket?.sendKeepAlive()
-          }
-
-          val responseRequiredTime: Duration = keepAliveSendTime + KEEP_ALIVE_TIMEOUT
-          sleepUntil(responseRequiredTime)
-
-          if (shouldKeepRunning && sendKeepAlives()) {
-            if (lastKeepAliveReceived < keepAliveSendTime) {
-              Log.w(TAG, "Missed keep alive, last: ${lastKeepAliveReceived.inWholeMilliseconds} needed by: ${responseRequiredTime.inWholeMilliseconds}")
-              webSocket?.forceNewWebSocket()
-            }
-          }
+          webSocket?.sendKeepAlive()
         } catch (e: Throwable) {
           Log.w(TAG, e)
         }
       }
-      Log.d(TAG, "[KeepAliveSender($id)] ended")
     }
+  }
 
-    fun sleepUntil(time: Duration) {
-      while (System.currentTimeMillis().milliseconds < time) {
-        val waitTime = time - System.currentTimeMillis().milliseconds
-        if (waitTime.isPositive()) {
-          try {
-            sleepTimer.sleep(waitTime.inWholeMilliseconds)
-          } catch (e: InterruptedException) {
-            Log.w(TAG, e)
-          }
+  /**
+   * With an [UptimeSleepTimer] we don't need to wake the device, so the shared scheduler will do. Otherwise we're relying on alarms to get
+   * keep alives out while the device is asleep, which only [sleepTimer] can do.
+   */
+  private fun schedule(delay: Duration, task: Runnable) {
+    if (sleepTimer is UptimeSleepTimer) {
+      KEEP_ALIVE_SCHEDULER.schedule(task, delay.inWholeMilliseconds, TimeUnit.MILLISECONDS)
+    } else {
+      SignalExecutors.UNBOUNDED.execute {
+        try {
+          sleepTimer.sleep(delay.inWholeMilliseconds)
+        } catch (e: InterruptedException) {
+          Log.w(TAG, e)
         }
+        task.run()
       }
     }
-
-    fun shutdown() {
-      shouldKeepRunning = false
-    }
   }
 }
@@ -35,7 +35,8 @@ class ContactRecordProcessor(
   private val selfAci: ACI?,
   private val selfPni: PNI?,
   private val selfE164: String?,
-  private val recipientTable: RecipientTable
+  private val recipientTable: RecipientTable,
+  private val bulkMatching: Boolean = true
 ) : DefaultStorageRecordProcessor<SignalContactRecord>() {
 
   companion object {
@@ -55,6 +56,8 @@ class ContactRecordProcessor(
     recipientTable = SignalDatabase.recipients
   )
 
+  private var matchCache: RecipientMatchCache? = null
+
   /**
    * For contact records specifically, we have some extra work that needs to be done before we process all of the records.
    *
@@ -85,6 +88,23 @@ class ContactRecordProcessor(
     super.process(remoteRecords, keyGenerator)
   }
 
+  /**
+   * Splitting above can change which rows the records match, so this has to wait until after it.
+   */
+  override fun preload(remoteRecords: List<SignalContactRecord>) {
+    if (!bulkMatching) {
+      return
+    }
+
+    matchCache = RecipientMatchCache(recipientTable).apply {
+      preload(
+        acis = remoteRecords.mapNotNull { it.proto.signalAci },
+        e164s = remoteRecords.mapNotNull { it.proto.e164.nullIfBlank() },
+        pnis = remoteRecords.mapNotNull { it.proto.signalPni }
+      )
+    }
+  }
+
   /**
    * Error cases:
    * - You can't have a contact record without an ACI or PNI.
@@ -114,26 +134,30 @@ class ContactRecordProcessor(
   }
 
   override fun getMatching(remote: SignalContactRecord, keyGenerator: StorageKeyGenerator): Optional<SignalContactRecord> {
-    var found: Optional<RecipientId> = remote.proto.signalAci?.let { recipientTable.getByAci(it) } ?: Optional.empty()
+    val cache = matchCache
+
+    var found: Optional<RecipientId> = remote.proto.signalAci?.let { cache?.getByAci(it) ?: recipientTable.getByAci(it) } ?: Optional.empty()
 
     if (found.isEmpty && remote.proto.e164.isNotBlank()) {
-      found = recipientTable.getByE164(remote.proto.e164)
+      found = cache?.getByE164(remote.proto.e164) ?: recipientTable.getByE164(remote.proto.e164)
     }
 
     if (found.isEmpty && remote.proto.signalPni != null) {
-      found = recipientTable.getByPni(remote.proto.signalPni!!)
+      found = cache?.getByPni(remote.proto.signalPni!!) ?: recipientTable.getByPni(remote.proto.signalPni!!)
     }
 
     return found
-      .map { recipientTable.getRecordForSync(it)!! }
+      .map { getRecordForSync(it)!! }
       .map { settings: RecipientRecord ->
         if (settings.storageId != null) {
           return@map localToRemoteRecord(settings)
         } else {
           Log.w(TAG, "Newly discovering a registered user via storage service. Saving a storageId for them.")
-          recipientTable.updateStorageId(settings.id, keyGenerator.generate())
+          write(ids = listOf(settings.id)) {
+            recipientTable.updateStorageId(settings.id, keyGenerator.generate())
+          }
 
-          val updatedSettings = recipientTable.getRecordForSync(settings.id)!!
+          val updatedSettings = getRecordForSync(settings.id)!!
           return@map localToRemoteRecord(updatedSettings)
         }
       }
@@ -280,10 +304,18 @@ class ContactRecordProcessor(
   }
 
   override fun insertLocal(record: SignalContactRecord) {
-    recipientTable.applyStorageSyncContactInsert(record)
+    write(listOf(record)) {
+      recipientTable.applyStorageSyncContactInsert(record)
+    }
   }
 
   override fun updateLocal(update: StorageRecordUpdate<SignalContactRecord>) {
+    write(listOf(update.old, update.new)) {
+      applyUpdate(update)
+    }
+  }
+
+  private fun applyUpdate(update: StorageRecordUpdate<SignalContactRecord>) {
     recipientTable.applyStorageSyncContactUpdate(update)
 
     // After RecipientTable update, explicitly save peerExtraPublicKey to IdentityTable if it changed
@@ -351,6 +383,31 @@ class ContactRecordProcessor(
     }
   }
 
+  private fun getRecordForSync(id: RecipientId): RecipientRecord? {
+    return matchCache?.getRecordForSync(id) ?: recipientTable.getRecordForSync(id)
+  }
+
+  /**
+   * Performs a write that may change any recipient holding one of the identifiers or usernames in [records], making sure none of them are
+   * served from the [matchCache] afterwards.
+   */
+  private fun write(records: List<SignalContactRecord> = emptyList(), ids: List<RecipientId> = emptyList(), block: () -> Unit) {
+    val cache = matchCache
+
+    if (cache == null) {
+      block()
+    } else {
+      cache.invalidating(
+        acis = records.mapNotNull { it.proto.signalAci },
+        e164s = records.mapNotNull { it.proto.e164.nullIfBlank() },
+        pnis = records.mapNotNull { it.proto.signalPni },
+        usernames = records.mapNotNull { it.proto.username.nullIfBlank() },
+        ids = ids,
+        write = block
+      )
+    }
+  }
+
   override fun compare(lhs: SignalContactRecord, rhs: SignalContactRecord): Int {
     return if (
       (lhs.proto.signalAci != null && lhs.proto.aci == rhs.proto.aci) ||
@@ -37,9 +37,12 @@ abstract class DefaultStorageRecordProcessor<E : SignalRecord<*>> : StorageRecor
   @Throws(IOException::class)
   override fun process(remoteRecords: Collection<E>, keyGenerator: StorageKeyGenerator) {
     val matchedRecords: MutableSet<E> = TreeSet(this)
+    val invalid: List<Boolean> = remoteRecords.map { isInvalid(it) }
+
+    preload(remoteRecords.filterIndexed { i, _ -> !invalid[i] })
 
     for ((i, remote) in remoteRecords.withIndex()) {
-      if (isInvalid(remote)) {
+      if (invalid[i]) {
         warn(i, remote, "Found invalid key! Ignoring it.")
       } else {
         val local = getMatching(remote, keyGenerator)
@@ -87,6 +90,12 @@ abstract class DefaultStorageRecordProcessor<E : SignalRecord<*>> : StorageRecor
    */
   abstract fun isInvalid(remote: E): Boolean
 
+  /**
+   * Called with all of the valid remote records before any of them are matched, so that implementations can load what [getMatching]
+   * needs with a few set-based queries, rather than a few queries per record.
+   */
+  open fun preload(remoteRecords: List<E>) = Unit
+
   /**
    * Only records that pass the validity check (i.e. return false from [.isInvalid]
    * make it to here, so you can assume all records are valid.
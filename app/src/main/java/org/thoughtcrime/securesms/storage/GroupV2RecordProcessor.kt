@@ -18,30 +18,49 @@ import java.util.Optional
  * Record processor for [SignalGroupV2Record].
  * Handles merging and updating our local store when processing remote gv2 storage records.
  */
-class GroupV2RecordProcessor(private val recipientTable: RecipientTable, private val groupDatabase: GroupTable) : DefaultStorageRecordProcessor<SignalGroupV2Record>() {
+class GroupV2RecordProcessor(
+  private val recipientTable: RecipientTable,
+  private val groupDatabase: GroupTable,
+  private val bulkMatching: Boolean = true
+) : DefaultStorageRecordProcessor<SignalGroupV2Record>() {
   companion object {
     private val TAG = Log.tag(GroupV2RecordProcessor::class.java)
   }
 
   constructor() : this(SignalDatabase.recipients, SignalDatabase.groups)
 
+  private var matchCache: RecipientMatchCache? = null
+
   override fun isInvalid(remote: SignalGroupV2Record): Boolean {
     return remote.proto.masterKey.size != GroupMasterKey.SIZE
   }
 
+  override fun preload(remoteRecords: List<SignalGroupV2Record>) {
+    if (!bulkMatching) {
+      return
+    }
+
+    matchCache = RecipientMatchCache(recipientTable).apply {
+      preload(groupIds = remoteRecords.map { it.groupId })
+    }
+  }
+
   override fun getMatching(remote: SignalGroupV2Record, keyGenerator: StorageKeyGenerator): Optional<SignalGroupV2Record> {
-    val groupId = GroupId.v2(GroupMasterKey(remote.proto.masterKey.toByteArray()))
+    val groupId = remote.groupId
+    val cache = matchCache
 
-    val recipientId = recipientTable.getByGroupId(groupId)
+    val recipientId = cache?.getByGroupId(groupId) ?: recipientTable.getByGroupId(groupId)
 
     return recipientId
-      .map { recipientTable.getRecordForSync(it)!! }
+      .map { cache?.getRecordForSync(it) ?: recipientTable.getRecordForSync(it)!! }
       .map { settings: RecipientRecord ->
         if (settings.syncExtras.groupMasterKey != null) {
           StorageSyncModels.localToRemoteRecord(settings)
         } else {
           Log.w(TAG, "No local master key. Assuming it matches remote since the groupIds match. Enqueuing a fetch to fix the bad state.")
-          groupDatabase.fixMissingMasterKey(GroupMasterKey(remote.proto.masterKey.toByteArray()))
+          write(groupId) {
+            groupDatabase.fixMissingMasterKey(GroupMasterKey(remote.proto.masterKey.toByteArray()))
+          }
           StorageSyncModels.localToRemoteRecord(settings, GroupMasterKey(remote.proto.masterKey.toByteArray()))
         }
       }
@@ -75,13 +94,33 @@ class GroupV2RecordProcessor(private val recipientTable: RecipientTable, private
   }
 
   override fun insertLocal(record: SignalGroupV2Record) {
-    recipientTable.applyStorageSyncGroupV2Insert(record)
+    write(record.groupId) {
+      recipientTable.applyStorageSyncGroupV2Insert(record)
+    }
   }
 
   override fun updateLocal(update: StorageRecordUpdate<SignalGroupV2Record>) {
-    recipientTable.applyStorageSyncGroupV2Update(update)
+    write(update.new.groupId) {
+      recipientTable.applyStorageSyncGroupV2Update(update)
+    }
   }
 
+  /**
+   * Performs a write to the group with [groupId], making sure it isn't served from the [matchCache] afterwards.
+   */
+  private fun write(groupId: GroupId, block: () -> Unit) {
+    val cache = matchCache
+
+    if (cache == null) {
+      block()
+    } else {
+      cache.invalidating(groupIds = listOf(groupId), write = block)
+    }
+  }
+
+  private val SignalGroupV2Record.groupId: GroupId.V2
+    get() = GroupId.v2(GroupMasterKey(proto.masterKey.toByteArray()))
+
   override fun compare(lhs: SignalGroupV2Record, rhs: SignalGroupV2Record): Int {
     return if (lhs.proto.masterKey == rhs.proto.masterKey) {
       0
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.storage
+
+import org.thoughtcrime.securesms.database.RecipientTable
+import org.thoughtcrime.securesms.database.model.RecipientRecord
+import org.thoughtcrime.securesms.groups.GroupId
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import org.whispersystems.signalservice.api.push.ServiceId.PNI
+import java.util.Optional
+
+/**
+ * Answers the recipient lookups that record processors make while matching remote storage records, with the same results as the
+ * equivalent [RecipientTable] methods.
+ *
+ * [preload] loads everything a batch of records will ask for with a few set-based queries, rather than several point queries per record.
+ * Anything that wasn't preloaded is read through from the [RecipientTable] and remembered.
+ *
+ * Applying a record can move identifiers between rows, e.g. by merging an E164-only recipient into an ACI one, so every write has to go
+ * through [invalidating] with the identifiers it involves. Afterwards those identifiers, and every record that held one of them, are read
+ * from the database again. A contact write also clears its username from any other row, so records holding that username are forgotten too.
+ * Rows that don't hold any of them can't be touched by the write, so they stay cached.
+ */
+class RecipientMatchCache(private val recipientTable: RecipientTable) {
+
+  private val byAci: MutableMap<ACI, RecipientId?> = HashMap()
+  private val byE164: MutableMap<String, RecipientId?> = HashMap()
+  private val byPni: MutableMap<PNI, RecipientId?> = HashMap()
+  private val byGroupId: MutableMap<GroupId, RecipientId?> = HashMap()
+  private val records: MutableMap<RecipientId, RecipientRecord?> = HashMap()
+  private val recordsByUsername: MutableMap<String, RecipientId> = HashMap()
+
+  fun preload(acis: Collection<ACI> = emptyList(), e164s: Collection<String> = emptyList(), pnis: Collection<PNI> = emptyList(), groupIds: Collection<GroupId> = emptyList()) {
+    preload(byAci, acis) { recipientTable.getAllByAci(it) }
+    preload(byE164, e164s) { recipientTable.getAllByE164(it) }
+    preload(byPni, pnis) { recipientTable.getAllByPni(it) }
+    preload(byGroupId, groupIds) { recipientTable.getAllByGroupId(it) }
+
+    val ids = (byAci.values + byE164.values + byPni.values + byGroupId.values).filterNotNull().filterNot { records.containsKey(it) }.toSet()
+    if (ids.isNotEmpty()) {
+      val found = recipientTable.getRecordsForSync(ids)
+      for (id in ids) {
+        remember(id, found[id])
+      }
+    }
+  }
+
+  fun getByAci(aci: ACI): Optional<RecipientId> {
+    return lookUp(byAci, aci) { recipientTable.getByAci(it) }
+  }
+
+  fun getByE164(e164: String): Optional<RecipientId> {
+    return lookUp(byE164, e164) { recipientTable.getByE164(it) }
+  }
+
+  fun getByPni(pni: PNI): Optional<RecipientId> {
+    return lookUp(byPni, pni) { recipientTable.getByPni(it) }
+  }
+
+  fun getByGroupId(groupId: GroupId): Optional<RecipientId> {
+    return lookUp(byGroupId, groupId) { recipientTable.getByGroupId(it) }
+  }
+
+  fun getRecordForSync(id: RecipientId): RecipientRecord? {
+    if (records.containsKey(id)) {
+      return records[id]
+    }
+
+    return recipientTable.getRecordForSync(id).also { remember(id, it) }
+  }
+
+  /**
+   * Runs [write], and then forgets the given identifiers, any record that held one of them or one of [usernames] beforehand, and the records
+   * for [ids].
+   */
+  fun <T> invalidating(
+    acis: Collection<ACI> = emptyList(),
+    e164s: Collection<String> = emptyList(),
+    pnis: Collection<PNI> = emptyList(),
+    groupIds: Collection<GroupId> = emptyList(),
+    usernames: Collection<String> = emptyList(),
+    ids: Collection<RecipientId> = emptyList(),
+    write: () -> T
+  ): T {
+    val affected: MutableSet<RecipientId> = ids.toMutableSet()
+    acis.forEach { getByAci(it).ifPresent(affected::add) }
+    e164s.forEach { getByE164(it).ifPresent(affected::add) }
+    pnis.forEach { getByPni(it).ifPresent(affected::add) }
+    groupIds.forEach { getByGroupId(it).ifPresent(affected::add) }
+    usernames.forEach { username -> recordsByUsername[username]?.let(affected::add) }
+
+    try {
+      return write()
+    } finally {
+      byAci.keys.removeAll(acis.toSet())
+      byE164.keys.removeAll(e164s.toSet())
+      byPni.keys.removeAll(pnis.toSet())
+      byGroupId.keys.removeAll(groupIds.toSet())
+
+      for (id in affected) {
+        forget(id)
+      }
+    }
+  }
+
+  /**
+   * Unlike [MutableMap.getOrPut], this remembers that a key has no recipient, too.
+   */
+  private fun <K> lookUp(cache: MutableMap<K, RecipientId?>, key: K, query: (K) -> Optional<RecipientId>): Optional<RecipientId> {
+    if (cache.containsKey(key)) {
+      return Optional.ofNullable(cache[key])
+    }
+
+    return query(key).also { cache[key] = it.orElse(null) }
+  }
+
+  private fun <K> preload(cache: MutableMap<K, RecipientId?>, keys: Collection<K>, query: (Collection<K>) -> Map<K, RecipientId>) {
+    val missing = keys.filterNot { cache.containsKey(it) }.toSet()
+    if (missing.isEmpty()) {
+      return
+    }
+
+    val found = query(missing)
+    for (key in missing) {
+      cache[key] = found[key]
+    }
+  }
+
+  /**
+   * Identifier columns are unique, so a record also tells us which row each of its identifiers belongs to.
+   */
+  private fun remember(id: RecipientId, record: RecipientRecord?) {
+    records[id] = record
+
+    if (record != null) {
+      record.aci?.let { byAci[it] = id }
+      record.e164?.let { byE164[it] = id }
+      record.pni?.let { byPni[it] = id }
+      record.groupId?.let { byGroupId[it] = id }
+      record.username?.let { recordsByUsername[it] = id }
+    }
+  }
+
+  private fun forget(id: RecipientId) {
+    val record = records.remove(id)
+
+    if (record != null) {
+      record.aci?.let { byAci.remove(it) }
+      record.e164?.let { byE164.remove(it) }
+      record.pni?.let { byPni.remove(it) }
+      record.groupId?.let { byGroupId.remove(it) }
+      record.username?.let { recordsByUsername.remove(it, id) }
+    } else {
+      byAci.values.removeAll { it == id }
+      byE164.values.removeAll { it == id }
+      byPni.values.removeAll { it == id }
+      byGroupId.values.removeAll { it == id }
+    }
+  }
+}
@@ -6,8 +6,10 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
+import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
 import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartReader;
 import org.thoughtcrime.securesms.video.videoconverter.mediadatasource.InputStreamMediaDataSource;
 
 import java.io.File;
@@ -21,15 +23,22 @@ import java.io.InputStream;
  * <p>
  * It is "modern" compared to the {@link ClassicEncryptedMediaDataSource}. And "modern" refers to
  * the presence of a random part of the key supplied in the constructor.
+ * <p>
+ * Reads go through a {@link ModernDecryptingPartReader} that stays open for the life of the data source, rather than opening a new decrypting stream
+ * for every call to {@link #readAt}.
  */
 @RequiresApi(23)
 final class ModernEncryptedMediaDataSource extends InputStreamMediaDataSource {
 
+  private static final String TAG = Log.tag(ModernEncryptedMediaDataSource.class);
+
   private final AttachmentSecret attachmentSecret;
   private final File             mediaFile;
   private final byte[]           random;
   private final long             length;
 
+  private ModernDecryptingPartReader reader;
+
   ModernEncryptedMediaDataSource(@NonNull AttachmentSecret attachmentSecret, @NonNull File mediaFile, @Nullable byte[] random, long length) {
     this.attachmentSecret = attachmentSecret;
     this.mediaFile        = mediaFile;
@@ -38,7 +47,30 @@ final class ModernEncryptedMediaDataSource extends InputStreamMediaDataSource {
   }
 
   @Override
-  public void close() {}
+  public synchronized int readAt(long position, byte[] bytes, int offset, int length) throws IOException {
+    if (position >= this.length) {
+      return -1;
+    }
+
+    if (reader == null) {
+      reader = random == null ? ModernDecryptingPartReader.createFor(attachmentSecret, mediaFile)
+                              : ModernDecryptingPartReader.createFor(attachmentSecret, random, mediaFile);
+    }
+
+    return reader.read(position, bytes, offset, (int) Math.min(length, this.length - position));
+  }
+
+  @Override
+  public synchronized void close() {
+    if (reader != null) {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to close reader", e);
+      }
+      reader = null;
+    }
+  }
 
   @Override
   public long getSize() {
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.glide.apng.decode
+
+import android.app.Application
+import android.graphics.Bitmap
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import org.junit.BeforeClass
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.robolectric.annotation.GraphicsMode
+import org.signal.core.util.logging.Log
+import org.signal.glide.common.loader.ByteBufferLoader
+import org.thoughtcrime.securesms.testutil.EmptyLogger
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.util.zip.CRC32
+import java.util.zip.DeflaterOutputStream
+
+/**
+ * Renders a small APNG that uses every dispose and blend op, with and without an [APNGFrameCache], and checks how often frames are decoded.
+ * The ignored benchmark also reports how much several looping copies of the same sticker allocate each way.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class APNGFrameCacheTest {
+
+  companion object {
+    private const val SIZE = 32
+
+    @JvmStatic
+    @BeforeClass
+    fun setUpClass() {
+      Log.initialize(EmptyLogger())
+    }
+  }
+
+  private val image: ByteArray = buildApng()
+
+  @Test
+  fun `cached frames render exactly the same as decoding every frame`() {
+    val cache = APNGFrameCache(8 * 1024 * 1024)
+
+    for (index in 0 until 4) {
+      val uncached = render(index, frameCache = null)
+      val firstCached = render(index, cache)
+      val secondCached = render(index, cache)
+
+      assertThat(pixels(firstCached), "frame $index").isEqualTo(pixels(uncached))
+      assertThat(pixels(secondCached), "frame $index").isEqualTo(pixels(uncached))
+    }
+  }
+
+  @Test
+  fun `each frame is decoded once however many copies are shown`() {
+    val cache = APNGFrameCache(8 * 1024 * 1024)
+
+    repeat(10) { render(3, cache) }
+
+    assertThat(cache.missCount).isEqualTo(4)
+    assertThat(cache.hitCount).isEqualTo(36)
+  }
+
+  @Test
+  fun `images too large for the cache are decoded as before`() {
+    val cache = APNGFrameCache(SIZE * SIZE * 4)
+
+    repeat(3) { render(3, cache) }
+
+    assertThat(cache.missCount).isEqualTo(0)
+    assertThat(cache.sizeBytes).isEqualTo(0)
+  }
+
+  @Ignore("Benchmark: prints decode and allocation counts, run it by hand when changing the frame cache")
+  @Test
+  fun `benchmark decodes and allocations`() {
+    val copies = 8
+    val loops = 5
+
+    val uncached = measureAllocations { repeat(copies * loops) { render(3, frameCache = null) } }
+
+    val cache = APNGFrameCache(8 * 1024 * 1024)
+    val cached = measureAllocations { repeat(copies * loops) { render(3, cache) } }
+
+    println("Uncached: ${copies * loops * 4} decodes, ${uncached / 1024} KiB allocated")
+    println("Cached:   ${cache.missCount} decodes, ${cache.hitCount} hits, ${cached / 1024} KiB allocated, ${cache.sizeBytes / 1024} KiB cached")
+  }
+
+  private fun render(index: Int, frameCache: APNGFrameCache?): Bitmap {
+    val loader = object : ByteBufferLoader() {
+      override fun getByteBuffer(): ByteBuffer = ByteBuffer.wrap(image)
+    }
+
+    return APNGDecoder(loader, null, frameCache).getFrameBitmap(index)!!
+  }
+
+  private fun pixels(bitmap: Bitmap): IntArray {
+    return IntArray(bitmap.width * bitmap.height).also { bitmap.getPixels(it, 0, bitmap.width, 0, 0, bitmap.width, bitmap.height) }
+  }
+
+  private fun measureAllocations(block: () -> Unit): Long {
+    val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+    val before = threads.getThreadAllocatedBytes(Thread.currentThread().id)
+    block()
+    return threads.getThreadAllocatedBytes(Thread.currentThread().id) - before
+  }
+
+  /**
+   * Four frames: a full background, then frames using each of the dispose ops and both blend ops.
+   */
+  private fun buildApng(): ByteArray {
+    val out = ByteArrayOutputStream()
+    out.write(byteArrayOf(0x89.toByte(), 'P'.code.toByte(), 'N'.code.toByte(), 'G'.code.toByte(), 0x0D, 0x0A, 0x1A, 0x0A))
+
+    out.chunk("IHDR") { writeInt(SIZE); writeInt(SIZE); write(byteArrayOf(8, 6, 0, 0, 0)) }
+    out.chunk("acTL") { writeInt(4); writeInt(0) }
+
+    out.chunk("fcTL") { frameControl(0, SIZE, SIZE, 0, 0, dispose = 0, blend = 0) }
+    out.chunk("IDAT") { write(pixelData(SIZE, SIZE, 0xFF3366CC.toInt())) }
+
+    out.chunk("fcTL") { frameControl(1, 16, 16, 8, 8, dispose = 1, blend = 1) }
+    out.chunk("fdAT") { writeInt(2); write(pixelData(16, 16, 0x8000FF00.toInt())) }
+
+    out.chunk("fcTL") { frameControl(3, 16, 8, 0, 16, dispose = 2, blend = 0) }
+    out.chunk("fdAT") { writeInt(4); write(pixelData(16, 8, 0x400000FF)) }
+
+    out.chunk("fcTL") { frameControl(5, 8, 8, 24, 0, dispose = 0, blend = 1) }
+    out.chunk("fdAT") { writeInt(6); write(pixelData(8, 8, 0xC0FFFF00.toInt())) }
+
+    out.chunk("IEND") { }
+
+    return out.toByteArray()
+  }
+
+  private fun DataOutputStream.frameControl(sequence: Int, width: Int, height: Int, x: Int, y: Int, dispose: Int, blend: Int) {
+    writeInt(sequence)
+    writeInt(width)
+    writeInt(height)
+    writeInt(x)
+    writeInt(y)
+    writeShort(1)
+    writeShort(10)
+    writeByte(dispose)
+    writeByte(blend)
+  }
+
+  /** Zlib compressed RGBA scanlines, with a gradient so that frames differ pixel to pixel. */
+  private fun pixelData(width: Int, height: Int, argb: Int): ByteArray {
+    val raw = ByteArrayOutputStream()
+    for (y in 0 until height) {
+      raw.write(0)
+      for (x in 0 until width) {
+        raw.write((argb shr 16 and 0xFF) xor (x * 8))
+        raw.write((argb shr 8 and 0xFF) xor (y * 8))
+        raw.write(argb and 0xFF)
+        raw.write(argb ushr 24)
+      }
+    }
+
+    val compressed = ByteArrayOutputStream()
+    DeflaterOutputStream(compressed).use { it.write(raw.toByteArray()) }
+    return compressed.toByteArray()
+  }
+
+  private fun ByteArrayOutputStream.chunk(type: String, body: DataOutputStream.() -> Unit) {
+    val data = ByteArrayOutputStream().also { DataOutputStream(it).body() }.toByteArray()
+    val typeBytes = type.toByteArray(Charsets.US_ASCII)
+    val crc = CRC32().apply {
+      update(typeBytes)
+      update(data)
+    }
+
+    DataOutputStream(this).apply {
+      writeInt(data.size)
+      write(typeBytes)
+      write(data)
+      writeInt(crc.value.toInt())
+    }
+  }
+}
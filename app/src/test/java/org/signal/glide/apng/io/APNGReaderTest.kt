@@ -0,0 +1,51 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.glide.apng.io
+
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isInstanceOf
+import org.junit.Test
+import org.signal.glide.common.io.ByteBufferReader
+import java.io.EOFException
+import java.nio.ByteBuffer
+
+class APNGReaderTest {
+
+  @Test
+  fun `readFully reads everything that was asked for`() {
+    val reader = reader(1, 2, 3, 4, 5)
+    val buffer = ByteArray(6)
+
+    reader.readFully(buffer, 1, 5)
+
+    assertThat(buffer.toList()).isEqualTo(listOf<Byte>(0, 1, 2, 3, 4, 5))
+  }
+
+  @Test
+  fun `readFully fails when the data ends first`() {
+    val reader = reader(1, 2, 3)
+
+    assertFailure { reader.readFully(ByteArray(5), 0, 5) }.isInstanceOf<EOFException>()
+  }
+
+  @Test
+  fun `readInt fails on a truncated value`() {
+    val reader = reader(0, 0, 1)
+
+    assertFailure { reader.readInt() }.isInstanceOf<EOFException>()
+  }
+
+  @Test
+  fun `readInt reads big-endian values`() {
+    assertThat(reader(0, 0, 1, 2).readInt()).isEqualTo(258)
+  }
+
+  private fun reader(vararg bytes: Byte): APNGReader {
+    return APNGReader(ByteBufferReader(ByteBuffer.wrap(bytes)))
+  }
+}
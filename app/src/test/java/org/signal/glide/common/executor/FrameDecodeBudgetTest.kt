@@ -0,0 +1,47 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.glide.common.executor
+
+import assertk.assertThat
+import assertk.assertions.isFalse
+import assertk.assertions.isTrue
+import org.junit.Test
+
+class FrameDecodeBudgetTest {
+
+  private var now = 0L
+  private val budget = FrameDecodeBudget(1000, 400, { now })
+
+  @Test
+  fun `hidden animations stop at half the budget`() {
+    budget.spend(199)
+    assertThat(budget.tryAcquire(false)).isTrue()
+
+    budget.spend(1)
+    assertThat(budget.tryAcquire(false)).isFalse()
+    assertThat(budget.tryAcquire(true)).isTrue()
+  }
+
+  @Test
+  fun `visible animations stop at the full budget`() {
+    budget.spend(400)
+
+    assertThat(budget.tryAcquire(true)).isFalse()
+    assertThat(budget.tryAcquire(false)).isFalse()
+  }
+
+  @Test
+  fun `budget is restored in the next window`() {
+    budget.spend(400)
+
+    now = 999
+    assertThat(budget.tryAcquire(true)).isFalse()
+
+    now = 1000
+    assertThat(budget.tryAcquire(true)).isTrue()
+    assertThat(budget.tryAcquire(false)).isTrue()
+  }
+}
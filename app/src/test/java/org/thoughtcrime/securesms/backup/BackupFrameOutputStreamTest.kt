@@ -0,0 +1,104 @@
+package org.thoughtcrime.securesms.backup
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Ignore
+import org.junit.Test
+import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.thoughtcrime.securesms.backup.proto.KeyValue
+import org.thoughtcrime.securesms.backup.proto.SqlStatement
+import java.io.ByteArrayOutputStream
+import kotlin.random.Random
+import kotlin.time.Duration.Companion.nanoseconds
+
+class BackupFrameOutputStreamTest {
+
+  companion object {
+    private const val PASSPHRASE = "000000000000000000000000000000"
+  }
+
+  @Test
+  fun `frames and attachments read back through the importer stream`() {
+    val attachment = Random.nextBytes(100_000)
+    val bigStatement = "INSERT INTO message VALUES ('${"a".repeat(50_000)}')"
+
+    val output = ByteArrayOutputStream()
+    BackupFrameOutputStream(output, PASSPHRASE).apply {
+      writeDatabaseVersion(42)
+      write(SqlStatement(statement = "INSERT INTO thread VALUES (1)"))
+      write(KeyValue(key = "key", stringValue = "value"))
+      write(AttachmentId(7), attachment.inputStream(), attachment.size.toLong())
+      write(SqlStatement(statement = bigStatement))
+      writeEnd()
+      close()
+    }
+
+    val input = BackupRecordInputStream(output.toByteArray().inputStream(), PASSPHRASE)
+
+    assertEquals(42, input.readFrame().version?.version)
+    assertEquals("INSERT INTO thread VALUES (1)", input.readFrame().statement?.statement)
+    assertEquals("value", input.readFrame().keyValue?.stringValue)
+
+    val attachmentFrame = input.readFrame().attachment!!
+    assertEquals(7L, attachmentFrame.rowId)
+    val attachmentOutput = ByteArrayOutputStream()
+    input.readAttachmentTo(attachmentOutput, attachmentFrame.length!!)
+    assertArrayEquals(attachment, attachmentOutput.toByteArray())
+
+    assertEquals(bigStatement, input.readFrame().statement?.statement)
+    assertEquals(true, input.readFrame().end)
+  }
+
+  @Test
+  fun `end frame reaches the underlying stream without closing it`() {
+    val output = object : ByteArrayOutputStream() {
+      var closed = false
+
+      override fun close() {
+        closed = true
+      }
+    }
+
+    BackupFrameOutputStream(output, PASSPHRASE).apply {
+      writeDatabaseVersion(42)
+      write(SqlStatement(statement = "INSERT INTO thread VALUES (1)"))
+      writeEnd()
+    }
+
+    assertFalse(output.closed)
+
+    val input = BackupRecordInputStream(output.toByteArray().inputStream(), PASSPHRASE)
+
+    assertEquals(42, input.readFrame().version?.version)
+    assertEquals("INSERT INTO thread VALUES (1)", input.readFrame().statement?.statement)
+    assertEquals(true, input.readFrame().end)
+  }
+
+  @Ignore("Prints round trip timings instead of checking anything. Run it by hand when working on the frame encoder.")
+  @Test
+  fun `round trip throughput`() {
+    val frameCount = 200_000
+    val output = ByteArrayOutputStream()
+
+    val writeStart = System.nanoTime()
+    BackupFrameOutputStream(output, PASSPHRASE).apply {
+      for (i in 0 until frameCount) {
+        write(SqlStatement(statement = "INSERT INTO message VALUES ($i, 'Message body number $i')"))
+      }
+      writeEnd()
+      close()
+    }
+    val writeDuration = (System.nanoTime() - writeStart).nanoseconds
+
+    val readStart = System.nanoTime()
+    val input = BackupRecordInputStream(output.toByteArray().inputStream(), PASSPHRASE)
+    for (i in 0 until frameCount) {
+      assertEquals("INSERT INTO message VALUES ($i, 'Message body number $i')", input.readFrame().statement?.statement)
+    }
+    assertEquals(true, input.readFrame().end)
+    val readDuration = (System.nanoTime() - readStart).nanoseconds
+
+    println("$frameCount frames (${output.size()} bytes). Write: $writeDuration, read: $readDuration")
+  }
+}
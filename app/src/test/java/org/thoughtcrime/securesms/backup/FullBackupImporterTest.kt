@@ -159,4 +159,23 @@ class FullBackupImporterTest {
 
     assertEquals(listOf("A", "B", "C", "D"), order)
   }
+
+  @Test
+  fun `schemaDeferrals - defers secondary indexes and search triggers only`() {
+    val deferrals = FullBackupImporter.SchemaDeferrals()
+
+    val index = "CREATE INDEX message_thread_date_index ON message (thread_id, date_received)"
+    val uniqueIndex = "CREATE UNIQUE INDEX recipient_aci_index ON recipient (aci)"
+    val searchTrigger = "CREATE TRIGGER message_ai AFTER INSERT ON message BEGIN INSERT INTO message_fts(rowid, body, thread_id) VALUES (new._id, new.body, new.thread_id); END"
+    val otherTrigger = "CREATE TRIGGER msl_message_delete AFTER DELETE ON message BEGIN DELETE FROM msl_payload WHERE _id IN (SELECT payload_id FROM msl_message WHERE message_id = old._id); END"
+    val table = "CREATE TABLE thread (_id INTEGER PRIMARY KEY)"
+
+    assertEquals(true, deferrals.defer(index))
+    assertEquals(false, deferrals.defer(uniqueIndex))
+    assertEquals(true, deferrals.defer(searchTrigger))
+    assertEquals(false, deferrals.defer(otherTrigger))
+    assertEquals(false, deferrals.defer(table))
+
+    assertEquals(listOf(index, searchTrigger), deferrals.deferred)
+  }
 }
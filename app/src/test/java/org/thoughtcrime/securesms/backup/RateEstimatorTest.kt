@@ -0,0 +1,57 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup
+
+import assertk.assertThat
+import assertk.assertions.isCloseTo
+import assertk.assertions.isEqualTo
+import assertk.assertions.isNull
+import org.junit.Test
+import kotlin.time.Duration.Companion.seconds
+
+class RateEstimatorTest {
+
+  private var now = 0L
+  private val estimator = RateEstimator(clock = { now })
+
+  @Test
+  fun `no estimate until a full window has passed`() {
+    estimator.onBytesTransferred(1_000)
+    now += 500
+    estimator.onBytesTransferred(1_000)
+
+    assertThat(estimator.bytesPerSecond).isEqualTo(0L)
+    assertThat(estimator.timeToTransfer(1_000)).isNull()
+  }
+
+  @Test
+  fun `steady rate gives a steady estimate`() {
+    estimator.onBytesTransferred(0)
+    repeat(30) {
+      now += 1_000
+      estimator.onBytesTransferred(1_000_000)
+    }
+
+    assertThat(estimator.bytesPerSecond).isEqualTo(1_000_000L)
+    assertThat(estimator.timeToTransfer(60_000_000)).isEqualTo(60.seconds)
+  }
+
+  @Test
+  fun `estimate follows a change in rate`() {
+    estimator.onBytesTransferred(0)
+    repeat(30) {
+      now += 1_000
+      estimator.onBytesTransferred(1_000_000)
+    }
+
+    repeat(100) {
+      now += 1_000
+      estimator.onBytesTransferred(4_000_000)
+    }
+
+    assertThat(estimator.bytesPerSecond.toDouble()).isCloseTo(4_000_000.0, 10_000.0)
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2
+
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEqualTo
+import org.junit.Test
+import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.whispersystems.signalservice.api.archive.BatchArchiveMediaResponse
+import org.whispersystems.signalservice.api.archive.BatchArchiveMediaResponse.BatchArchiveMediaItemResponse
+
+class BatchArchiveMediaResultTest {
+
+  @Test
+  fun `statusByAttachmentId maps each item to its attachment`() {
+    val result = BatchArchiveMediaResult(
+      response = BatchArchiveMediaResponse(
+        listOf(
+          BatchArchiveMediaItemResponse(status = 200, failureReason = null, cdn = 3, mediaId = "a"),
+          BatchArchiveMediaItemResponse(status = 410, failureReason = "gone", cdn = null, mediaId = "b"),
+          BatchArchiveMediaItemResponse(status = 500, failureReason = "oops", cdn = null, mediaId = "c"),
+          BatchArchiveMediaItemResponse(status = null, failureReason = null, cdn = null, mediaId = "d")
+        )
+      ),
+      mediaIdToAttachmentId = mapOf("a" to AttachmentId(1), "b" to AttachmentId(2), "c" to AttachmentId(3), "d" to AttachmentId(4), "e" to AttachmentId(5)),
+      attachmentIdToMediaName = emptyMap()
+    )
+
+    assertThat(result.statusByAttachmentId).isEqualTo(
+      mapOf(
+        AttachmentId(1) to 200,
+        AttachmentId(2) to 410,
+        AttachmentId(3) to 500,
+        AttachmentId(4) to null
+      )
+    )
+    assertThat(result.successfulResponses.map { it.mediaId }.toList()).containsExactly("a")
+    assertThat(result.sourceNotFoundResponses.map { it.mediaId }.toList()).containsExactly("b")
+  }
+}
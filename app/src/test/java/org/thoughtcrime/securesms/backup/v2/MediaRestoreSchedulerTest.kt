@@ -0,0 +1,91 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2
+
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.hasSize
+import assertk.assertions.isEqualTo
+import assertk.assertions.isLessThanOrEqualTo
+import assertk.assertions.isTrue
+import org.junit.Test
+import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.thoughtcrime.securesms.jobs.RestoreAttachmentJob
+import org.thoughtcrime.securesms.jobs.RestoreAttachmentJob.RestoreOperation
+import kotlin.random.Random
+import kotlin.time.Duration.Companion.days
+import kotlin.time.Duration.Companion.hours
+
+class MediaRestoreSchedulerTest {
+
+  private val today = 100.days.inWholeMilliseconds
+
+  @Test
+  fun `newer days go first and smaller attachments go first within a day`() {
+    val requests = listOf(
+      request(id = 1, size = 500, dateReceived = today - 3.days.inWholeMilliseconds),
+      request(id = 2, size = 10_000, dateReceived = today),
+      request(id = 3, size = 100, dateReceived = today + 1.hours.inWholeMilliseconds),
+      request(id = 4, size = 50, dateReceived = today - 3.days.inWholeMilliseconds)
+    )
+
+    val order = MediaRestoreScheduler(RestoreOperation.INITIAL_RESTORE).plan(requests).map { it.request.attachmentId.id }
+
+    assertThat(order).containsExactly(3L, 2L, 4L, 1L)
+  }
+
+  @Test
+  fun `lanes for a cdn are balanced by bytes`() {
+    val random = Random(1234)
+    val requests = (1L..2_000L).map { request(id = it, size = random.nextLong(1_000, 50_000_000), dateReceived = today) }
+
+    val scheduler = MediaRestoreScheduler(RestoreOperation.INITIAL_RESTORE)
+    val laneBytes = scheduler.plan(requests)
+      .groupBy { it.queue }
+      .mapValues { (_, assignments) -> assignments.sumOf { it.request.size } }
+
+    assertThat(laneBytes.keys).hasSize(4)
+    assertThat(scheduler.queues).isEqualTo(laneBytes.keys)
+    assertThat(laneBytes.values.max() - laneBytes.values.min()).isLessThanOrEqualTo(requests.maxOf { it.size })
+  }
+
+  @Test
+  fun `lanes stay balanced across batches`() {
+    val scheduler = MediaRestoreScheduler(RestoreOperation.INITIAL_RESTORE)
+
+    val first = scheduler.plan(listOf(request(id = 1, size = 1_000_000, dateReceived = today)))
+    val second = scheduler.plan((2L..4L).map { request(id = it, size = 10, dateReceived = today) })
+
+    val busyLane = first.single().queue
+    assertThat(second.count { it.queue == busyLane }).isEqualTo(0)
+  }
+
+  @Test
+  fun `each cdn gets its own lanes and unknown cdns share the default ones`() {
+    val requests = listOf(
+      request(id = 1, size = 10, dateReceived = today, cdn = 2),
+      request(id = 2, size = 20, dateReceived = today, cdn = 3),
+      request(id = 3, size = 30, dateReceived = today, cdn = 42)
+    )
+
+    val queues = MediaRestoreScheduler(RestoreOperation.RESTORE_OFFLOADED).plan(requests).associate { it.request.attachmentId.id to it.queue }
+
+    assertThat(queues[1]).isEqualTo(RestoreAttachmentJob.constructQueueString(RestoreOperation.RESTORE_OFFLOADED, 2, 0))
+    assertThat(queues[2]).isEqualTo(RestoreAttachmentJob.constructQueueString(RestoreOperation.RESTORE_OFFLOADED, 3, 0))
+    assertThat(queues[3]).isEqualTo(RestoreAttachmentJob.constructQueueString(RestoreOperation.RESTORE_OFFLOADED, 0, 0))
+    assertThat(MediaRestoreScheduler.laneQueues(RestoreOperation.RESTORE_OFFLOADED).containsAll(queues.values)).isTrue()
+  }
+
+  private fun request(id: Long, size: Long, dateReceived: Long, cdn: Int = 3): MediaRestoreScheduler.Request {
+    return MediaRestoreScheduler.Request(
+      attachmentId = AttachmentId(id),
+      messageId = id,
+      cdn = cdn,
+      size = size,
+      dateReceived = dateReceived
+    )
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.local
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.thoughtcrime.securesms.backup.v2.local.proto.SegmentFrame
+import org.thoughtcrime.securesms.backup.v2.proto.AccountData
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.ChatItem
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import org.thoughtcrime.securesms.backup.v2.proto.StandardMessage
+import org.thoughtcrime.securesms.backup.v2.proto.Text
+import org.thoughtcrime.securesms.backup.v2.stream.ChainedBackupImportReader
+import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupReader
+import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupWriter
+import org.thoughtcrime.securesms.util.Util
+import org.whispersystems.signalservice.api.backup.MessageBackupKey
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.io.ByteArrayOutputStream
+import java.util.UUID
+
+class SegmentedSnapshotWriterTest {
+
+  private val key = MessageBackupKey(Util.getSecretBytes(32))
+  private val aci = ACI.from(UUID.randomUUID())
+
+  /** Stands in for the shared segments directory. */
+  private val segmentStore: MutableMap<String, ByteArray> = mutableMapOf()
+
+  @Test
+  fun `snapshot reads back as the original frames`() {
+    val frames = accountFrames() + messages(20_000)
+
+    val snapshot = export(frames)
+
+    assertTrue(snapshot.segments.size > 1)
+    assertEquals(frames, read(snapshot))
+  }
+
+  @Test
+  fun `unchanged messages are not written again`() {
+    val original = messages(20_000)
+    val first = export(accountFrames() + original)
+
+    val edited = original.toMutableList()
+    edited[10_000] = message(10_000, "Edited")
+    edited += messages(100, start = 20_000)
+
+    val second = export(accountFrames() + edited)
+
+    assertEquals(accountFrames() + edited, read(second))
+    assertTrue("Wrote ${second.writer.segmentsWritten} of ${second.segments.size}", second.writer.segmentsWritten <= 4)
+    assertEquals(second.segments.size - second.writer.segmentsWritten, second.writer.segmentsReused)
+    assertTrue(second.segments.count { it in first.segments } >= second.segments.size - 4)
+  }
+
+  private fun export(frames: List<Frame>): Snapshot {
+    val main = ByteArrayOutputStream()
+
+    val writer = SegmentedSnapshotWriter(
+      key = key,
+      aci = aci,
+      main = EncryptedBackupWriter(key, aci, main, append = { main.write(it) }),
+      existingSegments = segmentStore.mapValues { it.value.size.toLong() }
+    ) { name, write ->
+      val output = ByteArrayOutputStream()
+      write(output)
+      segmentStore[name] = output.toByteArray()
+      true
+    }
+
+    writer.use {
+      it.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+      frames.forEach { frame -> it.write(frame) }
+    }
+
+    return Snapshot(main.toByteArray(), writer.segments, writer)
+  }
+
+  private fun read(snapshot: Snapshot): List<Frame> {
+    val parts = snapshot.segments.map { segment ->
+      val bytes = segmentStore[segment.name]!!
+      assertEquals(bytes.size.toLong(), segment.length)
+
+      ChainedBackupImportReader.Part(segment.length) {
+        EncryptedBackupReader(key, aci, bytes.size.toLong()) { bytes.inputStream() }
+      }
+    }
+
+    val main = EncryptedBackupReader(key, aci, snapshot.main.size.toLong()) { snapshot.main.inputStream() }
+
+    return ChainedBackupImportReader(main, parts).use { reader ->
+      assertEquals(1L, reader.getHeader()?.version)
+      reader.asSequence().toList()
+    }
+  }
+
+  private fun accountFrames(): List<Frame> {
+    return listOf(Frame(account = AccountData(username = "username")))
+  }
+
+  private fun messages(count: Int, start: Int = 0): List<Frame> {
+    return (start until start + count).map { message(it, "Message $it") }
+  }
+
+  private fun message(i: Int, body: String): Frame {
+    return Frame(
+      chatItem = ChatItem(
+        chatId = (i % 10).toLong(),
+        authorId = 1,
+        dateSent = i.toLong(),
+        standardMessage = StandardMessage(text = Text(body = body))
+      )
+    )
+  }
+
+  private class Snapshot(val main: ByteArray, val segments: List<SegmentFrame>, val writer: SegmentedSnapshotWriter)
+}
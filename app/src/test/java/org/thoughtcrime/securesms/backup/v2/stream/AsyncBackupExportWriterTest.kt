@@ -0,0 +1,69 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertThrows
+import org.junit.Test
+import org.thoughtcrime.securesms.backup.v2.proto.AccountData
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import org.thoughtcrime.securesms.util.Util
+import org.whispersystems.signalservice.api.backup.MessageBackupKey
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.util.UUID
+
+class AsyncBackupExportWriterTest {
+
+  @Test
+  fun `output is identical to writing directly`() {
+    val direct = ByteArrayOutputStream()
+    PlainTextBackupWriter(direct).use { writeFrames(it, 10_000) }
+
+    val async = ByteArrayOutputStream()
+    AsyncBackupExportWriter(PlainTextBackupWriter(async), capacity = 16).use { writeFrames(it, 10_000) }
+
+    assertArrayEquals(direct.toByteArray(), async.toByteArray())
+  }
+
+  @Test
+  fun `encrypted output can be read back in order`() {
+    val key = MessageBackupKey(Util.getSecretBytes(32))
+    val aci = ACI.from(UUID.randomUUID())
+    val outputStream = ByteArrayOutputStream()
+
+    AsyncBackupExportWriter(EncryptedBackupWriter(key, aci, outputStream, append = { outputStream.write(it) })).use { writeFrames(it, 10_000) }
+
+    val ciphertext = outputStream.toByteArray()
+    val frames = EncryptedBackupReader(key, aci, ciphertext.size.toLong()) { ciphertext.inputStream() }.use { it.asSequence().toList() }
+
+    assertEquals(10_000, frames.size)
+    frames.forEachIndexed { i, frame -> assertEquals("username-$i", frame.account?.username) }
+  }
+
+  @Test
+  fun `failure on the writer thread is rethrown`() {
+    val failing = object : OutputStream() {
+      override fun write(b: Int) = throw IOException("Disk full")
+    }
+
+    assertThrows(IOException::class.java) {
+      AsyncBackupExportWriter(PlainTextBackupWriter(failing), capacity = 16).use { writeFrames(it, 10_000) }
+    }
+  }
+
+  private fun writeFrames(writer: BackupExportWriter, count: Int) {
+    writer.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+
+    for (i in 0 until count) {
+      writer.write(Frame(account = AccountData(username = "username-$i")))
+    }
+  }
+}
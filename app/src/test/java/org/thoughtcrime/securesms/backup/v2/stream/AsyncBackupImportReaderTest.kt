@@ -0,0 +1,195 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import org.thoughtcrime.securesms.backup.v2.proto.AccountData
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.ChatItem
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import org.thoughtcrime.securesms.backup.v2.proto.StandardMessage
+import org.thoughtcrime.securesms.backup.v2.proto.Text
+import org.thoughtcrime.securesms.util.Util
+import org.whispersystems.signalservice.api.backup.MessageBackupKey
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.util.UUID
+import kotlin.time.Duration.Companion.nanoseconds
+
+class AsyncBackupImportReaderTest {
+
+  private val key = MessageBackupKey(Util.getSecretBytes(32))
+  private val aci = ACI.from(UUID.randomUUID())
+
+  @Test
+  fun `frames are read in order`() {
+    val ciphertext = writeEncrypted(10_000) { i -> Frame(account = AccountData(username = "username-$i")) }
+
+    val frames = AsyncBackupImportReader(encryptedReader(ciphertext), capacity = 16).use { reader ->
+      assertEquals(1L, reader.getHeader()?.version)
+      reader.asSequence().toList()
+    }
+
+    assertEquals(10_000, frames.size)
+    frames.forEachIndexed { i, frame -> assertEquals("username-$i", frame.account?.username) }
+  }
+
+  @Test
+  fun `bytes read tracks consumed frames`() {
+    val plaintext = ByteArrayOutputStream()
+    PlainTextBackupWriter(plaintext).use { writer ->
+      writer.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+      for (i in 0 until 10_000) {
+        writer.write(Frame(account = AccountData(username = "username-$i")))
+      }
+    }
+    val bytes = plaintext.toByteArray()
+
+    val expected = PlainTextBackupReader(bytes.inputStream(), bytes.size.toLong()).use { reader ->
+      reader.asSequence().map { reader.getBytesRead() }.toList()
+    }
+
+    val actual = AsyncBackupImportReader(PlainTextBackupReader(bytes.inputStream(), bytes.size.toLong()), capacity = 16).use { reader ->
+      assertEquals(0L, reader.getBytesRead())
+      reader.asSequence().map { reader.getBytesRead() }.toList()
+    }
+
+    assertEquals(expected, actual)
+    assertEquals(bytes.size.toLong(), actual.last())
+  }
+
+  @Test
+  fun `failure on the reader thread is rethrown`() {
+    val failing = object : BackupImportReader {
+      var remaining = 100
+
+      override fun getHeader() = BackupInfo(version = 1, backupTimeMs = 1000L)
+      override fun getBytesRead() = 0L
+      override fun getStreamLength() = 0L
+      override fun hasNext() = true
+      override fun next(): Frame {
+        if (remaining-- == 0) {
+          throw IOException("Bad MAC")
+        }
+        return Frame(account = AccountData(username = "username"))
+      }
+      override fun close() = Unit
+    }
+
+    assertThrows(IOException::class.java) {
+      AsyncBackupImportReader(failing, capacity = 16).use { it.asSequence().count() }
+    }
+  }
+
+  @Test
+  fun `closing before reaching the end stops reading`() {
+    val ciphertext = writeEncrypted(10_000) { i -> Frame(account = AccountData(username = "username-$i")) }
+
+    AsyncBackupImportReader(encryptedReader(ciphertext), capacity = 16).use { reader ->
+      assertEquals("username-0", reader.next().account?.username)
+    }
+  }
+
+  @Test
+  fun `closing mid-stream stops the reading thread and closes the delegate`() {
+    val endless = object : BackupImportReader {
+      @Volatile var framesRead = 0
+      @Volatile var closed = false
+
+      override fun getHeader() = BackupInfo(version = 1, backupTimeMs = 1000L)
+      override fun getBytesRead() = 0L
+      override fun getStreamLength() = 0L
+      override fun hasNext() = true
+      override fun next(): Frame {
+        framesRead++
+        return Frame(account = AccountData(username = "username"))
+      }
+      override fun close() {
+        closed = true
+      }
+    }
+
+    AsyncBackupImportReader(endless, capacity = 16).use { reader ->
+      repeat(5) { reader.next() }
+    }
+
+    val framesRead = endless.framesRead
+    Thread.sleep(200)
+
+    assertTrue(endless.closed)
+    assertEquals(framesRead, endless.framesRead)
+    assertTrue(framesRead <= 5 + 16 + 2)
+  }
+
+  @Ignore("Benchmark that prints timings rather than checking them. Run it manually when you need to.")
+  @Test
+  fun `synthetic million message restore read`() {
+    val messageCount = 1_000_000
+    val ciphertext = writeEncrypted(messageCount) { i ->
+      Frame(
+        chatItem = ChatItem(
+          chatId = (i % 100).toLong(),
+          authorId = (i % 50).toLong(),
+          dateSent = i.toLong(),
+          standardMessage = StandardMessage(text = Text(body = "Message number $i in a synthetic restore"))
+        )
+      )
+    }
+
+    val directStart = System.nanoTime()
+    val directCount = encryptedReader(ciphertext).use { reader -> reader.consume() }
+    val directDuration = (System.nanoTime() - directStart).nanoseconds
+
+    val asyncStart = System.nanoTime()
+    val asyncCount = AsyncBackupImportReader(encryptedReader(ciphertext)).use { reader -> reader.consume() }
+    val asyncDuration = (System.nanoTime() - asyncStart).nanoseconds
+
+    println("Read $messageCount messages (${ciphertext.size} bytes). Direct: $directDuration, read ahead: $asyncDuration")
+
+    assertEquals(messageCount, directCount)
+    assertEquals(messageCount, asyncCount)
+  }
+
+  /**
+   * Stands in for the work the importer does with each frame, so that reading has something to overlap with.
+   */
+  private fun BackupImportReader.consume(): Int {
+    var count = 0
+    var checksum = 0L
+
+    for (frame in this) {
+      val chatItem = frame.chatItem!!
+      checksum += chatItem.standardMessage!!.text!!.body.hashCode() + chatItem.dateSent
+      count++
+    }
+
+    assertTrue(checksum != 0L)
+    return count
+  }
+
+  private fun encryptedReader(ciphertext: ByteArray): EncryptedBackupReader {
+    return EncryptedBackupReader(key, aci, ciphertext.size.toLong()) { ciphertext.inputStream() }
+  }
+
+  private fun writeEncrypted(count: Int, frame: (Int) -> Frame): ByteArray {
+    val outputStream = ByteArrayOutputStream()
+
+    EncryptedBackupWriter(key, aci, outputStream, append = { outputStream.write(it) }).use { writer ->
+      writer.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+
+      for (i in 0 until count) {
+        writer.write(frame(i))
+      }
+    }
+
+    return outputStream.toByteArray()
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.blurhash
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isLessThanOrEqualTo
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.random.Random
+
+/**
+ * Compares [BlurHashEncoder] and [BlurHashDecoder] against a direct per-pixel evaluation of the BlurHash sums, which is what they did
+ * before they were made separable.
+ */
+class BlurHashTest {
+
+  companion object {
+    private val HASHES = listOf(
+      "LEHV6nWB2yk8pyo0adR*.7kCMdnj",
+      "LGF5]+Yk^6#M@-5c,1J5@[or[Q6.",
+      "L6PZfSi_.AyE_3t7t7R**0o#DgR4",
+      "LKO2?U%2Tw=w]~RBVZRi};RPxuwH",
+      "00AAAA",
+      "00~~~~"
+    )
+  }
+
+  @Test
+  fun `encoded hashes are unchanged`() {
+    val random = Random(42)
+
+    repeat(200) {
+      val width = random.nextInt(8, 68)
+      val height = random.nextInt(8, 68)
+      val componentX = random.nextInt(1, 10)
+      val componentY = random.nextInt(1, 10)
+      val pixels = IntArray(width * height) { index ->
+        if (random.nextInt(4) == 0) {
+          random.nextInt()
+        } else {
+          val x = index % width
+          val y = index / width
+          ((x * 255 / width) shl 16) or ((y * 255 / height) shl 8) or 0x80
+        }
+      }
+
+      assertThat(BlurHashEncoder.encode(pixels, width, height, componentX, componentY))
+        .isEqualTo(Reference.encode(pixels, width, height, componentX, componentY))
+    }
+  }
+
+  @Test
+  fun `decoded pixels are within one step of the exact result`() {
+    for (hash in HASHES) {
+      for ((width, height) in listOf(1 to 1, 7 to 13, 32 to 32, 100 to 60)) {
+        val actual = BlurHashDecoder.decodePixels(hash, width, height, 1.0)!!
+        val expected = Reference.decode(hash, width, height)
+
+        var maxDifference = 0
+        for (i in actual.indices) {
+          for (shift in intArrayOf(0, 8, 16)) {
+            maxDifference = maxOf(maxDifference, abs((actual[i] shr shift and 0xFF) - (expected[i] shr shift and 0xFF)))
+          }
+        }
+
+        assertThat(maxDifference, "$hash at ${width}x$height").isLessThanOrEqualTo(1)
+        assertThat(actual[0] ushr 24).isEqualTo(0xFF)
+      }
+    }
+  }
+
+  @Test
+  fun `dc red channel above 8 bits saturates`() {
+    val pixels = BlurHashDecoder.decodePixels("00~~~~", 4, 4, 1.0)!!
+
+    for (pixel in pixels) {
+      assertThat(pixel ushr 16).isEqualTo(0xFFFF)
+    }
+  }
+
+  @Ignore("Benchmark: prints timings against the per-pixel evaluation, run it by hand when changing the decoder or encoder")
+  @Test
+  fun `benchmark decode and encode`() {
+    val hash = HASHES[0]
+
+    for ((width, height) in listOf(32 to 32, 128 to 96, 512 to 384, 1080 to 810)) {
+      val separable = time { BlurHashDecoder.decodePixels(hash, width, height, 1.0) }
+      val perPixel = time { Reference.decode(hash, width, height) }
+
+      println("Decode ${width}x$height: per pixel ${"%.2f".format(perPixel)}ms, separable ${"%.2f".format(separable)}ms")
+    }
+
+    val random = Random(42)
+    for ((width, height) in listOf(32 to 32, 64 to 64, 128 to 128)) {
+      val pixels = IntArray(width * height) { random.nextInt() }
+
+      val separable = time { BlurHashEncoder.encode(pixels, width, height, 4, 3) }
+      val perPixel = time { Reference.encode(pixels, width, height, 4, 3) }
+
+      println("Encode ${width}x$height: per pixel ${"%.2f".format(perPixel)}ms, separable ${"%.2f".format(separable)}ms")
+    }
+  }
+
+  /**
+   * Average milliseconds per call, after a few warm-up calls.
+   */
+  private fun time(block: () -> Unit): Double {
+    repeat(3) { block() }
+
+    val runs = 10
+    val start = System.nanoTime()
+    repeat(runs) { block() }
+    return (System.nanoTime() - start) / runs / 1_000_000.0
+  }
+
+  private object Reference {
+    fun decode(hash: String, width: Int, height: Int): IntArray {
+      val sizeFlag = Base83.decode(hash, 0, 1)
+      val numCompX = sizeFlag % 9 + 1
+      val numCompY = sizeFlag / 9 + 1
+      val maxAc = (Base83.decode(hash, 1, 2) + 1) / 166f
+
+      val colors = Array(numCompX * numCompY) { i ->
+        if (i == 0) {
+          val value = Base83.decode(hash, 2, 6)
+          doubleArrayOf(sRGBToLinear(value shr 16), sRGBToLinear(value shr 8 and 255), sRGBToLinear(value and 255))
+        } else {
+          val value = Base83.decode(hash, 4 + i * 2, 6 + i * 2)
+          doubleArrayOf(
+            BlurHashUtil.signPow(((value / (19 * 19) - 9) / 9.0f).toDouble(), 2.0) * maxAc,
+            BlurHashUtil.signPow(((value / 19 % 19 - 9) / 9.0f).toDouble(), 2.0) * maxAc,
+            BlurHashUtil.signPow(((value % 19 - 9) / 9.0f).toDouble(), 2.0) * maxAc
+          )
+        }
+      }
+
+      return IntArray(width * height) { index ->
+        val x = index % width
+        val y = index / width
+        var r = 0.0
+        var g = 0.0
+        var b = 0.0
+
+        for (j in 0 until numCompY) {
+          for (i in 0 until numCompX) {
+            val basis = cos(Math.PI * x * i / width) * cos(Math.PI * y * j / height)
+            val color = colors[j * numCompX + i]
+            r += color[0] * basis
+            g += color[1] * basis
+            b += color[2] * basis
+          }
+        }
+
+        (0xFF shl 24) or (BlurHashUtil.linearTosRGB(r).toInt() shl 16) or (BlurHashUtil.linearTosRGB(g).toInt() shl 8) or BlurHashUtil.linearTosRGB(b).toInt()
+      }
+    }
+
+    fun encode(pixels: IntArray, width: Int, height: Int, componentX: Int, componentY: Int): String {
+      val factors = Array(componentX * componentY) { DoubleArray(3) }
+
+      for (j in 0 until componentY) {
+        for (i in 0 until componentX) {
+          val normalisation = if (i == 0 && j == 0) 1.0 else 2.0
+          var r = 0.0
+          var g = 0.0
+          var b = 0.0
+
+          for (x in 0 until width) {
+            for (y in 0 until height) {
+              val basis = normalisation * cos(Math.PI * i * x / width) * cos(Math.PI * j * y / height)
+              val pixel = pixels[y * width + x]
+              r += basis * sRGBToLinear(pixel shr 16 and 0xFF)
+              g += basis * sRGBToLinear(pixel shr 8 and 0xFF)
+              b += basis * sRGBToLinear(pixel and 0xFF)
+            }
+          }
+
+          val scale = 1.0 / (width * height)
+          factors[j * componentX + i] = doubleArrayOf(r * scale, g * scale, b * scale)
+        }
+      }
+
+      val hash = CharArray(6 + 2 * (factors.size - 1))
+      Base83.encode((componentX - 1 + (componentY - 1) * 9).toLong(), 1, hash, 0)
+
+      val maximumValue: Double
+      if (factors.size > 1) {
+        val quantisedMaximumValue = maxOf(0.0, minOf(82.0, Math.floor(BlurHashUtil.max(factors, 1, factors.size) * 166 - 0.5)))
+        maximumValue = (quantisedMaximumValue + 1) / 166
+        Base83.encode(Math.round(quantisedMaximumValue), 1, hash, 1)
+      } else {
+        maximumValue = 1.0
+        Base83.encode(0, 1, hash, 1)
+      }
+
+      val dc = factors[0]
+      Base83.encode((BlurHashUtil.linearTosRGB(dc[0]) shl 16) + (BlurHashUtil.linearTosRGB(dc[1]) shl 8) + BlurHashUtil.linearTosRGB(dc[2]), 4, hash, 2)
+
+      for (i in 1 until factors.size) {
+        val quantised = factors[i].map { maxOf(0.0, minOf(18.0, Math.floor(BlurHashUtil.signPow(it / maximumValue, 0.5) * 9 + 9.5))) }
+        Base83.encode(Math.round(quantised[0] * 19 * 19 + quantised[1] * 19 + quantised[2]), 2, hash, 6 + 2 * (i - 1))
+      }
+
+      return String(hash)
+    }
+
+    private fun sRGBToLinear(value: Int): Double {
+      val v = value / 255.0
+      return if (v <= 0.04045) v / 12.92 else Math.pow((v + 0.055) / 1.055, 2.4)
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.components.emoji.parsing
+
+import android.app.Application
+import android.net.Uri
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.emoji.EmojiPage
+import org.thoughtcrime.securesms.emoji.EmojiSource
+import org.thoughtcrime.securesms.testutil.MockAppDependenciesRule
+import kotlin.random.Random
+
+/**
+ * Compares [EmojiTree] and [EmojiParser] against a copy of the character keyed tree and the parser loop they replaced, over every emoji we
+ * ship and over random text built from emoji, fragments of emoji, modifiers and plain text. The ignored benchmark prints parse timings for
+ * both.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class EmojiTreeTest {
+
+  @get:Rule
+  val appDependencies = MockAppDependenciesRule()
+
+  private lateinit var emoji: List<String>
+  private lateinit var tree: EmojiTree
+  private lateinit var reference: ReferenceTree
+
+  @Before
+  fun setUp() {
+    val source = EmojiSource.loadAssetBasedEmojis()
+    emoji = (source.dataPages.flatMap { it.displayEmoji }.flatMap { it.variations } + source.obsolete.map { it.obsolete }).distinct()
+
+    tree = EmojiTree()
+    reference = ReferenceTree()
+
+    val page = EmojiPage.Asset(Uri.EMPTY)
+    emoji.forEachIndexed { index, value ->
+      val drawInfo = EmojiDrawInfo(page, index, value, null, null)
+      tree.add(value, drawInfo)
+      reference.add(value, drawInfo)
+    }
+  }
+
+  @Test
+  fun `every prefix of every emoji matches the same way`() {
+    for (value in emoji) {
+      for (end in 1..value.length) {
+        assertThat(tree.isEmoji(value, 0, end), value).isEqualTo(reference.isEmoji(value, 0, end))
+        assertThat(tree.getEmoji(value, 0, end), value).isEqualTo(reference.getEmoji(value, 0, end))
+      }
+
+      assertThat(parse(value), value).isEqualTo(reference.parse(value))
+    }
+  }
+
+  @Test
+  fun `random text parses the same way`() {
+    val random = Random(7)
+    val fragments = listOf("a", " ", "hi ", "1", "#", "*", "\uFE0F", "\u200D", "\uD83C\uDFFB", "\uD83C\uDFFF", "\uD83D", "\uDE00", "\u20E3", "\u2764")
+
+    repeat(5_000) {
+      val text = buildString {
+        repeat(random.nextInt(12)) {
+          when (random.nextInt(4)) {
+            0 -> append(fragments.random(random))
+            1 -> emoji.random(random).let { append(it, 0, random.nextInt(1, it.length + 1)) }
+            else -> append(emoji.random(random))
+          }
+        }
+      }
+
+      assertThat(parse(text), text).isEqualTo(reference.parse(text))
+
+      for (start in text.indices) {
+        for (end in start + 1..minOf(text.length, start + 12)) {
+          assertThat(tree.isEmoji(text, start, end), text).isEqualTo(reference.isEmoji(text, start, end))
+          assertThat(tree.getEmoji(text, start, end), text).isEqualTo(reference.getEmoji(text, start, end))
+        }
+      }
+    }
+  }
+
+  @Test
+  fun `long text parses the same way`() {
+    val random = Random(11)
+    val text = buildString {
+      repeat(2_000) {
+        append("Hello there, how are you? ")
+        append(emoji.random(random))
+      }
+    }
+
+    assertThat(parse(text)).isEqualTo(reference.parse(text))
+  }
+
+  @Ignore("Benchmark: prints parse timings against the reference parser, run it by hand when changing the tree")
+  @Test
+  fun `benchmark parse throughput`() {
+    val random = Random(11)
+    val text = buildString {
+      repeat(2_000) {
+        append("Hello there, how are you? ")
+        append(emoji.random(random))
+      }
+    }
+
+    val parser = EmojiParser(tree)
+    repeat(5) {
+      parser.findCandidates(text)
+      reference.parse(text)
+    }
+
+    val before = System.nanoTime()
+    repeat(20) { reference.parse(text) }
+    val middle = System.nanoTime()
+    repeat(20) { parser.findCandidates(text) }
+    val after = System.nanoTime()
+
+    println("Parsing ${text.length} chars: ${"%.2f".format((middle - before) / 20e6)}ms -> ${"%.2f".format((after - middle) / 20e6)}ms")
+  }
+
+  private fun parse(text: String): List<Triple<Int, Int, EmojiDrawInfo?>> {
+    return EmojiParser(tree).findCandidates(text).map { Triple(it.startIndex, it.endIndex, it.drawInfo) }
+  }
+
+  /**
+   * The tree and parser loop as they were, one [HashMap] per node keyed by UTF-16 unit.
+   */
+  private class ReferenceTree {
+    private class Node {
+      val children = HashMap<Char, Node>()
+      var emoji: EmojiDrawInfo? = null
+    }
+
+    private val root = Node()
+
+    fun add(value: String, drawInfo: EmojiDrawInfo) {
+      var node = root
+      for (c in value) {
+        node = node.children.getOrPut(c) { Node() }
+      }
+      node.emoji = drawInfo
+    }
+
+    fun isEmoji(text: CharSequence, start: Int, end: Int): EmojiTree.Matches {
+      val node = walk(text, start, end) ?: return EmojiTree.Matches.IMPOSSIBLE
+
+      return if (node.emoji != null || (text[end - 1] != TERMINATOR && node.children[TERMINATOR]?.emoji != null)) {
+        EmojiTree.Matches.EXACTLY
+      } else {
+        EmojiTree.Matches.POSSIBLY
+      }
+    }
+
+    fun getEmoji(text: CharSequence, start: Int, end: Int): EmojiDrawInfo? {
+      val node = walk(text, start, end) ?: return null
+
+      return when {
+        node.emoji != null -> node.emoji
+        text[end - 1] != TERMINATOR -> node.children[TERMINATOR]?.emoji
+        else -> null
+      }
+    }
+
+    fun parse(text: CharSequence): List<Triple<Int, Int, EmojiDrawInfo?>> {
+      val results = mutableListOf<Triple<Int, Int, EmojiDrawInfo?>>()
+
+      var i = 0
+      while (i < text.length) {
+        var end = getEmojiEndPos(text, i)
+
+        if (end != -1) {
+          val drawInfo = getEmoji(text, i, end)
+          if (end + 2 <= text.length && Fitzpatrick.fitzpatrickFromUnicode(text, end) != null) {
+            end += 2
+          }
+          results += Triple(i, end, drawInfo)
+          i = end
+        } else {
+          i++
+        }
+      }
+
+      return results
+    }
+
+    private fun getEmojiEndPos(text: CharSequence, start: Int): Int {
+      var best = -1
+
+      for (end in start + 1..text.length) {
+        when (isEmoji(text, start, end)) {
+          EmojiTree.Matches.EXACTLY -> best = end
+          EmojiTree.Matches.IMPOSSIBLE -> return best
+          EmojiTree.Matches.POSSIBLY -> Unit
+        }
+      }
+
+      return best
+    }
+
+    private fun walk(text: CharSequence, start: Int, end: Int): Node? {
+      var node = root
+      for (i in start until end) {
+        node = node.children[text[i]] ?: return null
+      }
+      return node
+    }
+
+    companion object {
+      private const val TERMINATOR = '\uFE0F'
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package org.thoughtcrime.securesms.crypto
+
+import android.app.Application
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import org.junit.After
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.File
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class ModernDecryptingPartReaderTest {
+
+  private val attachmentSecret = AttachmentSecret(null, null, Random.nextBytes(32))
+  private val file: File = File.createTempFile("part", ".mms")
+
+  @After
+  fun tearDown() {
+    file.delete()
+  }
+
+  @Test
+  fun `sequential reads match plaintext`() {
+    val plaintext = Random.nextBytes(100_000)
+    val random = encrypt(plaintext, inline = false)
+
+    ModernDecryptingPartReader.createFor(attachmentSecret, random, file).use { reader ->
+      val output = ByteArray(plaintext.size)
+      var position = 0
+
+      while (position < output.size) {
+        val read = reader.read(position.toLong(), output, position, minOf(4096, output.size - position))
+        position += read
+      }
+
+      assertThat(output.toList()).isEqualTo(plaintext.toList())
+      assertThat(reader.read(plaintext.size.toLong(), output, 0, 1)).isEqualTo(-1)
+    }
+  }
+
+  @Test
+  fun `random reads match plaintext and agree with input stream`() {
+    val plaintext = Random.nextBytes(100_003)
+    encrypt(plaintext, inline = true)
+
+    ModernDecryptingPartReader.createFor(attachmentSecret, file).use { reader ->
+      assertThat(reader.plaintextLength).isEqualTo(plaintext.size.toLong())
+
+      repeat(500) {
+        val position = Random.nextInt(plaintext.size)
+        val length = Random.nextInt(1, 20_000)
+        val expectedLength = minOf(length, plaintext.size - position)
+        val output = ByteArray(length)
+
+        val read = reader.read(position.toLong(), output, 0, length)
+
+        assertThat(read).isEqualTo(expectedLength)
+        assertThat(output.copyOf(read).toList()).isEqualTo(plaintext.copyOfRange(position, position + expectedLength).toList())
+      }
+
+      val position = 12_345L
+      val fromStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, file, position).use { it.readNBytes(1000) }
+      val fromReader = ByteArray(1000).also { reader.read(position, it, 0, it.size) }
+
+      assertThat(fromReader.toList()).isEqualTo(fromStream.toList())
+    }
+  }
+
+  private fun encrypt(plaintext: ByteArray, inline: Boolean): ByteArray {
+    val result = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, inline)
+    result.second.use { it.write(plaintext) }
+    return result.first
+  }
+}
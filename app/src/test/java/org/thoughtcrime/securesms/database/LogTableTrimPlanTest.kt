@@ -0,0 +1,74 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import org.junit.Test
+import org.thoughtcrime.securesms.database.LogDatabase.LogTable.Sizes
+import org.thoughtcrime.securesms.database.LogDatabase.LogTable.TrimPlan
+
+class LogTableTrimPlanTest {
+
+  private val maxSize = 1_000L
+
+  @Test
+  fun `nothing is deleted when everything fits`() {
+    val plan = TrimPlan.create(sizes(normalTotal = 600, keepLongerTotal = 400), maxSize)
+
+    assertThat(plan).isEqualTo(TrimPlan.None)
+  }
+
+  @Test
+  fun `oldest normal logs are deleted down to the space left by keep longer logs`() {
+    val plan = TrimPlan.create(sizes(normalTotal = 900, normalWritten = 5_000, keepLongerTotal = 300), maxSize)
+
+    // The newest 700 bytes of normal logs are the ones with an offset above 5_000 - 700
+    assertThat(plan).isEqualTo(TrimPlan.DeleteNormalUpTo(4_300))
+  }
+
+  @Test
+  fun `all normal logs are deleted when keep longer logs fill the limit`() {
+    val plan = TrimPlan.create(sizes(normalTotal = 100, keepLongerTotal = 1_200), maxSize)
+
+    assertThat(plan).isEqualTo(TrimPlan.DeleteAllNormal)
+  }
+
+  @Test
+  fun `half of everything is deleted when keep longer logs are far over the limit`() {
+    val plan = TrimPlan.create(sizes(normalTotal = 100, keepLongerTotal = 1_600), maxSize)
+
+    assertThat(plan).isEqualTo(TrimPlan.DeleteOldestHalf)
+  }
+
+  @Test
+  fun `repeated inserts and trims keep the newest logs that fit`() {
+    val entrySize = 37L
+    val offsets = ArrayDeque<Long>()
+    var written = 0L
+
+    repeat(10_000) {
+      written += entrySize
+      offsets.addLast(written)
+
+      when (val plan = TrimPlan.create(sizes(normalTotal = offsets.size * entrySize, normalWritten = written), maxSize)) {
+        is TrimPlan.DeleteNormalUpTo -> while (offsets.first() <= plan.sizeOffset) offsets.removeFirst()
+        else -> assertThat(plan).isEqualTo(TrimPlan.None)
+      }
+
+      assertThat(offsets.size.toLong()).isEqualTo(minOf(offsets.last() / entrySize, maxSize / entrySize))
+    }
+  }
+
+  private fun sizes(normalTotal: Long, normalWritten: Long = normalTotal, keepLongerTotal: Long = 0): Sizes {
+    return Sizes(
+      normalTotal = normalTotal,
+      normalWritten = normalWritten,
+      keepLongerTotal = keepLongerTotal,
+      keepLongerWritten = keepLongerTotal
+    )
+  }
+}
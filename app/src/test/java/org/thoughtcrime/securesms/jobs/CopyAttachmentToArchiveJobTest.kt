@@ -0,0 +1,141 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.jobs
+
+import android.app.Application
+import assertk.assertThat
+import assertk.assertions.isTrue
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.mockkObject
+import io.mockk.unmockkObject
+import io.mockk.verify
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment
+import org.thoughtcrime.securesms.backup.ArchiveUploadProgress
+import org.thoughtcrime.securesms.backup.v2.BackupRepository
+import org.thoughtcrime.securesms.backup.v2.BatchArchiveMediaResult
+import org.thoughtcrime.securesms.backup.v2.getMediaName
+import org.thoughtcrime.securesms.database.AttachmentTable
+import org.thoughtcrime.securesms.database.AttachmentTable.ArchiveTransferState
+import org.thoughtcrime.securesms.database.FakeMessageRecords
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.keyvalue.BackupValues
+import org.thoughtcrime.securesms.testutil.MockAppDependenciesRule
+import org.thoughtcrime.securesms.testutil.MockSignalStoreRule
+import org.thoughtcrime.securesms.testutil.SystemOutLogger
+import org.whispersystems.signalservice.api.NetworkResult
+import org.whispersystems.signalservice.api.archive.BatchArchiveMediaResponse
+import org.whispersystems.signalservice.api.archive.BatchArchiveMediaResponse.BatchArchiveMediaItemResponse
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class CopyAttachmentToArchiveJobTest {
+
+  @get:Rule
+  val mockSignalStore = MockSignalStoreRule(relaxed = setOf(BackupValues::class))
+
+  @get:Rule
+  val appDependencies = MockAppDependenciesRule()
+
+  private val attachmentTable: AttachmentTable = mockk(relaxUnitFun = true)
+  private val attachments: Map<AttachmentId, DatabaseAttachment> = (1L..5L).associate { id ->
+    AttachmentId(id) to FakeMessageRecords.buildDatabaseAttachment(
+      attachmentId = AttachmentId(id),
+      location = "location-$id",
+      digest = byteArrayOf(id.toByte()),
+      archiveTransferState = ArchiveTransferState.COPY_PENDING
+    )
+  }
+
+  @Before
+  fun setUp() {
+    Log.initialize(SystemOutLogger())
+
+    every { mockSignalStore.backup.backsUpMedia } returns true
+    every { mockSignalStore.backup.archiveUploadState } returns null
+
+    mockkObject(SignalDatabase.Companion)
+    every { SignalDatabase.attachments } returns attachmentTable
+    every { attachmentTable.getAttachment(any()) } answers { attachments[firstArg()] }
+    every { attachmentTable.getArchiveTransferState(any()) } answers { attachments[firstArg()]?.archiveTransferState }
+    every { attachmentTable.getAttachmentsPendingArchiveCopy(any()) } returns attachments.keys.toList()
+
+    mockkObject(BackupRepository)
+    mockkObject(ArchiveUploadProgress)
+    every { ArchiveUploadProgress.onAttachmentFinished(any()) } returns Unit
+  }
+
+  @After
+  fun tearDown() {
+    unmockkObject(SignalDatabase.Companion, BackupRepository, ArchiveUploadProgress)
+  }
+
+  @Test
+  fun `other attachments in the batch are handled by their own status`() {
+    respondWith(1L to 200, 2L to 200, 3L to 410, 4L to 500)
+
+    val result = CopyAttachmentToArchiveJob(AttachmentId(1)).run()
+
+    assertThat(result.isSuccess).isTrue()
+    verify { attachmentTable.setArchiveTransferState(AttachmentId(1), ArchiveTransferState.FINISHED) }
+    verify { attachmentTable.setArchiveTransferState(AttachmentId(2), ArchiveTransferState.FINISHED) }
+    verify { attachmentTable.setArchiveTransferState(AttachmentId(3), ArchiveTransferState.NONE) }
+    verify(exactly = 1) { AppDependencies.jobManager.add(match { it is UploadAttachmentToArchiveJob }) }
+    verify(exactly = 0) { attachmentTable.setArchiveTransferState(AttachmentId(4), any()) }
+    verify(exactly = 0) { attachmentTable.setArchiveTransferState(AttachmentId(5), any()) }
+    verify { ArchiveUploadProgress.onAttachmentFinished(AttachmentId(2)) }
+  }
+
+  @Test
+  fun `own attachment missing from the response is retried while others are still finished`() {
+    respondWith(2L to 200)
+
+    val result = CopyAttachmentToArchiveJob(AttachmentId(1)).run()
+
+    assertThat(result.isRetry).isTrue()
+    verify { attachmentTable.setArchiveTransferState(AttachmentId(2), ArchiveTransferState.FINISHED) }
+    verify(exactly = 0) { attachmentTable.setArchiveTransferState(AttachmentId(1), any()) }
+  }
+
+  @Test
+  fun `own attachment missing from the source is sent back for upload and not marked finished`() {
+    respondWith(1L to 410)
+    every { attachmentTable.getArchiveTransferState(AttachmentId(1)) } returns ArchiveTransferState.NONE
+
+    val result = CopyAttachmentToArchiveJob(AttachmentId(1)).run()
+
+    assertThat(result.isSuccess).isTrue()
+    verify { attachmentTable.setArchiveTransferState(AttachmentId(1), ArchiveTransferState.NONE) }
+    verify(exactly = 0) { attachmentTable.setArchiveTransferState(AttachmentId(1), ArchiveTransferState.FINISHED) }
+    verify(exactly = 1) { AppDependencies.jobManager.add(match { it is UploadAttachmentToArchiveJob }) }
+  }
+
+  private fun respondWith(vararg statuses: Pair<Long, Int>) {
+    val mediaIds = attachments.mapKeys { (_, attachment) -> attachment.getMediaName()!!.name }.mapValues { it.value.attachmentId }
+
+    every { BackupRepository.copyAttachmentToArchive(any<List<DatabaseAttachment>>()) } returns NetworkResult.Success(
+      BatchArchiveMediaResult(
+        response = BatchArchiveMediaResponse(
+          statuses.map { (id, status) ->
+            BatchArchiveMediaItemResponse(status = status, failureReason = null, cdn = 3, mediaId = attachments[AttachmentId(id)]!!.getMediaName()!!.name)
+          }
+        ),
+        mediaIdToAttachmentId = mediaIds,
+        attachmentIdToMediaName = emptyMap()
+      )
+    )
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.logsubmit
+
+import android.app.Application
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import assertk.assertThat
+import assertk.assertions.doesNotContain
+import assertk.assertions.isEqualTo
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.MultipartReader
+import okhttp3.OkHttpClient
+import okhttp3.RequestBody.Companion.asRequestBody
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import okio.buffer
+import okio.gzip
+import org.junit.After
+import org.junit.Before
+import org.junit.BeforeClass
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.signal.core.util.logging.Log
+import org.signal.core.util.logging.Scrubber
+import org.thoughtcrime.securesms.testutil.EmptyLogger
+import java.io.File
+import java.io.StringWriter
+import java.lang.management.ManagementFactory
+import java.util.zip.GZIPOutputStream
+import kotlin.time.Duration.Companion.nanoseconds
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class SubmitDebugLogRepositoryTest {
+
+  companion object {
+    @JvmStatic
+    @BeforeClass
+    fun setUpClass() {
+      Log.initialize(EmptyLogger())
+    }
+  }
+
+  private lateinit var server: MockWebServer
+  private lateinit var uploads: UploadStandIn
+
+  @Before
+  fun setUp() {
+    uploads = UploadStandIn()
+    server = MockWebServer()
+    server.dispatcher = uploads
+    server.start()
+  }
+
+  @After
+  fun tearDown() {
+    server.shutdown()
+  }
+
+  @Test
+  fun `prefix sections are scrubbed and written in order`() {
+    val sections = listOf(
+      TestSection("ALPHA", "Call from +15551234567\nnothing to see here\n"),
+      TestSection("BRAVO", "Group __signal_group__v2__!abcdefabcdefabcdef ok"),
+      TestSection("CHARL", "")
+    )
+
+    val output = StringWriter()
+    repository(sections).writePrefix(output, null)
+
+    assertThat(output.toString()).isEqualTo(expectedPrefix(sections))
+    assertThat(output.toString()).doesNotContain("5551234567")
+  }
+
+  @Test
+  fun `a section that fails to read is noted and the rest are still written`() {
+    val sections = listOf(
+      TestSection("ALPHA", "before"),
+      TestSection("BRAVO", "") { throw IllegalStateException("Broken section") },
+      TestSection("CHARL", "after")
+    )
+
+    val output = StringWriter()
+    repository(sections).writePrefix(output, null)
+
+    assertThat(output.toString()).isEqualTo(
+      "===== ALPHA =====\nbefore\n\n\n\n" +
+        "===== BRAVO =====\n<failed to read section>\n\n\n\n" +
+        "===== CHARL =====\nafter\n"
+    )
+  }
+
+  @Test
+  fun `large section is scrubbed in chunks without changing the output`() {
+    val sections = listOf(TestSection("ALPHA", syntheticContent(lines = 20_000, seed = 1)))
+
+    val output = StringWriter()
+    repository(sections).writePrefix(output, null)
+
+    assertThat(output.toString()).isEqualTo(expectedPrefix(sections))
+  }
+
+  /**
+   * Writes a large synthetic prefix through gzip and uploads it to a local stand-in for the debug log server, printing the throughput and how much
+   * heap was used on top of the sections themselves.
+   */
+  @Test
+  fun `large synthetic log uploads to a local stand in`() {
+    val sections = (0 until 8).map { TestSection("SECT$it", syntheticContent(lines = 20_000, seed = it)) }
+    val rawChars = sections.sumOf { it.content.length.toLong() }
+    val repository = repository(sections)
+    val file = File.createTempFile("debuglog", ".gz")
+
+    try {
+      val baseline = usedHeapAfterGc()
+      val sampler = HeapSampler().apply { start() }
+      val start = System.nanoTime()
+
+      GZIPOutputStream(file.outputStream()).bufferedWriter().use { repository.writePrefix(it, null) }
+      val url = repository.uploadContent("application/gzip", file.asRequestBody("application/gzip".toMediaType()))
+
+      val elapsed = (System.nanoTime() - start).nanoseconds
+      val peak = sampler.finish()
+
+      assertThat(url).isEqualTo(server.url("/").toString().removeSuffix("/") + "/" + UploadStandIn.KEY)
+      assertThat(uploads.uploaded).isEqualTo(expectedPrefix(sections))
+
+      val megabytes = rawChars / (1024.0 * 1024.0)
+      println("Uploaded %.1f MiB of sections in %s (%.1f MiB/s). Peak heap above baseline: %.1f MiB".format(megabytes, elapsed, megabytes / (elapsed.inWholeMilliseconds / 1000.0), (peak - baseline) / (1024.0 * 1024.0)))
+    } finally {
+      file.delete()
+    }
+  }
+
+  private fun repository(sections: List<LogSection>): SubmitDebugLogRepository {
+    return SubmitDebugLogRepository(ApplicationProvider.getApplicationContext(), sections, server.url("/").toString().removeSuffix("/")) { OkHttpClient() }
+  }
+
+  private fun expectedPrefix(sections: List<TestSection>): String {
+    return sections.joinToString(separator = "\n\n\n") { section ->
+      val lines = Scrubber.scrub(section.content).toString().trimEnd('\n')
+      "===== ${section.title} =====\n$lines\n"
+    }
+  }
+
+  private fun syntheticContent(lines: Int, seed: Int): String {
+    return buildString {
+      for (i in 0 until lines) {
+        when (i % 4) {
+          0 -> append("12-01 10:00:00.000 1234 5678 I JobRunner: Job $seed-$i finished with result SUCCESS in ${i % 97} ms")
+          1 -> append("12-01 10:00:00.000 1234 5678 D Recipient: Fetched profile for 12345678-1234-1234-1234-1234567${(i % 100000).toString().padStart(5, '0')} (+1555${(i % 10000000).toString().padStart(7, '0')})")
+          2 -> append("12-01 10:00:00.000 1234 5678 W WebSocket: Connecting to wss://chat.signal.org/v1/websocket/ from 192.168.${i % 256}.20")
+          else -> append("12-01 10:00:00.000 1234 5678 E Sender: Failed sending to __signal_group__v2__!abcdefabcdefabcdef$i via user$i@example.com")
+        }
+        append('\n')
+      }
+    }
+  }
+
+  private fun usedHeapAfterGc(): Long {
+    System.gc()
+    return ManagementFactory.getMemoryMXBean().heapMemoryUsage.used
+  }
+
+  private class TestSection(
+    private val name: String,
+    val content: String,
+    private val read: () -> CharSequence = { content }
+  ) : LogSection {
+    override fun getTitle(): String = name
+    override fun getContent(context: Context): CharSequence = read()
+    override fun isInitialized(): Boolean = true
+  }
+
+  /** Polls the used heap until [finish] is called, and returns the most it saw. */
+  private class HeapSampler : Thread("heap-sampler") {
+    @Volatile
+    private var running = true
+
+    @Volatile
+    private var peak = 0L
+
+    override fun run() {
+      val memory = ManagementFactory.getMemoryMXBean()
+      while (running) {
+        peak = maxOf(peak, memory.heapMemoryUsage.used)
+        sleep(5)
+      }
+    }
+
+    fun finish(): Long {
+      running = false
+      join()
+      return peak
+    }
+  }
+
+  /**
+   * Stands in for the debug log server: the GET hands out an upload form, and the POST to it is unpacked so the test can check what was uploaded.
+   */
+  private class UploadStandIn : Dispatcher() {
+    companion object {
+      const val KEY = "synthetic-log"
+    }
+
+    @Volatile
+    var uploaded: String? = null
+
+    override fun dispatch(request: RecordedRequest): MockResponse {
+      return when (request.method) {
+        "GET" -> MockResponse().setBody("""{"url": "${request.requestUrl!!.resolve("/upload")}", "fields": {"key": "$KEY"}}""")
+        "POST" -> {
+          val boundary = request.getHeader("Content-Type")!!.substringAfter("boundary=")
+          MultipartReader(request.body, boundary).use { reader ->
+            while (true) {
+              val part = reader.nextPart() ?: break
+              if (part.headers["Content-Disposition"]!!.contains("name=\"file\"")) {
+                uploaded = part.body.gzip().buffer().readUtf8()
+              }
+            }
+          }
+          MockResponse().setResponseCode(204)
+        }
+        else -> MockResponse().setResponseCode(405)
+      }
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.messages
+
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEmpty
+import assertk.assertions.isEqualTo
+import org.junit.Test
+import org.thoughtcrime.securesms.database.model.MessageId
+import org.thoughtcrime.securesms.recipients.RecipientId
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.seconds
+
+class DeliveryReceiptAggregatorTest {
+
+  private var now = 0L
+  private val scheduled = mutableListOf<Pair<Long, Runnable>>()
+  private val sent = mutableListOf<DeliveryReceiptAggregator.Batch>()
+
+  private val aggregator = DeliveryReceiptAggregator(
+    idleDelay = 250.milliseconds,
+    maxDelay = 5.seconds,
+    maxBatchSize = 500,
+    clock = { now },
+    schedule = { delay: Duration, task: Runnable -> scheduled += (now + delay.inWholeMilliseconds) to task },
+    sink = { sent += it }
+  )
+
+  private val alice = RecipientId.from(1)
+  private val bob = RecipientId.from(2)
+
+  @Test
+  fun `receipts from the same sender are sent together once they go idle`() {
+    aggregator.add(alice, 100, MessageId(1))
+    aggregator.add(alice, 101, MessageId(2))
+    aggregator.add(bob, 200, MessageId(3))
+
+    assertThat(sent).isEmpty()
+
+    advanceBy(250.milliseconds)
+
+    assertThat(sent.size).isEqualTo(2)
+    assertThat(sent[0].recipientId).isEqualTo(alice)
+    assertThat(sent[0].messageSentTimestamps).containsExactly(100L, 101L)
+    assertThat(sent[0].messageIds).containsExactly(MessageId(1), MessageId(2))
+    assertThat(sent[1].messageSentTimestamps).containsExactly(200L)
+  }
+
+  @Test
+  fun `a sender that never goes idle is still sent after the max delay`() {
+    repeat(100) {
+      aggregator.add(alice, it.toLong(), MessageId(it.toLong()))
+      advanceBy(100.milliseconds)
+    }
+
+    assertThat(sent.size).isEqualTo(2)
+    assertThat(sent[0].messageIds.size).isEqualTo(50)
+  }
+
+  @Test
+  fun `a full batch is sent right away`() {
+    repeat(500) { aggregator.add(alice, it.toLong(), MessageId(it.toLong())) }
+
+    assertThat(sent.size).isEqualTo(1)
+    assertThat(sent[0].messageIds.size).isEqualTo(500)
+  }
+
+  @Test
+  fun `flush sends everything that's pending`() {
+    aggregator.add(alice, 100, MessageId(1))
+    aggregator.add(bob, 200, MessageId(2))
+
+    aggregator.flush()
+    advanceBy(5.seconds)
+
+    assertThat(sent.size).isEqualTo(2)
+  }
+
+  @Test
+  fun `a large backlog turns into a few receipts per sender`() {
+    val senders = (1L..5L).map { RecipientId.from(it) }
+    val messageCount = 5_000
+
+    // Roughly what draining a backlog looks like: batches of 30 envelopes, a few ms each, interleaved across senders
+    repeat(messageCount) {
+      aggregator.add(senders[it % senders.size], it.toLong(), MessageId(it.toLong()))
+      if (it % 30 == 29) {
+        advanceBy(60.milliseconds)
+      }
+    }
+    aggregator.flush()
+
+    assertThat(sent.sumOf { it.messageIds.size }).isEqualTo(messageCount)
+    assertThat(sent.map { it.messageSentTimestamps.size }.all { it <= 500 }).isEqualTo(true)
+    senders.forEach { sender -> assertThat(sent.count { it.recipientId == sender } <= 5).isEqualTo(true) }
+  }
+
+  private fun advanceBy(duration: Duration) {
+    val until = now + duration.inWholeMilliseconds
+
+    while (true) {
+      val next = scheduled.minByOrNull { it.first }?.takeIf { it.first <= until } ?: break
+      scheduled.remove(next)
+      now = next.first
+      next.second.run()
+    }
+
+    now = until
+  }
+}
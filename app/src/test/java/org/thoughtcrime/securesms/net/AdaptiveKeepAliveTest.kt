@@ -0,0 +1,171 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.net
+
+import assertk.assertThat
+import assertk.assertions.isEmpty
+import assertk.assertions.isEqualTo
+import org.junit.Test
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.minutes
+import kotlin.time.Duration.Companion.seconds
+
+class AdaptiveKeepAliveTest {
+
+  private val timeout = 20.seconds
+
+  private var now = 0L
+  private val scheduled = mutableListOf<Pair<Long, Runnable>>()
+  private val keepAlivesSent = mutableListOf<Long>()
+  private val missed = mutableListOf<Long>()
+
+  /** When set, every keep alive is answered after this long. */
+  private var responseLatency: Duration? = 100.milliseconds
+
+  private val keepAlive = AdaptiveKeepAlive(
+    initialInterval = 30.seconds,
+    minInterval = 20.seconds,
+    maxInterval = 55.seconds,
+    step = 5.seconds,
+    timeout = timeout,
+    clock = { now },
+    schedule = { delay, task -> scheduled += (now + delay.inWholeMilliseconds) to task },
+    sendKeepAlive = {
+      keepAlivesSent += now
+      responseLatency?.let { latency -> scheduled += (now + latency.inWholeMilliseconds) to Runnable { keepAlive.onReceived() } }
+    },
+    onMissedKeepAlive = { missed += now }
+  )
+
+  @Test
+  fun `keep alives are sent once the socket has been idle for the interval`() {
+    keepAlive.start()
+
+    advanceBy(95.seconds)
+
+    assertThat(keepAlivesSent).isEqualTo(listOf(30_000L, 60_100L, 90_200L))
+    assertThat(missed).isEmpty()
+  }
+
+  @Test
+  fun `keep alives are not sent while traffic is flowing`() {
+    keepAlive.start()
+
+    repeat(60) {
+      advanceBy(10.seconds)
+      keepAlive.onReceived()
+    }
+
+    assertThat(keepAlivesSent).isEmpty()
+  }
+
+  @Test
+  fun `dead connection is detected within the timeout of the keep alive`() {
+    keepAlive.start()
+    responseLatency = null
+
+    advanceBy(2.minutes)
+
+    assertThat(keepAlivesSent.first()).isEqualTo(30_000L)
+    assertThat(missed.first()).isEqualTo(30_000L + timeout.inWholeMilliseconds)
+  }
+
+  @Test
+  fun `dead connection is detected within the timeout after the interval has grown`() {
+    keepAlive.start()
+
+    advanceBy(30.minutes)
+    assertThat(keepAlive.interval).isEqualTo(55.seconds)
+
+    responseLatency = null
+    val lastSent = keepAlivesSent.last()
+    advanceBy(2.minutes)
+
+    val sent = keepAlivesSent.first { it > lastSent }
+    assertThat(missed.first()).isEqualTo(sent + timeout.inWholeMilliseconds)
+  }
+
+  @Test
+  fun `traffic pushes the keep alive back without hiding a dead connection`() {
+    keepAlive.start()
+
+    advanceBy(25.seconds)
+    keepAlive.onReceived()
+    responseLatency = null
+
+    advanceBy(1.minutes)
+
+    assertThat(missed.first()).isEqualTo(25_000L + 30_000L + timeout.inWholeMilliseconds)
+  }
+
+  @Test
+  fun `interval shrinks after a miss and stops growing past it`() {
+    keepAlive.start()
+
+    advanceBy(10.minutes)
+    val grown = keepAlive.interval
+
+    // Pretend the NAT dropped the socket, and we reconnected
+    responseLatency = null
+    advanceBy(grown + timeout + 1.seconds)
+    keepAlive.stop()
+    responseLatency = 100.milliseconds
+    keepAlive.start()
+
+    val shrunk = keepAlive.interval
+    assertThat(shrunk).isEqualTo(grown - 5.seconds)
+
+    advanceBy(30.minutes)
+    assertThat(keepAlive.interval).isEqualTo(shrunk)
+  }
+
+  @Test
+  fun `network change lets the interval grow again after a miss`() {
+    keepAlive.start()
+
+    advanceBy(10.minutes)
+    val grown = keepAlive.interval
+
+    responseLatency = null
+    advanceBy(grown + timeout + 1.seconds)
+    keepAlive.stop()
+    assertThat(keepAlive.interval).isEqualTo(grown - 5.seconds)
+
+    keepAlive.onNetworkChanged()
+    assertThat(keepAlive.interval).isEqualTo(30.seconds)
+
+    responseLatency = 100.milliseconds
+    keepAlive.start()
+    advanceBy(30.minutes)
+
+    assertThat(keepAlive.interval).isEqualTo(55.seconds)
+  }
+
+  @Test
+  fun `stopping cancels pending keep alives`() {
+    keepAlive.start()
+    keepAlive.stop()
+
+    advanceBy(5.minutes)
+
+    assertThat(keepAlivesSent).isEmpty()
+    assertThat(missed).isEmpty()
+  }
+
+  private fun advanceBy(duration: Duration) {
+    val until = now + duration.inWholeMilliseconds
+
+    while (true) {
+      val next = scheduled.minByOrNull { it.first }?.takeIf { it.first <= until } ?: break
+      scheduled.remove(next)
+      now = next.first
+      next.second.run()
+    }
+
+    now = until
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.net
+
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEqualTo
+import assertk.assertions.isInstanceOf
+import assertk.assertions.isLessThan
+import assertk.assertions.isTrue
+import okhttp3.Dns
+import org.junit.After
+import org.junit.Test
+import java.io.InterruptedIOException
+import java.net.InetAddress
+import java.net.UnknownHostException
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.minutes
+import kotlin.time.Duration.Companion.nanoseconds
+import kotlin.time.Duration.Companion.seconds
+
+class RacingDnsTest {
+
+  private val executor = Executors.newCachedThreadPool()
+  private var now = 0L
+
+  private val address1 = InetAddress.getByAddress(byteArrayOf(10, 0, 0, 1))
+  private val address2 = InetAddress.getByAddress(byteArrayOf(10, 0, 0, 2))
+
+  @After
+  fun tearDown() {
+    executor.shutdownNow()
+  }
+
+  @Test
+  fun `fast first resolver wins without starting the others`() {
+    val first = FakeDns(latency = 10.milliseconds, answer = listOf(address1))
+    val second = FakeDns(latency = 10.milliseconds, answer = listOf(address2))
+
+    val result = racingDns(first, second).lookup("example.com")
+
+    assertThat(result).containsExactly(address1)
+    assertThat(second.calls.get()).isEqualTo(0)
+  }
+
+  @Test
+  fun `slow first resolver only delays the lookup by the stagger`() {
+    val first = FakeDns(latency = 5.seconds, answer = listOf(address1))
+    val second = FakeDns(latency = 10.milliseconds, answer = listOf(address2))
+
+    val (result, duration) = timed { racingDns(first, second).lookup("example.com") }
+
+    assertThat(result).containsExactly(address2)
+    assertThat(duration).isLessThan(1.seconds)
+  }
+
+  @Test
+  fun `failed resolver moves on to the next without waiting for the stagger`() {
+    val first = FakeDns(latency = 0.milliseconds, answer = null)
+    val second = FakeDns(latency = 0.milliseconds, answer = listOf(address2))
+
+    val (result, duration) = timed { racingDns(first, second, staggerDelay = 5.seconds).lookup("example.com") }
+
+    assertThat(result).containsExactly(address2)
+    assertThat(duration).isLessThan(1.seconds)
+  }
+
+  @Test
+  fun `answers are cached until the ttl passes`() {
+    val first = FakeDns(latency = 0.milliseconds, answer = listOf(address1))
+    val dns = racingDns(first)
+
+    dns.lookup("example.com")
+    now += 30.seconds.inWholeMilliseconds
+    dns.lookup("example.com")
+
+    assertThat(first.calls.get()).isEqualTo(1)
+
+    now += 31.seconds.inWholeMilliseconds
+    dns.lookup("example.com")
+
+    assertThat(first.calls.get()).isEqualTo(2)
+  }
+
+  @Test
+  fun `failures are cached until the negative ttl passes`() {
+    val first = FakeDns(latency = 0.milliseconds, answer = null)
+    val second = FakeDns(latency = 0.milliseconds, answer = emptyList())
+    val dns = racingDns(first, second)
+
+    assertFailure { dns.lookup("example.com") }.isInstanceOf(UnknownHostException::class)
+    assertFailure { dns.lookup("example.com") }.isInstanceOf(UnknownHostException::class)
+
+    assertThat(first.calls.get()).isEqualTo(1)
+    assertThat(second.calls.get()).isEqualTo(1)
+
+    now += 11.seconds.inWholeMilliseconds
+    assertFailure { dns.lookup("example.com") }.isInstanceOf(UnknownHostException::class)
+
+    assertThat(first.calls.get()).isEqualTo(2)
+  }
+
+  @Test
+  fun `clearing the cache looks the hostname up again`() {
+    val first = FakeDns(latency = 0.milliseconds, answer = listOf(address1))
+    val dns = racingDns(first)
+
+    dns.lookup("example.com")
+    dns.clearCache()
+    dns.lookup("example.com")
+
+    assertThat(first.calls.get()).isEqualTo(2)
+  }
+
+  @Test
+  fun `interrupted lookup throws an io exception and keeps the interrupt`() {
+    val first = FakeDns(latency = 5.seconds, answer = listOf(address1))
+
+    Thread.currentThread().interrupt()
+    try {
+      assertFailure { racingDns(first).lookup("example.com") }.isInstanceOf(InterruptedIOException::class)
+      assertThat(Thread.currentThread().isInterrupted).isTrue()
+    } finally {
+      Thread.interrupted()
+    }
+  }
+
+  @Test
+  fun `loopback and any local addresses are ignored for service hosts`() {
+    val first = FakeDns(latency = 0.milliseconds, answer = listOf(InetAddress.getLoopbackAddress(), InetAddress.getByAddress(byteArrayOf(0, 0, 0, 0))))
+    val second = FakeDns(latency = 0.milliseconds, answer = listOf(address2))
+
+    val result = racingDns(first, second, isServiceHost = { it == "chat.signal.org" }).lookup("chat.signal.org")
+
+    assertThat(result).containsExactly(address2)
+  }
+
+  private fun racingDns(vararg resolvers: Dns, staggerDelay: Duration = 100.milliseconds, isServiceHost: (String) -> Boolean = { false }): RacingDns {
+    return RacingDns(
+      resolvers = resolvers.toList(),
+      staggerDelay = staggerDelay,
+      ttl = 1.minutes,
+      negativeTtl = 10.seconds,
+      executor = executor,
+      isServiceHost = isServiceHost,
+      clock = { now }
+    )
+  }
+
+  private fun <T> timed(block: () -> T): Pair<T, Duration> {
+    val start = System.nanoTime()
+    val result = block()
+    return result to (System.nanoTime() - start).nanoseconds
+  }
+
+  /**
+   * Answers after [latency] with [answer], or fails if [answer] is null.
+   */
+  private class FakeDns(private val latency: Duration, private val answer: List<InetAddress>?) : Dns {
+    val calls = AtomicInteger()
+
+    override fun lookup(hostname: String): List<InetAddress> {
+      calls.incrementAndGet()
+      Thread.sleep(latency.inWholeMilliseconds)
+      return answer ?: throw UnknownHostException(hostname)
+    }
+  }
+}
@@ -15,6 +15,10 @@ private typealias MatchProcessor = (Matcher, StringBuilder) -> Unit
 
 /**
  * Scrub data for possibly sensitive information.
+ *
+ * Each kind of identifier is scrubbed by its own regex pass, in a fixed order, with each pass seeing the output of the ones before it. Most log lines
+ * don't contain anything sensitive, so rather than running every pass on every line, a single walk over the input first works out which passes could
+ * possibly match, and only those are run.
  */
 object Scrubber {
   /**
@@ -77,6 +81,35 @@ object Scrubber {
 
   private val CALL_LINK_ROOM_ID_PATTERN = Pattern.compile("[0-9a-f]{61}([0-9a-f]{3})")
 
+  /** Every pass, in the order they're applied. Bit `i` of [candidatePasses] corresponds to `PASSES[i]`. */
+  private val PASSES: List<(CharSequence) -> CharSequence> = listOf(
+    { it.scrubE164() },
+    { it.scrubE164Zero() },
+    { it.scrubEmail() },
+    { it.scrubGroupsV1() },
+    { it.scrubGroupsV2() },
+    { it.scrubPnis() },
+    { it.scrubUuids() },
+    { it.scrubDomains() },
+    { it.scrubIpv4() },
+    { it.scrubIpv6() },
+    { it.scrubCallLinkKeys() },
+    { it.scrubCallLinkRoomIds() }
+  )
+
+  private const val PASS_E164 = 1 shl 0
+  private const val PASS_E164_ZERO = 1 shl 1
+  private const val PASS_EMAIL = 1 shl 2
+  private const val PASS_GROUPS_V1 = 1 shl 3
+  private const val PASS_GROUPS_V2 = 1 shl 4
+  private const val PASS_PNIS = 1 shl 5
+  private const val PASS_UUIDS = 1 shl 6
+  private const val PASS_DOMAINS = 1 shl 7
+  private const val PASS_IPV4 = 1 shl 8
+  private const val PASS_IPV6 = 1 shl 9
+  private const val PASS_CALL_LINK_KEYS = 1 shl 10
+  private const val PASS_CALL_LINK_ROOM_IDS = 1 shl 11
+
   @JvmStatic
   @Volatile
   var identifierHmacKeyProvider: () -> ByteArray? = { null }
@@ -87,6 +120,29 @@ object Scrubber {
 
   @JvmStatic
   fun scrub(input: CharSequence): CharSequence {
+    var output = input
+    var candidates = candidatePasses(output)
+
+    for (i in PASSES.indices) {
+      if (candidates and (1 shl i) == 0) {
+        continue
+      }
+
+      val scrubbed = PASSES[i](output)
+      if (scrubbed !== output) {
+        // Replacements can introduce characters that other passes look for, so what's left has to be checked against the new text
+        output = scrubbed
+        candidates = candidatePasses(output)
+      }
+    }
+
+    return output
+  }
+
+  /**
+   * Runs every pass, regardless of whether it could match. Only exists to check [scrub] against.
+   */
+  internal fun scrubAllPasses(input: CharSequence): CharSequence {
     return input
       .scrubE164()
       .scrubE164Zero()
@@ -102,6 +158,87 @@ object Scrubber {
       .scrubCallLinkRoomIds()
   }
 
+  /**
+   * Works out which passes could find a match in [input] in a single walk over it, as a bitmask of `PASS_*` flags. Each pass is only ruled out if
+   * something its pattern can't match without is missing, so a pass that isn't flagged is guaranteed to leave [input] unchanged.
+   */
+  private fun candidatePasses(input: CharSequence): Int {
+    var digitRun = 0
+    var longestDigitRun = 0
+    var lowerHexRun = 0
+    var longestLowerHexRun = 0
+    var hasPlusOrPercent = false
+    var hasAt = false
+    var hasBang = false
+    var dots = 0
+    var domainDots = 0
+    var ipv4Dots = 0
+    var colons = 0
+    var hyphens = 0
+
+    for (i in 0 until input.length) {
+      val c = input[i]
+
+      if (c in '0'..'9') {
+        digitRun++
+        if (digitRun > longestDigitRun) {
+          longestDigitRun = digitRun
+        }
+      } else {
+        digitRun = 0
+      }
+
+      if (c in '0'..'9' || c in 'a'..'f') {
+        lowerHexRun++
+        if (lowerHexRun > longestLowerHexRun) {
+          longestLowerHexRun = lowerHexRun
+        }
+      } else {
+        lowerHexRun = 0
+      }
+
+      when (c) {
+        '+', '%' -> hasPlusOrPercent = true
+        '@' -> hasAt = true
+        '!' -> hasBang = true
+        ':' -> colons++
+        '-' -> hyphens++
+        '.' -> {
+          dots++
+          if (i > 0 && i < input.length - 1) {
+            val before = input[i - 1]
+            val after = input[i + 1]
+            if (before.isAsciiLetterOrDigit() && (after.isAsciiLetterOrDigit() || after == '-')) {
+              domainDots++
+            }
+            if (before in '0'..'9' && after in '0'..'9') {
+              ipv4Dots++
+            }
+          }
+        }
+      }
+    }
+
+    var candidates = 0
+    if (hasPlusOrPercent && longestDigitRun >= 7) candidates = candidates or PASS_E164
+    if (longestDigitRun >= 11) candidates = candidates or PASS_E164_ZERO
+    if (hasAt && dots > 0) candidates = candidates or PASS_EMAIL
+    if (hasBang) candidates = candidates or PASS_GROUPS_V1 or PASS_GROUPS_V2
+    if (colons > 0 && hyphens >= 4) candidates = candidates or PASS_PNIS
+    if (hyphens >= 4) candidates = candidates or PASS_UUIDS
+    if (domainDots > 0) candidates = candidates or PASS_DOMAINS
+    if (ipv4Dots >= 3) candidates = candidates or PASS_IPV4
+    if (colons >= 3) candidates = candidates or PASS_IPV6
+    if (hyphens >= 7) candidates = candidates or PASS_CALL_LINK_KEYS
+    if (longestLowerHexRun >= 64) candidates = candidates or PASS_CALL_LINK_ROOM_IDS
+
+    return candidates
+  }
+
+  private fun Char.isAsciiLetterOrDigit(): Boolean {
+    return this in 'a'..'z' || this in 'A'..'Z' || this in '0'..'9'
+  }
+
   private fun CharSequence.scrubE164(): CharSequence {
     return scrub(this, E164_PATTERN) { matcher, output ->
       if (matcher.group(1) != null && matcher.group(1)!!.isNotEmpty()) {
@@ -226,23 +363,23 @@ object Scrubber {
   }
 
   private fun scrub(input: CharSequence, pattern: Pattern, processMatch: MatchProcessor): CharSequence {
-    val output = StringBuilder(input.length)
     val matcher: Matcher = pattern.matcher(input)
+    if (!matcher.find()) {
+      // there were no matches, save copying all the data
+      return input
+    }
+
+    val output = StringBuilder(input.length)
     var lastEndingPos = 0
 
-    while (matcher.find()) {
+    do {
       output.append(input, lastEndingPos, matcher.start())
       processMatch(matcher, output)
       lastEndingPos = matcher.end()
-    }
+    } while (matcher.find())
 
-    return if (lastEndingPos == 0) {
-      // there were no matches, save copying all the data
-      input
-    } else {
-      output.append(input, lastEndingPos, input.length)
-      output
-    }
+    output.append(input, lastEndingPos, input.length)
+    return output
   }
 
   private fun hash(value: String): String {
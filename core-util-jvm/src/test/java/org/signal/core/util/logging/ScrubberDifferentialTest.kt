@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.core.util.logging
+
+import org.junit.Assert.assertEquals
+import org.junit.BeforeClass
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.random.Random
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.nanoseconds
+
+/**
+ * Checks that skipping the passes that can't match never changes what [Scrubber.scrub] outputs, by comparing it against running every pass.
+ */
+class ScrubberDifferentialTest {
+
+  companion object {
+    @JvmStatic
+    @BeforeClass
+    fun setup() {
+      Scrubber.identifierHmacKeyProvider = { ByteArray(32) }
+    }
+
+    /** Bits and pieces of the things the scrubber looks for, so that random combinations of them regularly produce matches and near misses. */
+    private val FRAGMENTS = listOf(
+      "+", "%2B", "%2b", "0", "1", "5", "9", "12345", "5551234567", "08011112222", "@", ".", "..", ":", "::", "-", " ", "\t", "/", ",", "(", ")", "!", "_",
+      "__textsecure_group__!", "__signal_group__v2__!", "PNI:", "pni:", "JOB::", "KEEP_E164::", "E164:", "<", ">", "*",
+      "a", "f", "F", "g", "z", "B", "c", "X", "com", "org", "signal.org", "molly.im", "Ab3", "abcdef0123456789", "ABCDEF", "bcdf", "BCDF",
+      "é", "K", "٠", "²", "1.2.3.4", "255", "fe80", "fe80::1:2:3", "a@b.co",
+      "12345678-1234-1234-1234-123456789abc",
+      "ABCDEF12-1234-1234-1234-123456789ABC",
+      "bcdf-ghkm-npqr-stxz-bcdf-ghkm-npqr-stxz",
+      "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef"
+    )
+
+    private val TYPICAL_LINES = listOf(
+      "[ConversationFragment] onResume() took 12 ms",
+      "Processing envelope. Type: CIPHERTEXT, timestamp: 1717171717171, source device: 1",
+      "[JobRunner] Job finished with result SUCCESS in 15 ms. (Time Since Submission: 20 ms, Lifespan: Immortal, Run Attempt: 0/Unlimited, Queue: null)",
+      "Connecting to wss://chat.signal.org/v1/websocket/ from 192.168.1.20",
+      "Fetched profile for 12345678-1234-1234-1234-123456789abc (+15551234567)",
+      "Sending message to __signal_group__v2__!abcdefabcdefabcdefabcdef via user@example.com"
+    )
+  }
+
+  @Test
+  fun `random input scrubs the same as running every pass`() {
+    val random = Random(1234)
+
+    repeat(200_000) {
+      val input = buildString {
+        repeat(random.nextInt(40)) {
+          if (random.nextInt(10) == 0) {
+            append(random.nextInt(0x300).toChar())
+          } else {
+            append(FRAGMENTS[random.nextInt(FRAGMENTS.size)])
+          }
+        }
+      }
+
+      assertEquals(input, Scrubber.scrubAllPasses(input).toString(), Scrubber.scrub(input).toString())
+    }
+  }
+
+  @Test
+  fun `typical lines scrub the same as running every pass`() {
+    TYPICAL_LINES.forEach { input ->
+      assertEquals(input, Scrubber.scrubAllPasses(input).toString(), Scrubber.scrub(input).toString())
+    }
+  }
+
+  @Ignore("Prints timings rather than checking anything, run it by hand when changing the pre-scan")
+  @Test
+  fun `scrub throughput`() {
+    val lines = (0 until 10_000).map { TYPICAL_LINES[it % TYPICAL_LINES.size] }
+
+    // Warm up
+    repeat(5) {
+      lines.forEach { Scrubber.scrub(it) }
+      lines.forEach { Scrubber.scrubAllPasses(it) }
+    }
+
+    val allPasses = time { lines.forEach { Scrubber.scrubAllPasses(it) } }
+    val filtered = time { lines.forEach { Scrubber.scrub(it) } }
+
+    println("Scrubbed ${lines.size} lines. Every pass: $allPasses, filtered: $filtered")
+  }
+
+  private fun time(block: () -> Unit): Duration {
+    val start = System.nanoTime()
+    block()
+    return (System.nanoTime() - start).nanoseconds
+  }
+}
@@ -36,22 +36,33 @@ class ParallelEventTimer {
   fun beginEvent(group: String): EventStopper {
     val start = System.nanoTime()
     return EventStopper {
-      val duration = System.nanoTime() - start
-      durationsByGroup.computeIfAbsent(group) { ConcurrentLinkedQueue() } += duration
+      addDuration(group, System.nanoTime() - start)
     }
   }
 
+  /**
+   * Begin a series of back-to-back events on the calling thread. Works like [EventTimer.emit], where each event lasts from the previous one (or from
+   * this call) until [EventSeries.emit], so that each thread can time its own series.
+   */
+  fun beginSeries(): EventSeries {
+    return EventSeries()
+  }
+
   /**
    * Time an event associated with a group.
    */
   inline fun <E> timeEvent(group: String, operation: () -> E): E {
     val start = System.nanoTime()
     val result = operation()
-    val duration = System.nanoTime() - start
-    durationsByGroup.computeIfAbsent(group) { ConcurrentLinkedQueue() } += duration
+    addDuration(group, System.nanoTime() - start)
     return result
   }
 
+  @PublishedApi
+  internal fun addDuration(group: String, durationNanos: Long) {
+    durationsByGroup.computeIfAbsent(group) { ConcurrentLinkedQueue() } += durationNanos
+  }
+
   /**
    * Stops the timer and returns a mapping of group -> [EventMetrics], which will tell you various statistics around timings for that group.
    * It is assumed that all events have been stopped by the time this has been called.
@@ -91,6 +102,19 @@ class ParallelEventTimer {
     fun stopEvent()
   }
 
+  inner class EventSeries {
+    private var lastTimeNanos = System.nanoTime()
+
+    /**
+     * Indicates an event in the specified group has finished.
+     */
+    fun emit(group: String) {
+      val now = System.nanoTime()
+      addDuration(group, now - lastTimeNanos)
+      lastTimeNanos = now
+    }
+  }
+
   data class EventMetrics(
     /** The sum of all event times, in fractional milliseconds. If running operations in parallel, this will likely be larger than [totalWallTime]. */
     val totalEventTime: Double,
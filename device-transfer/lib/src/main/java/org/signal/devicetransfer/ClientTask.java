@@ -20,6 +20,15 @@ public interface ClientTask extends Serializable {
    */
   void run(@NonNull Context context, @NonNull OutputStream outputStream) throws IOException;
 
+  /**
+   * Number of sockets to spread the output stream across when the server supports it. Each one does its own TLS
+   * encryption on its own thread, so more than one can help when the transfer is bound by the CPU rather than
+   * the link. Servers that don't support it always get a single stream.
+   */
+  default int getStreamCount() {
+    return 1;
+  }
+
   /**
    * Called after the output stream has been successfully flushed and closed.
    */
@@ -0,0 +1,167 @@
+package org.signal.devicetransfer;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.StreamUtil;
+import org.signal.core.util.logging.Log;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Optional transfer mode that spreads the task's stream over several sockets so that TLS encryption and
+ * decryption of each one can run on its own core.
+ * <p>
+ * Both sides advertise support with the byte they send once the SAS has been verified, so peers without it
+ * keep using the single socket. Once both have opted in, the client asks for a number of streams over the
+ * primary socket, and the server replies with the number it accepts and a random token. The client then opens
+ * the additional connections and presents the token and the stream index on each, which ties them to the
+ * already verified primary connection.
+ */
+final class MultiStreamTransfer {
+
+  private static final String TAG = Log.tag(MultiStreamTransfer.class);
+
+  static final int VERIFIED_SINGLE_STREAM = 0x43;
+  static final int VERIFIED_MULTI_STREAM  = 0x4D;
+
+  static final int MAX_STREAMS = 8;
+
+  private static final int TOKEN_LENGTH          = 32;
+  private static final int ACCEPT_TIMEOUT_MILLIS = 10000;
+
+  private MultiStreamTransfer() { }
+
+  /**
+   * Called by the client on the verified primary socket. Opens the additional connections using {@code connector},
+   * which is responsible for checking that each presents the same certificate as the primary.
+   *
+   * @return Output stream that stripes across all of the sockets, which are added to {@code sockets}.
+   */
+  static @NonNull StripedOutputStream connect(@NonNull Socket primary,
+                                              int requestedStreams,
+                                              @NonNull Connector connector,
+                                              @NonNull List<Socket> sockets)
+      throws IOException
+  {
+    OutputStream primaryOutput = primary.getOutputStream();
+    primaryOutput.write(Math.max(1, Math.min(requestedStreams, MAX_STREAMS)));
+    primaryOutput.flush();
+
+    DataInputStream primaryInput    = new DataInputStream(primary.getInputStream());
+    int             acceptedStreams = primaryInput.readUnsignedByte();
+    byte[]          token           = new byte[TOKEN_LENGTH];
+    primaryInput.readFully(token);
+
+    if (acceptedStreams < 1 || acceptedStreams > MAX_STREAMS) {
+      throw new IOException("Invalid stream count: " + acceptedStreams);
+    }
+
+    Log.i(TAG, "Server accepted " + acceptedStreams + " of " + requestedStreams + " streams");
+
+    List<OutputStream> outputs = new ArrayList<>(acceptedStreams);
+    outputs.add(primaryOutput);
+
+    for (int i = 1; i < acceptedStreams; i++) {
+      Socket socket = connector.connect();
+      sockets.add(socket);
+
+      OutputStream output = socket.getOutputStream();
+      output.write(token);
+      output.write(i);
+      output.flush();
+
+      outputs.add(output);
+    }
+
+    return new StripedOutputStream(outputs);
+  }
+
+  /**
+   * Called by the server on the verified primary socket. Accepts the additional connections on {@code serverSocket}
+   * and rejects any that don't present the token for this session.
+   *
+   * @return Input stream that reassembles the stripes from all of the sockets, which are added to {@code sockets}.
+   */
+  static @NonNull StripedInputStream accept(@NonNull Socket primary,
+                                            @NonNull ServerSocket serverSocket,
+                                            @NonNull List<Socket> sockets)
+      throws IOException
+  {
+    DataInputStream primaryInput     = new DataInputStream(primary.getInputStream());
+    int             requestedStreams = primaryInput.readUnsignedByte();
+    int             acceptedStreams  = Math.max(1, Math.min(requestedStreams, MAX_STREAMS));
+
+    byte[] token = new byte[TOKEN_LENGTH];
+    new SecureRandom().nextBytes(token);
+
+    OutputStream primaryOutput = primary.getOutputStream();
+    primaryOutput.write(acceptedStreams);
+    primaryOutput.write(token);
+    primaryOutput.flush();
+
+    Log.i(TAG, "Accepting " + acceptedStreams + " of " + requestedStreams + " streams");
+
+    InputStream[] inputs = new InputStream[acceptedStreams];
+    inputs[0] = primaryInput;
+
+    int previousTimeout = serverSocket.getSoTimeout();
+    serverSocket.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+    try {
+      int remaining = acceptedStreams - 1;
+      int rejected  = 0;
+      while (remaining > 0) {
+        Socket socket = serverSocket.accept();
+        socket.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+
+        DataInputStream input          = new DataInputStream(socket.getInputStream());
+        byte[]          presentedToken = new byte[TOKEN_LENGTH];
+        int             index;
+        try {
+          input.readFully(presentedToken);
+          index = input.readUnsignedByte();
+        } catch (IOException e) {
+          Log.w(TAG, "Additional stream failed to identify itself", e);
+          StreamUtil.close(socket);
+          checkRejected(++rejected);
+          continue;
+        }
+
+        if (!MessageDigest.isEqual(token, presentedToken) || index < 1 || index >= acceptedStreams || inputs[index] != null) {
+          Log.w(TAG, "Rejecting unauthenticated additional stream");
+          StreamUtil.close(socket);
+          checkRejected(++rejected);
+          continue;
+        }
+
+        socket.setSoTimeout(0);
+        sockets.add(socket);
+        inputs[index] = input;
+        remaining--;
+      }
+    } finally {
+      serverSocket.setSoTimeout(previousTimeout);
+    }
+
+    return new StripedInputStream(Arrays.asList(inputs));
+  }
+
+  private static void checkRejected(int rejected) throws IOException {
+    if (rejected > MAX_STREAMS) {
+      throw new IOException("Too many rejected streams");
+    }
+  }
+
+  interface Connector {
+    @NonNull Socket connect() throws IOException;
+  }
+}
@@ -14,7 +14,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLHandshakeException;
@@ -38,13 +44,14 @@ final class NetworkClientThread extends Thread {
   private volatile boolean   isRunning;
   private volatile Boolean   isVerified;
 
-  private final Context    context;
-  private final ClientTask clientTask;
-  private final String     serverHostAddress;
-  private final int        port;
-  private final Handler    handler;
-  private final Object     verificationLock;
-  private       boolean    success;
+  private final Context      context;
+  private final ClientTask   clientTask;
+  private final String       serverHostAddress;
+  private final int          port;
+  private final Handler      handler;
+  private final Object       verificationLock;
+  private final List<Socket> additionalSockets;
+  private       boolean      success;
 
   public NetworkClientThread(@NonNull Context context,
                              @NonNull ClientTask clientTask,
@@ -58,6 +65,7 @@ final class NetworkClientThread extends Thread {
     this.port              = port;
     this.handler           = handler;
     this.verificationLock  = new Object();
+    this.additionalSockets = Collections.synchronizedList(new ArrayList<>());
   }
 
   @Override
@@ -92,10 +100,12 @@ final class NetworkClientThread extends Thread {
           Log.i(TAG, "Waiting for user to verify sas");
           awaitAuthenticationCodeVerification();
           Log.d(TAG, "Waiting for server to tell us they also verified");
-          outputStream.write(0x43);
+          boolean wantsMultiStream = clientTask.getStreamCount() > 1;
+          outputStream.write(wantsMultiStream ? MultiStreamTransfer.VERIFIED_MULTI_STREAM : MultiStreamTransfer.VERIFIED_SINGLE_STREAM);
           outputStream.flush();
+          int result;
           try {
-            int result = inputStream.read();
+            result = inputStream.read();
             if (result == -1) {
               Log.w(TAG, "Something happened waiting for server to verify");
               throw new DeviceTransferAuthentication.DeviceTransferAuthenticationException("server disconnected while we waited");
@@ -106,7 +116,18 @@ final class NetworkClientThread extends Thread {
           }
 
           handler.sendEmptyMessage(NETWORK_CLIENT_CONNECTED);
-          clientTask.run(context, outputStream);
+          if (wantsMultiStream && result == MultiStreamTransfer.VERIFIED_MULTI_STREAM) {
+            byte[] serverCertificate = x509.getEncoded();
+            try (StripedOutputStream stripedOutputStream = MultiStreamTransfer.connect(client,
+                                                                                       clientTask.getStreamCount(),
+                                                                                       () -> connectAdditional(serverCertificate),
+                                                                                       additionalSockets))
+            {
+              clientTask.run(context, stripedOutputStream);
+            }
+          } else {
+            clientTask.run(context, outputStream);
+          }
           outputStream.flush();
 
           Log.d(TAG, "Waiting for server to tell us they got everything");
@@ -130,6 +151,7 @@ final class NetworkClientThread extends Thread {
         if (success) {
           clientTask.success();
         }
+        closeAdditionalSockets();
         StreamUtil.close(client);
         handler.sendEmptyMessage(NETWORK_CLIENT_DISCONNECTED);
       }
@@ -143,6 +165,43 @@ final class NetworkClientThread extends Thread {
     handler.sendEmptyMessage(NETWORK_CLIENT_STOPPED);
   }
 
+  /**
+   * Opens another connection to the server for a multi-stream transfer, making sure it's talking to the same
+   * server that the user verified.
+   */
+  private @NonNull Socket connectAdditional(@NonNull byte[] serverCertificate) throws IOException {
+    try {
+      SelfSignedIdentity.ApprovingTrustManager trustManager = new SelfSignedIdentity.ApprovingTrustManager();
+      SSLSocket                                socket       = (SSLSocket) SelfSignedIdentity.getApprovingSocketFactory(trustManager).createSocket();
+      try {
+        socket.bind(null);
+        socket.connect(new InetSocketAddress(serverHostAddress, port), 10000);
+        socket.startHandshake();
+
+        X509Certificate x509 = trustManager.getX509Certificate();
+        if (x509 == null || !Arrays.equals(serverCertificate, x509.getEncoded())) {
+          throw new SSLHandshakeException("additional stream presented a different certificate");
+        }
+
+        return socket;
+      } catch (IOException | GeneralSecurityException e) {
+        StreamUtil.close(socket);
+        throw e;
+      }
+    } catch (GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void closeAdditionalSockets() {
+    synchronized (additionalSockets) {
+      for (Socket socket : additionalSockets) {
+        StreamUtil.close(socket);
+      }
+      additionalSockets.clear();
+    }
+  }
+
   private void awaitAuthenticationCodeVerification() throws DeviceTransferAuthentication.DeviceTransferAuthenticationException {
     synchronized (verificationLock) {
       try {
@@ -169,6 +228,7 @@ final class NetworkClientThread extends Thread {
   @AnyThread
   public void shutdown() {
     isRunning = false;
+    closeAdditionalSockets();
     StreamUtil.close(client);
     interrupt();
   }
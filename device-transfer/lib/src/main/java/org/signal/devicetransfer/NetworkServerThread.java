@@ -14,6 +14,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Performs the networking setup/tear down for the server. This includes
@@ -40,17 +43,19 @@ final class NetworkServerThread extends Thread {
   private final SelfSignedIdentity.SelfSignedKeys keys;
   private final Handler                           handler;
   private final Object                            verificationLock;
+  private final List<Socket>                      additionalSockets;
 
   public NetworkServerThread(@NonNull Context context,
                              @NonNull ServerTask serverTask,
                              @NonNull SelfSignedIdentity.SelfSignedKeys keys,
                              @NonNull Handler handler)
   {
-    this.context          = context;
-    this.serverTask       = serverTask;
-    this.keys             = keys;
-    this.handler          = handler;
-    this.verificationLock = new Object();
+    this.context           = context;
+    this.serverTask        = serverTask;
+    this.keys              = keys;
+    this.handler           = handler;
+    this.verificationLock  = new Object();
+    this.additionalSockets = Collections.synchronizedList(new ArrayList<>());
   }
 
   @Override
@@ -80,10 +85,11 @@ final class NetworkServerThread extends Thread {
           Log.i(TAG, "Waiting for user to verify sas");
           awaitAuthenticationCodeVerification();
           Log.d(TAG, "Waiting for client to tell us they also verified");
-          outputStream.write(0x43);
+          outputStream.write(MultiStreamTransfer.VERIFIED_MULTI_STREAM);
           outputStream.flush();
+          int result;
           try {
-            int result = inputStream.read();
+            result = inputStream.read();
             if (result == -1) {
               Log.w(TAG, "Something happened waiting for client to verify");
               throw new DeviceTransferAuthentication.DeviceTransferAuthenticationException("client disconnected while we waited");
@@ -94,7 +100,13 @@ final class NetworkServerThread extends Thread {
           }
 
           handler.sendEmptyMessage(NETWORK_CLIENT_CONNECTED);
-          serverTask.run(context, inputStream);
+          if (result == MultiStreamTransfer.VERIFIED_MULTI_STREAM) {
+            try (StripedInputStream stripedInputStream = MultiStreamTransfer.accept(clientSocket, serverSocket, additionalSockets)) {
+              serverTask.run(context, stripedInputStream);
+            }
+          } else {
+            serverTask.run(context, inputStream);
+          }
 
           outputStream.write(0x53);
           outputStream.flush();
@@ -105,6 +117,7 @@ final class NetworkServerThread extends Thread {
             Log.i(TAG, "Server shutting down...");
           }
         } finally {
+          closeAdditionalSockets();
           StreamUtil.close(clientSocket);
           handler.sendEmptyMessage(NETWORK_CLIENT_DISCONNECTED);
         }
@@ -137,6 +150,15 @@ final class NetworkServerThread extends Thread {
     }
   }
 
+  private void closeAdditionalSockets() {
+    synchronized (additionalSockets) {
+      for (Socket socket : additionalSockets) {
+        StreamUtil.close(socket);
+      }
+      additionalSockets.clear();
+    }
+  }
+
   private boolean shouldKeepRunning() {
     return !isInterrupted() && isRunning;
   }
@@ -161,6 +183,7 @@ final class NetworkServerThread extends Thread {
   @AnyThread
   public void shutdown() {
     isRunning = false;
+    closeAdditionalSockets();
     StreamUtil.close(clientSocket);
     StreamUtil.close(serverSocket);
     interrupt();
@@ -0,0 +1,193 @@
+package org.signal.devicetransfer;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.logging.Log;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reassembles a stream written by {@link StripedOutputStream}. Each underlying stream is read on its own thread,
+ * a couple of chunks ahead, and chunks are handed out in the same round-robin order they were written in.
+ * <p>
+ * Closing this stream stops the reading threads but leaves the underlying streams open.
+ */
+final class StripedInputStream extends InputStream {
+
+  private static final String TAG = Log.tag(StripedInputStream.class);
+
+  private static final int  QUEUE_CAPACITY      = 2;
+  private static final long POLL_TIMEOUT_MILLIS = 100;
+
+  private static final Chunk END = new Chunk(new byte[0], 0);
+
+  private final List<Lane> lanes;
+
+  private Chunk   chunk;
+  private int     chunkPosition;
+  private long    chunkIndex;
+  private boolean ended;
+
+  private volatile boolean closed;
+
+  StripedInputStream(@NonNull List<InputStream> streams) {
+    this.lanes = new ArrayList<>(streams.size());
+
+    for (int i = 0; i < streams.size(); i++) {
+      Lane lane = new Lane(i, streams.get(i));
+      lane.start();
+      lanes.add(lane);
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextChunkIfNeeded()) {
+      return -1;
+    }
+
+    return chunk.data[chunkPosition++] & 0xFF;
+  }
+
+  @Override
+  public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+
+    if (!nextChunkIfNeeded()) {
+      return -1;
+    }
+
+    int count = Math.min(length, chunk.length - chunkPosition);
+    System.arraycopy(chunk.data, chunkPosition, buffer, offset, count);
+    chunkPosition += count;
+
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return chunk != null ? chunk.length - chunkPosition : 0;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+
+    for (Lane lane : lanes) {
+      lane.interrupt();
+      lane.queue.clear();
+    }
+  }
+
+  private boolean nextChunkIfNeeded() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+
+    while (!ended && (chunk == null || chunkPosition == chunk.length)) {
+      Lane lane = lanes.get((int) (chunkIndex % lanes.size()));
+
+      chunk         = lane.take();
+      chunkPosition = 0;
+      chunkIndex++;
+
+      if (chunk == END) {
+        ended = true;
+      }
+    }
+
+    return !ended;
+  }
+
+  private static final class Chunk {
+    private final byte[] data;
+    private final int    length;
+
+    private Chunk(byte[] data, int length) {
+      this.data   = data;
+      this.length = length;
+    }
+  }
+
+  private final class Lane extends Thread {
+
+    private final DataInputStream      input;
+    private final BlockingQueue<Chunk> queue;
+
+    private volatile IOException failure;
+
+    private Lane(int index, @NonNull InputStream input) {
+      super("striped-input-" + index);
+      setDaemon(true);
+
+      this.input = new DataInputStream(input);
+      this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!closed) {
+          int length = input.readInt();
+          if (length < 0 || length > StripedOutputStream.CHUNK_SIZE) {
+            throw new IOException("Invalid chunk length: " + length);
+          }
+
+          if (length == 0) {
+            put(END);
+            return;
+          }
+
+          byte[] data = new byte[length];
+          input.readFully(data);
+
+          put(new Chunk(data, length));
+        }
+      } catch (IOException e) {
+        if (!closed) {
+          Log.w(TAG, "Failed reading from " + getName(), e);
+          failure = e;
+        }
+      } catch (InterruptedException e) {
+        Log.d(TAG, getName() + " interrupted");
+      }
+    }
+
+    private void put(@NonNull Chunk chunk) throws InterruptedException {
+      while (!closed && !queue.offer(chunk, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        // Keep waiting for the reader to catch up
+      }
+    }
+
+    private @NonNull Chunk take() throws IOException {
+      try {
+        while (true) {
+          Chunk next = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+          if (next != null) {
+            return next;
+          }
+
+          IOException exception = failure;
+          if (exception != null) {
+            throw new IOException("Failed reading from " + getName(), exception);
+          }
+
+          if (!isAlive() && queue.isEmpty()) {
+            throw new IOException(getName() + " stopped before the end of the stream");
+          }
+        }
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package org.signal.devicetransfer;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.logging.Log;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits a single stream into fixed size chunks and writes them round-robin across several underlying streams,
+ * each from its own thread. Chunk {@code n} always goes to stream {@code n % streams.size()}, which is what lets
+ * {@link StripedInputStream} put them back together in order without any sequence numbers.
+ * <p>
+ * Each chunk is written as its length followed by its data, and a zero length chunk on every stream marks the end.
+ * Closing this stream ends the stripes but leaves the underlying streams open.
+ */
+final class StripedOutputStream extends OutputStream {
+
+  private static final String TAG = Log.tag(StripedOutputStream.class);
+
+  static final int CHUNK_SIZE = 256 * 1024;
+
+  private static final int  QUEUE_CAPACITY      = 2;
+  private static final long POLL_TIMEOUT_MILLIS = 100;
+
+  private final List<Lane> lanes;
+  private final int        chunkSize;
+
+  private byte[]  chunk;
+  private int     chunkLength;
+  private long    chunkIndex;
+  private boolean closed;
+
+  StripedOutputStream(@NonNull List<OutputStream> streams) {
+    this(streams, CHUNK_SIZE);
+  }
+
+  StripedOutputStream(@NonNull List<OutputStream> streams, int chunkSize) {
+    this.chunkSize = chunkSize;
+    this.chunk     = new byte[chunkSize];
+    this.lanes     = new ArrayList<>(streams.size());
+
+    for (int i = 0; i < streams.size(); i++) {
+      Lane lane = new Lane(i, streams.get(i));
+      lane.start();
+      lanes.add(lane);
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+    chunk[chunkLength++] = (byte) b;
+
+    if (chunkLength == chunkSize) {
+      submitChunk();
+    }
+  }
+
+  @Override
+  public void write(@NonNull byte[] buffer, int offset, int length) throws IOException {
+    ensureOpen();
+
+    while (length > 0) {
+      int count = Math.min(length, chunkSize - chunkLength);
+      System.arraycopy(buffer, offset, chunk, chunkLength, count);
+
+      chunkLength += count;
+      offset      += count;
+      length      -= count;
+
+      if (chunkLength == chunkSize) {
+        submitChunk();
+      }
+    }
+  }
+
+  /**
+   * Sends whatever has been buffered so far and waits for every stream to have written and flushed it.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    if (chunkLength > 0) {
+      submitChunk();
+    }
+
+    awaitLanes(new CountDownLatch(lanes.size()), false);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    try {
+      if (chunkLength > 0) {
+        submitChunk();
+      }
+
+      awaitLanes(new CountDownLatch(lanes.size()), true);
+    } finally {
+      closed = true;
+      for (Lane lane : lanes) {
+        lane.interrupt();
+      }
+    }
+  }
+
+  private void submitChunk() throws IOException {
+    Lane lane = lanes.get((int) (chunkIndex % lanes.size()));
+    lane.enqueue(new Item(chunk, chunkLength, null, false));
+
+    chunk       = new byte[chunkSize];
+    chunkLength = 0;
+    chunkIndex++;
+  }
+
+  private void awaitLanes(@NonNull CountDownLatch latch, boolean end) throws IOException {
+    for (Lane lane : lanes) {
+      lane.enqueue(new Item(null, 0, latch, end));
+    }
+
+    try {
+      while (!latch.await(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        for (Lane lane : lanes) {
+          lane.checkFailure();
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+
+    for (Lane lane : lanes) {
+      lane.checkFailure();
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  private static final class Item {
+    private final byte[]         data;
+    private final int            length;
+    private final CountDownLatch latch;
+    private final boolean        end;
+
+    private Item(byte[] data, int length, CountDownLatch latch, boolean end) {
+      this.data   = data;
+      this.length = length;
+      this.latch  = latch;
+      this.end    = end;
+    }
+  }
+
+  private static final class Lane extends Thread {
+
+    private final DataOutputStream    output;
+    private final BlockingQueue<Item> queue;
+
+    private volatile IOException failure;
+
+    private Lane(int index, @NonNull OutputStream output) {
+      super("striped-output-" + index);
+      setDaemon(true);
+
+      this.output = new DataOutputStream(output);
+      this.queue  = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Item item = queue.take();
+
+          if (item.data != null) {
+            output.writeInt(item.length);
+            output.write(item.data, 0, item.length);
+          } else {
+            if (item.end) {
+              output.writeInt(0);
+            }
+            output.flush();
+            item.latch.countDown();
+
+            if (item.end) {
+              return;
+            }
+          }
+        }
+      } catch (IOException e) {
+        Log.w(TAG, "Failed writing to " + getName(), e);
+        failure = e;
+      } catch (InterruptedException e) {
+        Log.d(TAG, getName() + " interrupted");
+      }
+    }
+
+    private void enqueue(@NonNull Item item) throws IOException {
+      try {
+        while (!queue.offer(item, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+          checkFailure();
+        }
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+
+    private void checkFailure() throws IOException {
+      IOException exception = failure;
+      if (exception != null) {
+        throw new IOException("Failed writing to " + getName(), exception);
+      }
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package org.signal.devicetransfer
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Ignore
+import org.junit.Test
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.security.SecureRandom
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import javax.crypto.Cipher
+import javax.crypto.CipherInputStream
+import javax.crypto.CipherOutputStream
+import javax.crypto.spec.IvParameterSpec
+import javax.crypto.spec.SecretKeySpec
+import kotlin.random.Random
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.nanoseconds
+
+class MultiStreamTransferTest {
+
+  private val executor = Executors.newCachedThreadPool()
+
+  @Test
+  fun `data is reassembled in order across streams`() {
+    val data = Random.nextBytes(5 * StripedOutputStream.CHUNK_SIZE + 1234)
+
+    val received = transfer(data, requestedStreams = 4) { port -> Socket(InetAddress.getLoopbackAddress(), port) }
+
+    assertArrayEquals(data, received)
+  }
+
+  @Test
+  fun `server limits the number of streams`() {
+    val data = Random.nextBytes(3 * StripedOutputStream.CHUNK_SIZE)
+    var connections = 0
+
+    val received = transfer(data, requestedStreams = 100) { port ->
+      connections++
+      Socket(InetAddress.getLoopbackAddress(), port)
+    }
+
+    assertArrayEquals(data, received)
+    assertEquals(MultiStreamTransfer.MAX_STREAMS - 1, connections)
+  }
+
+  @Test
+  fun `additional stream without the session token is rejected`() {
+    val data = Random.nextBytes(3 * StripedOutputStream.CHUNK_SIZE)
+    var rejected: Socket? = null
+
+    val received = transfer(data, requestedStreams = 2) { port ->
+      if (rejected == null) {
+        rejected = Socket(InetAddress.getLoopbackAddress(), port).apply {
+          getOutputStream().write(ByteArray(33) { 1 })
+          getOutputStream().flush()
+        }
+      }
+      Socket(InetAddress.getLoopbackAddress(), port)
+    }
+
+    assertArrayEquals(data, received)
+    assertEquals(-1, rejected!!.getInputStream().read())
+  }
+
+  @Test
+  fun `data is reassembled across independently encrypted streams`() {
+    val data = ByteArray(4 * StripedOutputStream.CHUNK_SIZE + 1234).also { SecureRandom().nextBytes(it) }
+    val key = SecretKeySpec(Random.nextBytes(32), "AES")
+
+    assertArrayEquals(data, transferEncrypted(data, key, streams = 1))
+    assertArrayEquals(data, transferEncrypted(data, key, streams = 4))
+  }
+
+  @Ignore("Compares single and multi stream throughput and prints the timings. Run it manually, it moves 64 MiB several times.")
+  @Test
+  fun `loopback throughput with per stream encryption`() {
+    val data = ByteArray(64 * 1024 * 1024).also { SecureRandom().nextBytes(it) }
+    val key = SecretKeySpec(Random.nextBytes(32), "AES")
+
+    // Warm up the cipher and the sockets before timing anything
+    transferEncrypted(data, key, streams = 1)
+    transferEncrypted(data, key, streams = 4)
+
+    val singleDuration = time { assertArrayEquals(data, transferEncrypted(data, key, streams = 1)) }
+    val multiDuration = time { assertArrayEquals(data, transferEncrypted(data, key, streams = 4)) }
+
+    println("Transferred ${data.size} bytes. Single stream: $singleDuration, 4 streams: $multiDuration")
+  }
+
+  private fun time(block: () -> Unit): Duration {
+    val start = System.nanoTime()
+    block()
+    return (System.nanoTime() - start).nanoseconds
+  }
+
+  private fun transfer(data: ByteArray, requestedStreams: Int, connect: (Int) -> Socket): ByteArray {
+    ServerSocket(0, 50, InetAddress.getLoopbackAddress()).use { serverSocket ->
+      val serverSockets = mutableListOf<Socket>()
+      val clientSockets = mutableListOf<Socket>()
+
+      val received = executor.submit(
+        Callable {
+          serverSocket.accept().use { primary ->
+            MultiStreamTransfer.accept(primary, serverSocket, serverSockets).use { it.readBytes() }
+          }
+        }
+      )
+
+      Socket(InetAddress.getLoopbackAddress(), serverSocket.localPort).use { primary ->
+        MultiStreamTransfer.connect(primary, requestedStreams, { connect(serverSocket.localPort) }, clientSockets).use { it.write(data) }
+        val result = received.get()
+
+        assertEquals(clientSockets.size, serverSockets.size)
+        (clientSockets + serverSockets).forEach { it.close() }
+
+        return result
+      }
+    }
+  }
+
+  /**
+   * Sends [data] across [streams] loopback sockets, encrypting and decrypting each one independently the way TLS
+   * would, and returns what arrived.
+   */
+  private fun transferEncrypted(data: ByteArray, key: SecretKeySpec, streams: Int): ByteArray {
+    ServerSocket(0, 50, InetAddress.getLoopbackAddress()).use { serverSocket ->
+      val clientSockets = (0 until streams).map { Socket(InetAddress.getLoopbackAddress(), serverSocket.localPort) }
+      val serverSockets = (0 until streams).map { serverSocket.accept() }
+
+      val outputs: List<OutputStream> = clientSockets.mapIndexed { i, socket -> encrypt(socket.getOutputStream(), key, i) }
+      val inputs: List<InputStream> = serverSockets.mapIndexed { i, socket -> decrypt(socket.getInputStream(), key, i) }
+
+      val received = executor.submit(
+        Callable {
+          if (streams == 1) {
+            ByteArray(data.size).also { DataInputStream(inputs[0]).readFully(it) }
+          } else {
+            StripedInputStream(inputs).use { it.readBytes() }
+          }
+        }
+      )
+
+      if (streams == 1) {
+        outputs[0].write(data)
+        outputs[0].flush()
+      } else {
+        StripedOutputStream(outputs).use { it.write(data) }
+      }
+
+      val result = received.get()
+
+      (clientSockets + serverSockets).forEach { it.close() }
+
+      return result
+    }
+  }
+
+  private fun encrypt(output: OutputStream, key: SecretKeySpec, stream: Int): OutputStream {
+    val cipher = Cipher.getInstance("AES/CTR/NoPadding").apply { init(Cipher.ENCRYPT_MODE, key, IvParameterSpec(iv(stream))) }
+    return BufferedOutputStream(CipherOutputStream(output, cipher), 16 * 1024)
+  }
+
+  private fun decrypt(input: InputStream, key: SecretKeySpec, stream: Int): InputStream {
+    val cipher = Cipher.getInstance("AES/CTR/NoPadding").apply { init(Cipher.DECRYPT_MODE, key, IvParameterSpec(iv(stream))) }
+    return CipherInputStream(BufferedInputStream(input, 16 * 1024), cipher)
+  }
+
+  private fun iv(stream: Int): ByteArray {
+    return ByteArray(16).also { it[0] = stream.toByte() }
+  }
+}
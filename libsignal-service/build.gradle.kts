@@ -92,6 +92,13 @@ dependencies {
   testImplementation(testLibs.assertk)
   testImplementation(testLibs.conscrypt.openjdk.uber)
   testImplementation(testLibs.mockk)
+  testImplementation(testLibs.square.okhttp.mockserver)
+  testImplementation(testLibs.square.okhttp.tls)
+  testImplementation(testLibs.bouncycastle.bcprov.jdk15on) {
+    version {
+      strictly("1.70")
+    }
+  }
 
   testFixturesImplementation(libs.libsignal.client)
   testFixturesImplementation(testLibs.junit.junit)
@@ -117,6 +117,18 @@ public class SignalServiceMessageReceiver {
    */
   public AttachmentDownloadResult retrieveAttachment(SignalServiceAttachmentPointer pointer, File destination, long maxSizeBytes, ProgressListener listener)
       throws IOException, InvalidMessageException, MissingConfigurationException {
+    return retrieveAttachment(pointer, destination, maxSizeBytes, false, listener);
+  }
+
+  /**
+   * Same as {@link #retrieveAttachment(SignalServiceAttachmentPointer, File, long, ProgressListener)}, but optionally verifies the attachment while it's
+   * being decrypted instead of reading it twice.
+   *
+   * @param verifyWhileDecrypting If true, the returned stream is created with {@link AttachmentCipherInputStream#createForAttachmentSinglePass}. The caller
+   *                              must read it to the end and discard everything it read if that fails.
+   */
+  public AttachmentDownloadResult retrieveAttachment(SignalServiceAttachmentPointer pointer, File destination, long maxSizeBytes, boolean verifyWhileDecrypting, ProgressListener listener)
+      throws IOException, InvalidMessageException, MissingConfigurationException {
     if (!pointer.getDigest().isPresent()) throw new InvalidMessageException("No attachment digest!");
 
     socket.retrieveAttachment(pointer.getCdnNumber(), Collections.emptyMap(), pointer.getRemoteId(), destination, maxSizeBytes, listener);
@@ -126,10 +138,10 @@ public class SignalServiceMessageReceiver {
       StreamUtil.readFully(tempStream, iv);
     }
 
-    return new AttachmentDownloadResult(
-        AttachmentCipherInputStream.createForAttachment(destination, pointer.getSize().orElse(0), pointer.getKey(), pointer.getDigest().get(), null, 0),
-        iv
-    );
+    LimitedInputStream dataStream = verifyWhileDecrypting ? AttachmentCipherInputStream.createForAttachmentSinglePass(destination, pointer.getSize().orElse(0), pointer.getKey(), pointer.getDigest().get())
+                                                          : AttachmentCipherInputStream.createForAttachment(destination, pointer.getSize().orElse(0), pointer.getKey(), pointer.getDigest().get(), null, 0);
+
+    return new AttachmentDownloadResult(dataStream, iv);
   }
 
   /**
@@ -140,6 +152,8 @@ public class SignalServiceMessageReceiver {
    * @param archiveDestination The download destination for archived attachment. If this file exists, download will resume.
    * @param pointer The {@link SignalServiceAttachmentPointer} received in a {@link SignalServiceDataMessage}.
    * @param attachmentDestination The download destination for this attachment. If this file exists, it is assumed that this is previously-downloaded content that can be resumed.
+   * @param verifyWhileDecrypting If true and the digest isn't ignored, the attachment is verified in the same pass that decrypts it. See
+   *                              {@link AttachmentCipherInputStream#createForAttachmentSinglePass}.
    * @param listener An optional listener (may be null) to receive callbacks on download progress.
    *
    * @return An InputStream that streams the plaintext attachment contents.
@@ -151,6 +165,7 @@ public class SignalServiceMessageReceiver {
                                                              @Nonnull File attachmentDestination,
                                                              long maxSizeBytes,
                                                              boolean ignoreDigest,
+                                                             boolean verifyWhileDecrypting,
                                                              @Nullable ProgressListener listener)
       throws IOException, InvalidMessageException, MissingConfigurationException
   {
@@ -178,15 +193,26 @@ public class SignalServiceMessageReceiver {
       StreamUtil.readFully(tempStream, iv);
     }
 
-    LimitedInputStream dataStream = AttachmentCipherInputStream.createForAttachment(
-        attachmentDestination,
-        pointer.getSize().orElse(0),
-        pointer.getKey(),
-        ignoreDigest ? null : pointer.getDigest().get(),
-        null,
-        0,
-        ignoreDigest
-    );
+    final LimitedInputStream dataStream;
+
+    if (verifyWhileDecrypting && !ignoreDigest) {
+      dataStream = AttachmentCipherInputStream.createForAttachmentSinglePass(
+          attachmentDestination,
+          pointer.getSize().orElse(0),
+          pointer.getKey(),
+          pointer.getDigest().get()
+      );
+    } else {
+      dataStream = AttachmentCipherInputStream.createForAttachment(
+          attachmentDestination,
+          pointer.getSize().orElse(0),
+          pointer.getKey(),
+          ignoreDigest ? null : pointer.getDigest().get(),
+          null,
+          0,
+          ignoreDigest
+      );
+    }
 
     return new AttachmentDownloadResult(dataStream, iv);
   }
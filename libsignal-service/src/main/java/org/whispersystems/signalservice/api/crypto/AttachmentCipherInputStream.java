@@ -24,7 +24,6 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -48,13 +47,25 @@ public class AttachmentCipherInputStream extends FilterInputStream {
   private static final int BLOCK_SIZE      = 16;
   private static final int CIPHER_KEY_SIZE = 32;
   private static final int MAC_KEY_SIZE    = 32;
+  private static final int BUFFER_SIZE     = 8 * 1024;
 
-  private final Cipher cipher;
-  private final long   totalDataSize;
+  private final Cipher  cipher;
+  private final long    totalDataSize;
+  private final boolean drainOnFinal;
+
+  /**
+   * Reused across reads so that decrypting doesn't allocate. Decrypted bytes that don't fit in the caller's buffer are parked in {@link #plaintextBuffer}
+   * (starting at {@link #overflowOffset}) and handed out before anything else is read.
+   */
+  private final byte[] ciphertextBuffer = new byte[BUFFER_SIZE];
+  private final byte[] plaintextBuffer  = new byte[BUFFER_SIZE + 2 * BLOCK_SIZE];
+  private final byte[] singleByteBuffer = new byte[1];
 
   private boolean done;
   private long    totalRead;
-  private byte[]  overflowBuffer;
+  private int     overflowOffset;
+  private int     overflowLength;
+  private byte[]  skipBuffer;
 
   /**
    * Passing in a null incrementalDigest and/or 0 for the chunk size at the call site disables incremental mac validation.
@@ -123,6 +134,49 @@ public class AttachmentCipherInputStream extends FilterInputStream {
     }
   }
 
+  /**
+   * Decrypts an attachment while verifying its MAC and digest in the same pass, rather than reading the entire file once to verify it and then a second
+   * time to decrypt it. Intended for callers that are going to consume the whole attachment anyway, like when saving a download to disk.
+   *
+   * Nothing has been verified until the stream has been read to the end, so callers MUST treat everything read from it as unverified until then, and
+   * discard it if reading fails. The final cipher block is withheld until the MAC and digest have been checked, and an {@link InvalidMessageException} is
+   * thrown from the read that would have returned it if either doesn't match.
+   *
+   * Streaming consumers that need verified data as they go should keep using {@link #createForAttachment} with an incremental digest.
+   */
+  public static LimitedInputStream createForAttachmentSinglePass(File file, long plaintextLength, byte[] combinedKeyMaterial, byte[] digest)
+      throws InvalidMessageException, IOException
+  {
+    return createForAttachmentSinglePass(() -> new FileInputStream(file), file.length(), plaintextLength, combinedKeyMaterial, digest);
+  }
+
+  /**
+   * See {@link #createForAttachmentSinglePass(File, long, byte[], byte[])}.
+   */
+  public static LimitedInputStream createForAttachmentSinglePass(StreamSupplier streamSupplier, long streamLength, long plaintextLength, byte[] combinedKeyMaterial, byte[] digest)
+      throws InvalidMessageException, IOException
+  {
+    byte[][] parts = Util.split(combinedKeyMaterial, CIPHER_KEY_SIZE, MAC_KEY_SIZE);
+    Mac      mac   = initMac(parts[1]);
+
+    if (streamLength <= BLOCK_SIZE + mac.getMacLength()) {
+      throw new InvalidMessageException("Message shorter than crypto overhead! length: " + streamLength);
+    }
+
+    if (digest == null) {
+      throw new InvalidMessageException("Missing digest!");
+    }
+
+    InputStream wrappedStream = new IncrementalMacAdditionalValidationsInputStream(streamSupplier.openStream(), streamLength, mac, digest);
+    InputStream inputStream   = new AttachmentCipherInputStream(wrappedStream, parts[0], streamLength - BLOCK_SIZE - mac.getMacLength(), true);
+
+    if (plaintextLength != 0) {
+      return new LimitedInputStream(inputStream, plaintextLength);
+    } else {
+      return LimitedInputStream.withoutLimits(inputStream);
+    }
+  }
+
   /**
    * Decrypt archived media to it's original attachment encrypted blob.
    */
@@ -206,6 +260,16 @@ public class AttachmentCipherInputStream extends FilterInputStream {
 
   private AttachmentCipherInputStream(InputStream inputStream, byte[] aesKey, long totalDataSize)
       throws IOException
+  {
+    this(inputStream, aesKey, totalDataSize, false);
+  }
+
+  /**
+   * @param drainOnFinal If true, the wrapped stream is read to the end before the final block is decrypted. This lets a validating stream underneath us
+   *                     check the trailing MAC before the last of the plaintext is handed out.
+   */
+  private AttachmentCipherInputStream(InputStream inputStream, byte[] aesKey, long totalDataSize, boolean drainOnFinal)
+      throws IOException
   {
     super(inputStream);
 
@@ -219,6 +283,7 @@ public class AttachmentCipherInputStream extends FilterInputStream {
       this.done          = false;
       this.totalRead     = 0;
       this.totalDataSize = totalDataSize;
+      this.drainOnFinal  = drainOnFinal;
     } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException | InvalidAlgorithmParameterException e) {
       throw new AssertionError(e);
     }
@@ -226,13 +291,12 @@ public class AttachmentCipherInputStream extends FilterInputStream {
 
   @Override
   public int read() throws IOException {
-    byte[] buffer = new byte[1];
-    int    read;
+    int read;
 
     //noinspection StatementWithEmptyBody
-    while ((read = read(buffer)) == 0) ;
+    while ((read = read(singleByteBuffer, 0, 1)) == 0) ;
 
-    return (read == -1) ? -1 : ((int) buffer[0]) & 0xFF;
+    return (read == -1) ? -1 : ((int) singleByteBuffer[0]) & 0xFF;
   }
 
   @Override
@@ -242,7 +306,9 @@ public class AttachmentCipherInputStream extends FilterInputStream {
 
   @Override
   public int read(@Nonnull byte[] buffer, int offset, int length) throws IOException {
-    if (totalRead != totalDataSize) {
+    if (overflowLength > 0) {
+      return readOverflow(buffer, offset, length);
+    } else if (totalRead != totalDataSize) {
       return readIncremental(buffer, offset, length);
     } else if (!done) {
       return readFinal(buffer, offset, length);
@@ -258,10 +324,17 @@ public class AttachmentCipherInputStream extends FilterInputStream {
 
   @Override
   public long skip(long byteCount) throws IOException {
+    if (skipBuffer == null) {
+      skipBuffer = new byte[4096];
+    }
+
     long skipped = 0L;
     while (skipped < byteCount) {
-      byte[] buf  = new byte[Math.min(4096, (int) (byteCount - skipped))];
-      int    read = read(buf);
+      int read = read(skipBuffer, 0, (int) Math.min(skipBuffer.length, byteCount - skipped));
+
+      if (read == -1) {
+        break;
+      }
 
       skipped += read;
     }
@@ -269,70 +342,75 @@ public class AttachmentCipherInputStream extends FilterInputStream {
     return skipped;
   }
 
+  private int readOverflow(byte[] buffer, int offset, int length) {
+    int copyLength = Math.min(length, overflowLength);
+    System.arraycopy(plaintextBuffer, overflowOffset, buffer, offset, copyLength);
+
+    overflowOffset += copyLength;
+    overflowLength -= copyLength;
+
+    return copyLength;
+  }
+
   private int readFinal(byte[] buffer, int offset, int length) throws IOException {
-    try {
-      byte[] internal     = new byte[buffer.length];
-      int    actualLength = Math.min(length, cipher.doFinal(internal, 0));
-      System.arraycopy(internal, 0, buffer, offset, actualLength);
+    if (drainOnFinal) {
+      drainWrappedStream();
+    }
 
+    try {
+      int outputLength = cipher.doFinal(plaintextBuffer, 0);
       done = true;
-      return actualLength;
+
+      return copyOutput(outputLength, buffer, offset, length);
     } catch (IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
       throw new IOException(e);
     }
   }
 
   private int readIncremental(byte[] buffer, int offset, int length) throws IOException {
-    int readLength = 0;
-    if (null != overflowBuffer) {
-      if (overflowBuffer.length > length) {
-        System.arraycopy(overflowBuffer, 0, buffer, offset, length);
-        overflowBuffer = Arrays.copyOfRange(overflowBuffer, length, overflowBuffer.length);
-        return length;
-      } else if (overflowBuffer.length == length) {
-        System.arraycopy(overflowBuffer, 0, buffer, offset, length);
-        overflowBuffer = null;
-        return length;
-      } else {
-        System.arraycopy(overflowBuffer, 0, buffer, offset, overflowBuffer.length);
-        readLength += overflowBuffer.length;
-        offset += readLength;
-        length -= readLength;
-        overflowBuffer = null;
-      }
-    }
-
     if (length + totalRead > totalDataSize)
       length = (int) (totalDataSize - totalRead);
 
-    byte[] internalBuffer = new byte[length];
-    int    read           = super.read(internalBuffer, 0, internalBuffer.length <= cipher.getBlockSize() ? internalBuffer.length : internalBuffer.length - cipher.getBlockSize());
+    int readLength = Math.min(ciphertextBuffer.length, length <= cipher.getBlockSize() ? length : length - cipher.getBlockSize());
+    int read       = super.read(ciphertextBuffer, 0, readLength);
+
+    if (read == -1) {
+      throw new IOException("Unexpected end of stream! Read " + totalRead + " of " + totalDataSize + " bytes.");
+    }
+
     totalRead += read;
 
     try {
-      int outputLen = cipher.getOutputSize(read);
-
-      if (outputLen <= length) {
-        readLength += cipher.update(internalBuffer, 0, read, buffer, offset);
-        return readLength;
+      if (cipher.getOutputSize(read) <= length) {
+        return cipher.update(ciphertextBuffer, 0, read, buffer, offset);
       }
 
-      byte[] transientBuffer = new byte[outputLen];
-      outputLen = cipher.update(internalBuffer, 0, read, transientBuffer, 0);
-      if (outputLen <= length) {
-        System.arraycopy(transientBuffer, 0, buffer, offset, outputLen);
-        readLength += outputLen;
-      } else {
-        System.arraycopy(transientBuffer, 0, buffer, offset, length);
-        overflowBuffer = Arrays.copyOfRange(transientBuffer, length, outputLen);
-        readLength += length;
-      }
-      return readLength;
+      int outputLength = cipher.update(ciphertextBuffer, 0, read, plaintextBuffer, 0);
+      return copyOutput(outputLength, buffer, offset, length);
     } catch (ShortBufferException e) {
       throw new AssertionError(e);
     }
   }
 
+  /**
+   * Copies as much of the first outputLength bytes of {@link #plaintextBuffer} as will fit into the caller's buffer, and leaves the rest to be served
+   * by the next read.
+   */
+  private int copyOutput(int outputLength, byte[] buffer, int offset, int length) {
+    int copyLength = Math.min(length, outputLength);
+    System.arraycopy(plaintextBuffer, 0, buffer, offset, copyLength);
+
+    overflowOffset = copyLength;
+    overflowLength = outputLength - copyLength;
+
+    return copyLength;
+  }
+
+  private void drainWrappedStream() throws IOException {
+    //noinspection StatementWithEmptyBody
+    while (super.read(ciphertextBuffer, 0, ciphertextBuffer.length) != -1) ;
+  }
+
   private static Mac initMac(byte[] key) {
     try {
       Mac mac = Mac.getInstance("HmacSHA256");
@@ -19,14 +19,20 @@ import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 public class AttachmentCipherOutputStream extends DigestingOutputStream {
 
+  private static final int BUFFER_SIZE = 8 * 1024;
+
   private final Cipher cipher;
   private final Mac    mac;
 
+  /** Reused across writes so that encrypting doesn't allocate. Large writes are encrypted in chunks that fit. */
+  private final byte[] ciphertextBuffer = new byte[BUFFER_SIZE + 16];
+
   public AttachmentCipherOutputStream(byte[] combinedKeyMaterial,
                                       byte[] iv,
                                       OutputStream outputStream)
@@ -60,11 +66,21 @@ public class AttachmentCipherOutputStream extends DigestingOutputStream {
 
   @Override
   public void write(byte[] buffer, int offset, int length) throws IOException {
-    byte[] ciphertext = cipher.update(buffer, offset, length);
+    try {
+      while (length > 0) {
+        int chunkLength      = Math.min(length, BUFFER_SIZE);
+        int ciphertextLength = cipher.update(buffer, offset, chunkLength, ciphertextBuffer, 0);
+
+        if (ciphertextLength > 0) {
+          mac.update(ciphertextBuffer, 0, ciphertextLength);
+          super.write(ciphertextBuffer, 0, ciphertextLength);
+        }
 
-    if (ciphertext != null) {
-      mac.update(ciphertext);
-      super.write(ciphertext);
+        offset += chunkLength;
+        length -= chunkLength;
+      }
+    } catch (ShortBufferException e) {
+      throw new AssertionError(e);
     }
   }
 
@@ -76,14 +92,16 @@ public class AttachmentCipherOutputStream extends DigestingOutputStream {
   @Override
   public void flush() throws IOException {
     try {
-      byte[] ciphertext = cipher.doFinal();
-      byte[] auth       = mac.doFinal(ciphertext);
+      int ciphertextLength = cipher.doFinal(ciphertextBuffer, 0);
+      mac.update(ciphertextBuffer, 0, ciphertextLength);
+
+      byte[] auth = mac.doFinal();
 
-      super.write(ciphertext);
+      super.write(ciphertextBuffer, 0, ciphertextLength);
       super.write(auth);
 
       super.flush();
-    } catch (IllegalBlockSizeException | BadPaddingException e) {
+    } catch (IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
       throw new AssertionError(e);
     }
   }
@@ -18,6 +18,9 @@ import kotlin.math.max
  * That class does not validate the overall digest, nor the overall MAC. This class does that for us.
  *
  * To use, wrap the IncremtalMacInputStream around this class, and then this class should wrap the lowest-level data stream.
+ *
+ * It can also be used on its own (without the incremental MAC) to verify an attachment in the same pass that decrypts it.
+ * See [AttachmentCipherInputStream.createForAttachmentSinglePass].
  */
 class IncrementalMacAdditionalValidationsInputStream(
   wrapped: InputStream,
@@ -7,4 +7,9 @@ interface HealthMonitor {
   fun onKeepAliveResponse(sentTimestamp: Long, isIdentifiedWebSocket: Boolean)
 
   fun onMessageError(status: Int, isIdentifiedWebSocket: Boolean)
+
+  /**
+   * Called for anything received over the socket, which is as good a sign that it's still alive as a keep alive response.
+   */
+  fun onMessageReceived(isIdentifiedWebSocket: Boolean) = Unit
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.internal.push;
+
+import org.whispersystems.signalservice.api.util.Tls12SocketFactory;
+import org.whispersystems.signalservice.internal.configuration.SignalUrl;
+import org.whispersystems.signalservice.internal.util.BlacklistingTrustManager;
+import org.whispersystems.signalservice.internal.util.Util;
+
+import java.net.ProxySelector;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.ConnectionPool;
+import okhttp3.ConnectionSpec;
+import okhttp3.Dispatcher;
+import okhttp3.Dns;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+
+/**
+ * Builds the {@link OkHttpClient}s that {@link PushServiceSocket} talks to the service, CDNs and storage with.
+ *
+ * All of them share one {@link Dispatcher}. Connection pools are shared too, except that unidentified (sealed sender) requests get a pool of
+ * their own, so that they're never sent down a connection that has also carried our credentials. Timeouts are applied here, once, rather
+ * than deriving a new client for every request.
+ */
+final class ConnectionClientFactory {
+
+  private static final int  MAX_IDLE_CONNECTIONS      = 10;
+  private static final long CONNECTION_KEEP_ALIVE_SEC = 45;
+
+  private final List<Interceptor> interceptors;
+  private final SocketFactory     socketFactory;
+  private final ProxySelector     proxySelector;
+  private final Dns               dns;
+  private final long              timeoutMillis;
+  private final boolean           retryOnConnectionFailure;
+
+  private final Dispatcher     dispatcher       = new Dispatcher();
+  private final ConnectionPool identifiedPool   = new ConnectionPool(MAX_IDLE_CONNECTIONS, CONNECTION_KEEP_ALIVE_SEC, TimeUnit.SECONDS);
+  private final ConnectionPool unidentifiedPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, CONNECTION_KEEP_ALIVE_SEC, TimeUnit.SECONDS);
+
+  ConnectionClientFactory(List<Interceptor> interceptors,
+                          SocketFactory socketFactory,
+                          ProxySelector proxySelector,
+                          Dns dns,
+                          long timeoutMillis,
+                          boolean retryOnConnectionFailure)
+  {
+    this.interceptors             = interceptors;
+    this.socketFactory            = socketFactory;
+    this.proxySelector            = proxySelector;
+    this.dns                      = dns;
+    this.timeoutMillis            = timeoutMillis;
+    this.retryOnConnectionFailure = retryOnConnectionFailure;
+  }
+
+  /**
+   * For requests to the service that may carry our credentials.
+   */
+  OkHttpClient createServiceClient(SignalUrl url) {
+    return createClient(url, identifiedPool).retryOnConnectionFailure(retryOnConnectionFailure).build();
+  }
+
+  /**
+   * For sealed sender requests to the service, which must never share a connection with {@link #createServiceClient(SignalUrl)}.
+   */
+  OkHttpClient createUnidentifiedServiceClient(SignalUrl url) {
+    return createClient(url, unidentifiedPool).retryOnConnectionFailure(retryOnConnectionFailure).build();
+  }
+
+  /**
+   * For everything that isn't the service itself: CDNs and storage.
+   */
+  OkHttpClient createClient(SignalUrl url) {
+    return createClient(url, identifiedPool).build();
+  }
+
+  private OkHttpClient.Builder createClient(SignalUrl url, ConnectionPool connectionPool) {
+    OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                                                   .socketFactory(socketFactory)
+                                                   .proxySelector(proxySelector)
+                                                   .dns(dns)
+                                                   .dispatcher(dispatcher)
+                                                   .connectionPool(connectionPool)
+                                                   .connectTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                                                   .readTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+
+    try {
+      TrustManager[] trustManagers = BlacklistingTrustManager.createFor(url.getTrustStore());
+
+      SSLContext context = SSLContext.getInstance("TLS");
+      context.init(null, trustManagers, null);
+
+      builder.sslSocketFactory(new Tls12SocketFactory(context.getSocketFactory()), (X509TrustManager) trustManagers[0])
+             .connectionSpecs(url.getConnectionSpecs().orElse(Util.immutableList(ConnectionSpec.RESTRICTED_TLS)));
+    } catch (NoSuchAlgorithmException | KeyManagementException e) {
+      throw new AssertionError(e);
+    }
+
+    for (Interceptor interceptor : interceptors) {
+      builder.addInterceptor(interceptor);
+    }
+
+    return builder;
+  }
+}
@@ -66,7 +66,6 @@ import org.whispersystems.signalservice.api.push.exceptions.UnregisteredUserExce
 import org.whispersystems.signalservice.api.registration.RestoreMethodBody;
 import org.whispersystems.signalservice.api.svr.Svr3Credentials;
 import org.whispersystems.signalservice.api.util.CredentialsProvider;
-import org.whispersystems.signalservice.api.util.Tls12SocketFactory;
 import org.whispersystems.signalservice.internal.configuration.SignalCdnUrl;
 import org.whispersystems.signalservice.internal.configuration.SignalServiceConfiguration;
 import org.whispersystems.signalservice.internal.configuration.SignalUrl;
@@ -85,14 +84,16 @@ import org.whispersystems.signalservice.internal.push.exceptions.NotInGroupExcep
 import org.whispersystems.signalservice.internal.push.exceptions.StaleDevicesException;
 import org.whispersystems.signalservice.internal.push.http.CancelationSignal;
 import org.whispersystems.signalservice.internal.push.http.DigestingRequestBody;
+import org.whispersystems.signalservice.internal.push.http.EncryptingUploadPipeline;
 import org.whispersystems.signalservice.internal.push.http.NoCipherOutputStreamFactory;
 import org.whispersystems.signalservice.internal.push.http.OutputStreamFactory;
+import org.whispersystems.signalservice.internal.push.http.ResumableUploadBody;
 import org.whispersystems.signalservice.internal.push.http.ResumableUploadSpec;
+import org.whispersystems.signalservice.internal.push.http.StreamingUploadBody;
 import org.whispersystems.signalservice.internal.storage.protos.ReadOperation;
 import org.whispersystems.signalservice.internal.storage.protos.StorageItems;
 import org.whispersystems.signalservice.internal.storage.protos.StorageManifest;
 import org.whispersystems.signalservice.internal.storage.protos.WriteOperation;
-import org.whispersystems.signalservice.internal.util.BlacklistingTrustManager;
 import org.whispersystems.signalservice.internal.util.Hex;
 import org.whispersystems.signalservice.internal.util.JsonUtil;
 import org.whispersystems.signalservice.internal.util.Util;
@@ -105,11 +106,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.ProxySelector;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
@@ -128,17 +126,9 @@ import java.util.function.Function;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.net.SocketFactory;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
 
 import okhttp3.Call;
-import okhttp3.ConnectionPool;
-import okhttp3.ConnectionSpec;
-import okhttp3.Dns;
 import okhttp3.HttpUrl;
-import okhttp3.Interceptor;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
@@ -195,8 +185,12 @@ public class PushServiceSocket {
 
   private static final int MAX_FOLLOW_UPS = 20;
 
-  private       long      soTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
-  private final Set<Call> connections     = new HashSet<>();
+  private static final int DEFAULT_CDN_DOWNLOAD_SEGMENTS = 4;
+  private static final int MAX_UPLOAD_ATTEMPTS           = 3;
+
+  private final    long      soTimeoutMillis         = TimeUnit.SECONDS.toMillis(30);
+  private final    Set<Call> connections             = new HashSet<>();
+  private volatile int       cdnDownloadSegmentCount = DEFAULT_CDN_DOWNLOAD_SEGMENTS;
 
   private final ServiceConnectionHolder[]        serviceClients;
   private final Map<Integer, ConnectionHolder[]> cdnClientsMap;
@@ -217,9 +211,12 @@ public class PushServiceSocket {
     this.credentialsProvider       = credentialsProvider;
     this.signalAgent               = signalAgent;
     this.automaticNetworkRetry     = automaticNetworkRetry;
-    this.serviceClients            = createServiceConnectionHolders(configuration.getSignalServiceUrls(), configuration.getNetworkInterceptors(), configuration.getSocketFactory(), configuration.getProxySelector(), configuration.getDns());
-    this.cdnClientsMap             = createCdnClientsMap(configuration.getSignalCdnUrlMap(), configuration.getNetworkInterceptors(), configuration.getSocketFactory(), configuration.getProxySelector(), configuration.getDns());
-    this.storageClients            = createConnectionHolders(configuration.getSignalStorageUrls(), configuration.getNetworkInterceptors(), configuration.getSocketFactory(), configuration.getProxySelector(), configuration.getDns());
+
+    ConnectionClientFactory clientFactory = new ConnectionClientFactory(configuration.getNetworkInterceptors(), configuration.getSocketFactory(), configuration.getProxySelector(), configuration.getDns(), soTimeoutMillis, automaticNetworkRetry);
+
+    this.serviceClients            = createServiceConnectionHolders(configuration.getSignalServiceUrls(), clientFactory);
+    this.cdnClientsMap             = createCdnClientsMap(configuration.getSignalCdnUrlMap(), clientFactory);
+    this.storageClients            = createConnectionHolders(configuration.getSignalStorageUrls(), clientFactory);
     this.random                    = new SecureRandom();
   }
 
@@ -227,6 +224,13 @@ public class PushServiceSocket {
     return configuration;
   }
 
+  /**
+   * Sets how many ranged connections are used at once when downloading attachments and backups from the CDN. 1 disables segmented downloads.
+   */
+  public void setCdnDownloadSegmentCount(int segmentCount) {
+    this.cdnDownloadSegmentCount = Math.max(1, segmentCount);
+  }
+
   public CredentialsProvider getCredentialsProvider() {
     return credentialsProvider;
   }
@@ -461,7 +465,7 @@ public class PushServiceSocket {
   public void retrieveBackup(int cdnNumber, Map<String, String> headers, String cdnPath, File destination, long maxSizeBytes, ProgressListener listener)
       throws MissingConfigurationException, IOException
   {
-    downloadFromCdn(destination, cdnNumber, headers, cdnPath, maxSizeBytes, listener);
+    downloadFromCdnInSegments(destination, cdnNumber, headers, cdnPath, maxSizeBytes, listener);
   }
 
   public void retrieveAttachment(int cdnNumber, Map<String, String> headers, SignalServiceAttachmentRemoteId remoteId, File destination, long maxSizeBytes, ProgressListener listener)
@@ -480,7 +484,13 @@ public class PushServiceSocket {
     } else {
       throw new IllegalArgumentException("Invalid cdnPath type: " + remoteId.getClass().getSimpleName());
     }
-    downloadFromCdn(destination, cdnNumber, headers, path, maxSizeBytes, listener);
+
+    // Transit attachments may be played back while they download by tailing the destination file, which needs the file to only ever grow in order.
+    if (remoteId instanceof SignalServiceAttachmentRemoteId.Backup) {
+      downloadFromCdnInSegments(destination, cdnNumber, headers, path, maxSizeBytes, listener);
+    } else {
+      downloadFromCdn(destination, cdnNumber, headers, path, maxSizeBytes, listener);
+    }
   }
 
   public byte[] retrieveSticker(byte[] packId, int stickerId)
@@ -611,30 +621,36 @@ public class PushServiceSocket {
   }
 
   public AttachmentDigest uploadAttachment(PushAttachmentData attachment) throws IOException {
+    ResumableUploadSpec uploadSpec = attachment.getResumableUploadSpec();
 
-    if (attachment.getResumableUploadSpec().getExpirationTimestamp() < System.currentTimeMillis()) {
+    if (uploadSpec.getExpirationTimestamp() < System.currentTimeMillis()) {
       throw new ResumeLocationInvalidException();
     }
 
-    if (attachment.getResumableUploadSpec().getCdnNumber() == 2) {
-      return uploadToCdn2(attachment.getResumableUploadSpec().getResumeLocation(),
-                          attachment.getData(),
-                          "application/octet-stream",
-                          attachment.getDataSize(),
-                          attachment.getIncremental(),
-                          attachment.getOutputStreamFactory(),
-                          attachment.getListener(),
-                          attachment.getCancelationSignal());
-    } else {
-      return uploadToCdn3(attachment.getResumableUploadSpec().getResumeLocation(),
-                          attachment.getData(),
-                          "application/offset+octet-stream",
-                          attachment.getDataSize(),
-                          attachment.getIncremental(),
-                          attachment.getOutputStreamFactory(),
-                          attachment.getListener(),
-                          attachment.getCancelationSignal(),
-                          attachment.getResumableUploadSpec().getHeaders());
+    String contentType = uploadSpec.getCdnNumber() == 2 ? "application/octet-stream" : "application/offset+octet-stream";
+
+    try (EncryptingUploadPipeline pipeline = EncryptingUploadPipeline.start(attachment.getData(),
+                                                                           attachment.getOutputStreamFactory(),
+                                                                           contentType,
+                                                                           attachment.getDataSize(),
+                                                                           attachment.getIncremental(),
+                                                                           attachment.getListener(),
+                                                                           attachment.getCancelationSignal()))
+    {
+      for (int attempt = 1; ; attempt++) {
+        try {
+          if (uploadSpec.getCdnNumber() == 2) {
+            return uploadToCdn2(uploadSpec.getResumeLocation(), attachment.getDataSize(), pipeline);
+          } else {
+            return uploadToCdn3(uploadSpec.getResumeLocation(), attachment.getDataSize(), pipeline, uploadSpec.getHeaders());
+          }
+        } catch (PushNetworkException e) {
+          if (attempt >= MAX_UPLOAD_ATTEMPTS || !pipeline.canResume()) {
+            throw e;
+          }
+          Log.w(TAG, "Upload interrupted, resuming from the last acknowledged offset. Attempt " + attempt, e);
+        }
+      }
     }
   }
 
@@ -646,6 +662,30 @@ public class PushServiceSocket {
     }
   }
 
+  /**
+   * Like {@link #downloadFromCdn(File, int, Map, String, long, ProgressListener)}, but large objects are fetched over several ranged connections at once.
+   * See {@link SegmentedCdnDownload}.
+   */
+  private void downloadFromCdnInSegments(File destination, int cdnNumber, Map<String, String> headers, String path, long maxSizeBytes, ProgressListener listener)
+      throws PushNetworkException, NonSuccessfulResponseCodeException, MissingConfigurationException
+  {
+    ConnectionHolder[] cdnNumberClients = cdnClientsMap.get(cdnNumber);
+    if (cdnNumberClients == null) {
+      throw new MissingConfigurationException("Attempted to download from unsupported CDN number: " + cdnNumber + ", Our configuration supports: " + cdnClientsMap.keySet());
+    }
+    ConnectionHolder   connectionHolder = getRandom(cdnNumberClients, random);
+    OkHttpClient       okHttpClient     = connectionHolder.getClient();
+
+    Map<String, String> requestHeaders = new HashMap<>(headers);
+
+    if (connectionHolder.getHostHeader().isPresent()) {
+      requestHeaders.put("Host", connectionHolder.getHostHeader().get());
+    }
+
+    new SegmentedCdnDownload(okHttpClient, connectionHolder.getUrl() + "/" + path, requestHeaders, cdnDownloadSegmentCount, soTimeoutMillis, connections)
+        .download(destination, maxSizeBytes, listener);
+  }
+
   private void downloadFromCdn(OutputStream outputStream, long offset, int cdnNumber, Map<String, String> headers, String path, long maxSizeBytes, ProgressListener listener)
       throws PushNetworkException, NonSuccessfulResponseCodeException, MissingConfigurationException {
     ConnectionHolder[] cdnNumberClients = cdnClientsMap.get(cdnNumber);
@@ -653,11 +693,7 @@ public class PushServiceSocket {
       throw new MissingConfigurationException("Attempted to download from unsupported CDN number: " + cdnNumber + ", Our configuration supports: " + cdnClientsMap.keySet());
     }
     ConnectionHolder   connectionHolder = getRandom(cdnNumberClients, random);
-    OkHttpClient       okHttpClient     = connectionHolder.getClient()
-                                                          .newBuilder()
-                                                          .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .build();
+    OkHttpClient       okHttpClient     = connectionHolder.getClient();
 
     Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + "/" + path).get();
 
@@ -728,11 +764,7 @@ public class PushServiceSocket {
       throw new MissingConfigurationException("Attempted to download from unsupported CDN number: " + cdnNumber + ", Our configuration supports: " + cdnClientsMap.keySet());
     }
     ConnectionHolder   connectionHolder = getRandom(cdnNumberClients, random);
-    OkHttpClient       okHttpClient     = connectionHolder.getClient()
-                                                          .newBuilder()
-                                                          .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .build();
+    OkHttpClient       okHttpClient     = connectionHolder.getClient();
 
     Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + "/" + path).get();
 
@@ -779,11 +811,7 @@ public class PushServiceSocket {
       throws PushNetworkException, NonSuccessfulResponseCodeException
   {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(0), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient();
 
     DigestingRequestBody file = new DigestingRequestBody(data, outputStreamFactory, contentType, length, incremental, progressListener, cancelationSignal, 0);
 
@@ -830,11 +858,7 @@ public class PushServiceSocket {
 
   public String getResumableUploadUrl(AttachmentUploadForm uploadForm) throws IOException {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(uploadForm.cdn), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient();
 
     Request.Builder request = new Request.Builder().url(buildConfiguredUrl(connectionHolder, uploadForm.signedUploadLocation))
                                                    .post(RequestBody.create(null, ""));
@@ -883,27 +907,19 @@ public class PushServiceSocket {
     }
   }
 
-  private AttachmentDigest uploadToCdn2(String resumableUrl, InputStream data, String contentType, long length, boolean incremental, OutputStreamFactory outputStreamFactory, ProgressListener progressListener, CancelationSignal cancelationSignal) throws IOException {
+  private AttachmentDigest uploadToCdn2(String resumableUrl, long length, ResumableUploadBody body) throws IOException {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(2), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient();
 
-    ResumeInfo           resumeInfo = getResumeInfoCdn2(resumableUrl, length);
-    DigestingRequestBody file       = new DigestingRequestBody(data, outputStreamFactory, contentType, length, incremental, progressListener, cancelationSignal, resumeInfo.contentStart);
+    ResumeInfo resumeInfo = getResumeInfoCdn2(resumableUrl, length);
 
     if (resumeInfo.contentStart == length) {
       Log.w(TAG, "Resume start point == content length");
-      try (NowhereBufferedSink buffer = new NowhereBufferedSink()) {
-        file.writeTo(buffer);
-      }
-      return file.getAttachmentDigest();
+      return body.getAttachmentDigest();
     }
 
     Request.Builder request = new Request.Builder().url(buildConfiguredUrl(connectionHolder, resumableUrl))
-                                                   .put(file)
+                                                   .put(body.createRequestBody(resumeInfo.contentStart))
                                                    .addHeader("Content-Range", resumeInfo.contentRange);
 
     if (connectionHolder.getHostHeader().isPresent()) {
@@ -917,7 +933,7 @@ public class PushServiceSocket {
     }
 
     try (Response response = call.execute()) {
-      if (response.isSuccessful()) return file.getAttachmentDigest();
+      if (response.isSuccessful()) return body.getAttachmentDigest();
       else                         throw new NonSuccessfulResponseCodeException(response.code(), "Response: " + response);
     } catch (PushNetworkException | NonSuccessfulResponseCodeException e) {
       throw e;
@@ -939,45 +955,32 @@ public class PushServiceSocket {
 
   public void uploadBackupFile(AttachmentUploadForm uploadForm, String resumableUploadUrl, InputStream data, long dataLength, ProgressListener progressListener) throws IOException {
     if (uploadForm.cdn == 2) {
-      uploadToCdn2(resumableUploadUrl, data, "application/octet-stream", dataLength, false, new NoCipherOutputStreamFactory(), progressListener, null);
+      uploadToCdn2(resumableUploadUrl, dataLength, new StreamingUploadBody(data, new NoCipherOutputStreamFactory(), "application/octet-stream", dataLength, false, progressListener, null));
     } else {
-      uploadToCdn3(resumableUploadUrl, data, "application/octet-stream", dataLength, false, new NoCipherOutputStreamFactory(), progressListener, null, uploadForm.headers);
+      uploadToCdn3(resumableUploadUrl, dataLength, new StreamingUploadBody(data, new NoCipherOutputStreamFactory(), "application/octet-stream", dataLength, false, progressListener, null), uploadForm.headers);
     }
   }
 
   private AttachmentDigest uploadToCdn3(String resumableUrl,
-                                        InputStream data,
-                                        String contentType,
                                         long length,
-                                        boolean incremental,
-                                        OutputStreamFactory outputStreamFactory,
-                                        ProgressListener progressListener,
-                                        CancelationSignal cancelationSignal,
+                                        ResumableUploadBody body,
                                         Map<String, String> headers)
       throws IOException
   {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(3), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient();
 
-    ResumeInfo           resumeInfo = getResumeInfoCdn3(resumableUrl, headers);
-    DigestingRequestBody file       = new DigestingRequestBody(data, outputStreamFactory, contentType, length, incremental, progressListener, cancelationSignal, resumeInfo.contentStart);
+    ResumeInfo resumeInfo = getResumeInfoCdn3(resumableUrl, headers);
 
     if (resumeInfo.contentStart == length) {
       Log.w(TAG, "Resume start point == content length");
-      try (NowhereBufferedSink buffer = new NowhereBufferedSink()) {
-        file.writeTo(buffer);
-      }
-      return file.getAttachmentDigest();
+      return body.getAttachmentDigest();
     } else if (resumeInfo.contentStart != 0) {
       Log.w(TAG, "Resuming previous attachment upload");
     }
 
     Request.Builder request = new Request.Builder().url(buildConfiguredUrl(connectionHolder, resumableUrl))
-                                                   .patch(file)
+                                                   .patch(body.createRequestBody(resumeInfo.contentStart))
                                                    .addHeader("Upload-Offset", String.valueOf(resumeInfo.contentStart))
                                                    .addHeader("Upload-Length", String.valueOf(length))
                                                    .addHeader("Tus-Resumable", "1.0.0");
@@ -998,7 +1001,7 @@ public class PushServiceSocket {
 
     try (Response response = call.execute()) {
       if (response.isSuccessful()) {
-        return file.getAttachmentDigest();
+        return body.getAttachmentDigest();
       } else {
         throw new NonSuccessfulResponseCodeException(response.code(), "Response: " + response);
       }
@@ -1018,11 +1021,7 @@ public class PushServiceSocket {
 
   private ResumeInfo getResumeInfoCdn2(String resumableUrl, long contentLength) throws IOException {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(2), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient();
 
     final long   offset;
     final String contentRange;
@@ -1075,11 +1074,7 @@ public class PushServiceSocket {
 
   private ResumeInfo getResumeInfoCdn3(String resumableUrl, Map<String, String> headers) throws IOException {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(3), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient();
 
     final long   offset;
 
@@ -1274,13 +1269,8 @@ public class PushServiceSocket {
 
   private OkHttpClient buildOkHttpClient(boolean unidentified) {
     ServiceConnectionHolder connectionHolder = (ServiceConnectionHolder) getRandom(serviceClients, random);
-    OkHttpClient            baseClient       = unidentified ? connectionHolder.getUnidentifiedClient() : connectionHolder.getClient();
 
-    return baseClient.newBuilder()
-                     .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                     .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                     .retryOnConnectionFailure(automaticNetworkRetry)
-                     .build();
+    return unidentified ? connectionHolder.getUnidentifiedClient() : connectionHolder.getClient();
   }
 
   private Request buildServiceRequest(String urlFragment,
@@ -1329,11 +1319,7 @@ public class PushServiceSocket {
       throws PushNetworkException, NonSuccessfulResponseCodeException
   {
     ConnectionHolder connectionHolder = getRandom(storageClients, random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient();
 
     Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + path);
     request.method(method, body);
@@ -1401,12 +1387,7 @@ public class PushServiceSocket {
 
   public CallingResponse makeCallingRequest(long requestId, String url, String httpMethod, List<Pair<String, String>> headers, byte[] body) {
     ConnectionHolder connectionHolder = getRandom(serviceClients, random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .followRedirects(false)
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = ((ServiceConnectionHolder) connectionHolder).getCallingClient();
 
     RequestBody     requestBody = body != null ? RequestBody.create(null, body) : null;
     Request.Builder builder     = new Request.Builder()
@@ -1449,33 +1430,24 @@ public class PushServiceSocket {
     return new CallingResponse.Error(requestId, new IOException("Redirect limit exceeded"));
   }
 
-  private ServiceConnectionHolder[] createServiceConnectionHolders(SignalUrl[] urls,
-                                                                   List<Interceptor> interceptors,
-                                                                   SocketFactory socketFactory,
-                                                                   ProxySelector proxySelector,
-                                                                   Dns dns)
-  {
+  private static ServiceConnectionHolder[] createServiceConnectionHolders(SignalUrl[] urls, ConnectionClientFactory clientFactory) {
     List<ServiceConnectionHolder> serviceConnectionHolders = new LinkedList<>();
 
     for (SignalUrl url : urls) {
-      serviceConnectionHolders.add(new ServiceConnectionHolder(createConnectionClient(url, interceptors, socketFactory, proxySelector, dns),
-                                                               createConnectionClient(url, interceptors, socketFactory, proxySelector, dns),
+      serviceConnectionHolders.add(new ServiceConnectionHolder(clientFactory.createServiceClient(url),
+                                                               clientFactory.createUnidentifiedServiceClient(url),
                                                                url.getUrl(), url.getHostHeader()));
     }
 
     return serviceConnectionHolders.toArray(new ServiceConnectionHolder[0]);
   }
 
-  private static Map<Integer, ConnectionHolder[]> createCdnClientsMap(final Map<Integer, SignalCdnUrl[]> signalCdnUrlMap,
-                                                                      final List<Interceptor> interceptors,
-                                                                      final SocketFactory socketFactory,
-                                                                      final ProxySelector proxySelector,
-                                                                      final Dns dns) {
+  private static Map<Integer, ConnectionHolder[]> createCdnClientsMap(final Map<Integer, SignalCdnUrl[]> signalCdnUrlMap, final ConnectionClientFactory clientFactory) {
     validateConfiguration(signalCdnUrlMap);
     final Map<Integer, ConnectionHolder[]> result = new HashMap<>();
     for (Map.Entry<Integer, SignalCdnUrl[]> entry : signalCdnUrlMap.entrySet()) {
       result.put(entry.getKey(),
-                 createConnectionHolders(entry.getValue(), interceptors, socketFactory, proxySelector, dns));
+                 createConnectionHolders(entry.getValue(), clientFactory));
     }
     return Collections.unmodifiableMap(result);
   }
@@ -1486,46 +1458,16 @@ public class PushServiceSocket {
     }
   }
 
-  private static ConnectionHolder[] createConnectionHolders(SignalUrl[] urls, List<Interceptor> interceptors, SocketFactory socketFactory, ProxySelector proxySelector, Dns dns) {
+  private static ConnectionHolder[] createConnectionHolders(SignalUrl[] urls, ConnectionClientFactory clientFactory) {
     List<ConnectionHolder> connectionHolders = new LinkedList<>();
 
     for (SignalUrl url : urls) {
-      connectionHolders.add(new ConnectionHolder(createConnectionClient(url, interceptors, socketFactory, proxySelector, dns), url.getUrl(), url.getHostHeader()));
+      connectionHolders.add(new ConnectionHolder(clientFactory.createClient(url), url.getUrl(), url.getHostHeader()));
     }
 
     return connectionHolders.toArray(new ConnectionHolder[0]);
   }
 
-  private static OkHttpClient createConnectionClient(SignalUrl url, List<Interceptor> interceptors, SocketFactory socketFactory, ProxySelector proxySelector, Dns dns) {
-    try {
-      TrustManager[] trustManagers = BlacklistingTrustManager.createFor(url.getTrustStore());
-
-      SSLContext context = SSLContext.getInstance("TLS");
-      context.init(null, trustManagers, null);
-
-      OkHttpClient.Builder builder = new OkHttpClient.Builder()
-                                                     .socketFactory(socketFactory)
-                                                     .proxySelector(proxySelector)
-                                                     .sslSocketFactory(new Tls12SocketFactory(context.getSocketFactory()), (X509TrustManager)trustManagers[0])
-                                                     .connectionSpecs(url.getConnectionSpecs().orElse(Util.immutableList(ConnectionSpec.RESTRICTED_TLS)))
-                                                     .dns(dns);
-
-      builder.sslSocketFactory(new Tls12SocketFactory(context.getSocketFactory()), (X509TrustManager)trustManagers[0])
-             .connectionSpecs(url.getConnectionSpecs().orElse(Util.immutableList(ConnectionSpec.RESTRICTED_TLS)))
-             .build();
-
-      builder.connectionPool(new ConnectionPool(5, 45, TimeUnit.SECONDS));
-
-      for (Interceptor interceptor : interceptors) {
-        builder.addInterceptor(interceptor);
-      }
-
-      return builder.build();
-    } catch (NoSuchAlgorithmException | KeyManagementException e) {
-      throw new AssertionError(e);
-    }
-  }
-
   private String getAuthorizationHeader(CredentialsProvider credentialsProvider) {
     try {
       String identifier = credentialsProvider.getAci() != null ? credentialsProvider.getAci().toString() : credentialsProvider.getE164();
@@ -1673,15 +1615,24 @@ public class PushServiceSocket {
   private static class ServiceConnectionHolder extends ConnectionHolder {
 
     private final OkHttpClient unidentifiedClient;
+    private final OkHttpClient callingClient;
 
     private ServiceConnectionHolder(OkHttpClient identifiedClient, OkHttpClient unidentifiedClient, String url, Optional<String> hostHeader) {
       super(identifiedClient, url, hostHeader);
       this.unidentifiedClient = unidentifiedClient;
+      this.callingClient      = identifiedClient.newBuilder().followRedirects(false).build();
     }
 
     OkHttpClient getUnidentifiedClient() {
       return unidentifiedClient;
     }
+
+    /**
+     * Calling requests handle redirects themselves.
+     */
+    OkHttpClient getCallingClient() {
+      return callingClient;
+    }
   }
 
   private interface ResponseCodeHandler {
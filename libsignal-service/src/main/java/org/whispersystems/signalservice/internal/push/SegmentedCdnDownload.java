@@ -0,0 +1,560 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.internal.push;
+
+import org.signal.libsignal.protocol.logging.Log;
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment.ProgressListener;
+import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+import org.whispersystems.signalservice.api.push.exceptions.RangeException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Downloads a single CDN object into a file over several ranged connections at once.
+ * <p>
+ * When there's more than one segment, the destination is preallocated to the full size of the object and each segment is written in place with
+ * positional writes. Progress for every segment is recorded in a small state file next to the destination, so a failed segment is retried from where
+ * it stopped, and a later call with the same destination picks up where the previous one left off. The state file is removed once the download
+ * completes.
+ * <p>
+ * A destination that already has data in it but no state file is treated as a partial download from a single stream (which is how a single segment is
+ * written, and how these files used to be written), and only the remainder is fetched.
+ * <p>
+ * Objects that are too small to be worth splitting, and servers that don't honor range requests, are downloaded over a single connection.
+ */
+final class SegmentedCdnDownload {
+
+  private static final String TAG = SegmentedCdnDownload.class.getSimpleName();
+
+  private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+  static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+  private static final long UNKNOWN_END = Long.MAX_VALUE;
+
+  private static final int  MAX_SEGMENT_ATTEMPTS      = 3;
+  private static final int  BUFFER_SIZE               = 32 * 1024;
+  private static final long STATE_SAVE_INTERVAL_BYTES = 1024 * 1024;
+  private static final long PROGRESS_INTERVAL_MILLIS  = 100;
+  private static final int  STATE_VERSION             = 1;
+
+  private final OkHttpClient        client;
+  private final String              url;
+  private final Map<String, String> headers;
+  private final int                 segmentCount;
+  private final Set<Call>           connections;
+  private final long                soTimeoutMillis;
+  private final Set<Call>           activeCalls = new HashSet<>();
+  private final AtomicBoolean       canceled    = new AtomicBoolean(false);
+
+  /**
+   * @param headers     Added to every request, including the Host header if one is needed.
+   * @param connections Calls are registered here while they're in flight, so that they're canceled along with every other request on the socket.
+   */
+  SegmentedCdnDownload(@Nonnull OkHttpClient client, @Nonnull String url, @Nonnull Map<String, String> headers, int segmentCount, long soTimeoutMillis, @Nonnull Set<Call> connections) {
+    this.client          = client;
+    this.url             = url;
+    this.headers         = headers;
+    this.segmentCount    = Math.max(1, segmentCount);
+    this.soTimeoutMillis = soTimeoutMillis;
+    this.connections     = connections;
+  }
+
+  void download(@Nonnull File destination, long maxSizeBytes, @Nullable ProgressListener listener)
+      throws PushNetworkException, NonSuccessfulResponseCodeException
+  {
+    File          stateFile = getStateFile(destination);
+    List<Segment> segments  = readState(stateFile, destination);
+    Connection    probe     = null;
+
+    try {
+      long total;
+
+      if (segments == null) {
+        long offset = destination.length();
+
+        probe = open(offset, -1);
+        total = getTotalLength(probe.response, offset);
+
+        if (total > maxSizeBytes) {
+          throw new PushNetworkException("Response exceeds max size!");
+        }
+
+        if (probe.response.code() != 206) {
+          if (offset > 0) {
+            Log.w(TAG, "Server ignored our range request, starting over.");
+          }
+          offset = 0;
+        }
+
+        if (probe.response.code() == 206 && total >= 0) {
+          segments = planSegments(offset, total);
+        } else {
+          segments = Collections.singletonList(new Segment(offset, total >= 0 ? total : UNKNOWN_END, offset));
+        }
+
+        // Only a file with a state file next to it may be longer than what's been downloaded. A single segment is written like a plain download,
+        // so that an interrupted one is picked up from its length next time. Either way, this drops any stale data if we're starting over.
+        if (segments.size() > 1) {
+          preallocate(destination, total);
+          writeState(stateFile, total, segments);
+        } else {
+          preallocate(destination, offset);
+        }
+
+        Log.i(TAG, "Downloading from " + offset + " of " + total + " bytes in " + segments.size() + " segment(s).");
+      } else {
+        total = segments.get(segments.size() - 1).end;
+        Log.i(TAG, "Resuming segmented download of " + total + " bytes.");
+      }
+
+      try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+        downloadSegments(file.getChannel(), segments, probe, total, maxSizeBytes, stateFile, listener);
+
+        if (total < 0) {
+          file.setLength(segments.get(0).position);
+        }
+      }
+
+      //noinspection ResultOfMethodCallIgnored
+      stateFile.delete();
+    } catch (NonSuccessfulResponseCodeException | PushNetworkException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new PushNetworkException(e);
+    } finally {
+      if (probe != null) {
+        probe.close();
+      }
+    }
+  }
+
+  /**
+   * Runs every incomplete segment on its own thread, and reports progress from the calling thread while we wait so that the listener sees calls from
+   * the same thread it always has.
+   *
+   * @param probe An already open connection for the start of the first segment, if we have one. Always closed by the time this returns.
+   */
+  private void downloadSegments(@Nonnull FileChannel channel,
+                                @Nonnull List<Segment> segments,
+                                @Nullable Connection probe,
+                                long total,
+                                long maxSizeBytes,
+                                @Nonnull File stateFile,
+                                @Nullable ProgressListener listener)
+      throws IOException
+  {
+    ExecutorService                executor  = Executors.newFixedThreadPool(segments.size());
+    ExecutorCompletionService<Void> completed = new ExecutorCompletionService<>(executor);
+    int                            running   = 0;
+
+    try {
+      for (int i = 0; i < segments.size(); i++) {
+        Segment    segment         = segments.get(i);
+        Connection firstConnection = i == 0 ? probe : null;
+
+        if (segment.isComplete()) {
+          if (firstConnection != null) firstConnection.close();
+          continue;
+        }
+
+        completed.submit(() -> {
+          downloadSegment(channel, segment, firstConnection, total, maxSizeBytes, stateFile, segments);
+          return null;
+        });
+        running++;
+      }
+
+      while (running > 0) {
+        Future<Void> future = completed.poll(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (future != null) {
+          future.get();
+          running--;
+        }
+
+        reportProgress(segments, total, listener);
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      } else if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else {
+        throw new AssertionError(e.getCause());
+      }
+    } catch (InterruptedException e) {
+      throw new PushNetworkException(e);
+    } finally {
+      canceled.set(true);
+
+      synchronized (activeCalls) {
+        for (Call call : activeCalls) {
+          call.cancel();
+        }
+      }
+
+      executor.shutdownNow();
+
+      try {
+        executor.awaitTermination(soTimeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Log.w(TAG, "Interrupted while waiting for segments to stop.", e);
+      }
+
+      saveState(stateFile, total, segments);
+    }
+  }
+
+  private void reportProgress(@Nonnull List<Segment> segments, long total, @Nullable ProgressListener listener) throws PushNetworkException {
+    if (listener == null) {
+      return;
+    }
+
+    listener.onAttachmentProgress(total, getDownloadedLength(segments));
+
+    if (listener.shouldCancel()) {
+      throw new PushNetworkException("Canceled by listener check.");
+    }
+  }
+
+  private void downloadSegment(@Nonnull FileChannel channel,
+                               @Nonnull Segment segment,
+                               @Nullable Connection firstConnection,
+                               long total,
+                               long maxSizeBytes,
+                               @Nonnull File stateFile,
+                               @Nonnull List<Segment> segments)
+      throws IOException
+  {
+    Connection connection = firstConnection;
+    ByteBuffer buffer     = ByteBuffer.allocate(BUFFER_SIZE);
+    long       lastSaved  = segment.position;
+    int        attempt    = 0;
+
+    while (!segment.isComplete()) {
+      try {
+        if (connection == null) {
+          connection = open(segment.position, segment.end == UNKNOWN_END ? -1 : segment.end - 1);
+
+          if (connection.response.code() != 206 && segment.position > 0) {
+            throw new PushNetworkException("Expected a partial response for segment at " + segment.position + ", got " + connection.response.code());
+          }
+        }
+
+        ResponseBody body = connection.response.body();
+        if (body == null) throw new PushNetworkException("No response body!");
+
+        InputStream in = body.byteStream();
+
+        while (!segment.isComplete()) {
+          int read = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), segment.end - segment.position));
+
+          if (read == -1) {
+            if (segment.end == UNKNOWN_END) {
+              segment.end = segment.position;
+              break;
+            }
+            throw new PushNetworkException("Segment ended early at " + segment.position + ", expected " + segment.end);
+          }
+
+          buffer.clear();
+          buffer.limit(read);
+
+          long position = segment.position;
+          while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+          }
+
+          segment.position = position;
+
+          if (position > maxSizeBytes) {
+            throw new PushNetworkException("Response exceeded max size!");
+          }
+
+          if (position - lastSaved >= STATE_SAVE_INTERVAL_BYTES) {
+            saveState(stateFile, total, segments);
+            lastSaved = position;
+          }
+
+          if (canceled.get()) {
+            throw new PushNetworkException("Canceled.");
+          }
+        }
+      } catch (NonSuccessfulResponseCodeException e) {
+        throw e;
+      } catch (IOException e) {
+        if (canceled.get() || segment.end == UNKNOWN_END || segment.position > maxSizeBytes || ++attempt >= MAX_SEGMENT_ATTEMPTS) {
+          throw e;
+        }
+        Log.w(TAG, "Segment failed at " + segment.position + ", retrying. Attempt " + attempt, e);
+      } finally {
+        if (connection != null) {
+          connection.close();
+          connection = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts a ranged GET. An end of -1 means "to the end of the object". The call stays registered until the returned connection is closed.
+   */
+  private @Nonnull Connection open(long start, long end) throws IOException {
+    Request.Builder request = new Request.Builder().url(url).get();
+
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      request.addHeader(header.getKey(), header.getValue());
+    }
+
+    request.addHeader("Range", "bytes=" + start + "-" + (end >= 0 ? String.valueOf(end) : ""));
+
+    Call call = client.newCall(request.build());
+
+    synchronized (connections) {
+      connections.add(call);
+    }
+
+    synchronized (activeCalls) {
+      activeCalls.add(call);
+    }
+
+    if (canceled.get()) {
+      call.cancel();
+    }
+
+    Response response = null;
+
+    try {
+      response = call.execute();
+
+      if (response.isSuccessful()) {
+        return new Connection(call, response);
+      } else if (response.code() == 416) {
+        throw new RangeException(start);
+      } else {
+        throw new NonSuccessfulResponseCodeException(response.code(), "Response: " + response);
+      }
+    } catch (IOException e) {
+      if (response != null) {
+        response.close();
+      }
+      release(call);
+      throw e;
+    }
+  }
+
+  private void release(@Nonnull Call call) {
+    synchronized (connections) {
+      connections.remove(call);
+    }
+
+    synchronized (activeCalls) {
+      activeCalls.remove(call);
+    }
+  }
+
+  private @Nonnull List<Segment> planSegments(long offset, long total) {
+    long remaining = total - offset;
+    int  count     = (int) Math.max(1, Math.min(segmentCount, remaining / MIN_SEGMENT_SIZE));
+    long size      = remaining / count;
+
+    List<Segment> segments = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      long start = offset + i * size;
+      long end   = i == count - 1 ? total : start + size;
+      segments.add(new Segment(start, end, start));
+    }
+
+    return segments;
+  }
+
+  /**
+   * @return The full length of the object, or -1 if the server didn't tell us.
+   */
+  private static long getTotalLength(@Nonnull Response response, long offset) throws PushNetworkException {
+    ResponseBody body = response.body();
+    if (body == null) throw new PushNetworkException("No response body!");
+
+    if (response.code() == 206) {
+      String contentRange = response.header("Content-Range");
+      if (contentRange != null) {
+        Matcher matcher = CONTENT_RANGE_PATTERN.matcher(contentRange);
+        if (matcher.matches()) {
+          return Long.parseLong(matcher.group(3));
+        }
+      }
+      return body.contentLength() >= 0 ? offset + body.contentLength() : -1;
+    }
+
+    return body.contentLength();
+  }
+
+  private static long getDownloadedLength(@Nonnull List<Segment> segments) {
+    long downloaded = segments.get(0).start;
+
+    for (Segment segment : segments) {
+      downloaded += segment.getDownloaded();
+    }
+
+    return downloaded;
+  }
+
+  private static void preallocate(@Nonnull File destination, long length) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+      file.setLength(length);
+    }
+  }
+
+  private static @Nonnull File getStateFile(@Nonnull File destination) {
+    return new File(destination.getPath() + ".segments");
+  }
+
+  private void saveState(@Nonnull File stateFile, long total, @Nonnull List<Segment> segments) {
+    if (segments.size() < 2) {
+      return;
+    }
+
+    try {
+      writeState(stateFile, total, segments);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to save download state.", e);
+    }
+  }
+
+  private static synchronized void writeState(@Nonnull File stateFile, long total, @Nonnull List<Segment> segments) throws IOException {
+    File temp = new File(stateFile.getPath() + ".tmp");
+
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+      out.writeInt(STATE_VERSION);
+      out.writeLong(total);
+      out.writeInt(segments.size());
+
+      for (Segment segment : segments) {
+        out.writeLong(segment.start);
+        out.writeLong(segment.end);
+        out.writeLong(segment.position);
+      }
+    }
+
+    if (!temp.renameTo(stateFile)) {
+      throw new IOException("Failed to rename state file.");
+    }
+  }
+
+  /**
+   * @return The segments recorded by a previous call, or null if there's no usable state for this destination.
+   */
+  private static @Nullable List<Segment> readState(@Nonnull File stateFile, @Nonnull File destination) {
+    if (!stateFile.exists()) {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(new FileInputStream(stateFile))) {
+      if (in.readInt() != STATE_VERSION) {
+        throw new IOException("Unknown state version.");
+      }
+
+      long total = in.readLong();
+      int  count = in.readInt();
+
+      if (destination.length() != total || count < 1) {
+        throw new IOException("State doesn't match destination.");
+      }
+
+      List<Segment> segments = new ArrayList<>(count);
+
+      for (int i = 0; i < count; i++) {
+        long start    = in.readLong();
+        long end      = in.readLong();
+        long position = in.readLong();
+
+        if (start > position || position > end || end > total) {
+          throw new IOException("Invalid segment.");
+        }
+
+        segments.add(new Segment(start, end, position));
+      }
+
+      return segments;
+    } catch (IOException e) {
+      Log.w(TAG, "Discarding download state.", e);
+      //noinspection ResultOfMethodCallIgnored
+      stateFile.delete();
+      return null;
+    }
+  }
+
+  private final class Connection {
+    private final Call     call;
+    private final Response response;
+
+    private Connection(@Nonnull Call call, @Nonnull Response response) {
+      this.call     = call;
+      this.response = response;
+    }
+
+    private void close() {
+      response.close();
+      release(call);
+    }
+  }
+
+  private static final class Segment {
+    private final    long start;
+    private volatile long end;
+    private volatile long position;
+
+    private Segment(long start, long end, long position) {
+      this.start    = start;
+      this.end      = end;
+      this.position = position;
+    }
+
+    private boolean isComplete() {
+      return position >= end;
+    }
+
+    private long getDownloaded() {
+      return position - start;
+    }
+  }
+}
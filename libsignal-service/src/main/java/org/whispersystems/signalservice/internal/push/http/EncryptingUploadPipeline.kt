@@ -0,0 +1,323 @@
+package org.whispersystems.signalservice.internal.push.http
+
+import okhttp3.MediaType
+import okhttp3.MediaType.Companion.toMediaTypeOrNull
+import okhttp3.RequestBody
+import okio.BufferedSink
+import okio.buffer
+import okio.sink
+import org.signal.libsignal.protocol.logging.Log
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment
+import org.whispersystems.signalservice.internal.crypto.AttachmentDigest
+import java.io.Closeable
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * A [ResumableUploadBody] that encrypts on a thread of its own, ahead of the upload, rather than on the thread writing to the socket.
+ *
+ * The ciphertext is handed over in chunks through a bounded in-memory buffer. Encryption may run up to [MAX_READ_AHEAD_BYTES] ahead of what's been
+ * sent, and the last [MAX_RETAINED_BYTES] that were sent are kept, so an interrupted upload can pick up at the offset the CDN acknowledged without
+ * encrypting anything again. A CDN only acknowledges what it has received once an attempt ends, so that's as far back as a resume can need to go in
+ * practice. If it needs to go further, the attempt fails without the option to resume, and the upload starts over like any other failed one.
+ *
+ * The digest is calculated once, over all of the content, by the encrypting thread.
+ *
+ * Must be closed, which stops the encrypting thread.
+ */
+class EncryptingUploadPipeline private constructor(
+  private val contentType: String,
+  private val contentLength: Long,
+  private val progressListener: SignalServiceAttachment.ProgressListener?,
+  private val cancelationSignal: CancelationSignal?
+) : ResumableUploadBody, Closeable {
+
+  companion object {
+    private val TAG = EncryptingUploadPipeline::class.java.simpleName
+
+    private const val CHUNK_SIZE = 64 * 1024
+    private const val CANCELATION_CHECK_INTERVAL_MILLIS = 100L
+
+    internal const val MAX_READ_AHEAD_BYTES = 1024 * 1024L
+    internal const val MAX_RETAINED_BYTES = 4 * 1024 * 1024L
+
+    @JvmStatic
+    fun start(
+      inputStream: InputStream,
+      outputStreamFactory: OutputStreamFactory,
+      contentType: String,
+      contentLength: Long,
+      incremental: Boolean,
+      progressListener: SignalServiceAttachment.ProgressListener?,
+      cancelationSignal: CancelationSignal?
+    ): EncryptingUploadPipeline {
+      val pipeline = EncryptingUploadPipeline(contentType, contentLength, progressListener, cancelationSignal)
+
+      pipeline.startEncrypting(inputStream, outputStreamFactory, incremental)
+
+      return pipeline
+    }
+  }
+
+  private val lock = ReentrantLock()
+  private val progressed = lock.newCondition()
+
+  /** Every chunk is [CHUNK_SIZE] long except the last one, so a position maps straight to its chunk. */
+  private val chunks = ArrayDeque<ByteArray>()
+  private var bufferStart: Long = 0
+  private var produced: Long = 0
+  private var sent: Long = 0
+  private var draining = false
+  private var lostResumePoint = false
+  private var finished = false
+  private var error: IOException? = null
+  private var attachmentDigest: AttachmentDigest? = null
+  private var thread: Thread? = null
+
+  @Volatile
+  private var closed = false
+
+  private fun startEncrypting(inputStream: InputStream, outputStreamFactory: OutputStreamFactory, incremental: Boolean) {
+    val stopSignal = CancelationSignal { closed || cancelationSignal?.isCanceled == true }
+    val body = DigestingRequestBody(inputStream, outputStreamFactory, contentType, contentLength, incremental, null, stopSignal, 0)
+
+    thread = Thread({ encrypt(body) }, "upload-encryption").apply {
+      isDaemon = true
+      start()
+    }
+  }
+
+  private fun encrypt(body: DigestingRequestBody) {
+    try {
+      ChunkOutputStream().sink().buffer().use { body.writeTo(it) }
+
+      lock.withLock {
+        attachmentDigest = body.attachmentDigest
+        finished = true
+        progressed.signalAll()
+      }
+    } catch (e: Exception) {
+      if (!closed) {
+        Log.w(TAG, "Failed to encrypt upload.", e)
+      }
+
+      lock.withLock {
+        error = e as? IOException ?: IOException(e)
+        progressed.signalAll()
+      }
+    }
+  }
+
+  override fun createRequestBody(contentStart: Long): RequestBody {
+    require(contentStart in 0..contentLength)
+    return ChunkRequestBody(contentStart)
+  }
+
+  @Throws(IOException::class)
+  override fun getAttachmentDigest(): AttachmentDigest {
+    lock.withLock {
+      // Nothing may be sending, so let encryption finish without waiting on it.
+      draining = true
+      trim()
+      progressed.signalAll()
+
+      while (!finished) {
+        awaitProgress()
+      }
+
+      return attachmentDigest!!
+    }
+  }
+
+  /**
+   * Whether a failed attempt can be followed by another one. Not the case once encryption itself has failed, the upload was canceled, or an
+   * attempt needed content that was no longer buffered.
+   */
+  fun canResume(): Boolean {
+    lock.withLock {
+      return !closed && error == null && !lostResumePoint && cancelationSignal?.isCanceled != true && !(finished && produced < contentLength)
+    }
+  }
+
+  override fun close() {
+    closed = true
+
+    lock.withLock {
+      progressed.signalAll()
+    }
+
+    try {
+      thread?.join()
+    } catch (e: InterruptedException) {
+      Log.w(TAG, "Interrupted while waiting for encryption to stop.", e)
+    }
+
+    lock.withLock {
+      chunks.clear()
+    }
+  }
+
+  /**
+   * Hands a chunk of ciphertext to the senders, once they're no more than [MAX_READ_AHEAD_BYTES] behind.
+   */
+  @Throws(IOException::class)
+  private fun publish(chunk: ByteArray) {
+    lock.withLock {
+      while (!draining && produced - sent >= MAX_READ_AHEAD_BYTES) {
+        if (closed || cancelationSignal?.isCanceled == true) {
+          throw IOException("Canceled!")
+        }
+
+        try {
+          progressed.await(CANCELATION_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)
+        } catch (e: InterruptedException) {
+          throw IOException(e)
+        }
+      }
+
+      chunks.addLast(chunk)
+      produced += chunk.size
+      trim()
+      progressed.signalAll()
+    }
+  }
+
+  /**
+   * @return The chunk holding [position] and where in it [position] is, once it's been produced.
+   */
+  @Throws(IOException::class)
+  private fun awaitChunk(position: Long): Pair<ByteArray, Int> {
+    lock.withLock {
+      while (produced <= position) {
+        if (finished) {
+          throw IOException("Encrypted content ended at $produced bytes, expected $contentLength")
+        }
+        awaitProgress()
+      }
+
+      if (position < bufferStart) {
+        lostResumePoint = true
+        throw IOException("Content at $position is no longer buffered, the buffer starts at $bufferStart")
+      }
+
+      val index = ((position - bufferStart) / CHUNK_SIZE).toInt()
+      return chunks[index] to ((position - bufferStart) % CHUNK_SIZE).toInt()
+    }
+  }
+
+  private fun onSent(position: Long) {
+    lock.withLock {
+      if (position > sent) {
+        sent = position
+        trim()
+        progressed.signalAll()
+      }
+    }
+  }
+
+  /**
+   * Drops chunks that are too far behind what's been sent to be needed by a resume. Must be called with the lock held.
+   */
+  private fun trim() {
+    val keepFrom = if (draining) produced else sent - MAX_RETAINED_BYTES
+
+    while (chunks.isNotEmpty() && bufferStart + chunks.first().size <= keepFrom) {
+      bufferStart += chunks.removeFirst().size
+    }
+  }
+
+  /**
+   * Waits for the encrypting thread to make progress. Must be called with the lock held.
+   */
+  @Throws(IOException::class)
+  private fun awaitProgress() {
+    error?.let { throw IOException("Encryption failed!", it) }
+
+    if (closed || cancelationSignal?.isCanceled == true) {
+      throw IOException("Canceled!")
+    }
+
+    try {
+      progressed.await(CANCELATION_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)
+    } catch (e: InterruptedException) {
+      throw IOException(e)
+    }
+  }
+
+  /**
+   * Cuts the ciphertext into [CHUNK_SIZE] chunks and publishes each one as it fills up. The last, shorter one is published on close.
+   */
+  private inner class ChunkOutputStream : OutputStream() {
+    private var chunk = ByteArray(CHUNK_SIZE)
+    private var length = 0
+
+    override fun write(b: Int) {
+      write(byteArrayOf(b.toByte()), 0, 1)
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+      var offset = off
+      var remaining = len
+
+      while (remaining > 0) {
+        val count = minOf(remaining, CHUNK_SIZE - length)
+        System.arraycopy(b, offset, chunk, length, count)
+        length += count
+        offset += count
+        remaining -= count
+
+        if (length == CHUNK_SIZE) {
+          publish(chunk)
+          chunk = ByteArray(CHUNK_SIZE)
+          length = 0
+        }
+      }
+    }
+
+    override fun close() {
+      if (length > 0) {
+        publish(chunk.copyOf(length))
+        length = 0
+      }
+    }
+  }
+
+  private inner class ChunkRequestBody(private val contentStart: Long) : RequestBody() {
+
+    override fun contentType(): MediaType? {
+      return contentType.toMediaTypeOrNull()
+    }
+
+    override fun contentLength(): Long {
+      return contentLength - contentStart
+    }
+
+    override fun isOneShot(): Boolean {
+      return true
+    }
+
+    @Throws(IOException::class)
+    override fun writeTo(sink: BufferedSink) {
+      var position = contentStart
+
+      while (position < contentLength) {
+        if (cancelationSignal?.isCanceled == true) {
+          throw IOException("Canceled!")
+        }
+
+        val (chunk, offset) = awaitChunk(position)
+        val length = minOf(chunk.size - offset.toLong(), contentLength - position).toInt()
+
+        sink.write(chunk, offset, length)
+        position += length
+
+        onSent(position)
+        progressListener?.onAttachmentProgress(contentLength, position)
+      }
+    }
+  }
+}
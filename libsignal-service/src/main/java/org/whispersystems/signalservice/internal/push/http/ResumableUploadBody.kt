@@ -0,0 +1,19 @@
+package org.whispersystems.signalservice.internal.push.http
+
+import okhttp3.RequestBody
+import org.whispersystems.signalservice.internal.crypto.AttachmentDigest
+import java.io.IOException
+
+/**
+ * The content of a resumable upload. Every attempt gets a new [RequestBody] that starts at the offset the CDN already has.
+ */
+interface ResumableUploadBody {
+
+  fun createRequestBody(contentStart: Long): RequestBody
+
+  /**
+   * The digest of the complete content. May block until all of it has been produced.
+   */
+  @Throws(IOException::class)
+  fun getAttachmentDigest(): AttachmentDigest
+}
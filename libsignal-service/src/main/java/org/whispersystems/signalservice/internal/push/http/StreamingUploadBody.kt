@@ -0,0 +1,41 @@
+package org.whispersystems.signalservice.internal.push.http
+
+import okhttp3.RequestBody
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment
+import org.whispersystems.signalservice.internal.crypto.AttachmentDigest
+import org.whispersystems.signalservice.internal.push.NowhereBufferedSink
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * A [ResumableUploadBody] that produces its content while it's being sent, using a [DigestingRequestBody]. Content before the resume offset is
+ * produced again and skipped, so the input stream can only be used for a single attempt.
+ */
+class StreamingUploadBody(
+  private val inputStream: InputStream,
+  private val outputStreamFactory: OutputStreamFactory,
+  private val contentType: String,
+  private val contentLength: Long,
+  private val incremental: Boolean,
+  private val progressListener: SignalServiceAttachment.ProgressListener?,
+  private val cancelationSignal: CancelationSignal?
+) : ResumableUploadBody {
+
+  private var requestBody: DigestingRequestBody? = null
+
+  override fun createRequestBody(contentStart: Long): RequestBody {
+    return DigestingRequestBody(inputStream, outputStreamFactory, contentType, contentLength, incremental, progressListener, cancelationSignal, contentStart)
+      .also { requestBody = it }
+  }
+
+  @Throws(IOException::class)
+  override fun getAttachmentDigest(): AttachmentDigest {
+    val body = requestBody ?: createRequestBody(contentLength) as DigestingRequestBody
+
+    if (body.attachmentDigest == null) {
+      NowhereBufferedSink().use { body.writeTo(it) }
+    }
+
+    return body.attachmentDigest!!
+  }
+}
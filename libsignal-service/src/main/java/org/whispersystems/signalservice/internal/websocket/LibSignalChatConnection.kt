@@ -339,6 +339,7 @@ class LibSignalChatConnection(
         .whenComplete(
           onSuccess = { response ->
             Log.d(TAG, "$name [sendRequest] Success: ${response!!.status}")
+            healthMonitor.onMessageReceived(isIdentifiedWebSocket = chatConnection is AuthenticatedChatConnection)
             when (response.status) {
               in 400..599 -> {
                 healthMonitor.onMessageError(
@@ -540,6 +541,7 @@ class LibSignalChatConnection(
         ackSenderForInternalPseudoId[internalPseudoId] = sendAck
       }
       incomingRequestQueue.put(incomingWebSocketRequest)
+      healthMonitor.onMessageReceived(isIdentifiedWebSocket = chat is AuthenticatedChatConnection)
       // Try to not block the ChatConnectionListener callback context if we can help it.
       executor.submit {
         CHAT_SERVICE_LOCK.withLock {
@@ -573,6 +575,7 @@ class LibSignalChatConnection(
         id = internalPseudoId
       )
       incomingRequestQueue.put(queueEmptyRequest)
+      healthMonitor.onMessageReceived(isIdentifiedWebSocket = chat is AuthenticatedChatConnection)
       // Try to not block the ChatConnectionListener callback context if we can help it.
       executor.submit {
         CHAT_SERVICE_LOCK.withLock {
@@ -15,19 +15,20 @@ import org.whispersystems.signalservice.internal.util.BlacklistingTrustManager;
 import org.whispersystems.signalservice.internal.util.Util;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.ProxySelector;
 import java.net.SocketException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -53,14 +54,36 @@ import okhttp3.WebSocket;
 import okhttp3.WebSocketListener;
 import okio.ByteString;
 
+/**
+ * A {@link WebSocketConnection} on top of an OkHttp {@link WebSocket}.
+ *
+ * The socket's reader thread, the keep alive sender, the message retrieval thread and anything sending requests all use this at once, so the
+ * request bookkeeping is kept in concurrent collections rather than behind a shared monitor. Only connecting and disconnecting are
+ * synchronized.
+ *
+ * Incoming requests are held in a bounded queue. Once it's full, the reader thread waits for room, which stops us reading from the socket
+ * and lets TCP push back on the server. While it waits, responses and keep alive replies aren't read either, so the wait is capped at
+ * {@link #INCOMING_QUEUE_FULL_TIMEOUT_SECONDS}, well under the keep alive timeout. If no room frees up by then we fail the connection, and the
+ * server will redeliver anything we hadn't acknowledged when we reconnect.
+ */
 public class OkHttpWebSocketConnection extends WebSocketListener implements WebSocketConnection {
 
-  private static final String TAG                         = OkHttpWebSocketConnection.class.getSimpleName();
-  public static final  int    KEEPALIVE_FREQUENCY_SECONDS = 30;
+  private static final String TAG                             = OkHttpWebSocketConnection.class.getSimpleName();
+  public static final  int    KEEPALIVE_FREQUENCY_SECONDS     = 30;
+  public static final  int    KEEPALIVE_MAX_FREQUENCY_SECONDS = 55;
 
-  private final LinkedList<WebSocketRequestMessage> incomingRequests = new LinkedList<>();
-  private final Map<Long, OutgoingRequest>          outgoingRequests = new HashMap<>();
-  private final Set<Long>                           keepAlives       = new HashSet<>();
+  static final         int    MAX_INCOMING_REQUESTS               = 1000;
+  private static final int    INCOMING_QUEUE_FULL_TIMEOUT_SECONDS = 5;
+
+  /**
+   * Put on the incoming queue to wake up anything waiting in {@link #readRequest(long)} when the connection closes. Always compared by identity,
+   * since an empty request from the server would be equal to it.
+   */
+  private static final WebSocketRequestMessage CONNECTION_CLOSED = new WebSocketRequestMessage.Builder().build();
+
+  private final BlockingQueue<WebSocketRequestMessage> incomingRequests;
+  private final Map<Long, OutgoingRequest>             outgoingRequests = new ConcurrentHashMap<>();
+  private final Set<Long>                              keepAlives       = ConcurrentHashMap.newKeySet();
 
   private final String                                    name;
   private final TrustStore                                trustStore;
@@ -77,7 +100,7 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
   private final String                                    extraPathUri;
   private final SecureRandom                              random;
 
-  private WebSocket client;
+  private volatile WebSocket client;
 
   public OkHttpWebSocketConnection(String name,
                                    SignalServiceConfiguration serviceConfiguration,
@@ -96,6 +119,19 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
                                    String extraPathUri,
                                    boolean allowStories)
   {
+    this(name, serviceConfiguration, credentialsProvider, signalAgent, healthMonitor, extraPathUri, allowStories, MAX_INCOMING_REQUESTS);
+  }
+
+  OkHttpWebSocketConnection(String name,
+                            SignalServiceConfiguration serviceConfiguration,
+                            Optional<CredentialsProvider> credentialsProvider,
+                            String signalAgent,
+                            HealthMonitor healthMonitor,
+                            String extraPathUri,
+                            boolean allowStories,
+                            int maxIncomingRequests)
+  {
+    this.incomingRequests    = new LinkedBlockingQueue<>(maxIncomingRequests);
     this.name                = "[" + name + ":" + System.identityHashCode(this) + "]";
     this.trustStore          = serviceConfiguration.getSignalServiceUrls()[0].getTrustStore();
     this.credentialsProvider = credentialsProvider;
@@ -133,17 +169,17 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
       SignalServiceUrl               serviceUrl     = connectionInfo.first();
       String                         wsUri          = connectionInfo.second();
 
-      Pair<SSLSocketFactory, X509TrustManager> sslSocketFactory = createTlsSocketFactory(trustStore);
-
       OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder().socketFactory(socketFactory)
                                                                      .proxySelector(proxySelector)
                                                                      .dns(dns)
-                                                                     .sslSocketFactory(new Tls12SocketFactory(sslSocketFactory.first()),
-                                                                                       sslSocketFactory.second())
-                                                                     .connectionSpecs(serviceUrl.getConnectionSpecs().orElse(Util.immutableList(ConnectionSpec.RESTRICTED_TLS)))
-                                                                     .readTimeout(KEEPALIVE_FREQUENCY_SECONDS + 10, TimeUnit.SECONDS)
+                                                                     .readTimeout(KEEPALIVE_MAX_FREQUENCY_SECONDS + 10, TimeUnit.SECONDS)
                                                                      .connectTimeout(KEEPALIVE_FREQUENCY_SECONDS + 10, TimeUnit.SECONDS);
 
+      Pair<SSLSocketFactory, X509TrustManager> sslSocketFactory = createTlsSocketFactory(trustStore);
+
+      clientBuilder.sslSocketFactory(new Tls12SocketFactory(sslSocketFactory.first()), sslSocketFactory.second())
+                   .connectionSpecs(serviceUrl.getConnectionSpecs().orElse(Util.immutableList(ConnectionSpec.RESTRICTED_TLS)));
+
       for (Interceptor interceptor : interceptors) {
         clientBuilder.addInterceptor(interceptor);
       }
@@ -173,13 +209,14 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
 
       webSocketState.onNext(WebSocketConnectionState.CONNECTING);
 
+      incomingRequests.removeIf(request -> request == CONNECTION_CLOSED);
       this.client = okHttpClient.newWebSocket(requestBuilder.build(), this);
     }
     return webSocketState;
   }
 
   @Override
-  public synchronized boolean isDead() {
+  public boolean isDead() {
     return client == null;
   }
 
@@ -187,49 +224,56 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
   public synchronized void disconnect() {
     log("disconnect()");
 
+    WebSocket client = this.client;
+
     if (client != null) {
+      this.client = null;
       client.close(1000, "OK");
-      client = null;
       webSocketState.onNext(WebSocketConnectionState.DISCONNECTING);
     }
 
-    notifyAll();
+    incomingRequests.offer(CONNECTION_CLOSED);
   }
 
   @Override
-  public synchronized Optional<WebSocketRequestMessage> readRequestIfAvailable() {
-    if (incomingRequests.size() > 0) {
-      return Optional.of(incomingRequests.removeFirst());
+  public Optional<WebSocketRequestMessage> readRequestIfAvailable() {
+    WebSocketRequestMessage request = incomingRequests.poll();
+
+    if (request != null && request != CONNECTION_CLOSED) {
+      return Optional.of(request);
     } else {
       return Optional.empty();
     }
   }
 
   @Override
-  public synchronized WebSocketRequestMessage readRequest(long timeoutMillis)
+  public WebSocketRequestMessage readRequest(long timeoutMillis)
       throws TimeoutException, IOException
   {
     if (client == null) {
       throw new IOException("Connection closed!");
     }
 
-    long startTime = System.currentTimeMillis();
-
-    while (client != null && incomingRequests.isEmpty() && elapsedTime(startTime) < timeoutMillis) {
-      Util.wait(this, Math.max(1, timeoutMillis - elapsedTime(startTime)));
+    WebSocketRequestMessage request;
+    try {
+      request = incomingRequests.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
     }
 
-    if (incomingRequests.isEmpty() && client == null) {
+    if (request == CONNECTION_CLOSED || (request == null && client == null)) {
       throw new IOException("Connection closed!");
-    } else if (incomingRequests.isEmpty()) {
+    } else if (request == null) {
       throw new TimeoutException("Timeout exceeded");
     } else {
-      return incomingRequests.removeFirst();
+      return request;
     }
   }
 
   @Override
-  public synchronized Single<WebsocketResponse> sendRequest(@NotNull WebSocketRequestMessage request, long timeoutSeconds) throws IOException {
+  public Single<WebsocketResponse> sendRequest(@NotNull WebSocketRequestMessage request, long timeoutSeconds) throws IOException {
+    WebSocket client = this.client;
+
     if (client == null) {
       throw new IOException("No connection!");
     }
@@ -253,7 +297,9 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
   }
 
   @Override
-  public synchronized void sendResponse(WebSocketResponseMessage response) throws IOException {
+  public void sendResponse(WebSocketResponseMessage response) throws IOException {
+    WebSocket client = this.client;
+
     if (client == null) {
       throw new IOException("Connection closed!");
     }
@@ -269,7 +315,9 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
   }
 
   @Override
-  public synchronized void sendKeepAlive() throws IOException {
+  public void sendKeepAlive() throws IOException {
+    WebSocket client = this.client;
+
     if (client != null) {
       log("Sending keep alive...");
       long id = System.currentTimeMillis();
@@ -289,6 +337,9 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
     }
   }
 
+  /**
+   * Synchronized so that this can't run before {@link #connect()} has finished setting {@link #client}.
+   */
   @Override
   public synchronized void onOpen(WebSocket webSocket, Response response) {
     if (client != null) {
@@ -298,12 +349,19 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
   }
 
   @Override
-  public synchronized void onMessage(WebSocket webSocket, ByteString payload) {
+  public void onMessage(WebSocket webSocket, ByteString payload) {
     try {
       WebSocketMessage message = WebSocketMessage.ADAPTER.decode(payload.toByteArray());
 
+      healthMonitor.onMessageReceived(credentialsProvider.isPresent());
+
       if (message.type == WebSocketMessage.Type.REQUEST) {
-        incomingRequests.add(message.request);
+        if (!incomingRequests.offer(message.request, INCOMING_QUEUE_FULL_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          warn("Incoming requests haven't been read in " + INCOMING_QUEUE_FULL_TIMEOUT_SECONDS + " seconds, giving up on the connection.");
+          webSocketState.onNext(WebSocketConnectionState.FAILED);
+          cleanupAfterShutdown(webSocket, new IOException("Incoming request queue was full for " + INCOMING_QUEUE_FULL_TIMEOUT_SECONDS + " seconds"));
+          webSocket.cancel();
+        }
       } else if (message.type == WebSocketMessage.Type.RESPONSE) {
         OutgoingRequest listener = outgoingRequests.remove(message.response.id);
         if (listener != null) {
@@ -318,25 +376,27 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
           healthMonitor.onKeepAliveResponse(message.response.id, credentialsProvider.isPresent());
         }
       }
-
-      notifyAll();
     } catch (IOException e) {
       warn(e);
+    } catch (InterruptedException e) {
+      warn("Interrupted while waiting for room in the incoming request queue, giving up on the connection.");
+      Thread.currentThread().interrupt();
+      webSocketState.onNext(WebSocketConnectionState.FAILED);
+      cleanupAfterShutdown(webSocket, new InterruptedIOException("Interrupted while queueing an incoming request"));
+      webSocket.cancel();
     }
   }
 
   @Override
-  public synchronized void onClosed(WebSocket webSocket, int code, String reason) {
+  public void onClosed(WebSocket webSocket, int code, String reason) {
     log("onClose()");
     webSocketState.onNext(WebSocketConnectionState.DISCONNECTED);
 
-    cleanupAfterShutdown(code);
-
-    notifyAll();
+    cleanupAfterShutdown(webSocket, code);
   }
 
   @Override
-  public synchronized void onFailure(WebSocket webSocket, Throwable t, Response response) {
+  public void onFailure(WebSocket webSocket, Throwable t, Response response) {
     warn("onFailure()", t);
 
     if (response != null && (response.code() == 401 || response.code() == 403)) {
@@ -345,32 +405,38 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
       webSocketState.onNext(WebSocketConnectionState.FAILED);
     }
 
-    cleanupAfterShutdown(response != null ? response.code() : 1000);
-
-    notifyAll();
+    cleanupAfterShutdown(webSocket, response != null ? response.code() : 1000);
   }
 
-  private void cleanupAfterShutdown(int code) {
-    Iterator<Map.Entry<Long, OutgoingRequest>> iterator = outgoingRequests.entrySet().iterator();
-
-    IOException exception;
+  private void cleanupAfterShutdown(WebSocket webSocket, int code) {
     if (code == 403 || code == 4401) {
-      exception = new NonSuccessfulResponseCodeException(code);
+      cleanupAfterShutdown(webSocket, new NonSuccessfulResponseCodeException(code));
     } else {
-      exception = new SocketException("Closed unexpectedly");
+      cleanupAfterShutdown(webSocket, new SocketException("Closed unexpectedly"));
+    }
+  }
+
+  /**
+   * Fails every pending request with {@code exception}. If {@code webSocket} is still the current connection, also wakes up readers. A socket that
+   * was already disconnected, or replaced by a newer connection, must not wake them, or it would end a read on the new connection.
+   *
+   * The connection is marked dead before any request is failed, so anyone reacting to the failure already sees it as dead.
+   */
+  private synchronized void cleanupAfterShutdown(WebSocket webSocket, IOException exception) {
+    if (webSocket == this.client) {
+      log("Client not null when closed");
+      this.client = null;
+      webSocket.close(1000, "OK");
+      incomingRequests.offer(CONNECTION_CLOSED);
     }
 
+    Iterator<Map.Entry<Long, OutgoingRequest>> iterator = outgoingRequests.entrySet().iterator();
+
     while (iterator.hasNext()) {
       Map.Entry<Long, OutgoingRequest> entry = iterator.next();
       entry.getValue().onError(exception);
       iterator.remove();
     }
-
-    if (client != null) {
-      log("Client not null when closed");
-      client.close(1000, "OK");
-      client = null;
-    }
   }
 
   @Override
@@ -379,16 +445,12 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
   }
 
   @Override
-  public synchronized void onClosing(WebSocket webSocket, int code, String reason) {
+  public void onClosing(WebSocket webSocket, int code, String reason) {
     log("onClosing()");
     webSocketState.onNext(WebSocketConnectionState.DISCONNECTING);
     webSocket.close(1000, "OK");
   }
 
-  private long elapsedTime(long startTime) {
-    return System.currentTimeMillis() - startTime;
-  }
-
   private Pair<SSLSocketFactory, X509TrustManager> createTlsSocketFactory(TrustStore trustStore) {
     try {
       SSLContext     context       = SSLContext.getInstance("TLS");
@@ -70,6 +70,44 @@ public final class AttachmentCipherTest {
     cipherFile.delete();
   }
 
+  @Test
+  public void attachment_encryptDecrypt_oddReadSizes() throws IOException, InvalidMessageException {
+    byte[]        key            = Util.getSecretBytes(64);
+    byte[]        plaintextInput = Util.getSecretBytes(MEBIBYTE + 7);
+    EncryptResult encryptResult  = encryptData(plaintextInput, key, false);
+    File          cipherFile     = writeToFile(encryptResult.ciphertext);
+    InputStream   inputStream    = AttachmentCipherInputStream.createForAttachment(cipherFile, 0, key, encryptResult.digest, null, 0);
+
+    ByteArrayOutputStream plaintextOutput = new ByteArrayOutputStream();
+    byte[]                buffer          = new byte[20_000];
+    Random                random          = new Random();
+
+    while (true) {
+      int mode = random.nextInt(3);
+      int read;
+
+      if (mode == 0) {
+        read = inputStream.read();
+        if (read != -1) {
+          plaintextOutput.write(read);
+        }
+      } else {
+        read = inputStream.read(buffer, 0, mode == 1 ? random.nextInt(1, 17) : random.nextInt(1, buffer.length));
+        if (read > 0) {
+          plaintextOutput.write(buffer, 0, read);
+        }
+      }
+
+      if (read == -1) {
+        break;
+      }
+    }
+
+    assertArrayEquals(plaintextInput, plaintextOutput.toByteArray());
+
+    cipherFile.delete();
+  }
+
   @Test
   public void attachment_encryptDecryptEmpty_nonIncremental() throws IOException, InvalidMessageException {
     attachment_encryptDecryptEmpty(false);
@@ -288,6 +326,70 @@ public final class AttachmentCipherTest {
     }
   }
 
+  @Test
+  public void attachment_encryptDecrypt_singlePass() throws IOException, InvalidMessageException {
+    for (int i = 0; i < 20; i++) {
+      byte[]        key             = Util.getSecretBytes(64);
+      byte[]        plaintextInput  = Util.getSecretBytes(MEBIBYTE + new Random().nextInt(1, 64 * 1024));
+      EncryptResult encryptResult   = encryptData(plaintextInput, key, false);
+      File          cipherFile      = writeToFile(encryptResult.ciphertext);
+      InputStream   inputStream     = AttachmentCipherInputStream.createForAttachmentSinglePass(cipherFile, plaintextInput.length, key, encryptResult.digest);
+      byte[]        plaintextOutput = readInputStreamFully(inputStream);
+
+      assertArrayEquals(plaintextInput, plaintextOutput);
+
+      cipherFile.delete();
+    }
+  }
+
+  @Test(expected = InvalidMessageException.class)
+  public void attachment_decryptFailOnBadMac_singlePass() throws IOException, InvalidMessageException {
+    File cipherFile = null;
+
+    try {
+      byte[]        key              = Util.getSecretBytes(64);
+      byte[]        plaintextInput   = Util.getSecretBytes(MEBIBYTE);
+      EncryptResult encryptResult    = encryptData(plaintextInput, key, false);
+      byte[]        badMacCiphertext = Arrays.copyOf(encryptResult.ciphertext, encryptResult.ciphertext.length);
+
+      badMacCiphertext[badMacCiphertext.length - 1] += 1;
+
+      cipherFile = writeToFile(badMacCiphertext);
+
+      InputStream stream = AttachmentCipherInputStream.createForAttachmentSinglePass(cipherFile, 0, key, encryptResult.digest);
+
+      // The mac is only checked once we've read the whole thing
+      StreamUtil.readFully(stream);
+    } finally {
+      if (cipherFile != null) {
+        cipherFile.delete();
+      }
+    }
+  }
+
+  @Test(expected = InvalidMessageException.class)
+  public void attachment_decryptFailOnBadDigest_singlePass() throws IOException, InvalidMessageException {
+    File cipherFile = null;
+
+    try {
+      byte[]        key            = Util.getSecretBytes(64);
+      byte[]        plaintextInput = Util.getSecretBytes(MEBIBYTE);
+      EncryptResult encryptResult  = encryptData(plaintextInput, key, false);
+      byte[]        badDigest      = new byte[32];
+
+      cipherFile = writeToFile(encryptResult.ciphertext);
+
+      InputStream stream = AttachmentCipherInputStream.createForAttachmentSinglePass(cipherFile, 0, key, badDigest);
+
+      // The digest is only checked once we've read the whole thing
+      StreamUtil.readFully(stream);
+    } finally {
+      if (cipherFile != null) {
+        cipherFile.delete();
+      }
+    }
+  }
+
   @Test
   public void archive_encryptDecrypt() throws IOException, InvalidMessageException {
     byte[]                              key            = Util.getSecretBytes(64);
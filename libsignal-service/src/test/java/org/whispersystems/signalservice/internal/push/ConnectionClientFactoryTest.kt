@@ -0,0 +1,229 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.internal.push
+
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.isEmpty
+import assertk.assertions.isEqualTo
+import assertk.assertions.isIn
+import assertk.assertions.isInstanceOf
+import assertk.assertions.isLessThanOrEqualTo
+import assertk.assertions.isNotNull
+import assertk.assertions.isNotSameAs
+import assertk.assertions.isSameAs
+import assertk.assertions.isTrue
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.Connection
+import okhttp3.Dns
+import okhttp3.EventListener
+import okhttp3.Handshake
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.TlsVersion
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.whispersystems.signalservice.internal.configuration.SignalServiceUrl
+import org.whispersystems.signalservice.testutil.TestTls
+import java.io.IOException
+import java.net.ProxySelector
+import java.net.UnknownServiceException
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import javax.net.SocketFactory
+
+class ConnectionClientFactoryTest {
+
+  private lateinit var server: MockWebServer
+
+  private lateinit var factory: ConnectionClientFactory
+
+  @Before
+  fun setUp() {
+    server = MockWebServer()
+    server.useHttps(TestTls.serverCertificates.sslSocketFactory(), false)
+    server.dispatcher = object : Dispatcher() {
+      override fun dispatch(request: RecordedRequest): MockResponse = MockResponse().setBody("ok")
+    }
+    server.start()
+
+    factory = ConnectionClientFactory(emptyList(), SocketFactory.getDefault(), ProxySelector.getDefault(), Dns.SYSTEM, 10_000, true)
+  }
+
+  @After
+  fun tearDown() {
+    server.shutdown()
+  }
+
+  @Test
+  fun `every client shares one dispatcher`() {
+    val url = url()
+    val clients = listOf(factory.createServiceClient(url), factory.createUnidentifiedServiceClient(url), factory.createClient(url))
+
+    clients.forEach { assertThat(it.dispatcher).isSameAs(clients[0].dispatcher) }
+  }
+
+  @Test
+  fun `unidentified clients have a connection pool of their own`() {
+    val url = url()
+
+    assertThat(factory.createServiceClient(url).connectionPool).isSameAs(factory.createClient(url).connectionPool)
+    assertThat(factory.createUnidentifiedServiceClient(url).connectionPool).isNotSameAs(factory.createServiceClient(url).connectionPool)
+  }
+
+  @Test
+  fun `timeouts are applied when the client is built`() {
+    val client = factory.createServiceClient(url())
+
+    assertThat(client.connectTimeoutMillis).isEqualTo(10_000)
+    assertThat(client.readTimeoutMillis).isEqualTo(10_000)
+  }
+
+  @Test
+  fun `requests are made over restricted tls`() {
+    val request = Request.Builder().url(server.url("/")).build()
+
+    factory.createServiceClient(url()).newCall(request).execute().use { response ->
+      assertThat(response.handshake).isNotNull()
+      assertThat(response.handshake!!.tlsVersion).isIn(TlsVersion.TLS_1_2, TlsVersion.TLS_1_3)
+    }
+  }
+
+  @Test
+  fun `cleartext requests are refused`() {
+    val request = Request.Builder().url(server.url("/").newBuilder().scheme("http").build()).build()
+
+    assertFailure { factory.createServiceClient(url()).newCall(request).execute() }.isInstanceOf(UnknownServiceException::class)
+  }
+
+  @Test
+  fun `a burst of mixed requests reuses connections without mixing identified and unidentified traffic`() {
+    val threadCount = 8
+    val requestsPerThread = 50
+
+    val url = url()
+    val connections = ConcurrentHashMap<String, MutableSet<Connection>>()
+    val identified = recordConnections(factory.createServiceClient(url), "identified", connections)
+    val unidentified = recordConnections(factory.createUnidentifiedServiceClient(url), "unidentified", connections)
+    val cdn = recordConnections(factory.createClient(url), "cdn", connections)
+
+    val executor = Executors.newFixedThreadPool(threadCount)
+
+    val tasks = (0 until threadCount).map { thread ->
+      executor.submit {
+        repeat(requestsPerThread) {
+          when ((thread + it) % 3) {
+            0 -> get(identified, "identified")
+            1 -> get(unidentified, "unidentified")
+            else -> get(cdn, "cdn")
+          }
+        }
+      }
+    }
+
+    tasks.forEach { it.get(30, TimeUnit.SECONDS) }
+    executor.shutdown()
+    executor.awaitTermination(5, TimeUnit.SECONDS)
+
+    assertThat(server.requestCount).isEqualTo(threadCount * requestsPerThread)
+
+    val identifiedConnections = connections.getValue("identified") + connections.getValue("cdn")
+    val unidentifiedConnections = connections.getValue("unidentified")
+
+    // At most one connection per concurrent request in each pool
+    assertThat(identifiedConnections.size + unidentifiedConnections.size).isLessThanOrEqualTo(2 * threadCount)
+    assertThat(identifiedConnections.intersect(unidentifiedConnections)).isEmpty()
+  }
+
+  @Test
+  fun `a burst of async requests is served by few threads and handshakes`() {
+    val requestCount = 300
+
+    val handshakes = AtomicInteger()
+    val connections: MutableSet<Connection> = ConcurrentHashMap.newKeySet()
+    val failures: MutableList<IOException> = Collections.synchronizedList(mutableListOf())
+
+    val listener = object : EventListener() {
+      override fun secureConnectEnd(call: Call, handshake: Handshake?) {
+        handshakes.incrementAndGet()
+      }
+
+      override fun connectionAcquired(call: Call, connection: Connection) {
+        connections += connection
+      }
+    }
+
+    val url = url()
+    val clients = listOf(factory.createServiceClient(url), factory.createUnidentifiedServiceClient(url), factory.createClient(url))
+      .map { it.newBuilder().eventListener(listener).build() }
+
+    val done = CountDownLatch(requestCount)
+    repeat(requestCount) {
+      val request = Request.Builder().url(server.url("/$it")).build()
+
+      clients[it % clients.size].newCall(request).enqueue(object : Callback {
+        override fun onResponse(call: Call, response: Response) {
+          response.use { it.body!!.string() }
+          done.countDown()
+        }
+
+        override fun onFailure(call: Call, e: IOException) {
+          failures += e
+          done.countDown()
+        }
+      })
+    }
+
+    assertThat(done.await(30, TimeUnit.SECONDS)).isTrue()
+    assertThat(failures).isEmpty()
+
+    val dispatcher = clients[0].dispatcher
+    val dispatcherThreads = (dispatcher.executorService as ThreadPoolExecutor).largestPoolSize
+
+    println("$requestCount requests: ${handshakes.get()} TLS handshakes, ${connections.size} connections, $dispatcherThreads dispatcher threads")
+
+    // Calls racing for a connection may each handshake and then drop the spare, but never more often than the dispatcher lets calls run at once in each pool
+    assertThat(connections.size).isLessThanOrEqualTo(handshakes.get())
+    assertThat(handshakes.get()).isLessThanOrEqualTo(2 * dispatcher.maxRequestsPerHost)
+
+    // All three clients run on the one dispatcher, whose thread count is bounded by how many calls it allows at once, not by the number of requests
+    assertThat(dispatcherThreads).isLessThanOrEqualTo(dispatcher.maxRequests)
+  }
+
+  private fun get(client: OkHttpClient, kind: String) {
+    val request = Request.Builder().url(server.url("/$kind")).build()
+    client.newCall(request).execute().use { it.body!!.string() }
+  }
+
+  /** Derives a client that shares everything with [client], and records each connection its calls use under [kind]. */
+  private fun recordConnections(client: OkHttpClient, kind: String, connections: MutableMap<String, MutableSet<Connection>>): OkHttpClient {
+    val used = connections.getOrPut(kind) { ConcurrentHashMap.newKeySet() }
+
+    return client.newBuilder()
+      .eventListener(object : EventListener() {
+        override fun connectionAcquired(call: Call, connection: Connection) {
+          used += connection
+        }
+      })
+      .build()
+  }
+
+  private fun url(): SignalServiceUrl {
+    return SignalServiceUrl(server.url("").toString().removeSuffix("/"), TestTls.trustStore)
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.internal.push
+
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.doesNotContain
+import assertk.assertions.hasSize
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isInstanceOf
+import assertk.assertions.isTrue
+import okhttp3.Call
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import okhttp3.mockwebserver.SocketPolicy
+import okio.Buffer
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException
+import java.io.File
+import java.util.Collections
+import kotlin.random.Random
+
+class SegmentedCdnDownloadTest {
+
+  private val content = Random.nextBytes((4.5 * SegmentedCdnDownload.MIN_SEGMENT_SIZE).toInt())
+  private val ranges = Collections.synchronizedList(mutableListOf<String?>())
+  private val segmentSize = content.size / 4
+
+  /** Given the first and last byte of a requested range, whether the server should drop the connection halfway through the body. */
+  @Volatile
+  private var disconnect: (Int, Int) -> Boolean = { _, _ -> false }
+
+  private lateinit var server: MockWebServer
+  private lateinit var destination: File
+
+  @Before
+  fun setUp() {
+    server = MockWebServer()
+    server.dispatcher = RangeDispatcher()
+    server.start()
+
+    destination = File.createTempFile("segmented", ".tmp")
+  }
+
+  @After
+  fun tearDown() {
+    server.shutdown()
+    destination.delete()
+    File(destination.path + ".segments").delete()
+  }
+
+  @Test
+  fun `downloads object in several segments`() {
+    download(segmentCount = 4, maxSize = Long.MAX_VALUE)
+
+    assertThat(destination.readBytes().toList()).isEqualTo(content.toList())
+    assertThat(ranges).hasSize(4)
+    assertThat(File(destination.path + ".segments").exists()).isFalse()
+  }
+
+  @Test
+  fun `small remainder is downloaded in a single segment`() {
+    destination.writeBytes(content.copyOf(content.size - 1000))
+
+    download(segmentCount = 4, maxSize = Long.MAX_VALUE)
+
+    assertThat(destination.readBytes().toList()).isEqualTo(content.toList())
+    assertThat(ranges).containsExactly("bytes=${content.size - 1000}-")
+  }
+
+  @Test
+  fun `failed segment is retried from where it stopped`() {
+    var failed = false
+    disconnect = { start, _ -> (start == segmentSize && !failed).also { if (it) failed = true } }
+
+    download(segmentCount = 4, maxSize = Long.MAX_VALUE)
+
+    assertThat(destination.readBytes().toList()).isEqualTo(content.toList())
+    assertThat(ranges).hasSize(5)
+    assertThat(ranges.count { it!!.startsWith("bytes=$segmentSize-") }).isEqualTo(1)
+    assertThat(File(destination.path + ".segments").exists()).isFalse()
+  }
+
+  @Test
+  fun `segment that keeps failing fails the download and a later download resumes it`() {
+    disconnect = { _, end -> end == 2 * segmentSize - 1 }
+
+    assertFailure { download(segmentCount = 4, maxSize = Long.MAX_VALUE) }
+      .isInstanceOf(PushNetworkException::class)
+    assertThat(File(destination.path + ".segments").exists()).isTrue()
+
+    ranges.clear()
+    disconnect = { _, _ -> false }
+
+    download(segmentCount = 4, maxSize = Long.MAX_VALUE)
+
+    assertThat(destination.readBytes().toList()).isEqualTo(content.toList())
+    assertThat(ranges).doesNotContain("bytes=0-")
+    assertThat(ranges).doesNotContain("bytes=$segmentSize-${2 * segmentSize - 1}")
+    assertThat(File(destination.path + ".segments").exists()).isFalse()
+  }
+
+  @Test
+  fun `interrupted single segment download resumes from what was written`() {
+    disconnect = { _, _ -> true }
+
+    assertFailure { download(segmentCount = 1, maxSize = Long.MAX_VALUE) }
+      .isInstanceOf(PushNetworkException::class)
+
+    val written = destination.length()
+    assertThat(written > 0 && written < content.size).isTrue()
+    assertThat(destination.readBytes().toList()).isEqualTo(content.copyOf(written.toInt()).toList())
+    assertThat(File(destination.path + ".segments").exists()).isFalse()
+
+    ranges.clear()
+    disconnect = { _, _ -> false }
+
+    download(segmentCount = 1, maxSize = Long.MAX_VALUE)
+
+    assertThat(destination.readBytes().toList()).isEqualTo(content.toList())
+    assertThat(ranges).containsExactly("bytes=$written-")
+  }
+
+  @Test
+  fun `object over max size is rejected`() {
+    assertFailure { download(segmentCount = 4, maxSize = content.size - 1L) }
+      .isInstanceOf(PushNetworkException::class)
+  }
+
+  private fun download(segmentCount: Int, maxSize: Long) {
+    SegmentedCdnDownload(OkHttpClient(), server.url("/attachment").toString(), emptyMap(), segmentCount, 30_000, HashSet<Call>())
+      .download(destination, maxSize, null)
+  }
+
+  private inner class RangeDispatcher : Dispatcher() {
+    override fun dispatch(request: RecordedRequest): MockResponse {
+      val range = request.getHeader("Range")
+      ranges += range
+
+      if (range == null) {
+        return MockResponse().setBody(Buffer().write(content))
+      }
+
+      val (first, last) = range.removePrefix("bytes=").split("-")
+      val start = first.toInt()
+      val end = if (last.isEmpty()) content.size - 1 else minOf(last.toInt(), content.size - 1)
+
+      val response = MockResponse()
+        .setResponseCode(206)
+        .setHeader("Content-Range", "bytes $start-$end/${content.size}")
+        .setBody(Buffer().write(content, start, end - start + 1))
+
+      return if (disconnect(start, end)) {
+        response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY)
+      } else {
+        response
+      }
+    }
+  }
+}
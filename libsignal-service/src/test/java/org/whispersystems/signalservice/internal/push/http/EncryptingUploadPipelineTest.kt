@@ -0,0 +1,159 @@
+package org.whispersystems.signalservice.internal.push.http
+
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isInstanceOf
+import assertk.assertions.isTrue
+import okio.Buffer
+import okio.ForwardingSink
+import okio.buffer
+import org.junit.Test
+import org.whispersystems.signalservice.api.crypto.AttachmentCipherStreamUtil
+import org.whispersystems.signalservice.internal.crypto.PaddingInputStream
+import org.whispersystems.signalservice.internal.util.Util
+import java.io.ByteArrayOutputStream
+import java.io.FilterInputStream
+import java.io.IOException
+import java.io.InputStream
+import kotlin.random.Random
+
+class EncryptingUploadPipelineTest {
+
+  private val key = Util.getSecretBytes(64)
+  private val iv = Util.getSecretBytes(16)
+  private val plaintext = Random.nextBytes(1_000_000)
+  private val paddedLength = PaddingInputStream.getPaddedSize(plaintext.size.toLong())
+  private val ciphertextLength = AttachmentCipherStreamUtil.getCiphertextLength(paddedLength)
+
+  @Test
+  fun `interrupted upload resumes from acknowledged offset without encrypting again`() {
+    val input = CountingInputStream(PaddingInputStream(plaintext.inputStream(), plaintext.size.toLong()))
+    val server = ResumableUploadStandIn()
+
+    pipeline(input).use { pipeline ->
+      assertFailure { server.upload(pipeline, dropAfter = 400_000, lostInFlight = 150_000) }
+        .isInstanceOf(IOException::class)
+
+      assertThat(server.offset < 250_000L).isTrue()
+      assertThat(pipeline.canResume()).isTrue()
+
+      server.upload(pipeline)
+
+      val (expectedCiphertext, expectedDigest) = encryptDirectly()
+
+      assertThat(server.received.readByteArray().toList()).isEqualTo(expectedCiphertext.toList())
+      assertThat(pipeline.getAttachmentDigest().digest.toList()).isEqualTo(expectedDigest.toList())
+      assertThat(input.bytesRead).isEqualTo(paddedLength)
+    }
+  }
+
+  @Test
+  fun `resume from before the retained content cannot continue`() {
+    val plaintext = Random.nextBytes(8_000_000)
+    val server = ResumableUploadStandIn()
+
+    pipeline(plaintext).use { pipeline ->
+      assertFailure { server.upload(pipeline, dropAfter = 7_000_000, lostInFlight = 6_000_000) }
+        .isInstanceOf(IOException::class)
+
+      assertFailure { server.upload(pipeline) }.isInstanceOf(IOException::class)
+      assertThat(pipeline.canResume()).isFalse()
+    }
+  }
+
+  @Test
+  fun `encryption stays within the read ahead limit while nothing is sent`() {
+    val plaintext = Random.nextBytes(8_000_000)
+    val input = CountingInputStream(PaddingInputStream(plaintext.inputStream(), plaintext.size.toLong()))
+
+    pipeline(plaintext, input).use {
+      Thread.sleep(500)
+      assertThat(input.bytesRead < 2 * EncryptingUploadPipeline.MAX_READ_AHEAD_BYTES).isTrue()
+    }
+  }
+
+  @Test
+  fun `digest is available without uploading`() {
+    val plaintext = Random.nextBytes(8_000_000)
+
+    pipeline(plaintext).use { pipeline ->
+      assertThat(pipeline.getAttachmentDigest().digest.toList()).isEqualTo(encryptDirectly(plaintext).second.toList())
+    }
+  }
+
+  @Test
+  fun `canceled upload cannot be resumed`() {
+    var canceled = false
+
+    EncryptingUploadPipeline.start(PaddingInputStream(plaintext.inputStream(), plaintext.size.toLong()), AttachmentCipherOutputStreamFactory(key, iv), "application/offset+octet-stream", ciphertextLength, false, null) { canceled }.use { pipeline ->
+      canceled = true
+
+      assertFailure { ResumableUploadStandIn().upload(pipeline) }.isInstanceOf(IOException::class)
+      assertThat(pipeline.canResume()).isFalse()
+    }
+  }
+
+  private fun pipeline(input: InputStream): EncryptingUploadPipeline {
+    return EncryptingUploadPipeline.start(input, AttachmentCipherOutputStreamFactory(key, iv), "application/offset+octet-stream", ciphertextLength, false, null, null)
+  }
+
+  private fun pipeline(plaintext: ByteArray, input: InputStream = PaddingInputStream(plaintext.inputStream(), plaintext.size.toLong())): EncryptingUploadPipeline {
+    val ciphertextLength = AttachmentCipherStreamUtil.getCiphertextLength(PaddingInputStream.getPaddedSize(plaintext.size.toLong()))
+    return EncryptingUploadPipeline.start(input, AttachmentCipherOutputStreamFactory(key, iv), "application/offset+octet-stream", ciphertextLength, false, null, null)
+  }
+
+  private fun encryptDirectly(plaintext: ByteArray = this.plaintext): Pair<ByteArray, ByteArray> {
+    val output = ByteArrayOutputStream()
+    val cipherStream = AttachmentCipherOutputStreamFactory(key, iv).createFor(output)
+
+    PaddingInputStream(plaintext.inputStream(), plaintext.size.toLong()).copyTo(cipherStream)
+    cipherStream.flush()
+
+    return output.toByteArray() to cipherStream.transmittedDigest
+  }
+
+  /**
+   * Behaves like a resumable upload endpoint: keeps what it has received, and reports how much that is so the next attempt can continue from there.
+   */
+  private class ResumableUploadStandIn {
+    val received = Buffer()
+
+    val offset: Long
+      get() = received.size
+
+    fun upload(pipeline: EncryptingUploadPipeline, dropAfter: Long = Long.MAX_VALUE, lostInFlight: Long = 0) {
+      val attempt = Buffer()
+      val connection = object : ForwardingSink(attempt) {
+        var written = 0L
+
+        override fun write(source: Buffer, byteCount: Long) {
+          if (written + byteCount > dropAfter) {
+            throw IOException("Connection dropped")
+          }
+          super.write(source, byteCount)
+          written += byteCount
+        }
+      }
+
+      try {
+        connection.buffer().use { pipeline.createRequestBody(offset).writeTo(it) }
+      } finally {
+        received.write(attempt, maxOf(0, attempt.size - lostInFlight))
+      }
+    }
+  }
+
+  private class CountingInputStream(input: InputStream) : FilterInputStream(input) {
+    var bytesRead = 0L
+
+    override fun read(): Int {
+      return super.read().also { if (it != -1) bytesRead++ }
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+      return super.read(b, off, len).also { if (it > 0) bytesRead += it }
+    }
+  }
+}
@@ -1,8 +1,10 @@
 package org.whispersystems.signalservice.internal.websocket
 
+import io.mockk.Runs
 import io.mockk.clearAllMocks
 import io.mockk.clearMocks
 import io.mockk.every
+import io.mockk.just
 import io.mockk.mockk
 import io.mockk.verify
 import io.reactivex.rxjava3.observers.TestObserver
@@ -54,6 +56,7 @@ class LibSignalChatConnectionTest {
     clearAllMocks()
     every { healthMonitor.onMessageError(any(), any()) }
     every { healthMonitor.onKeepAliveResponse(any(), any()) }
+    every { healthMonitor.onMessageReceived(any()) } just Runs
 
     // NB: We provide default success behavior mocks here to cut down on boilerplate later, but it is
     //  expected that some tests will override some of these to test failures.
@@ -0,0 +1,348 @@
+package org.whispersystems.signalservice.internal.websocket
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isInstanceOf
+import assertk.assertions.isNotNull
+import assertk.assertions.isTrue
+import okhttp3.Dns
+import okhttp3.Response
+import okhttp3.WebSocket
+import okhttp3.WebSocketListener
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.ByteString
+import okio.ByteString.Companion.toByteString
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.whispersystems.signalservice.api.websocket.HealthMonitor
+import org.whispersystems.signalservice.api.websocket.WebSocketConnectionState
+import org.whispersystems.signalservice.internal.configuration.SignalServiceConfiguration
+import org.whispersystems.signalservice.internal.configuration.SignalServiceUrl
+import org.whispersystems.signalservice.testutil.TestTls
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.net.ProxySelector
+import java.net.SocketException
+import java.util.Optional
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import javax.net.SocketFactory
+
+/**
+ * Runs [OkHttpWebSocketConnection] against a local websocket server that answers every request we send, while pushing requests of its own at us.
+ */
+class OkHttpWebSocketConnectionTest {
+
+  private val server = MockWebServer()
+  private val serverListener = ServerListener()
+
+  @Before
+  fun setUp() {
+    server.useHttps(TestTls.serverCertificates.sslSocketFactory(), false)
+    server.enqueue(MockResponse().withWebSocketUpgrade(serverListener))
+    server.start()
+  }
+
+  @After
+  fun tearDown() {
+    server.shutdown()
+  }
+
+  @Test
+  fun `concurrent sends and reads all complete`() {
+    val incomingCount = 2_000
+    val senderCount = 4
+    val requestsPerSender = 250
+
+    val connection = connect(maxIncomingRequests = 50)
+    serverListener.push(incomingCount)
+
+    val executor = Executors.newFixedThreadPool(senderCount + 1)
+    val received = mutableListOf<Long>()
+    val failures = AtomicInteger()
+
+    val reader = executor.submit {
+      repeat(incomingCount) {
+        val request = connection.readRequest(10_000)
+        received += request.id!!
+        connection.sendResponse(WebSocketResponseMessage.Builder().id(request.id).status(200).message("OK").build())
+      }
+    }
+
+    val senders = (0 until senderCount).map { sender ->
+      executor.submit {
+        repeat(requestsPerSender) {
+          val id = (sender * requestsPerSender + it).toLong()
+          val response = connection.sendRequest(request(id), 10).blockingGet()
+          if (response.status != 200 || response.body != id.toString()) {
+            failures.incrementAndGet()
+          }
+        }
+      }
+    }
+
+    senders.forEach { it.get(30, TimeUnit.SECONDS) }
+    reader.get(30, TimeUnit.SECONDS)
+    executor.shutdown()
+
+    assertThat(failures.get()).isEqualTo(0)
+    assertThat(received).isEqualTo((0L until incomingCount).toList())
+    assertThat(serverListener.awaitAcks(incomingCount)).isTrue()
+    assertThat(serverListener.requestsReceived.size).isEqualTo(senderCount * requestsPerSender)
+  }
+
+  @Test
+  fun `a full incoming queue holds the server back without dropping anything`() {
+    val connection = connect(maxIncomingRequests = 10)
+    serverListener.push(100)
+
+    // Let the server get well ahead of us
+    Thread.sleep(500)
+
+    val received = (0 until 100).map { connection.readRequest(10_000).id!! }
+
+    assertThat(received).isEqualTo((0L until 100L).toList())
+    assertThat(connection.isDead()).isFalse()
+  }
+
+  @Test
+  fun `readers are woken up when the connection closes`() {
+    val connection = connect(maxIncomingRequests = 10)
+
+    val closed = CountDownLatch(1)
+    Thread {
+      try {
+        connection.readRequest(30_000)
+      } catch (e: IOException) {
+        closed.countDown()
+      }
+    }.start()
+
+    Thread.sleep(100)
+    connection.disconnect()
+
+    assertThat(closed.await(5, TimeUnit.SECONDS)).isTrue()
+  }
+
+  @Test
+  fun `a queue left full fails the connection`() {
+    serverListener.answerRequests = false
+    val connection = connect(maxIncomingRequests = 1)
+    val pending = connection.sendRequest(request(0), 30)
+    serverListener.awaitRequests(1)
+
+    serverListener.push(10)
+
+    val error = runCatching { pending.blockingGet() }.exceptionOrNull()?.let { it.cause ?: it }
+    assertThat(error).isNotNull().isInstanceOf(IOException::class)
+    assertThat(connection.isDead()).isTrue()
+  }
+
+  @Test
+  fun `interrupting a reader waiting on a full queue fails the connection`() {
+    serverListener.answerRequests = false
+    val connection = connect(maxIncomingRequests = 1)
+    val pending = connection.sendRequest(request(0), 30)
+    serverListener.awaitRequests(1)
+
+    serverListener.push(10)
+
+    val reader = awaitThreadIn("onMessage")
+    val start = System.currentTimeMillis()
+    reader.interrupt()
+
+    val error = runCatching { pending.blockingGet() }.exceptionOrNull()?.let { it.cause ?: it }
+    assertThat(error).isNotNull().isInstanceOf(InterruptedIOException::class)
+    assertThat(connection.isDead()).isTrue()
+
+    // Sooner than the queue would have given up on its own
+    assertThat(System.currentTimeMillis() - start < 5_000).isTrue()
+  }
+
+  @Test
+  fun `a reconnected connection isn't closed by the previous one`() {
+    val connection = connect(maxIncomingRequests = 10)
+    connection.disconnect()
+
+    val secondListener = ServerListener()
+    server.enqueue(MockResponse().withWebSocketUpgrade(secondListener))
+    awaitConnected(connection)
+
+    // Give the first socket's close time to come back from the server
+    Thread.sleep(500)
+    secondListener.push(1)
+
+    assertThat(connection.readRequest(10_000).id).isEqualTo(0L)
+  }
+
+  @Test
+  fun `pending requests fail when the server goes away`() {
+    serverListener.answerRequests = false
+    val connection = connect(maxIncomingRequests = 10)
+
+    val responses = (0L until 10L).map { connection.sendRequest(request(it), 30) }
+    serverListener.awaitRequests(10)
+    serverListener.closeFromServer()
+
+    // blockingGet() wraps checked exceptions
+    val errors = responses.map { single -> runCatching { single.blockingGet() }.exceptionOrNull()?.let { it.cause ?: it }?.javaClass }
+    assertThat(errors.toSet()).isEqualTo(setOf(SocketException::class.java))
+  }
+
+  private fun connect(maxIncomingRequests: Int): OkHttpWebSocketConnection {
+    val connection = OkHttpWebSocketConnection(
+      "test",
+      configuration(server.url("/").toString().removeSuffix("/")),
+      Optional.empty(),
+      "test-agent",
+      NoopHealthMonitor,
+      "",
+      false,
+      maxIncomingRequests
+    )
+
+    awaitConnected(connection)
+
+    return connection
+  }
+
+  private fun awaitConnected(connection: OkHttpWebSocketConnection) {
+    connection.connect()
+      .filter { it == WebSocketConnectionState.CONNECTED }
+      .timeout(10, TimeUnit.SECONDS)
+      .blockingFirst()
+  }
+
+  /** Finds the thread that's currently inside [OkHttpWebSocketConnection] in [method], which for listener callbacks is OkHttp's reader thread. */
+  private fun awaitThreadIn(method: String): Thread {
+    val deadline = System.currentTimeMillis() + 10_000
+    while (System.currentTimeMillis() < deadline) {
+      val thread = Thread.getAllStackTraces().entries.firstOrNull { (_, stack) ->
+        stack.any { it.className == OkHttpWebSocketConnection::class.java.name && it.methodName == method }
+      }?.key
+
+      if (thread != null) {
+        return thread
+      }
+
+      Thread.sleep(10)
+    }
+    throw AssertionError("No thread in $method")
+  }
+
+  private fun request(id: Long): WebSocketRequestMessage {
+    return WebSocketRequestMessage.Builder()
+      .id(id)
+      .verb("GET")
+      .path("/v1/test")
+      .build()
+  }
+
+  private fun configuration(url: String): SignalServiceConfiguration {
+    return SignalServiceConfiguration(
+      signalServiceUrls = arrayOf(SignalServiceUrl(url, TestTls.trustStore)),
+      signalCdnUrlMap = emptyMap(),
+      signalStorageUrls = emptyArray(),
+      signalCdsiUrls = emptyArray(),
+      signalSvr2Urls = emptyArray(),
+      networkInterceptors = emptyList(),
+      socketFactory = SocketFactory.getDefault(),
+      proxySelector = ProxySelector.getDefault(),
+      dns = Dns.SYSTEM,
+      systemHttpProxy = Optional.empty(),
+      zkGroupServerPublicParams = ByteArray(0),
+      genericServerPublicParams = ByteArray(0),
+      backupServerPublicParams = ByteArray(0),
+      censored = false
+    )
+  }
+
+  /**
+   * Answers each request with its own id as the body, and pushes requests at the client on demand.
+   */
+  private class ServerListener : WebSocketListener() {
+    val requestsReceived: MutableSet<Long> = ConcurrentHashMap.newKeySet()
+    private val acks = AtomicInteger()
+
+    @Volatile
+    var answerRequests = true
+
+    @Volatile
+    private var socket: WebSocket? = null
+    private val opened = CountDownLatch(1)
+
+    override fun onOpen(webSocket: WebSocket, response: Response) {
+      socket = webSocket
+      opened.countDown()
+    }
+
+    override fun onClosing(webSocket: WebSocket, code: Int, reason: String) {
+      webSocket.close(1000, null)
+    }
+
+    override fun onMessage(webSocket: WebSocket, bytes: ByteString) {
+      val message = WebSocketMessage.ADAPTER.decode(bytes.toByteArray())
+
+      if (message.type == WebSocketMessage.Type.REQUEST) {
+        val id = message.request!!.id!!
+        requestsReceived += id
+
+        if (answerRequests) {
+          val response = WebSocketResponseMessage.Builder()
+            .id(id)
+            .status(200)
+            .message("OK")
+            .body(id.toString().toByteArray().toByteString())
+            .build()
+
+          webSocket.send(WebSocketMessage.Builder().type(WebSocketMessage.Type.RESPONSE).response(response).build().encode().toByteString())
+        }
+      } else if (message.type == WebSocketMessage.Type.RESPONSE) {
+        acks.incrementAndGet()
+      }
+    }
+
+    fun push(count: Int) {
+      opened.await(10, TimeUnit.SECONDS)
+
+      Thread {
+        repeat(count) {
+          val request = WebSocketRequestMessage.Builder()
+            .id(it.toLong())
+            .verb("PUT")
+            .path("/api/v1/message")
+            .build()
+
+          socket!!.send(WebSocketMessage.Builder().type(WebSocketMessage.Type.REQUEST).request(request).build().encode().toByteString())
+        }
+      }.start()
+    }
+
+    fun closeFromServer() {
+      socket!!.close(1000, "Bye")
+    }
+
+    fun awaitAcks(count: Int): Boolean = awaitCondition { acks.get() >= count }
+
+    fun awaitRequests(count: Int): Boolean = awaitCondition { requestsReceived.size >= count }
+
+    private fun awaitCondition(condition: () -> Boolean): Boolean {
+      val deadline = System.currentTimeMillis() + 10_000
+      while (!condition() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10)
+      }
+      return condition()
+    }
+  }
+
+  private object NoopHealthMonitor : HealthMonitor {
+    override fun onKeepAliveResponse(sentTimestamp: Long, isIdentifiedWebSocket: Boolean) = Unit
+    override fun onMessageError(status: Int, isIdentifiedWebSocket: Boolean) = Unit
+  }
+}
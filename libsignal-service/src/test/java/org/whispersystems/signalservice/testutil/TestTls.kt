@@ -0,0 +1,55 @@
+/*
+ * Copyright 2025 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.testutil
+
+import okhttp3.tls.HandshakeCertificates
+import okhttp3.tls.HeldCertificate
+import org.bouncycastle.jce.provider.BouncyCastleProvider
+import org.whispersystems.signalservice.api.push.TrustStore
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+import java.net.InetAddress
+import java.security.KeyStore
+import java.security.Security
+
+/**
+ * A self-signed certificate for a local [okhttp3.mockwebserver.MockWebServer], and a [TrustStore] that trusts it, so that our clients can be
+ * tested with the same TLS configuration they use against the real service.
+ */
+object TestTls {
+
+  private const val PASSWORD = "whisper"
+
+  init {
+    // Our trust stores are BKS key stores
+    Security.addProvider(BouncyCastleProvider())
+  }
+
+  private val certificate: HeldCertificate = HeldCertificate.Builder()
+    .addSubjectAlternativeName("localhost")
+    .addSubjectAlternativeName(InetAddress.getByName("localhost").canonicalHostName)
+    .build()
+
+  /** Pass to [okhttp3.mockwebserver.MockWebServer.useHttps]. */
+  val serverCertificates: HandshakeCertificates = HandshakeCertificates.Builder()
+    .heldCertificate(certificate)
+    .build()
+
+  val trustStore: TrustStore = object : TrustStore {
+    override fun getKeyStoreInputStream(): InputStream {
+      val keyStore = KeyStore.getInstance("BKS")
+      keyStore.load(null, null)
+      keyStore.setCertificateEntry("test", certificate.certificate)
+
+      val out = ByteArrayOutputStream()
+      keyStore.store(out, PASSWORD.toCharArray())
+      return ByteArrayInputStream(out.toByteArray())
+    }
+
+    override fun getKeyStorePassword(): String = PASSWORD
+  }
+}